@@ -0,0 +1,220 @@
+package nl.jvdkolk.klaversjassentrainer.codegen;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Build-time compiler of a trained {@code model.txt} into Java source: runs in the generate-sources phase as a
+ * single-file program ({@code java ModelCodeGenerator.java ...}), so it depends on nothing but the JDK and parses the
+ * text format of {@code NeuralNetwork#save} itself.
+ * <p>
+ * Output is the class {@code train.generated.CompiledPolicyNetwork} with the model dimensions as constants, so the
+ * JIT sees constant trip counts, and the inner products unrolled by four. Summation order is the same as in
+ * {@code NeuralNetwork#forward}, so both give bit-identical probabilities. The weights go to a binary resource next to
+ * the class, in the layout read by {@code CompiledNetwork#readWeights}.
+ * <p>
+ * Usage: {@code ModelCodeGenerator <model.txt> <generated-sources-dir> <generated-resources-dir>}. A missing model
+ * file is not an error: nothing is generated and the service interprets whatever model it finds at runtime. Neither
+ * is a pruned model ({@code SparseNetwork}), whose forward pass is already specialized to its non-zero weights.
+ */
+public final class ModelCodeGenerator {
+    private static final String PACKAGE = "nl.jvdkolk.klaversjassentrainer.train.generated";
+    private static final String CLASS = "CompiledPolicyNetwork";
+    private static final int MAGIC = 0x4B4A434D; // "KJCM"
+    private static final int VERSION = 1;
+    private static final int UNROLL = 4;
+
+    private ModelCodeGenerator() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: ModelCodeGenerator <model.txt> <generated-sources-dir> <generated-resources-dir>");
+            System.exit(2);
+        }
+        Path model = Path.of(args[0]);
+        if (!Files.exists(model)) {
+            System.out.println("[model-codegen] No model at " + model + ", nothing to compile");
+            return;
+        }
+        byte[] text = Files.readAllBytes(model);
+        List<String> lines = new String(text, StandardCharsets.UTF_8).lines().toList();
+        String header = lines.isEmpty() ? "" : lines.get(0);
+        if (header.startsWith("# model sparse")) {
+            System.out.println("[model-codegen] " + model + " is a pruned (sparse) model, served as is");
+            return;
+        }
+        if (!header.startsWith("# model nn")) throw new IOException("Unrecognized model header: " + header);
+        int input = dim(header, "input");
+        int hidden = dim(header, "hidden");
+        int output = dim(header, "output");
+
+        int[] line = {1};
+        double[] w1 = matrix(lines, line, "W1", hidden, input);
+        double[] b1 = matrix(lines, line, "b1", 1, hidden);
+        double[] w2 = matrix(lines, line, "W2", output, hidden);
+        double[] b2 = matrix(lines, line, "b2", 1, output);
+
+        String dir = PACKAGE.replace('.', '/');
+        Path weights = Path.of(args[2], dir, CLASS + ".bin");
+        Files.createDirectories(weights.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(weights), 1 << 16))) {
+            for (int v : new int[]{MAGIC, VERSION, input, hidden, output}) out.writeInt(Integer.reverseBytes(v));
+            for (double[] w : new double[][]{w1, b1, w2, b2}) {
+                for (double v : w) out.writeLong(Long.reverseBytes(Double.doubleToRawLongBits(v)));
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(text);
+        Path source = Path.of(args[1], dir, CLASS + ".java");
+        Files.createDirectories(source.getParent());
+        Files.writeString(source, source(model.getFileName().toString(), crc.getValue(), input, hidden, output));
+        System.out.printf(Locale.ROOT, "[model-codegen] Compiled %s (%d/%d/%d) to %s%n", model, input, hidden, output, source);
+    }
+
+    private static String source(String modelName, long crc, int input, int hidden, int output) {
+        return """
+                package %1$s;
+
+                import nl.jvdkolk.klaversjassentrainer.train.CompiledNetwork;
+                import nl.jvdkolk.klaversjassentrainer.train.PolicyNetwork;
+
+                import java.io.IOException;
+                import java.io.UncheckedIOException;
+
+                /** Generated by ModelCodeGenerator from %3$s at build time; do not edit. */
+                public final class %2$s implements PolicyNetwork {
+                    public static final long SOURCE_CRC32 = %4$dL;
+                    public static final int INPUT = %5$d;
+                    public static final int HIDDEN = %6$d;
+                    public static final int OUTPUT = %7$d;
+
+                    private static final double[] W1;
+                    private static final double[] B1;
+                    private static final double[] W2;
+                    private static final double[] B2;
+
+                    static {
+                        try {
+                            double[][] w = CompiledNetwork.readWeights(
+                                    %2$s.class.getResourceAsStream("%2$s.bin"), INPUT, HIDDEN, OUTPUT);
+                            W1 = w[0];
+                            B1 = w[1];
+                            W2 = w[2];
+                            B2 = w[3];
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+
+                    @Override
+                    public int getInputSize() { return INPUT; }
+
+                    @Override
+                    public int getOutputSize() { return OUTPUT; }
+
+                    @Override
+                    public double[] forward(double[] x) {
+                        double[] h = hidden(x, new double[HIDDEN]);
+                        double[] o = new double[OUTPUT];
+                        for (int i = 0, r = 0; i < OUTPUT; i++, r += HIDDEN) {
+                            double sum = B2[i];
+                %9$s
+                            o[i] = sum;
+                        }
+                        double max = Double.NEGATIVE_INFINITY;
+                        for (int i = 0; i < OUTPUT; i++) max = Math.max(max, o[i]);
+                        double sumExp = 0.0;
+                        for (int i = 0; i < OUTPUT; i++) {
+                            o[i] = Math.exp(o[i] - max);
+                            sumExp += o[i];
+                        }
+                        for (int i = 0; i < OUTPUT; i++) o[i] /= sumExp;
+                        return o;
+                    }
+
+                    @Override
+                    public void logits(double[] x, int mask, double[] logits) {
+                        logits(x, mask, logits, new double[HIDDEN]);
+                    }
+
+                    @Override
+                    public int scratchSize() { return HIDDEN; }
+
+                    @Override
+                    public void logits(double[] x, int mask, double[] logits, double[] scratch) {
+                        double[] h = hidden(x, scratch);
+                        for (int m = mask; m != 0; m &= m - 1) {
+                            int i = Integer.numberOfTrailingZeros(m);
+                            int r = i * HIDDEN;
+                            double sum = B2[i];
+                %9$s
+                            logits[i] = sum;
+                        }
+                    }
+
+                    private static double[] hidden(double[] x, double[] h) {
+                        if (x.length != INPUT) throw new IllegalArgumentException("Expected " + INPUT + " inputs, got " + x.length);
+                        for (int i = 0, r = 0; i < HIDDEN; i++, r += INPUT) {
+                            double sum = B1[i];
+                %8$s
+                            h[i] = Math.tanh(sum);
+                        }
+                        return h;
+                    }
+                }
+                """.formatted(PACKAGE, CLASS, modelName, crc, input, hidden, output,
+                dot("W1", "x", input), dot("W2", "h", hidden));
+    }
+
+    // sum += w[r + j] * v[j] for j < n, unrolled by UNROLL with the tail written out
+    private static String dot(String w, String v, int n) {
+        String indent = " ".repeat(12);
+        StringBuilder sb = new StringBuilder();
+        int body = n - n % UNROLL;
+        if (body > 0) {
+            sb.append(indent).append("for (int j = 0; j < ").append(body).append("; j += ").append(UNROLL).append(") {\n");
+            for (int k = 0; k < UNROLL; k++) {
+                String j = k == 0 ? "j" : "j + " + k;
+                sb.append(indent).append("    sum += ").append(w).append("[r + ").append(j).append("] * ")
+                        .append(v).append('[').append(j).append("];\n");
+            }
+            sb.append(indent).append("}\n");
+        }
+        for (int j = body; j < n; j++) {
+            sb.append(indent).append("sum += ").append(w).append("[r + ").append(j).append("] * ")
+                    .append(v).append('[').append(j).append("];\n");
+        }
+        return sb.toString().stripTrailing();
+    }
+
+    private static int dim(String header, String key) throws IOException {
+        for (String token : header.split("\\s+")) {
+            if (token.startsWith(key + "=")) return Integer.parseInt(token.substring(key.length() + 1));
+        }
+        throw new IOException("Missing dimension: " + key);
+    }
+
+    // the section called name followed by rows lines of cols comma-separated values, flattened row-major
+    private static double[] matrix(List<String> lines, int[] line, String name, int rows, int cols) throws IOException {
+        if (line[0] >= lines.size() || !lines.get(line[0]).trim().equals(name)) {
+            throw new IOException("Expected section '" + name + "' at line " + (line[0] + 1));
+        }
+        line[0]++;
+        double[] out = new double[rows * cols];
+        for (int i = 0; i < rows; i++, line[0]++) {
+            if (line[0] >= lines.size()) throw new IOException("Unexpected EOF in section " + name);
+            String[] parts = lines.get(line[0]).split(",");
+            if (parts.length != cols) throw new IOException("Expected " + cols + " values, got " + parts.length);
+            for (int j = 0; j < cols; j++) out[i * cols + j] = Double.parseDouble(parts[j]);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,133 @@
+package nl.jvdkolk.klaversjassentrainer.bench;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardController;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardResponse;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.service.BestCardMetrics;
+import nl.jvdkolk.klaversjassentrainer.service.DecisionCacheService;
+import nl.jvdkolk.klaversjassentrainer.service.EndgameService;
+import nl.jvdkolk.klaversjassentrainer.service.InferenceService;
+import nl.jvdkolk.klaversjassentrainer.service.LeadBookService;
+import nl.jvdkolk.klaversjassentrainer.service.LegalityService;
+import nl.jvdkolk.klaversjassentrainer.service.ModelClient;
+import nl.jvdkolk.klaversjassentrainer.service.MonteCarloService;
+import nl.jvdkolk.klaversjassentrainer.service.StageTimings;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full {@link BestCardController#bestCard} call with the shipped model, wired without a Spring context, and the
+ * same call for a position whose legal cards are equivalent, which is answered without the model. With
+ * {@code decisionCache} the repeated state is answered from the shared decision cache after the first call. Setup
+ * checks that the model request passes the rule-based, lead-book and endgame tiers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BestCardBenchmark {
+    @Param({"false", "true"})
+    public boolean decisionCache;
+
+    private BestCardController controller;
+    private MonteCarloService monteCarlo;
+    private EndgameService endgame;
+    private LeadBookService leadBook;
+    private ModelClient remote;
+    private DecisionCacheService cache;
+    private InferenceService inference;
+    private Path cacheFile;
+    private BestCardRequest request;
+    private BestCardRequest equivalentRequest;
+
+    @Setup
+    public void setup() throws IOException {
+        TrainerProperties props = new TrainerProperties();
+        cacheFile = Files.createTempFile("bench-decisions", ".kjdc");
+        Files.delete(cacheFile);
+        props.getDecisionCache().setEnabled(decisionCache);
+        props.getDecisionCache().setFile(cacheFile.toString());
+        props.getDecisionCache().setMegabytes(1);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        endgame = new EndgameService(props, registry);
+        leadBook = new LeadBookService(props, registry);
+        remote = new ModelClient(props, registry);
+        cache = new DecisionCacheService(props, registry);
+        inference = new InferenceService(props, endgame, leadBook, remote, cache);
+        monteCarlo = new MonteCarloService(props, inference, registry);
+        LegalityService legality = new LegalityService();
+        controller = new BestCardController(legality, inference, monteCarlo,
+                new BestCardMetrics(registry, inference, props), props);
+
+        // first trick, hearts led by the partner: KH, 10H and 8H are legal and worth 4, 10 and 0
+        request = new BestCardRequest();
+        request.setHand(List.of("KH", "10H", "8H", "JD", "AC", "QS", "9S", "7C"));
+        BestCardRequest.Play p1 = new BestCardRequest.Play();
+        p1.setPlayer(1);
+        p1.setCard("AH");
+        BestCardRequest.Play p2 = new BestCardRequest.Play();
+        p2.setPlayer(2);
+        p2.setCard("7H");
+        request.setTable(List.of(p1, p2));
+        request.setTrump("D");
+        request.setPlayerPosition(3);
+        request.setLeaderPosition(1);
+        request.setPartnerPosition(1);
+        request.setRequestId("bench");
+        List<String> legal = legality.computeLegalCards(request.getHand(), request.getTable(), request.getTrump(),
+                request.getPartnerPosition(), request.getLeaderPosition());
+        if (legal.size() < 2
+                || inference.pickTrivial(request, request.getTable(), legal, 3, new StageTimings()) != null
+                || leadBook.applies(request, request.getTable())
+                || endgame.inRange(request)) {
+            throw new IllegalStateException("Benchmark request " + legal + " does not reach the scored tiers");
+        }
+
+        // spade 9, 8 and 7 are worth nothing and rank next to each other: any of them will do
+        equivalentRequest = new BestCardRequest();
+        equivalentRequest.setHand(List.of("9S", "8S", "7S", "JH", "AC", "QC", "KH", "10D"));
+        BestCardRequest.Play lead = new BestCardRequest.Play();
+        lead.setPlayer(1);
+        lead.setCard("AS");
+        equivalentRequest.setTable(List.of(lead));
+        equivalentRequest.setTrump("D");
+        equivalentRequest.setPlayerPosition(2);
+        equivalentRequest.setLeaderPosition(1);
+        equivalentRequest.setPartnerPosition(0);
+        equivalentRequest.setRequestId("bench-equivalent");
+    }
+
+    @TearDown
+    public void tearDown() {
+        monteCarlo.shutdown();
+        endgame.close();
+        leadBook.close();
+        remote.close();
+        cache.close();
+        try {
+            Files.deleteIfExists(cacheFile);
+        } catch (IOException e) {
+            // temporary file, left behind
+        }
+    }
+
+    @Benchmark
+    public ResponseEntity<BestCardResponse> bestCard() {
+        return controller.bestCard(request);
+    }
+
+    @Benchmark
+    public ResponseEntity<BestCardResponse> bestCardEquivalent() {
+        return controller.bestCard(equivalentRequest);
+    }
+}
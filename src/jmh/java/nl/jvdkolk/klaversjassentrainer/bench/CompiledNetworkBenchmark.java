@@ -0,0 +1,51 @@
+package nl.jvdkolk.klaversjassentrainer.bench;
+
+import nl.jvdkolk.klaversjassentrainer.train.CardUtil;
+import nl.jvdkolk.klaversjassentrainer.train.CompiledNetwork;
+import nl.jvdkolk.klaversjassentrainer.train.NeuralNetwork;
+import nl.jvdkolk.klaversjassentrainer.train.PolicyNetwork;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Forward pass of the shipped model: interpreted {@link NeuralNetwork} against the build-time compiled class. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledNetworkBenchmark {
+    private NeuralNetwork interpreted;
+    private PolicyNetwork compiled;
+    private final double[] x = new double[164];
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] model;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("model/model.txt")) {
+            if (in == null) throw new IllegalStateException("model/model.txt not on classpath");
+            model = in.readAllBytes();
+        }
+        interpreted = NeuralNetwork.load(new ByteArrayInputStream(model));
+        compiled = CompiledNetwork.loadFor(model);
+        if (compiled == null) throw new IllegalStateException("No compiled model in this build");
+        List<String> hand = List.of("JH", "9H", "AC", "10S", "7D", "QC", "8S", "7C");
+        int[] trick = {CardUtil.cardIndex("AD"), CardUtil.cardIndex("9H"), 0, 0};
+        CardUtil.encodeInto(x, CardUtil.toMask(hand), trick, 2, 2);
+    }
+
+    @Benchmark
+    public double[] interpreted() {
+        return interpreted.forward(x);
+    }
+
+    @Benchmark
+    public double[] compiled() {
+        return compiled.forward(x);
+    }
+}
@@ -0,0 +1,48 @@
+package nl.jvdkolk.klaversjassentrainer.bench;
+
+import nl.jvdkolk.klaversjassentrainer.train.CardUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Feature encoding as done per request ({@code CardUtil.encode*}) versus the mask-based buffer variant. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+    private final List<String> hand = List.of("JH", "9H", "AC", "10S", "7D", "QC", "8S", "7C");
+    private final List<String> trick = List.of("AD", "9H");
+    private final int handMask = CardUtil.toMask(hand);
+    private final int[] trickCards = {CardUtil.cardIndex("AD"), CardUtil.cardIndex("9H"), 0, 0};
+    private final double[] x = new double[164];
+
+    @Benchmark
+    public double[] encodeHand() {
+        return CardUtil.encodeHand(hand);
+    }
+
+    @Benchmark
+    public double[] encodeTrick() {
+        return CardUtil.encodeTrick(trick);
+    }
+
+    @Benchmark
+    public double[] encodeTrickOrdered() {
+        return CardUtil.encodeTrickOrdered(trick);
+    }
+
+    @Benchmark
+    public double[] encodeTrump() {
+        return CardUtil.encodeTrump("H");
+    }
+
+    @Benchmark
+    public double[] encodeInto() {
+        CardUtil.encodeInto(x, handMask, trickCards, 2, 2);
+        return x;
+    }
+}
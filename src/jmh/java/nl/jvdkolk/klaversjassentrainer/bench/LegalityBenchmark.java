@@ -0,0 +1,106 @@
+package nl.jvdkolk.klaversjassentrainer.bench;
+
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
+import nl.jvdkolk.klaversjassentrainer.service.LegalityService;
+import nl.jvdkolk.klaversjassentrainer.train.CardUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LegalityService} per rule branch, list-based and mask-based; {@code mixed} cycles through generated positions
+ * of every stage of a deal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LegalityBenchmark {
+    @Param({"lead", "followSuit", "overtrump", "partnerWinning", "mixed"})
+    public String branch;
+
+    private final LegalityService legality = new LegalityService();
+    private List<String> hand;
+    private List<BestCardRequest.Play> table;
+    private String trump;
+    private int leader;
+    private int handMask;
+    private int[] trick;
+    private int trumpIndex;
+    private Position[] positions;
+    private int next;
+
+    private record Position(List<String> hand, List<BestCardRequest.Play> table, String trump, int leader,
+                            int handMask, int[] trick, int trumpIndex) {}
+
+    @Setup
+    public void setup() {
+        if ("mixed".equals(branch)) {
+            PositionGenerator generator = new PositionGenerator(42L, PositionGenerator.Stages.UNIFORM);
+            positions = new Position[1024];
+            for (int i = 0; i < positions.length; i++) {
+                PlayState s = generator.next();
+                String[] cards = new String[s.trickSize()];
+                for (int k = 0; k < cards.length; k++) cards[k] = CardUtil.ALL_CARDS.get(s.trickCard(k));
+                positions[i] = new Position(CardUtil.toCards(generator.hand()), plays(s.leader(), cards),
+                        CardUtil.SUITS[s.trump()], s.leader(), generator.hand(), s.trick().clone(), s.trump());
+            }
+            return;
+        }
+        trump = "H";
+        switch (branch) {
+            case "lead" -> { hand = List.of("AH", "KH", "QC", "10C", "AD", "KD", "9S", "8S"); leader = 0; table = plays(0); }
+            case "followSuit" -> { hand = List.of("AC", "KH", "7H", "9D", "8S", "QC", "10C", "7S"); leader = 1; table = plays(1, "AH"); }
+            case "overtrump" -> { hand = List.of("JH", "10H", "KH", "AC", "10S", "QC", "8S", "7C"); leader = 1; table = plays(1, "AD", "9H"); }
+            case "partnerWinning" -> { hand = List.of("KH", "QC", "10C", "9S", "8S", "7S", "AC", "7C"); leader = 1; table = plays(1, "7D", "AD", "8D"); }
+            default -> throw new IllegalArgumentException(branch);
+        }
+        handMask = CardUtil.toMask(hand);
+        trick = new int[4];
+        for (int i = 0; i < table.size(); i++) trick[i] = CardUtil.cardIndex(table.get(i).getCard());
+        trumpIndex = CardUtil.suitIndex(trump);
+        int listed = CardUtil.toMask(legality.computeLegalCards(hand, table, trump, partner(leader, table.size()), leader));
+        if (listed != LegalityService.legalMask(handMask, trick, table.size(), trumpIndex)) {
+            throw new IllegalStateException("List and mask legality disagree for " + branch);
+        }
+    }
+
+    private static int partner(int leader, int trickSize) {
+        return (leader + trickSize + 2) & 3;
+    }
+
+    private static List<BestCardRequest.Play> plays(int leader, String... cards) {
+        List<BestCardRequest.Play> out = new ArrayList<>();
+        for (int i = 0; i < cards.length; i++) {
+            BestCardRequest.Play p = new BestCardRequest.Play();
+            p.setPlayer((leader + i) % 4);
+            p.setCard(cards[i]);
+            out.add(p);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public List<String> computeLegalCards() {
+        if (positions != null) {
+            Position p = positions[next++ & (positions.length - 1)];
+            return legality.computeLegalCards(p.hand(), p.table(), p.trump(), partner(p.leader(), p.table().size()), p.leader());
+        }
+        return legality.computeLegalCards(hand, table, trump, partner(leader, table.size()), leader);
+    }
+
+    @Benchmark
+    public int legalMask() {
+        if (positions != null) {
+            Position p = positions[next++ & (positions.length - 1)];
+            return LegalityService.legalMask(p.handMask(), p.trick(), p.table().size(), p.trumpIndex());
+        }
+        return LegalityService.legalMask(handMask, trick, table.size(), trumpIndex);
+    }
+}
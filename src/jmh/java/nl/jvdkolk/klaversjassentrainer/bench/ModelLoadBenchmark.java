@@ -0,0 +1,51 @@
+package nl.jvdkolk.klaversjassentrainer.bench;
+
+import nl.jvdkolk.klaversjassentrainer.train.CompiledNetwork;
+import nl.jvdkolk.klaversjassentrainer.train.NeuralNetwork;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the shipped {@code model/model.txt} against what startup does instead when the build compiled it: checksum
+ * the text and read the binary weights. The bytes are read once so only the work on them is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelLoadBenchmark {
+    private static final String WEIGHTS = CompiledNetwork.CLASS_NAME.replace('.', '/') + ".bin";
+
+    private byte[] model;
+    private byte[] weights; // null when the build compiled no model
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("model/model.txt")) {
+            if (in == null) throw new IllegalStateException("model/model.txt not on classpath");
+            model = in.readAllBytes();
+        }
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(WEIGHTS)) {
+            weights = in == null ? null : in.readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public NeuralNetwork load() throws IOException {
+        return NeuralNetwork.load(new ByteArrayInputStream(model));
+    }
+
+    @Benchmark
+    public double[][] loadCompiled(Blackhole bh) throws IOException {
+        if (weights == null) throw new IllegalStateException("No compiled model in this build");
+        bh.consume(CompiledNetwork.checksum(model));
+        return CompiledNetwork.readWeights(new ByteArrayInputStream(weights), 164, 128, 32);
+    }
+}
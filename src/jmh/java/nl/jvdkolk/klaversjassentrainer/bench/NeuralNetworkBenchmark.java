@@ -0,0 +1,64 @@
+package nl.jvdkolk.klaversjassentrainer.bench;
+
+import nl.jvdkolk.klaversjassentrainer.train.CardUtil;
+import nl.jvdkolk.klaversjassentrainer.train.NeuralNetwork;
+import nl.jvdkolk.klaversjassentrainer.train.PolicyNetwork;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inference (full softmax, and legal-masked logits with top-3 selection as served) and one masked SGD step at several
+ * hidden sizes, on the serving input layout (164 -> hidden -> 32).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeuralNetworkBenchmark {
+    @Param({"32", "64", "128", "256"})
+    public int hidden;
+
+    private NeuralNetwork nn;
+    private final double[] x = new double[164];
+    private final boolean[] allowed = new boolean[32];
+    private final double[] logits = new double[32];
+    private final int[] top = new int[3];
+    private double[] scratch;
+    private int legal;
+    private int target;
+
+    @Setup
+    public void setup() {
+        nn = new NeuralNetwork(164, hidden, 32, 42L);
+        scratch = new double[nn.scratchSize()];
+        List<String> hand = List.of("JH", "9H", "AC", "10S", "7D", "QC", "8S", "7C");
+        int[] trick = {CardUtil.cardIndex("AD"), CardUtil.cardIndex("9H"), 0, 0};
+        CardUtil.encodeInto(x, CardUtil.toMask(hand), trick, 2, 2);
+        for (String c : hand) allowed[CardUtil.cardIndex(c)] = true;
+        target = CardUtil.cardIndex("JH");
+        legal = CardUtil.toMask(hand); // ranked over the whole hand
+    }
+
+    @Benchmark
+    public double[] forward() {
+        return nn.forward(x);
+    }
+
+    @Benchmark
+    public int[] rankLegal() {
+        nn.logits(x, legal, logits, scratch);
+        PolicyNetwork.topK(logits, legal, top);
+        return top;
+    }
+
+    @Benchmark
+    public NeuralNetwork trainStepMasked() {
+        // tiny learning rate keeps the weights (and so the timing) stable across iterations
+        nn.trainStepMasked(x, target, allowed, 1e-9);
+        return nn;
+    }
+}
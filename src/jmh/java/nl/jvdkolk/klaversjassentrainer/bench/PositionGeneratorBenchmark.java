@@ -0,0 +1,36 @@
+package nl.jvdkolk.klaversjassentrainer.bench;
+
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** {@link PositionGenerator#next} for every stage of a deal, and for opening positions (eight cards) only. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionGeneratorBenchmark {
+    @Param({"uniform", "opening"})
+    public String stages;
+
+    private PositionGenerator generator;
+
+    @Setup
+    public void setup() {
+        PositionGenerator.Stages s = switch (stages) {
+            case "uniform" -> PositionGenerator.Stages.UNIFORM;
+            case "opening" -> new PositionGenerator.Stages(new double[]{0, 0, 0, 0, 0, 0, 0, 1}, new double[]{1, 1, 1, 1});
+            default -> throw new IllegalArgumentException(stages);
+        };
+        generator = new PositionGenerator(42L, s);
+    }
+
+    @Benchmark
+    public int next() {
+        generator.next();
+        return generator.legal();
+    }
+}
@@ -1,55 +1,133 @@
 package nl.jvdkolk.klaversjassentrainer.api;
 
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.service.BestCardMetrics;
 import nl.jvdkolk.klaversjassentrainer.service.InferenceService;
 import nl.jvdkolk.klaversjassentrainer.service.LegalityService;
+import nl.jvdkolk.klaversjassentrainer.service.ModelClient;
+import nl.jvdkolk.klaversjassentrainer.service.MonteCarloService;
+import nl.jvdkolk.klaversjassentrainer.service.StageTimings;
+import nl.jvdkolk.klaversjassentrainer.train.CardUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/v1")
 public class BestCardController {
     private static final Logger log = LoggerFactory.getLogger(BestCardController.class);
+    private static final Set<String> SCORING_MODES = Set.of("simple", MonteCarloService.POINTS, MonteCarloService.WIN_TRICK);
 
     private final LegalityService legality;
     private final InferenceService inference;
+    private final MonteCarloService monteCarlo;
+    private final BestCardMetrics metrics;
+    private final boolean serverTiming;
+    private final long requestBudgetMs;
 
-    public BestCardController(LegalityService legality, InferenceService inference) {
+    public BestCardController(LegalityService legality, InferenceService inference, MonteCarloService monteCarlo,
+                              BestCardMetrics metrics, TrainerProperties props) {
         this.legality = legality;
         this.inference = inference;
+        this.monteCarlo = monteCarlo;
+        this.metrics = metrics;
+        this.serverTiming = props.getObservability().isServerTiming();
+        this.requestBudgetMs = props.getModel().getRequestBudgetMs();
     }
 
+    public ResponseEntity<BestCardResponse> bestCard(BestCardRequest req) {
+        return bestCard(req, null);
+    }
+
+    /**
+     * @param timeoutMs the caller's remaining time; the answer is due within it and within
+     *                  {@code klaverjas.model.requestBudgetMs}, and remote scoring gets what is left of it
+     */
     @PostMapping("/best-card")
-    public ResponseEntity<BestCardResponse> bestCard(@RequestBody BestCardRequest req) {
+    public ResponseEntity<BestCardResponse> bestCard(@RequestBody BestCardRequest req,
+                                                     @RequestHeader(name = ModelClient.TIMEOUT_HEADER, required = false) Long timeoutMs) {
+        // requestId in the MDC tags log lines and the JFR events of the services
+        MDC.put("requestId", req.getRequestId());
+        try {
+            StageTimings timings = new StageTimings(req.getRequestId());
+            long budgetMs = timeoutMs != null && timeoutMs > 0 ? Math.min(timeoutMs, requestBudgetMs) : requestBudgetMs;
+            timings.deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs));
+            return handle(req, timings);
+        } finally {
+            MDC.remove("requestId");
+        }
+    }
+
+    private ResponseEntity<BestCardResponse> handle(BestCardRequest req, StageTimings timings) {
+        long t = System.nanoTime();
         // Basic validation
         if (req.getHand() == null || req.getHand().isEmpty()) {
-            return ResponseEntity.badRequest().build();
+            return badRequest();
         }
-        if (req.getTrump() == null || req.getTrump().isBlank()) {
-            return ResponseEntity.badRequest().build();
+        if (req.getTrump() == null || !CardUtil.isSuit(req.getTrump())) {
+            return badRequest();
+        }
+        // the simulation and search tiers index cards and would fail on unknown ones
+        if (!req.getHand().stream().allMatch(CardUtil::isCard) || !validPlays(req.getTable())) {
+            return badRequest();
+        }
+        if (req.getHistory() != null
+                && !req.getHistory().stream().allMatch(trick -> trick == null || validPlays(trick.getPlays()))) {
+            return badRequest();
         }
         if (req.getPlayerPosition() == null || req.getPartnerPosition() == null || req.getLeaderPosition() == null
                 || req.getPlayerPosition() < 0 || req.getPlayerPosition() > 3
                 || req.getPartnerPosition() < 0 || req.getPartnerPosition() > 3
                 || req.getLeaderPosition() < 0 || req.getLeaderPosition() > 3) {
-            return ResponseEntity.badRequest().build();
+            return badRequest();
+        }
+        if (req.getBidderPosition() != null && (req.getBidderPosition() < 0 || req.getBidderPosition() > 3)) {
+            return badRequest();
         }
+        String scoringMode = Optional.ofNullable(req.getScoringMode()).orElse("simple");
+        if (!SCORING_MODES.contains(scoringMode)) {
+            return badRequest();
+        }
+        t = timings.since(StageTimings.Stage.VALIDATION, t);
 
         List<BestCardRequest.Play> table = Optional.ofNullable(req.getTable()).orElse(List.of());
         // Compute legal cards
         List<String> legal = legality.computeLegalCards(req.getHand(), table, req.getTrump(), req.getPartnerPosition(), req.getLeaderPosition());
+        t = timings.since(StageTimings.Stage.LEGALITY, t);
         if (legal.isEmpty()) {
+            metrics.rejected(422);
             return ResponseEntity.unprocessableEntity().build();
         }
 
-        // Score candidates with model (or fallback)
-        InferenceService.Result result = inference.pickBest(req.getHand(), table, req.getTrump(), legal, Optional.ofNullable(req.getTopK()).orElse(3));
+        // Score candidates: forced and equivalent moves by rule, then Monte Carlo for points/winTrick, otherwise (or
+        // if the state can't be simulated) lead book, exact endgame search, model or fallback; the endgame search
+        // maximizes points, so it also replaces Monte Carlo there
+        int topK = Optional.ofNullable(req.getTopK()).orElse(3);
+        InferenceService.Result result = inference.pickTrivial(req, table, legal, topK, timings);
+        t = System.nanoTime();
+        boolean exactPoints = MonteCarloService.POINTS.equals(scoringMode) && inference.solvesExactly(req);
+        if (result == null && monteCarlo.supports(scoringMode) && !exactPoints) {
+            result = monteCarlo.pickBest(req, table, legal, topK);
+            timings.since(StageTimings.Stage.MONTE_CARLO, t);
+            if (result != null) timings.tier(StageTimings.Tier.MONTE_CARLO);
+        }
+        if (result == null) {
+            result = inference.pickScored(req, table, legal, topK, timings);
+        }
+        if ("fallback".equals(result.getModel().get("name"))) {
+            metrics.fallbackUsed();
+        }
 
         BestCardResponse resp = new BestCardResponse();
         resp.setBestCard(result.getBestCard());
@@ -57,6 +135,37 @@ public class BestCardController {
         resp.setLegalCards(legal);
         resp.setModel(result.getModel());
         resp.setRequestId(req.getRequestId());
+
+        metrics.record(timings);
+        log.debug("best-card requestId={} trump={} table={} legal={} best={} scores={} tier={} validation={}us legality={}us scoring={}us",
+                req.getRequestId(), req.getTrump(), table.size(), legal, result.getBestCard(), result.getCandidates().size(),
+                timings.tier() == null ? "-" : timings.tier().tag(),
+                timings.get(StageTimings.Stage.VALIDATION) / 1000, timings.get(StageTimings.Stage.LEGALITY) / 1000,
+                timings.decisionNanos() / 1000);
+        // leave the timings for BestCardTimingFilter, which measures serialization after we return
+        timings.markHandlerEnd();
+        RequestAttributes attrs = RequestContextHolder.getRequestAttributes();
+        if (attrs != null) {
+            attrs.setAttribute(StageTimings.ATTRIBUTE, timings, RequestAttributes.SCOPE_REQUEST);
+        }
+        if (serverTiming) {
+            return ResponseEntity.ok().header("Server-Timing", timings.serverTiming()).body(resp);
+        }
         return ResponseEntity.ok(resp);
     }
+
+    // empty slots ("-", blank or null) are allowed in the table and history
+    private static boolean validPlays(List<BestCardRequest.Play> plays) {
+        if (plays == null) return true;
+        for (BestCardRequest.Play p : plays) {
+            if (p == null || p.getCard() == null || p.getCard().isBlank() || "-".equals(p.getCard())) continue;
+            if (!CardUtil.isCard(p.getCard())) return false;
+        }
+        return true;
+    }
+
+    private ResponseEntity<BestCardResponse> badRequest() {
+        metrics.rejected(400);
+        return ResponseEntity.badRequest().build();
+    }
 }
@@ -5,10 +5,12 @@ import java.util.List;
 public class BestCardRequest {
     private List<String> hand;
     private List<Play> table;
+    private List<Trick> history;
     private String trump; // H/C/D/S
     private Integer playerPosition;
     private Integer leaderPosition;
     private Integer partnerPosition;
+    private Integer bidderPosition; // optional, seat of the player who chose trump
     private String scoringMode;
     private Integer topK;
     private String requestId;
@@ -17,6 +19,8 @@ public class BestCardRequest {
     public void setHand(List<String> hand) { this.hand = hand; }
     public List<Play> getTable() { return table; }
     public void setTable(List<Play> table) { this.table = table; }
+    public List<Trick> getHistory() { return history; }
+    public void setHistory(List<Trick> history) { this.history = history; }
     public String getTrump() { return trump; }
     public void setTrump(String trump) { this.trump = trump; }
     public Integer getPlayerPosition() { return playerPosition; }
@@ -25,6 +29,8 @@ public class BestCardRequest {
     public void setLeaderPosition(Integer leaderPosition) { this.leaderPosition = leaderPosition; }
     public Integer getPartnerPosition() { return partnerPosition; }
     public void setPartnerPosition(Integer partnerPosition) { this.partnerPosition = partnerPosition; }
+    public Integer getBidderPosition() { return bidderPosition; }
+    public void setBidderPosition(Integer bidderPosition) { this.bidderPosition = bidderPosition; }
     public String getScoringMode() { return scoringMode; }
     public void setScoringMode(String scoringMode) { this.scoringMode = scoringMode; }
     public Integer getTopK() { return topK; }
@@ -41,4 +47,20 @@ public class BestCardRequest {
         public String getCard() { return card; }
         public void setCard(String card) { this.card = card; }
     }
+
+    public static class Trick {
+        private Integer leader;
+        private List<Play> plays;
+        private Integer winner;
+        private Integer points;
+
+        public Integer getLeader() { return leader; }
+        public void setLeader(Integer leader) { this.leader = leader; }
+        public List<Play> getPlays() { return plays; }
+        public void setPlays(List<Play> plays) { this.plays = plays; }
+        public Integer getWinner() { return winner; }
+        public void setWinner(Integer winner) { this.winner = winner; }
+        public Integer getPoints() { return points; }
+        public void setPoints(Integer points) { this.points = points; }
+    }
 }
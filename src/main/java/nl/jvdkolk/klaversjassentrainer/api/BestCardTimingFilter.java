@@ -0,0 +1,67 @@
+package nl.jvdkolk.klaversjassentrainer.api;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.service.BestCardMetrics;
+import nl.jvdkolk.klaversjassentrainer.service.StageTimings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times /v1/best-card end to end, and the response serialization that happens after the controller returned.
+ * Requests slower than klaverjas.observability.slowRequestMs are logged (sampled) with their stage breakdown,
+ * request id and start time, for correlation with JFR recordings and client-side traces.
+ */
+@Component
+public class BestCardTimingFilter extends OncePerRequestFilter {
+    private static final Logger log = LoggerFactory.getLogger(BestCardTimingFilter.class);
+
+    private final BestCardMetrics metrics;
+    private final long slowNanos;
+    private final double sampleRate;
+
+    public BestCardTimingFilter(BestCardMetrics metrics, TrainerProperties props) {
+        this.metrics = metrics;
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(props.getObservability().getSlowRequestMs());
+        this.sampleRate = props.getObservability().getSlowRequestSampleRate();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().endsWith("/v1/best-card");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Instant startedAt = Instant.now();
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            long end = System.nanoTime();
+            StageTimings timings = request.getAttribute(StageTimings.ATTRIBUTE) instanceof StageTimings st ? st : null;
+            if (timings != null && timings.handlerEnd() > 0) {
+                timings.add(StageTimings.Stage.SERIALIZATION, end - timings.handlerEnd());
+                metrics.recordSerialization(end - timings.handlerEnd());
+            }
+            metrics.recordRequest(response.getStatus(), end - start);
+            if (end - start > slowNanos && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+                log.warn("Slow best-card request: requestId={} status={} start={} total={}ms stages=[{}] thread={}",
+                        timings == null ? null : timings.requestId(), response.getStatus(), startedAt,
+                        (end - start) / 1_000_000, timings == null ? "" : timings.serverTiming(),
+                        Thread.currentThread().getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package nl.jvdkolk.klaversjassentrainer.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One output line of {@code /v1/analyze}: the recommended versus the played card at one decision, or an error for
+ * the input line (then only {@code line}, {@code gameId} and {@code error} are set).
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DecisionAnalysis {
+    private int line; // 1-based input line of the game
+    private String gameId;
+    private Integer decision; // index of the play in the game
+    private Integer trick;
+    private Integer player;
+    private String played;
+    private String recommended;
+    private Boolean match;
+    private List<String> legalCards;
+    private List<BestCardResponse.Candidate> candidates;
+    private String tier;
+    private String error;
+
+    public static DecisionAnalysis error(int line, String gameId, String error) {
+        DecisionAnalysis a = new DecisionAnalysis();
+        a.setLine(line);
+        a.setGameId(gameId);
+        a.setError(error);
+        return a;
+    }
+
+    public int getLine() { return line; }
+    public void setLine(int line) { this.line = line; }
+    public String getGameId() { return gameId; }
+    public void setGameId(String gameId) { this.gameId = gameId; }
+    public Integer getDecision() { return decision; }
+    public void setDecision(Integer decision) { this.decision = decision; }
+    public Integer getTrick() { return trick; }
+    public void setTrick(Integer trick) { this.trick = trick; }
+    public Integer getPlayer() { return player; }
+    public void setPlayer(Integer player) { this.player = player; }
+    public String getPlayed() { return played; }
+    public void setPlayed(String played) { this.played = played; }
+    public String getRecommended() { return recommended; }
+    public void setRecommended(String recommended) { this.recommended = recommended; }
+    public Boolean getMatch() { return match; }
+    public void setMatch(Boolean match) { this.match = match; }
+    public List<String> getLegalCards() { return legalCards; }
+    public void setLegalCards(List<String> legalCards) { this.legalCards = legalCards; }
+    public List<BestCardResponse.Candidate> getCandidates() { return candidates; }
+    public void setCandidates(List<BestCardResponse.Candidate> candidates) { this.candidates = candidates; }
+    public String getTier() { return tier; }
+    public void setTier(String tier) { this.tier = tier; }
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+}
@@ -0,0 +1,31 @@
+package nl.jvdkolk.klaversjassentrainer.api;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import nl.jvdkolk.klaversjassentrainer.service.GameAnalysisService;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+
+/**
+ * Streaming post-game analysis: NDJSON {@link GameLog} lines in, NDJSON {@link DecisionAnalysis} lines out. The body
+ * is consumed and answered incrementally on the request thread, see {@link GameAnalysisService}.
+ */
+@RestController
+@RequestMapping("/v1")
+public class GameAnalysisController {
+    private final GameAnalysisService analysis;
+
+    public GameAnalysisController(GameAnalysisService analysis) {
+        this.analysis = analysis;
+    }
+
+    @PostMapping(value = "/analyze", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void analyze(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        analysis.analyze(request.getInputStream(), response.getOutputStream());
+    }
+}
@@ -0,0 +1,32 @@
+package nl.jvdkolk.klaversjassentrainer.api;
+
+import java.util.List;
+
+/** One recorded deal for {@code /v1/analyze}: the four hands as dealt and every card played, in order. */
+public class GameLog {
+    private String gameId;
+    private String trump; // H/C/D/S
+    private Integer leader; // seat that led the first trick
+    private Integer bidder; // optional, seat of the player who chose trump
+    private List<List<String>> hands; // by seat
+    private List<String> plays; // seats follow from the leader and the trick winners
+    private List<Integer> seats; // optional, the seats to analyze; all by default
+    private Integer topK;
+
+    public String getGameId() { return gameId; }
+    public void setGameId(String gameId) { this.gameId = gameId; }
+    public String getTrump() { return trump; }
+    public void setTrump(String trump) { this.trump = trump; }
+    public Integer getLeader() { return leader; }
+    public void setLeader(Integer leader) { this.leader = leader; }
+    public Integer getBidder() { return bidder; }
+    public void setBidder(Integer bidder) { this.bidder = bidder; }
+    public List<List<String>> getHands() { return hands; }
+    public void setHands(List<List<String>> hands) { this.hands = hands; }
+    public List<String> getPlays() { return plays; }
+    public void setPlays(List<String> plays) { this.plays = plays; }
+    public List<Integer> getSeats() { return seats; }
+    public void setSeats(List<Integer> seats) { this.seats = seats; }
+    public Integer getTopK() { return topK; }
+    public void setTopK(Integer topK) { this.topK = topK; }
+}
@@ -3,20 +3,222 @@ package nl.jvdkolk.klaversjassentrainer.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.List;
+
 @Configuration
 @ConfigurationProperties(prefix = "klaverjas")
 public class TrainerProperties {
     public static class Training {
+        public static class SelfPlay {
+            private int actors = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            private int updates = 20000;
+            private int batchSize = 32;
+            private int replayCapacity = 4096;
+            private int minReplay = 256;
+            private int publishEvery = 50;
+            private int reportEverySeconds = 10;
+            private int fillTimeoutSeconds = 120; // longest the learner waits for minReplay deals
+
+            public int getActors() { return actors; }
+            public void setActors(int actors) { this.actors = actors; }
+            public int getUpdates() { return updates; }
+            public void setUpdates(int updates) { this.updates = updates; }
+            public int getBatchSize() { return batchSize; }
+            public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+            public int getReplayCapacity() { return replayCapacity; }
+            public void setReplayCapacity(int replayCapacity) { this.replayCapacity = replayCapacity; }
+            public int getMinReplay() { return minReplay; }
+            public void setMinReplay(int minReplay) { this.minReplay = minReplay; }
+            public int getPublishEvery() { return publishEvery; }
+            public void setPublishEvery(int publishEvery) { this.publishEvery = publishEvery; }
+            public int getReportEverySeconds() { return reportEverySeconds; }
+            public void setReportEverySeconds(int reportEverySeconds) { this.reportEverySeconds = reportEverySeconds; }
+            public int getFillTimeoutSeconds() { return fillTimeoutSeconds; }
+            public void setFillTimeoutSeconds(int fillTimeoutSeconds) { this.fillTimeoutSeconds = fillTimeoutSeconds; }
+        }
+
+        public static class Distributed {
+            private int port = 7077;
+            private int workers = 2;
+            private int localWorkers = 2; // started as child processes; the others connect with TrainingWorker
+            private int rounds = 1000;
+            private int samplesPerRound = 250;
+            private String averaging = "sync"; // sync|async
+            private String teacher = "api"; // api|heuristic
+            private int workerThreads = 8;
+            private int checkpointEvery = 50;
+            private int roundTimeoutSeconds = 600; // longest a worker may take for a round, or wait for the others
+
+            public int getPort() { return port; }
+            public void setPort(int port) { this.port = port; }
+            public int getWorkers() { return workers; }
+            public void setWorkers(int workers) { this.workers = workers; }
+            public int getLocalWorkers() { return localWorkers; }
+            public void setLocalWorkers(int localWorkers) { this.localWorkers = localWorkers; }
+            public int getRounds() { return rounds; }
+            public void setRounds(int rounds) { this.rounds = rounds; }
+            public int getSamplesPerRound() { return samplesPerRound; }
+            public void setSamplesPerRound(int samplesPerRound) { this.samplesPerRound = samplesPerRound; }
+            public String getAveraging() { return averaging; }
+            public void setAveraging(String averaging) { this.averaging = averaging; }
+            public String getTeacher() { return teacher; }
+            public void setTeacher(String teacher) { this.teacher = teacher; }
+            public int getWorkerThreads() { return workerThreads; }
+            public void setWorkerThreads(int workerThreads) { this.workerThreads = workerThreads; }
+            public int getCheckpointEvery() { return checkpointEvery; }
+            public void setCheckpointEvery(int checkpointEvery) { this.checkpointEvery = checkpointEvery; }
+            public int getRoundTimeoutSeconds() { return roundTimeoutSeconds; }
+            public void setRoundTimeoutSeconds(int roundTimeoutSeconds) { this.roundTimeoutSeconds = roundTimeoutSeconds; }
+        }
+
+        public static class Distill {
+            private List<Integer> hiddenSizes = List.of(128, 64, 32, 16);
+            private List<Double> sparsities = List.of(0.0, 0.5, 0.75, 0.9);
+            private int samples = 200_000;
+            private int validationSamples = 5_000;
+            private int epochs = 3;
+            private double learningRate = 0.05;
+            private double temperature = 1.0; // above 1 flattens the teacher's distribution
+            private int pruneSteps = 4;
+            private long seed = 11L;
+            private int latencySamples = 20_000;
+            private double latencyBudgetMicros = 0.0; // 0: report the frontier without selecting a model
+            private String outputDir = "target/distilled";
+
+            public List<Integer> getHiddenSizes() { return hiddenSizes; }
+            public void setHiddenSizes(List<Integer> hiddenSizes) { this.hiddenSizes = hiddenSizes; }
+            public List<Double> getSparsities() { return sparsities; }
+            public void setSparsities(List<Double> sparsities) { this.sparsities = sparsities; }
+            public int getSamples() { return samples; }
+            public void setSamples(int samples) { this.samples = samples; }
+            public int getValidationSamples() { return validationSamples; }
+            public void setValidationSamples(int validationSamples) { this.validationSamples = validationSamples; }
+            public int getEpochs() { return epochs; }
+            public void setEpochs(int epochs) { this.epochs = epochs; }
+            public double getLearningRate() { return learningRate; }
+            public void setLearningRate(double learningRate) { this.learningRate = learningRate; }
+            public double getTemperature() { return temperature; }
+            public void setTemperature(double temperature) { this.temperature = temperature; }
+            public int getPruneSteps() { return pruneSteps; }
+            public void setPruneSteps(int pruneSteps) { this.pruneSteps = pruneSteps; }
+            public long getSeed() { return seed; }
+            public void setSeed(long seed) { this.seed = seed; }
+            public int getLatencySamples() { return latencySamples; }
+            public void setLatencySamples(int latencySamples) { this.latencySamples = latencySamples; }
+            public double getLatencyBudgetMicros() { return latencyBudgetMicros; }
+            public void setLatencyBudgetMicros(double latencyBudgetMicros) { this.latencyBudgetMicros = latencyBudgetMicros; }
+            public String getOutputDir() { return outputDir; }
+            public void setOutputDir(String outputDir) { this.outputDir = outputDir; }
+        }
+
+        public static class Sweep {
+            private String dataFile = "data/sweep.bin";
+            private int samples = 100_000; // teacher-labelled once, shared by every trial
+            private double validationFraction = 0.1;
+            private List<Integer> hiddenSizes = List.of(32, 64, 128);
+            private List<Double> learningRates = List.of(0.01, 0.02, 0.05, 0.1);
+            private List<Double> decays = List.of(1.0, 0.999, 0.995);
+            private int randomConfigs = 0; // 0: the full grid
+            private int eta = 3; // successive halving keeps the best 1/eta per rung
+            private long rungSamples = 20_000;
+            private long maxSamples = 1_000_000;
+            private long seed = 13L;
+            private String outputDir = "target/sweep";
+
+            public String getDataFile() { return dataFile; }
+            public void setDataFile(String dataFile) { this.dataFile = dataFile; }
+            public int getSamples() { return samples; }
+            public void setSamples(int samples) { this.samples = samples; }
+            public double getValidationFraction() { return validationFraction; }
+            public void setValidationFraction(double validationFraction) { this.validationFraction = validationFraction; }
+            public List<Integer> getHiddenSizes() { return hiddenSizes; }
+            public void setHiddenSizes(List<Integer> hiddenSizes) { this.hiddenSizes = hiddenSizes; }
+            public List<Double> getLearningRates() { return learningRates; }
+            public void setLearningRates(List<Double> learningRates) { this.learningRates = learningRates; }
+            public List<Double> getDecays() { return decays; }
+            public void setDecays(List<Double> decays) { this.decays = decays; }
+            public int getRandomConfigs() { return randomConfigs; }
+            public void setRandomConfigs(int randomConfigs) { this.randomConfigs = randomConfigs; }
+            public int getEta() { return eta; }
+            public void setEta(int eta) { this.eta = eta; }
+            public long getRungSamples() { return rungSamples; }
+            public void setRungSamples(long rungSamples) { this.rungSamples = rungSamples; }
+            public long getMaxSamples() { return maxSamples; }
+            public void setMaxSamples(long maxSamples) { this.maxSamples = maxSamples; }
+            public long getSeed() { return seed; }
+            public void setSeed(long seed) { this.seed = seed; }
+            public String getOutputDir() { return outputDir; }
+            public void setOutputDir(String outputDir) { this.outputDir = outputDir; }
+        }
+
+        /** Stage distribution of generated positions, see {@code PositionGenerator}. */
+        public static class Positions {
+            private List<Double> handSizeWeights = List.of(1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0); // 1..8 cards
+            private List<Double> trickSizeWeights = List.of(1.0, 1.0, 1.0, 1.0); // 0..3 cards on the table
+
+            public List<Double> getHandSizeWeights() { return handSizeWeights; }
+            public void setHandSizeWeights(List<Double> handSizeWeights) { this.handSizeWeights = handSizeWeights; }
+            public List<Double> getTrickSizeWeights() { return trickSizeWeights; }
+            public void setTrickSizeWeights(List<Double> trickSizeWeights) { this.trickSizeWeights = trickSizeWeights; }
+        }
+
+        public static class Checkpoint {
+            private String dir = "checkpoints";
+            private int every = 50;
+            private int keepLast = 3;
+            private boolean resume = false; // continue from the newest checkpoint in dir
+
+            public String getDir() { return dir; }
+            public void setDir(String dir) { this.dir = dir; }
+            public int getEvery() { return every; }
+            public void setEvery(int every) { this.every = every; }
+            public int getKeepLast() { return keepLast; }
+            public void setKeepLast(int keepLast) { this.keepLast = keepLast; }
+            public boolean isResume() { return resume; }
+            public void setResume(boolean resume) { this.resume = resume; }
+        }
+
+        public static class Evaluation {
+            private boolean enabled = true;
+            private String heldOutFile = "data/heldout.bin";
+            private int heldOutSize = 2000;
+            private long seed = 7L;
+            private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+            public boolean isEnabled() { return enabled; }
+            public void setEnabled(boolean enabled) { this.enabled = enabled; }
+            public String getHeldOutFile() { return heldOutFile; }
+            public void setHeldOutFile(String heldOutFile) { this.heldOutFile = heldOutFile; }
+            public int getHeldOutSize() { return heldOutSize; }
+            public void setHeldOutSize(int heldOutSize) { this.heldOutSize = heldOutSize; }
+            public long getSeed() { return seed; }
+            public void setSeed(long seed) { this.seed = seed; }
+            public int getThreads() { return threads; }
+            public void setThreads(int threads) { this.threads = threads; }
+        }
+
         private boolean enabled = false;
+        private String mode = "supervised"; // supervised|selfplay|distributed|distill|sweep
         private int generations = 1000;
         private int gamesPerGeneration = 500;
         private double learningRate = 0.05;
         private String modelFile = "model/model.txt";
+        private boolean compiledModel = true; // serve the build-time compiled network when it matches modelFile
         private String gameVariant = "amsterdams";
         private int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        private long seed = 42L; // positions sampled by the supervised runner
+        private SelfPlay selfPlay = new SelfPlay();
+        private Distributed distributed = new Distributed();
+        private Distill distill = new Distill();
+        private Sweep sweep = new Sweep();
+        private Positions positions = new Positions();
+        private Checkpoint checkpoint = new Checkpoint();
+        private Evaluation evaluation = new Evaluation();
 
         public boolean isEnabled() { return enabled; }
         public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public String getMode() { return mode; }
+        public void setMode(String mode) { this.mode = mode; }
         public int getGenerations() { return generations; }
         public void setGenerations(int generations) { this.generations = generations; }
         public int getGamesPerGeneration() { return gamesPerGeneration; }
@@ -25,10 +227,28 @@ public class TrainerProperties {
         public void setLearningRate(double learningRate) { this.learningRate = learningRate; }
         public String getModelFile() { return modelFile; }
         public void setModelFile(String modelFile) { this.modelFile = modelFile; }
+        public boolean isCompiledModel() { return compiledModel; }
+        public void setCompiledModel(boolean compiledModel) { this.compiledModel = compiledModel; }
         public String getGameVariant() { return gameVariant; }
         public void setGameVariant(String gameVariant) { this.gameVariant = gameVariant; }
         public int getThreads() { return threads; }
         public void setThreads(int threads) { this.threads = threads; }
+        public long getSeed() { return seed; }
+        public void setSeed(long seed) { this.seed = seed; }
+        public SelfPlay getSelfPlay() { return selfPlay; }
+        public void setSelfPlay(SelfPlay selfPlay) { this.selfPlay = selfPlay; }
+        public Distributed getDistributed() { return distributed; }
+        public void setDistributed(Distributed distributed) { this.distributed = distributed; }
+        public Distill getDistill() { return distill; }
+        public void setDistill(Distill distill) { this.distill = distill; }
+        public Sweep getSweep() { return sweep; }
+        public void setSweep(Sweep sweep) { this.sweep = sweep; }
+        public Positions getPositions() { return positions; }
+        public void setPositions(Positions positions) { this.positions = positions; }
+        public Checkpoint getCheckpoint() { return checkpoint; }
+        public void setCheckpoint(Checkpoint checkpoint) { this.checkpoint = checkpoint; }
+        public Evaluation getEvaluation() { return evaluation; }
+        public void setEvaluation(Evaluation evaluation) { this.evaluation = evaluation; }
     }
 
     public static class ExternalApi {
@@ -44,11 +264,219 @@ public class TrainerProperties {
         public void setTimeoutMs(int timeoutMs) { this.timeoutMs = timeoutMs; }
     }
 
+    public static class MonteCarlo {
+        private boolean enabled = true;
+        private int timeBudgetMs = 80;
+        private int maxSamples = 4000;
+        private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+        private String rolloutPolicy = "heuristic"; // heuristic|model
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public int getTimeBudgetMs() { return timeBudgetMs; }
+        public void setTimeBudgetMs(int timeBudgetMs) { this.timeBudgetMs = timeBudgetMs; }
+        public int getMaxSamples() { return maxSamples; }
+        public void setMaxSamples(int maxSamples) { this.maxSamples = maxSamples; }
+        public int getParallelism() { return parallelism; }
+        public void setParallelism(int parallelism) { this.parallelism = parallelism; }
+        public String getRolloutPolicy() { return rolloutPolicy; }
+        public void setRolloutPolicy(String rolloutPolicy) { this.rolloutPolicy = rolloutPolicy; }
+    }
+
+    public static class Endgame {
+        private boolean enabled = true;
+        private int maxTricks = 3;
+        private int maxDistributions = 2000;
+        private String tablebaseFile = "data/endgame.kjtb";
+        private int ttMegabytes = 16;
+        private int budgetMillis = 20; // per request, on the request thread
+        private long maxNodes = 2_000_000; // per request; 0 for no limit
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public int getMaxTricks() { return maxTricks; }
+        public void setMaxTricks(int maxTricks) { this.maxTricks = maxTricks; }
+        public int getMaxDistributions() { return maxDistributions; }
+        public void setMaxDistributions(int maxDistributions) { this.maxDistributions = maxDistributions; }
+        public String getTablebaseFile() { return tablebaseFile; }
+        public void setTablebaseFile(String tablebaseFile) { this.tablebaseFile = tablebaseFile; }
+        public int getTtMegabytes() { return ttMegabytes; }
+        public void setTtMegabytes(int ttMegabytes) { this.ttMegabytes = ttMegabytes; }
+        public int getBudgetMillis() { return budgetMillis; }
+        public void setBudgetMillis(int budgetMillis) { this.budgetMillis = budgetMillis; }
+        public long getMaxNodes() { return maxNodes; }
+        public void setMaxNodes(long maxNodes) { this.maxNodes = maxNodes; }
+    }
+
+    public static class LeadBook {
+        private boolean enabled = true;
+        private String file = "data/leads.kjlb";
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public String getFile() { return file; }
+        public void setFile(String file) { this.file = file; }
+    }
+
+    public static class DecisionCache {
+        private boolean enabled = true;
+        private String file = "data/decisions.kjdc"; // the same path for every instance on the host
+        private int megabytes = 64; // used by the instance that creates the file
+        private int occupancySample = 4096;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public String getFile() { return file; }
+        public void setFile(String file) { this.file = file; }
+        public int getMegabytes() { return megabytes; }
+        public void setMegabytes(int megabytes) { this.megabytes = megabytes; }
+        public int getOccupancySample() { return occupancySample; }
+        public void setOccupancySample(int occupancySample) { this.occupancySample = occupancySample; }
+    }
+
+    public static class Model {
+        public static class Hedge {
+            private boolean enabled = true;
+            private double percentile = 95.0;
+            private int minDelayMs = 10;
+
+            public boolean isEnabled() { return enabled; }
+            public void setEnabled(boolean enabled) { this.enabled = enabled; }
+            public double getPercentile() { return percentile; }
+            public void setPercentile(double percentile) { this.percentile = percentile; }
+            public int getMinDelayMs() { return minDelayMs; }
+            public void setMinDelayMs(int minDelayMs) { this.minDelayMs = minDelayMs; }
+        }
+
+        public static class CircuitBreaker {
+            private int window = 20;
+            private int minimumCalls = 10;
+            private double failureRate = 0.5;
+            private int openMs = 5000;
+
+            public int getWindow() { return window; }
+            public void setWindow(int window) { this.window = window; }
+            public int getMinimumCalls() { return minimumCalls; }
+            public void setMinimumCalls(int minimumCalls) { this.minimumCalls = minimumCalls; }
+            public double getFailureRate() { return failureRate; }
+            public void setFailureRate(double failureRate) { this.failureRate = failureRate; }
+            public int getOpenMs() { return openMs; }
+            public void setOpenMs(int openMs) { this.openMs = openMs; }
+        }
+
+        private boolean enabled = false;
+        private String url = "http://localhost:8091/v1/score";
+        private String apiKey = "";
+        private int requestBudgetMs = 600; // NFR p95 including the external round-trip
+        private int connectTimeoutMs = 200;
+        private int minRemainingMs = 10;
+        private int maxConcurrent = 32;
+        private Hedge hedge = new Hedge();
+        private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public String getUrl() { return url; }
+        public void setUrl(String url) { this.url = url; }
+        public String getApiKey() { return apiKey; }
+        public void setApiKey(String apiKey) { this.apiKey = apiKey; }
+        public int getRequestBudgetMs() { return requestBudgetMs; }
+        public void setRequestBudgetMs(int requestBudgetMs) { this.requestBudgetMs = requestBudgetMs; }
+        public int getConnectTimeoutMs() { return connectTimeoutMs; }
+        public void setConnectTimeoutMs(int connectTimeoutMs) { this.connectTimeoutMs = connectTimeoutMs; }
+        public int getMinRemainingMs() { return minRemainingMs; }
+        public void setMinRemainingMs(int minRemainingMs) { this.minRemainingMs = minRemainingMs; }
+        public int getMaxConcurrent() { return maxConcurrent; }
+        public void setMaxConcurrent(int maxConcurrent) { this.maxConcurrent = maxConcurrent; }
+        public Hedge getHedge() { return hedge; }
+        public void setHedge(Hedge hedge) { this.hedge = hedge; }
+        public CircuitBreaker getCircuitBreaker() { return circuitBreaker; }
+        public void setCircuitBreaker(CircuitBreaker circuitBreaker) { this.circuitBreaker = circuitBreaker; }
+    }
+
+    public static class Analysis {
+        private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+        private int maxInFlight = 256; // decisions queued or running per request
+        private int maxLineBytes = 64 * 1024;
+        private int topK = 3;
+
+        public int getParallelism() { return parallelism; }
+        public void setParallelism(int parallelism) { this.parallelism = parallelism; }
+        public int getMaxInFlight() { return maxInFlight; }
+        public void setMaxInFlight(int maxInFlight) { this.maxInFlight = maxInFlight; }
+        public int getMaxLineBytes() { return maxLineBytes; }
+        public void setMaxLineBytes(int maxLineBytes) { this.maxLineBytes = maxLineBytes; }
+        public int getTopK() { return topK; }
+        public void setTopK(int topK) { this.topK = topK; }
+    }
+
+    public static class Observability {
+        private boolean serverTiming = false;
+        private int slowRequestMs = 150;
+        private double slowRequestSampleRate = 0.1;
+
+        public boolean isServerTiming() { return serverTiming; }
+        public void setServerTiming(boolean serverTiming) { this.serverTiming = serverTiming; }
+        public int getSlowRequestMs() { return slowRequestMs; }
+        public void setSlowRequestMs(int slowRequestMs) { this.slowRequestMs = slowRequestMs; }
+        public double getSlowRequestSampleRate() { return slowRequestSampleRate; }
+        public void setSlowRequestSampleRate(double slowRequestSampleRate) { this.slowRequestSampleRate = slowRequestSampleRate; }
+    }
+
+    public static class Startup {
+        private boolean backgroundModelLoad = true;
+        private boolean warmUp = true;
+        private int warmUpIterations = 20000;
+        private int warmUpMaxMs = 15000;
+        private boolean exitAfterWarmUp = false; // AOT cache training run
+        private int steadyStateWindow = 200;
+        private double steadyStateTolerance = 0.1;
+
+        public boolean isBackgroundModelLoad() { return backgroundModelLoad; }
+        public void setBackgroundModelLoad(boolean backgroundModelLoad) { this.backgroundModelLoad = backgroundModelLoad; }
+        public boolean isWarmUp() { return warmUp; }
+        public void setWarmUp(boolean warmUp) { this.warmUp = warmUp; }
+        public int getWarmUpIterations() { return warmUpIterations; }
+        public void setWarmUpIterations(int warmUpIterations) { this.warmUpIterations = warmUpIterations; }
+        public int getWarmUpMaxMs() { return warmUpMaxMs; }
+        public void setWarmUpMaxMs(int warmUpMaxMs) { this.warmUpMaxMs = warmUpMaxMs; }
+        public boolean isExitAfterWarmUp() { return exitAfterWarmUp; }
+        public void setExitAfterWarmUp(boolean exitAfterWarmUp) { this.exitAfterWarmUp = exitAfterWarmUp; }
+        public int getSteadyStateWindow() { return steadyStateWindow; }
+        public void setSteadyStateWindow(int steadyStateWindow) { this.steadyStateWindow = steadyStateWindow; }
+        public double getSteadyStateTolerance() { return steadyStateTolerance; }
+        public void setSteadyStateTolerance(double steadyStateTolerance) { this.steadyStateTolerance = steadyStateTolerance; }
+    }
+
     private Training training = new Training();
     private ExternalApi externalApi = new ExternalApi();
+    private MonteCarlo monteCarlo = new MonteCarlo();
+    private Endgame endgame = new Endgame();
+    private LeadBook leadBook = new LeadBook();
+    private DecisionCache decisionCache = new DecisionCache();
+    private Model model = new Model();
+    private Analysis analysis = new Analysis();
+    private Observability observability = new Observability();
+    private Startup startup = new Startup();
 
     public Training getTraining() { return training; }
     public void setTraining(Training training) { this.training = training; }
     public ExternalApi getExternalApi() { return externalApi; }
     public void setExternalApi(ExternalApi externalApi) { this.externalApi = externalApi; }
+    public MonteCarlo getMonteCarlo() { return monteCarlo; }
+    public void setMonteCarlo(MonteCarlo monteCarlo) { this.monteCarlo = monteCarlo; }
+    public Endgame getEndgame() { return endgame; }
+    public void setEndgame(Endgame endgame) { this.endgame = endgame; }
+    public LeadBook getLeadBook() { return leadBook; }
+    public void setLeadBook(LeadBook leadBook) { this.leadBook = leadBook; }
+    public DecisionCache getDecisionCache() { return decisionCache; }
+    public void setDecisionCache(DecisionCache decisionCache) { this.decisionCache = decisionCache; }
+    public Model getModel() { return model; }
+    public void setModel(Model model) { this.model = model; }
+    public Analysis getAnalysis() { return analysis; }
+    public void setAnalysis(Analysis analysis) { this.analysis = analysis; }
+    public Observability getObservability() { return observability; }
+    public void setObservability(Observability observability) { this.observability = observability; }
+    public Startup getStartup() { return startup; }
+    public void setStartup(Startup startup) { this.startup = startup; }
 }
@@ -0,0 +1,82 @@
+package nl.jvdkolk.klaversjassentrainer.eval;
+
+import nl.jvdkolk.klaversjassentrainer.train.NeuralNetwork;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates checkpoints on a background thread and writes a checkpoint to the model file only when it beats the
+ * best one so far, so the file always holds the best model of the run. Training hands over a copy of the network
+ * and continues immediately.
+ */
+public final class CheckpointKeeper implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(CheckpointKeeper.class);
+
+    private final Evaluator evaluator;
+    private final HeldOutSet heldOut;
+    private final Path modelPath;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "checkpoint-eval");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Evaluator.Evaluation best;
+    private volatile int bestGeneration = -1;
+
+    public CheckpointKeeper(Evaluator evaluator, HeldOutSet heldOut, Path modelPath) {
+        this.evaluator = evaluator;
+        this.heldOut = heldOut;
+        this.modelPath = modelPath;
+    }
+
+    /** Takes over the best evaluation of the run being resumed, so only a better checkpoint replaces its model file. */
+    public void restore(int generation, Evaluator.Evaluation evaluation) {
+        best = evaluation;
+        bestGeneration = evaluation == null ? -1 : generation;
+    }
+
+    /** Runs {@code task} on the evaluation thread after the checkpoints queued before it. */
+    public void execute(Runnable task) {
+        worker.execute(task);
+    }
+
+    /** Queues {@code snapshot} (which must no longer be modified) for evaluation. */
+    public void submit(int generation, NeuralNetwork snapshot) {
+        worker.execute(() -> {
+            Evaluator.Evaluation e = evaluator.evaluate(snapshot, heldOut);
+            if (e.betterThan(best)) {
+                try {
+                    snapshot.save(modelPath);
+                    log.info("Checkpoint gen {}: {} - new best, saved to {}", generation, e, modelPath);
+                    best = e;
+                    bestGeneration = generation;
+                } catch (IOException ex) {
+                    log.warn("Failed to save checkpoint of gen {}: {}", generation, ex.getMessage());
+                }
+            } else {
+                log.info("Checkpoint gen {}: {} - discarded, best is gen {} ({})", generation, e, bestGeneration,
+                        String.format(Locale.ROOT, "%.2f%%", best.top1() * 100));
+            }
+        });
+    }
+
+    public Evaluator.Evaluation best() { return best; }
+    public int bestGeneration() { return bestGeneration; }
+
+    /** Waits for queued evaluations to finish. */
+    @Override
+    public void close() throws InterruptedException {
+        worker.shutdown();
+        if (!worker.awaitTermination(10, TimeUnit.MINUTES)) {
+            log.warn("Checkpoint evaluation did not finish in time");
+            worker.shutdownNow();
+        }
+    }
+}
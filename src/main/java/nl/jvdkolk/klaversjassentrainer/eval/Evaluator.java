@@ -0,0 +1,172 @@
+package nl.jvdkolk.klaversjassentrainer.eval;
+
+import nl.jvdkolk.klaversjassentrainer.service.LegalityService;
+import nl.jvdkolk.klaversjassentrainer.train.CardUtil;
+import nl.jvdkolk.klaversjassentrainer.train.PolicyNetwork;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Scores a {@link PolicyNetwork} (dense or pruned) against a {@link HeldOutSet}, split over a fork-join pool:
+ * <ul>
+ *   <li>top-1 agreement: the best card in hand according to the model equals the teacher label;</li>
+ *   <li>legal-move accuracy: the unmasked argmax over all 32 outputs is a legal card;</li>
+ *   <li>calibration: expected calibration error of the top probability (renormalized over the hand, 10 bins)
+ *   and the mean log-loss of the label.</li>
+ * </ul>
+ * The network is only read, so the same instance can be evaluated while nothing trains it.
+ */
+public final class Evaluator implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(Evaluator.class);
+    private static final int BINS = 10;
+    private static final int CHUNK = 256;
+
+    private final ForkJoinPool pool;
+
+    public Evaluator(int threads) {
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+    }
+
+    public Evaluation evaluate(PolicyNetwork nn, HeldOutSet set) {
+        long start = System.nanoTime();
+        List<Future<Tally>> parts = new ArrayList<>();
+        for (int from = 0; from < set.size(); from += CHUNK) {
+            int lo = from;
+            int hi = Math.min(set.size(), from + CHUNK);
+            parts.add(pool.submit(() -> score(nn, set, lo, hi)));
+        }
+        Tally total = new Tally();
+        try {
+            for (Future<Tally> f : parts) total.add(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Evaluation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Evaluation failed", e.getCause());
+        }
+        return total.result(set.size(), System.nanoTime() - start);
+    }
+
+    private static Tally score(PolicyNetwork nn, HeldOutSet set, int from, int to) {
+        Tally t = new Tally();
+        double[] x = new double[nn.getInputSize()];
+        int[] trick = new int[3];
+        for (int i = from; i < to; i++) {
+            int hand = set.hands[i];
+            int trickSize = set.trickSizes[i];
+            for (int k = 0; k < trickSize; k++) trick[k] = set.tricks[i * 3 + k];
+            int trump = set.trumps[i];
+            CardUtil.encodeInto(x, hand, trick, trickSize, trump);
+            double[] p = nn.forward(x);
+
+            int argmax = 0;
+            int best = -1;
+            double handMass = 0.0;
+            for (int c = 0; c < p.length; c++) {
+                if (p[c] > p[argmax]) argmax = c;
+                if ((hand >>> c & 1) != 0) {
+                    handMass += p[c];
+                    if (best < 0 || p[c] > p[best]) best = c;
+                }
+            }
+            int label = set.labels[i];
+            boolean correct = best == label;
+            if (correct) t.top1++;
+            if ((LegalityService.legalMask(hand, trick, trickSize, trump) >>> argmax & 1) != 0) t.legal++;
+
+            double confidence = handMass > 0 ? p[best] / handMass : 0.0;
+            int bin = Math.min(BINS - 1, (int) (confidence * BINS));
+            t.binCount[bin]++;
+            t.binConfidence[bin] += confidence;
+            if (correct) t.binCorrect[bin]++;
+            t.logLoss -= Math.log(Math.max(handMass > 0 ? p[label] / handMass : 0.0, 1e-12));
+        }
+        return t;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    public record Evaluation(int samples, double top1, double legalAccuracy, double ece, double logLoss,
+                             long elapsedNanos) {
+        /** Higher agreement wins; equal agreement is decided by the lower log-loss. */
+        public boolean betterThan(Evaluation other) {
+            if (other == null) return true;
+            if (top1 != other.top1) return top1 > other.top1;
+            return logLoss < other.logLoss;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "top1=%.2f%% legal=%.2f%% ece=%.4f logLoss=%.4f (%d states, %d ms)",
+                    top1 * 100, legalAccuracy * 100, ece, logLoss, samples, elapsedNanos / 1_000_000);
+        }
+    }
+
+    private static final class Tally {
+        long top1;
+        long legal;
+        double logLoss;
+        final long[] binCount = new long[BINS];
+        final long[] binCorrect = new long[BINS];
+        final double[] binConfidence = new double[BINS];
+
+        void add(Tally o) {
+            top1 += o.top1;
+            legal += o.legal;
+            logLoss += o.logLoss;
+            for (int b = 0; b < BINS; b++) {
+                binCount[b] += o.binCount[b];
+                binCorrect[b] += o.binCorrect[b];
+                binConfidence[b] += o.binConfidence[b];
+            }
+        }
+
+        Evaluation result(int n, long nanos) {
+            if (n == 0) return new Evaluation(0, 0, 0, 0, 0, nanos);
+            double ece = 0.0;
+            for (int b = 0; b < BINS; b++) {
+                if (binCount[b] == 0) continue;
+                ece += Math.abs(binCorrect[b] - binConfidence[b]) / n;
+            }
+            return new Evaluation(n, top1 * 1.0 / n, legal * 1.0 / n, ece, logLoss / n, nanos);
+        }
+    }
+
+    /** Compares models on a held-out set: {@code Evaluator <heldout.bin> <model.txt> [<other-model.txt>]}. */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: Evaluator <heldout.bin> <model.txt> [<other-model.txt>]");
+            System.exit(2);
+        }
+        HeldOutSet set = HeldOutSet.load(Path.of(args[0]));
+        try (Evaluator evaluator = new Evaluator(Runtime.getRuntime().availableProcessors())) {
+            Evaluation first = null;
+            for (int i = 1; i < args.length; i++) {
+                Evaluation e = evaluator.evaluate(PolicyNetwork.load(Path.of(args[i])), set);
+                log.info("{}: {}", args[i], e);
+                if (first == null) {
+                    first = e;
+                } else {
+                    log.info("{} vs {}: top1 {}pp, legal {}pp, ece {}, logLoss {} -> {} is better", args[i], args[1],
+                            String.format(Locale.ROOT, "%+.2f", (e.top1() - first.top1()) * 100),
+                            String.format(Locale.ROOT, "%+.2f", (e.legalAccuracy() - first.legalAccuracy()) * 100),
+                            String.format(Locale.ROOT, "%+.4f", e.ece() - first.ece()),
+                            String.format(Locale.ROOT, "%+.4f", e.logLoss() - first.logLoss()),
+                            e.betterThan(first) ? args[i] : args[1]);
+                }
+            }
+        }
+    }
+}
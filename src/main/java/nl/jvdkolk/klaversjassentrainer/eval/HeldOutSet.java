@@ -0,0 +1,178 @@
+package nl.jvdkolk.klaversjassentrainer.eval;
+
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
+import nl.jvdkolk.klaversjassentrainer.train.ExternalCalcApiClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Fixed set of teacher-labelled states that is never trained on. States are stored as card masks in a small
+ * binary file so every evaluation (and every model compared later) sees exactly the same positions.
+ * <p>
+ * File layout: magic {@code KJHO}, version, count, the 8 hand size and 4 trick size weights the positions were
+ * drawn with (double; not in version 1), then per state: hand mask (int), trick size, three trick cards, trump and
+ * label (bytes).
+ */
+public final class HeldOutSet {
+    private static final Logger log = LoggerFactory.getLogger(HeldOutSet.class);
+    private static final int MAGIC = 0x4B4A484F; // "KJHO"
+    private static final int VERSION = 2;
+
+    final int[] hands;
+    final int[] tricks; // 3 per state
+    final byte[] trickSizes;
+    final byte[] trumps;
+    final byte[] labels;
+    private PositionGenerator.Stages stages; // null for a version 1 file
+
+    private HeldOutSet(int size) {
+        hands = new int[size];
+        tricks = new int[size * 3];
+        trickSizes = new byte[size];
+        trumps = new byte[size];
+        labels = new byte[size];
+    }
+
+    public int size() { return hands.length; }
+    /** Stage weights the positions were drawn with, or null when the file does not record them. */
+    public PositionGenerator.Stages stages() { return stages; }
+
+    public static HeldOutSet load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a held-out set: " + file);
+            int version = in.readInt();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported held-out set version " + version + ": " + file);
+            }
+            HeldOutSet set = new HeldOutSet(in.readInt());
+            if (version >= 2) {
+                double[] handSizes = new double[8];
+                double[] trickSizes = new double[4];
+                for (int i = 0; i < 8; i++) handSizes[i] = in.readDouble();
+                for (int i = 0; i < 4; i++) trickSizes[i] = in.readDouble();
+                try {
+                    set.stages = new PositionGenerator.Stages(handSizes, trickSizes);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Corrupt held-out set stage weights: " + file, e);
+                }
+            }
+            for (int i = 0; i < set.size(); i++) {
+                set.hands[i] = in.readInt();
+                set.trickSizes[i] = in.readByte();
+                for (int k = 0; k < 3; k++) set.tricks[i * 3 + k] = in.readByte();
+                set.trumps[i] = in.readByte();
+                set.labels[i] = in.readByte();
+            }
+            return set;
+        }
+    }
+
+    /** Writes the set; a set loaded from a version 1 file cannot be saved, as its stage weights are unknown. */
+    public void save(Path file) throws IOException {
+        if (stages == null) throw new IllegalStateException("Stage weights of the held-out set are unknown");
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size());
+            for (double w : stages.handSizeWeights()) out.writeDouble(w);
+            for (double w : stages.trickSizeWeights()) out.writeDouble(w);
+            for (int i = 0; i < size(); i++) {
+                out.writeInt(hands[i]);
+                out.writeByte(trickSizes[i]);
+                for (int k = 0; k < 3; k++) out.writeByte(tricks[i * 3 + k]);
+                out.writeByte(trumps[i]);
+                out.writeByte(labels[i]);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads the set from {@code file}, or labels {@code size} fresh positions with the teacher and persists them
+     * there. Positions come from a {@link PositionGenerator} with the training {@code stages}; a stored set drawn
+     * with other stage weights (or not recording them) is collected again.
+     */
+    public static HeldOutSet loadOrCollect(Path file, int size, long seed, PositionGenerator.Stages stages,
+                                           ExternalCalcApiClient api, ExecutorService pool) throws IOException, InterruptedException {
+        if (Files.exists(file)) {
+            HeldOutSet set = load(file);
+            if (stages.equals(set.stages())) {
+                log.info("Loaded held-out set of {} states from {}", set.size(), file);
+                return set;
+            }
+            log.info("Held-out set {} was drawn with {}, now {} - collecting it again", file,
+                    set.stages() == null ? "unrecorded stage weights" : set.stages(), stages);
+        }
+        PositionGenerator positions = new PositionGenerator(seed, stages);
+        List<int[]> labelled = new ArrayList<>(size);
+        int attempts = 0;
+        while (labelled.size() < size && attempts < size * 3) {
+            List<Callable<int[]>> tasks = new ArrayList<>();
+            for (int n = labelled.size(); n < size; n++, attempts++) {
+                int[] state = state(positions.next());
+                tasks.add(() -> label(api, state));
+            }
+            int before = labelled.size();
+            for (Future<int[]> f : pool.invokeAll(tasks)) {
+                try {
+                    int[] s = f.get();
+                    if (s != null && labelled.size() < size) labelled.add(s);
+                } catch (ExecutionException e) {
+                    log.debug("Held-out labelling failed: {}", e.getMessage());
+                }
+            }
+            if (labelled.size() == before) break; // teacher unavailable
+        }
+        HeldOutSet set = new HeldOutSet(labelled.size());
+        set.stages = stages;
+        for (int i = 0; i < set.size(); i++) {
+            int[] s = labelled.get(i);
+            set.hands[i] = s[0];
+            set.trickSizes[i] = (byte) s[1];
+            set.tricks[i * 3] = s[2];
+            set.tricks[i * 3 + 1] = s[3];
+            set.tricks[i * 3 + 2] = s[4];
+            set.trumps[i] = (byte) s[5];
+            set.labels[i] = (byte) s[6];
+        }
+        if (set.size() > 0) {
+            set.save(file);
+            log.info("Collected held-out set of {} states into {}", set.size(), file);
+        }
+        return set;
+    }
+
+    // {hand, trickSize, trick0, trick1, trick2, trump, label}
+    private static int[] state(PlayState position) {
+        int[] state = {position.hand(position.toMove()), position.trickSize(), 0, 0, 0, position.trump(), -1};
+        for (int k = 0; k < position.trickSize(); k++) state[2 + k] = position.trickCard(k);
+        return state;
+    }
+
+    private static int[] label(ExternalCalcApiClient api, int[] state) {
+        List<String> hand = toCards(state[0]);
+        List<String> trick = new ArrayList<>(3);
+        for (int k = 0; k < state[1]; k++) trick.add(ALL_CARDS.get(state[2 + k]));
+        String label = api.fetchBestCard(trick, SUITS[state[5]], hand);
+        if (label == null || !hand.contains(label)) return null;
+        state[6] = cardIndex(label);
+        return state;
+    }
+}
@@ -0,0 +1,195 @@
+package nl.jvdkolk.klaversjassentrainer.game;
+
+import nl.jvdkolk.klaversjassentrainer.train.PolicyNetwork;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Head-to-head arena: policy A against policy B over many full deals. Every deal is played twice with identical
+ * cards, trump and leader, once with A on seats 0/2 and once with A on seats 1/3, so the luck of the deal cancels
+ * out of the per-pair differential. Pairs are split over worker threads; each worker owns its policies.
+ */
+public final class Arena {
+    private static final Logger log = LoggerFactory.getLogger(Arena.class);
+
+    private final int threads;
+
+    public Arena(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Plays {@code pairs} mirrored deal pairs.
+     *
+     * @param policyA creates an instance of A; called once per worker thread
+     * @param policyB creates an instance of B; called once per worker thread
+     */
+    public Result play(long pairs, long seed, Supplier<Policy> policyA, Supplier<Policy> policyB)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        SplittableRandom root = new SplittableRandom(seed);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r);
+            t.setName("arena-" + t.getId());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Tally>> futures = new ArrayList<>(threads);
+            for (int w = 0; w < threads; w++) {
+                long share = pairs / threads + (w < pairs % threads ? 1 : 0);
+                SplittableRandom rnd = root.split();
+                futures.add(pool.submit(() -> runWorker(share, rnd, policyA.get(), policyB.get())));
+            }
+            Tally total = new Tally();
+            for (Future<Tally> f : futures) total.add(f.get());
+            return total.result(System.nanoTime() - start);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Arena worker failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Tally runWorker(long pairs, SplittableRandom rnd, Policy a, Policy b) {
+        Tally tally = new Tally();
+        TimedPolicy timedA = new TimedPolicy(a, tally.latencyA);
+        TimedPolicy timedB = new TimedPolicy(b, tally.latencyB);
+        Policy[] aFirst = {timedA, timedB, timedA, timedB};
+        Policy[] bFirst = {timedB, timedA, timedB, timedA};
+        int[] deck = DealSimulator.newDeck();
+        PlayState dealt = new PlayState();
+        PlayState work = new PlayState();
+        for (long p = 0; p < pairs; p++) {
+            DealSimulator.deal(rnd, deck, dealt, rnd.nextInt(4), rnd.nextInt(4));
+            work.copyFrom(dealt);
+            DealSimulator.playOut(work, aFirst, null);
+            int diff = work.points(0) - work.points(1);
+            work.copyFrom(dealt);
+            DealSimulator.playOut(work, bFirst, null);
+            diff += work.points(1) - work.points(0);
+            tally.record(diff / 2.0);
+        }
+        return tally;
+    }
+
+    private static final class TimedPolicy implements Policy {
+        private final Policy delegate;
+        private final Histogram latency;
+
+        TimedPolicy(Policy delegate, Histogram latency) {
+            this.delegate = delegate;
+            this.latency = latency;
+        }
+
+        @Override
+        public int choose(PlayState state, int legal) {
+            long t = System.nanoTime();
+            int card = delegate.choose(state, legal);
+            latency.recordValue(System.nanoTime() - t);
+            return card;
+        }
+    }
+
+    // Welford mean/variance of the per-pair differential, mergeable across workers
+    private static final class Tally {
+        final Histogram latencyA = new Histogram(3);
+        final Histogram latencyB = new Histogram(3);
+        long n;
+        long wins;
+        long losses;
+        double mean;
+        double m2;
+
+        void record(double diff) {
+            n++;
+            if (diff > 0) wins++;
+            else if (diff < 0) losses++;
+            double delta = diff - mean;
+            mean += delta / n;
+            m2 += delta * (diff - mean);
+        }
+
+        void add(Tally o) {
+            latencyA.add(o.latencyA);
+            latencyB.add(o.latencyB);
+            if (o.n == 0) return;
+            long total = n + o.n;
+            double delta = o.mean - mean;
+            mean += delta * o.n / total;
+            m2 += o.m2 + delta * delta * n * o.n / total;
+            n = total;
+            wins += o.wins;
+            losses += o.losses;
+        }
+
+        Result result(long elapsedNanos) {
+            double sd = n > 1 ? Math.sqrt(m2 / (n - 1)) : 0.0;
+            return new Result(n, mean, n > 0 ? 1.96 * sd / Math.sqrt(n) : 0.0, wins, losses, elapsedNanos,
+                    latencyA, latencyB);
+        }
+    }
+
+    /**
+     * @param meanDifferential points per deal by which A outscores B (positive favours A)
+     * @param ci95             half-width of the 95% confidence interval of {@code meanDifferential}
+     * @param latencyA         decision latency of A in nanoseconds
+     */
+    public record Result(long pairs, double meanDifferential, double ci95, long pairsWonByA, long pairsWonByB,
+                         long elapsedNanos, Histogram latencyA, Histogram latencyB) {
+        public double dealsPerSecond() { return 2 * pairs / Math.max(elapsedNanos / 1e9, 1e-9); }
+
+        /** True when the interval excludes zero in A's favour. */
+        public boolean aIsStronger() { return meanDifferential - ci95 > 0; }
+    }
+
+    /** Creates a policy from a spec: {@code heuristic}, {@code random} or the path of a {@code model.txt}. */
+    public static Supplier<Policy> policy(String spec) throws IOException {
+        return switch (spec.toLowerCase(Locale.ROOT)) {
+            case "heuristic" -> HeuristicPolicy::new;
+            case "random" -> () -> {
+                SplittableRandom rnd = new SplittableRandom();
+                return (state, legal) -> {
+                    int k = rnd.nextInt(Integer.bitCount(legal));
+                    int m = legal;
+                    while (k-- > 0) m &= m - 1;
+                    return Integer.numberOfTrailingZeros(m);
+                };
+            };
+            default -> {
+                PolicyNetwork nn = PolicyNetwork.load(Path.of(spec)); // shared read-only, one policy per worker
+                yield () -> new NeuralPolicy(nn);
+            }
+        };
+    }
+
+    /** Release gate: {@code Arena <policyA> <policyB> [pairs] [threads]}; policies as accepted by {@link #policy}. */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: Arena <model.txt|heuristic|random> <model.txt|heuristic|random> [pairs] [threads]");
+            System.exit(2);
+        }
+        long pairs = args.length > 2 ? Long.parseLong(args[2]) : 100_000L;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        Result r = new Arena(threads).play(pairs, 42L, policy(args[0]), policy(args[1]));
+        log.info("{} vs {}: {} mirrored pairs on {} threads in {} ms ({} deals/s)", args[0], args[1], r.pairs(), threads,
+                r.elapsedNanos() / 1_000_000, String.format(Locale.ROOT, "%.0f", r.dealsPerSecond()));
+        log.info("A - B = {} +/- {} points per deal (95% CI), pairs won A/B/tied = {}/{}/{} -> {}",
+                String.format(Locale.ROOT, "%.2f", r.meanDifferential()), String.format(Locale.ROOT, "%.2f", r.ci95()),
+                r.pairsWonByA(), r.pairsWonByB(), r.pairs() - r.pairsWonByA() - r.pairsWonByB(),
+                r.aIsStronger() ? "A is stronger" : r.meanDifferential() + r.ci95() < 0 ? "B is stronger" : "no significant difference");
+        log.info("Decision latency A: p50={} ns p99={} ns max={} ns; B: p50={} ns p99={} ns max={} ns",
+                r.latencyA().getValueAtPercentile(50), r.latencyA().getValueAtPercentile(99), r.latencyA().getMaxValue(),
+                r.latencyB().getValueAtPercentile(50), r.latencyB().getValueAtPercentile(99), r.latencyB().getMaxValue());
+    }
+}
@@ -0,0 +1,144 @@
+package nl.jvdkolk.klaversjassentrainer.game;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Full-deal simulator: deals 32 cards, plays eight tricks for four seats under the rules of
+ * {@link nl.jvdkolk.klaversjassentrainer.service.LegalityService} and scores the points per team.
+ * <p>
+ * Each worker thread owns its deck, {@link PlayState}, random source and seat policies, so the per-deal loop does
+ * not allocate; deals are split evenly over the workers. Decisions can be observed (e.g. to harvest training
+ * positions) through a per-worker {@link Observer}.
+ */
+public final class DealSimulator {
+    private static final Logger log = LoggerFactory.getLogger(DealSimulator.class);
+
+    /** Callback per worker thread; the state passed in is reused and must not be retained. */
+    public interface Observer {
+        /** Called before {@code card} is played by {@code state.toMove()}. */
+        default void onDecision(PlayState state, int legal, int card) {}
+
+        /** Called after the eighth trick. */
+        default void onDealEnd(PlayState state) {}
+    }
+
+    private final int threads;
+
+    public DealSimulator(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Simulates {@code deals} random deals (random trump and leader).
+     *
+     * @param seatPolicies creates the policy for a seat; called once per seat per worker thread
+     * @param observers    creates the observer for a worker thread, or null
+     */
+    public Summary simulate(long deals, long seed, IntFunction<Policy> seatPolicies, Supplier<Observer> observers)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        SplittableRandom root = new SplittableRandom(seed);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r);
+            t.setName("deal-sim-" + t.getId());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<long[]>> futures = new ArrayList<>(threads);
+            for (int w = 0; w < threads; w++) {
+                long share = deals / threads + (w < deals % threads ? 1 : 0);
+                SplittableRandom rnd = root.split();
+                Observer observer = observers == null ? null : observers.get();
+                futures.add(pool.submit(() -> runWorker(share, rnd, seatPolicies, observer)));
+            }
+            long[] totals = new long[3];
+            for (Future<long[]> f : futures) {
+                long[] part = f.get();
+                for (int i = 0; i < totals.length; i++) totals[i] += part[i];
+            }
+            return new Summary(deals, totals[0], totals[1], totals[2], System.nanoTime() - start);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Simulation worker failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // returns {team0 points, team1 points, pits (one team took all tricks)}
+    private static long[] runWorker(long deals, SplittableRandom rnd, IntFunction<Policy> seatPolicies, Observer observer) {
+        Policy[] seats = new Policy[4];
+        for (int s = 0; s < 4; s++) seats[s] = seatPolicies.apply(s);
+        int[] deck = newDeck();
+        PlayState state = new PlayState();
+        long[] totals = new long[3];
+        for (long d = 0; d < deals; d++) {
+            deal(rnd, deck, state, rnd.nextInt(4), rnd.nextInt(4));
+            int tricksTeam0 = playOut(state, seats, observer);
+            totals[0] += state.points(0);
+            totals[1] += state.points(1);
+            if (tricksTeam0 == 0 || tricksTeam0 == 8) totals[2]++;
+        }
+        return totals;
+    }
+
+    public static int[] newDeck() {
+        int[] deck = new int[32];
+        for (int i = 0; i < 32; i++) deck[i] = i;
+        return deck;
+    }
+
+    /** Shuffles {@code deck} in place and resets {@code state} to a fresh deal of eight cards per seat. */
+    public static void deal(SplittableRandom rnd, int[] deck, PlayState state, int trump, int leader) {
+        for (int i = 31; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int t = deck[i]; deck[i] = deck[j]; deck[j] = t;
+        }
+        state.reset(trump, leader);
+        for (int seat = 0; seat < 4; seat++) {
+            int hand = 0;
+            for (int k = seat * 8; k < seat * 8 + 8; k++) hand |= 1 << deck[k];
+            state.setHand(seat, hand);
+        }
+    }
+
+    /** Plays {@code state} to the end with one policy per seat; returns the number of tricks won by team 0. */
+    public static int playOut(PlayState state, Policy[] seats, Observer observer) {
+        int tricksTeam0 = 0;
+        while (!state.isFinished()) {
+            int legal = state.legalMoves();
+            int card = seats[state.toMove()].choose(state, legal);
+            if (observer != null) observer.onDecision(state, legal, card);
+            int winner = state.play(card);
+            if (winner >= 0 && (winner & 1) == 0) tricksTeam0++;
+        }
+        if (observer != null) observer.onDealEnd(state);
+        return tricksTeam0;
+    }
+
+    public record Summary(long deals, long team0Points, long team1Points, long pits, long elapsedNanos) {
+        public double dealsPerSecond() { return deals / Math.max(elapsedNanos / 1e9, 1e-9); }
+        public double meanDifferential() { return deals == 0 ? 0.0 : (team0Points - team1Points) * 1.0 / deals; }
+    }
+
+    /** Throughput check: {@code DealSimulator [deals] [threads]} with heuristic players on every seat. */
+    public static void main(String[] args) throws InterruptedException {
+        long deals = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000L;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Summary s = new DealSimulator(threads).simulate(deals, 42L, seat -> new HeuristicPolicy(), null);
+        log.info("Simulated {} deals on {} threads in {} ms: {} deals/s ({} per minute), mean team0-team1 = {}",
+                s.deals(), threads, s.elapsedNanos() / 1_000_000,
+                String.format(Locale.ROOT, "%.0f", s.dealsPerSecond()),
+                String.format(Locale.ROOT, "%.1fM", s.dealsPerSecond() * 60 / 1e6),
+                String.format(Locale.ROOT, "%.2f", s.meanDifferential()));
+    }
+}
@@ -0,0 +1,143 @@
+package nl.jvdkolk.klaversjassentrainer.game;
+
+import java.util.SplittableRandom;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Deals the unseen cards over the other seats consistently with their hand sizes and known voids.
+ * When the history is incomplete there are more unseen cards than open hand slots; the surplus is dealt to a
+ * virtual "already played" pile. Reusable per thread; {@link #deal} does not allocate.
+ */
+public final class Determinizer {
+    private static final int PILE = 4;
+    private static final int ATTEMPTS = 32;
+
+    private final int[] cards;
+    private final int[] capacity = new int[5];
+    private final int[] remaining = new int[5];
+    private final int[] voids; // suit bit-set per seat
+    private final int constrainedSuits;
+
+    /**
+     * @param unseen    cards not in the observer's hand and not seen on the table or in the history
+     * @param handSizes cards still held by each seat (the observer's own entry is ignored when 0)
+     * @param voids     per seat a bit-set of suits (bit s = suit s) the seat is known not to hold
+     */
+    public Determinizer(int unseen, int[] handSizes, int[] voids) {
+        this.cards = new int[Integer.bitCount(unseen)];
+        int i = 0;
+        for (int m = unseen; m != 0; m &= m - 1) cards[i++] = Integer.numberOfTrailingZeros(m);
+        int needed = 0;
+        for (int s = 0; s < 4; s++) { capacity[s] = handSizes[s]; needed += handSizes[s]; }
+        capacity[PILE] = Math.max(0, cards.length - needed);
+        this.voids = new int[5];
+        int constrained = 0;
+        for (int s = 0; s < 4; s++) { this.voids[s] = voids[s]; if (handSizes[s] > 0) constrained |= voids[s]; }
+        this.constrainedSuits = constrained;
+    }
+
+    private Determinizer(Determinizer o) {
+        this.cards = o.cards.clone();
+        System.arraycopy(o.capacity, 0, capacity, 0, 5);
+        this.voids = o.voids;
+        this.constrainedSuits = o.constrainedSuits;
+    }
+
+    /** Independent instance for another thread; the input constraints are shared, the work buffers are not. */
+    public Determinizer copy() {
+        return new Determinizer(this);
+    }
+
+    /** Whether there are enough unseen cards to fill the open hand slots. */
+    public boolean feasible() {
+        int needed = capacity[0] + capacity[1] + capacity[2] + capacity[3];
+        return cards.length >= needed;
+    }
+
+    /**
+     * Fills {@code hands} for every seat with a non-zero hand size. Returns false only if no consistent deal was
+     * found; in that case void information is ignored for a final attempt so callers always get a deal.
+     */
+    public boolean deal(SplittableRandom rnd, int[] hands) {
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            if (tryDeal(rnd, hands, true)) return true;
+        }
+        tryDeal(rnd, hands, false);
+        return false;
+    }
+
+    /** Receives each deal from {@link #enumerate}; the array is reused between calls. */
+    public interface DealVisitor {
+        void visit(int[] hands);
+    }
+
+    /**
+     * Visits every deal consistent with hand sizes and voids. Returns the number of deals, or -1
+     * as soon as there are more than {@code limit} (the visitor may then have seen {@code limit + 1} of them).
+     * With a null visitor this only counts.
+     */
+    public long enumerate(int[] hands, long limit, DealVisitor visitor) {
+        System.arraycopy(capacity, 0, remaining, 0, 5);
+        for (int s = 0; s < 4; s++) if (capacity[s] > 0) hands[s] = 0;
+        long n = assign(0, hands, 0L, limit, visitor);
+        return n > limit ? -1 : n;
+    }
+
+    private long assign(int i, int[] hands, long count, long limit, DealVisitor visitor) {
+        if (i == cards.length) {
+            if (visitor != null) visitor.visit(hands);
+            return count + 1;
+        }
+        int card = cards[i];
+        int suit = suitOf(card);
+        for (int s = 0; s < 5 && count <= limit; s++) {
+            if (!open(s, suit, true)) continue;
+            remaining[s]--;
+            if (s != PILE) hands[s] |= 1 << card;
+            count = assign(i + 1, hands, count, limit, visitor);
+            remaining[s]++;
+            if (s != PILE) hands[s] &= ~(1 << card);
+        }
+        return count;
+    }
+
+    private boolean tryDeal(SplittableRandom rnd, int[] hands, boolean respectVoids) {
+        for (int i = cards.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int t = cards[i]; cards[i] = cards[j]; cards[j] = t;
+        }
+        System.arraycopy(capacity, 0, remaining, 0, 5);
+        for (int s = 0; s < 4; s++) if (capacity[s] > 0) hands[s] = 0;
+        // most constrained suits first, so void seats don't end up with the only open slots
+        for (int pass = 0; pass < 2; pass++) {
+            for (int card : cards) {
+                boolean constrained = (constrainedSuits & (1 << suitOf(card))) != 0;
+                if (constrained != (pass == 0)) continue;
+                int seat = pickSeat(rnd, suitOf(card), respectVoids);
+                if (seat < 0) return false;
+                remaining[seat]--;
+                if (seat != PILE) hands[seat] |= 1 << card;
+            }
+        }
+        return true;
+    }
+
+    // uniform over open slots among seats that may hold the suit
+    private int pickSeat(SplittableRandom rnd, int suit, boolean respectVoids) {
+        int total = 0;
+        for (int s = 0; s < 5; s++) if (open(s, suit, respectVoids)) total += remaining[s];
+        if (total == 0) return -1;
+        int r = rnd.nextInt(total);
+        for (int s = 0; s < 5; s++) {
+            if (!open(s, suit, respectVoids)) continue;
+            r -= remaining[s];
+            if (r < 0) return s;
+        }
+        return -1;
+    }
+
+    private boolean open(int seat, int suit, boolean respectVoids) {
+        return remaining[seat] > 0 && !(respectVoids && (voids[seat] & (1 << suit)) != 0);
+    }
+}
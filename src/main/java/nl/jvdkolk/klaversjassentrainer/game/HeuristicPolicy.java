@@ -0,0 +1,54 @@
+package nl.jvdkolk.klaversjassentrainer.game;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Cheap deterministic rollout heuristic: lead a non-trump ace if possible, otherwise the cheapest card;
+ * when partner holds the trick add the most points, otherwise win as cheaply as possible or discard the cheapest card.
+ */
+public final class HeuristicPolicy implements Policy {
+    @Override
+    public int choose(PlayState state, int legal) {
+        if (Integer.bitCount(legal) == 1) return Integer.numberOfTrailingZeros(legal);
+        int trump = state.trump();
+        if (state.trickSize() == 0) {
+            int aces = legal & ~suitMask(trump) & 0x01010101; // rank index 0 = A in every suit
+            if (aces != 0) return Integer.numberOfTrailingZeros(aces);
+            return cheapest(legal, trump);
+        }
+        boolean partnerWinning = state.trickSize() >= 2 && state.winningSlot() == state.trickSize() - 2;
+        if (partnerWinning) return richest(legal, trump);
+
+        int bestWinner = -1;
+        for (int m = legal; m != 0; m &= m - 1) {
+            int c = Integer.numberOfTrailingZeros(m);
+            if (!state.wouldWin(c)) continue;
+            if (bestWinner < 0 || cost(c, trump) < cost(bestWinner, trump)) bestWinner = c;
+        }
+        return bestWinner >= 0 ? bestWinner : cheapest(legal, trump);
+    }
+
+    // lower is cheaper to give away: points first, trumps are worth keeping, then rank strength
+    private static int cost(int card, int trump) {
+        return points(card, trump) * 32 + (suitOf(card) == trump ? 16 : 0) + strength(card, trump);
+    }
+
+    private static int cheapest(int mask, int trump) {
+        int best = -1;
+        for (int m = mask; m != 0; m &= m - 1) {
+            int c = Integer.numberOfTrailingZeros(m);
+            if (best < 0 || cost(c, trump) < cost(best, trump)) best = c;
+        }
+        return best;
+    }
+
+    private static int richest(int mask, int trump) {
+        int best = -1;
+        for (int m = mask; m != 0; m &= m - 1) {
+            int c = Integer.numberOfTrailingZeros(m);
+            if (best < 0 || points(c, trump) > points(best, trump)
+                    || (points(c, trump) == points(best, trump) && cost(c, trump) < cost(best, trump))) best = c;
+        }
+        return best;
+    }
+}
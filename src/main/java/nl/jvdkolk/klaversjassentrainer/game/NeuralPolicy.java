@@ -0,0 +1,30 @@
+package nl.jvdkolk.klaversjassentrainer.game;
+
+import nl.jvdkolk.klaversjassentrainer.train.PolicyNetwork;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.encodeInto;
+
+/** Greedy policy over a {@link PolicyNetwork}: the legal card with the highest output, ranked on legal logits only. */
+public final class NeuralPolicy implements Policy {
+    private final PolicyNetwork nn;
+    private final double[] x;
+    private final double[] logits;
+    private final double[] scratch;
+    private final int[] best = new int[1];
+
+    public NeuralPolicy(PolicyNetwork nn) {
+        this.nn = nn;
+        this.x = new double[nn.getInputSize()];
+        this.logits = new double[nn.getOutputSize()];
+        this.scratch = new double[nn.scratchSize()];
+    }
+
+    @Override
+    public int choose(PlayState state, int legal) {
+        if (Integer.bitCount(legal) == 1) return Integer.numberOfTrailingZeros(legal);
+        encodeInto(x, state.hand(state.toMove()), state.trick(), state.trickSize(), state.trump());
+        nn.logits(x, legal, logits, scratch);
+        PolicyNetwork.topK(logits, legal, best);
+        return best[0];
+    }
+}
@@ -0,0 +1,109 @@
+package nl.jvdkolk.klaversjassentrainer.game;
+
+import nl.jvdkolk.klaversjassentrainer.service.LegalityService;
+import nl.jvdkolk.klaversjassentrainer.train.CardUtil;
+
+/**
+ * Mutable trick-play state of one deal on card masks (see {@link nl.jvdkolk.klaversjassentrainer.train.CardUtil}).
+ * Designed for simulation inner loops: no allocation after construction, reuse via {@link #copyFrom}.
+ * Teams are (P0,P2) = 0 and (P1,P3) = 1; the last trick of the deal earns 10 extra points.
+ */
+public final class PlayState {
+    private final int[] hands = new int[4];
+    private final int[] trick = new int[4];
+    private final int[] teamPoints = new int[2];
+    private int trickSize;
+    private int leader;
+    private int trump;
+    private int tricksPlayed;
+    private int playedMask;
+    private int lastTrickWinner = -1;
+
+    public void reset(int trump, int leader) {
+        for (int i = 0; i < 4; i++) { hands[i] = 0; trick[i] = 0; }
+        teamPoints[0] = 0;
+        teamPoints[1] = 0;
+        trickSize = 0;
+        this.leader = leader;
+        this.trump = trump;
+        tricksPlayed = 0;
+        playedMask = 0;
+        lastTrickWinner = -1;
+    }
+
+    public void copyFrom(PlayState o) {
+        System.arraycopy(o.hands, 0, hands, 0, 4);
+        System.arraycopy(o.trick, 0, trick, 0, 4);
+        teamPoints[0] = o.teamPoints[0];
+        teamPoints[1] = o.teamPoints[1];
+        trickSize = o.trickSize;
+        leader = o.leader;
+        trump = o.trump;
+        tricksPlayed = o.tricksPlayed;
+        playedMask = o.playedMask;
+        lastTrickWinner = o.lastTrickWinner;
+    }
+
+    public void setHand(int seat, int mask) { hands[seat] = mask; }
+
+    /** Puts a card on the table without taking it from a hand, for states reconstructed mid-trick. */
+    public void addToTrick(int card) {
+        trick[trickSize++] = card;
+        playedMask |= 1 << card;
+    }
+
+    public void setTricksPlayed(int tricksPlayed) { this.tricksPlayed = tricksPlayed; }
+    public void markPlayed(int mask) { playedMask |= mask; }
+
+    public int hand(int seat) { return hands[seat]; }
+    public int trickCard(int slot) { return trick[slot]; }
+    public int[] trick() { return trick; }
+    public int trickSize() { return trickSize; }
+    public int leader() { return leader; }
+    public int trump() { return trump; }
+    public int tricksPlayed() { return tricksPlayed; }
+    public int playedMask() { return playedMask; }
+    public int points(int team) { return teamPoints[team]; }
+    public int lastTrickWinner() { return lastTrickWinner; }
+    public int toMove() { return (leader + trickSize) & 3; }
+    public boolean isFinished() { return trickSize == 0 && (hands[0] | hands[1] | hands[2] | hands[3]) == 0; }
+
+    public int legalMoves() {
+        return LegalityService.legalMask(hands[toMove()], trick, trickSize, trump);
+    }
+
+    /** Slot of the card currently winning the trick; only meaningful when {@code trickSize() > 0}. */
+    public int winningSlot() {
+        return LegalityService.trickWinner(trick, trickSize, trump);
+    }
+
+    /** Whether {@code card}, played by the player to move, would take over the lead of the current trick. */
+    public boolean wouldWin(int card) {
+        if (trickSize == 0) return true;
+        trick[trickSize] = card;
+        return LegalityService.trickWinner(trick, trickSize + 1, trump) == trickSize;
+    }
+
+    /**
+     * Plays {@code card} for the player to move. Returns the seat that won the trick when this card completed it,
+     * otherwise -1.
+     */
+    public int play(int card) {
+        int seat = toMove();
+        hands[seat] &= ~(1 << card);
+        trick[trickSize++] = card;
+        playedMask |= 1 << card;
+        if (trickSize < 4) return -1;
+
+        int winner = (leader + LegalityService.trickWinner(trick, 4, trump)) & 3;
+        int pts = CardUtil.points(trick[0], trump) + CardUtil.points(trick[1], trump)
+                + CardUtil.points(trick[2], trump) + CardUtil.points(trick[3], trump);
+        tricksPlayed++;
+        if ((hands[0] | hands[1] | hands[2] | hands[3]) == 0) pts += 10;
+        teamPoints[winner & 1] += pts;
+        trickSize = 0;
+        leader = winner;
+        lastTrickWinner = winner;
+        return winner;
+    }
+}
@@ -0,0 +1,10 @@
+package nl.jvdkolk.klaversjassentrainer.game;
+
+/**
+ * Chooses a card for the player to move. Implementations are used from simulation inner loops, so they should
+ * not allocate per call; instances are not required to be thread-safe (create one per worker thread).
+ */
+public interface Policy {
+    /** Returns a card index contained in {@code legal} for {@code state.toMove()}. */
+    int choose(PlayState state, int legal);
+}
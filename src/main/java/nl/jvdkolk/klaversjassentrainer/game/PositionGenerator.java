@@ -0,0 +1,122 @@
+package nl.jvdkolk.klaversjassentrainer.game;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.suitOf;
+
+/**
+ * Random positions for training, evaluation and benchmarks that follow from a legal history: a fresh deal (random
+ * trump and leader) is played forward with uniformly random legal cards up to a sampled stage. The trick on the
+ * table, the hands of all four seats and the suits they showed out of are therefore consistent with each other,
+ * unlike a random hand next to unrelated table cards.
+ * <p>
+ * A stage is the hand size of the player to move (1-8) and the number of cards on the table (0-3), drawn with
+ * probability proportional to {@code handSizeWeights[size - 1] * trickSizeWeights[cards]}; uniform weights draw all
+ * 32 decision points of a deal equally often. Each generator owns its deck, {@link PlayState} and random source and
+ * does not allocate per position; use one per thread. The same seed and stages yield the same positions.
+ */
+public final class PositionGenerator {
+    private final SplittableRandom rnd;
+    private final double[] cumulative = new double[32]; // by cards already played, (8 - hand size) * 4 + table cards
+    private final int[] deck = DealSimulator.newDeck();
+    private final PlayState state = new PlayState();
+    private final int[] voids = new int[4];
+    private int legal;
+
+    /** Stage weights (8 by hand size, 4 by cards on the table); need not sum to one. Equal when all weights are. */
+    public record Stages(double[] handSizeWeights, double[] trickSizeWeights) {
+        public static final Stages UNIFORM = new Stages(new double[]{1, 1, 1, 1, 1, 1, 1, 1}, new double[]{1, 1, 1, 1});
+
+        public Stages {
+            if (handSizeWeights.length != 8 || trickSizeWeights.length != 4) {
+                throw new IllegalArgumentException("Need 8 hand size and 4 trick size weights, got "
+                        + handSizeWeights.length + " and " + trickSizeWeights.length);
+            }
+            double hands = 0, tricks = 0;
+            for (double w : handSizeWeights) hands += check(w);
+            for (double w : trickSizeWeights) tricks += check(w);
+            if (hands <= 0 || tricks <= 0) throw new IllegalArgumentException("Stage weights are all zero");
+        }
+
+        public static Stages of(List<Double> handSizeWeights, List<Double> trickSizeWeights) {
+            return new Stages(handSizeWeights.stream().mapToDouble(Double::doubleValue).toArray(),
+                    trickSizeWeights.stream().mapToDouble(Double::doubleValue).toArray());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Stages s && Arrays.equals(handSizeWeights, s.handSizeWeights)
+                    && Arrays.equals(trickSizeWeights, s.trickSizeWeights);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(handSizeWeights) + Arrays.hashCode(trickSizeWeights);
+        }
+
+        @Override
+        public String toString() {
+            return "hand sizes " + Arrays.toString(handSizeWeights) + ", trick sizes " + Arrays.toString(trickSizeWeights);
+        }
+
+        private static double check(double w) {
+            if (!(w >= 0) || Double.isInfinite(w)) throw new IllegalArgumentException("Invalid stage weight " + w);
+            return w;
+        }
+    }
+
+    public PositionGenerator(long seed, Stages stages) {
+        this(new SplittableRandom(seed), stages);
+    }
+
+    public PositionGenerator(SplittableRandom rnd, Stages stages) {
+        this.rnd = rnd;
+        double sum = 0;
+        for (int plays = 0; plays < 32; plays++) {
+            sum += stages.handSizeWeights()[7 - plays / 4] * stages.trickSizeWeights()[plays % 4];
+            cumulative[plays] = sum;
+        }
+        for (int plays = 0; plays < 32; plays++) cumulative[plays] /= sum;
+        cumulative[31] = 1.0;
+    }
+
+    /** Draws the next position; the returned state is reused and valid until the next call. */
+    public PlayState next() {
+        DealSimulator.deal(rnd, deck, state, rnd.nextInt(4), rnd.nextInt(4));
+        voids[0] = voids[1] = voids[2] = voids[3] = 0;
+        for (int plays = stage(); plays > 0; plays--) {
+            int card = pick(state.legalMoves());
+            if (state.trickSize() > 0) {
+                int led = suitOf(state.trickCard(0));
+                if (suitOf(card) != led) voids[state.toMove()] |= 1 << led;
+            }
+            state.play(card);
+        }
+        legal = state.legalMoves();
+        return state;
+    }
+
+    public PlayState state() { return state; }
+    public int toMove() { return state.toMove(); }
+    /** Hand of the player to move. */
+    public int hand() { return state.hand(state.toMove()); }
+    /** Legal cards of the player to move. */
+    public int legal() { return legal; }
+    /** Suits (bit per suit index) {@code seat} has shown out of so far in this deal. */
+    public int voids(int seat) { return voids[seat]; }
+
+    // cards already played in the deal, drawn from the stage distribution
+    private int stage() {
+        double u = rnd.nextDouble();
+        int plays = 0;
+        while (cumulative[plays] <= u && plays < 31) plays++;
+        return plays;
+    }
+
+    private int pick(int mask) {
+        for (int k = rnd.nextInt(Integer.bitCount(mask)); k > 0; k--) mask &= mask - 1;
+        return Integer.numberOfTrailingZeros(mask);
+    }
+}
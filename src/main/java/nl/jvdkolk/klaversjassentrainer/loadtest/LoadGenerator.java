@@ -0,0 +1,214 @@
+package nl.jvdkolk.klaversjassentrainer.loadtest;
+
+import nl.jvdkolk.klaversjassentrainer.KlaversJassenTrainerApplication;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for {@code /v1/best-card}. A fixed number of worker threads each send requests on a fixed
+ * schedule ({@code rate / concurrency} per thread) using pre-generated valid game states.
+ * <p>
+ * Latency is measured from the <em>intended</em> send time of each request, so a stalled server shows up as queueing
+ * delay instead of silently lowering the request rate (coordinated omission). The raw service time, measured from
+ * the actual send, is reported alongside. With {@code --rate=0} the workers run an unthrottled closed loop and the
+ * correction falls back to HdrHistogram's expected-interval back-fill, using the mean service time seen in warm-up.
+ * <p>
+ * Usage: {@code LoadGenerator [--url=http://localhost:8080/v1/best-card | --in-process] [--concurrency=16]
+ * [--rate=500] [--duration=30] [--warmup=5] [--states=10000] [--seed=42] [--scoring-mode=simple] [--hgrm=file]}
+ */
+public final class LoadGenerator {
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final int OK = 0;
+    private static final int CLIENT_ERROR = 1;
+    private static final int SERVER_ERROR = 2;
+    private static final int IO_ERROR = 3;
+
+    private final HttpClient client;
+    private final URI uri;
+    private final List<String> bodies;
+    private final int concurrency;
+    private final double rate;
+    private final Recorder corrected = new Recorder(3);   // microseconds from intended send
+    private final Recorder uncorrected = new Recorder(3); // microseconds from actual send
+    private final AtomicLongArray outcomes = new AtomicLongArray(4);
+
+    public LoadGenerator(URI uri, List<String> bodies, int concurrency, double rate) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        this.uri = uri;
+        this.bodies = bodies;
+        this.concurrency = Math.max(1, concurrency);
+        this.rate = Math.max(0.0, rate);
+    }
+
+    /** Runs warm-up (discarded) followed by the measured window. */
+    public Report run(Duration warmup, Duration duration) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureStart = start + warmup.toNanos();
+        long end = measureStart + duration.toNanos();
+        long interval = rate > 0 ? (long) (1e9 * concurrency / rate) : 0L;
+        long[] warmupService = new long[2]; // {sum of nanos, count}, guarded by itself
+
+        Thread[] workers = new Thread[concurrency];
+        for (int w = 0; w < concurrency; w++) {
+            int worker = w;
+            // stagger the schedules so the workers don't fire in bursts
+            workers[w] = Thread.ofPlatform().name("load-" + w).daemon().start(() ->
+                    runWorker(worker, start + worker * interval / concurrency, interval, measureStart, end, warmupService));
+        }
+        for (Thread t : workers) t.join();
+        long elapsed = System.nanoTime() - measureStart;
+        return new Report(corrected.getIntervalHistogram(), uncorrected.getIntervalHistogram(),
+                outcomes.get(OK), outcomes.get(CLIENT_ERROR), outcomes.get(SERVER_ERROR), outcomes.get(IO_ERROR),
+                elapsed, rate, concurrency);
+    }
+
+    private void runWorker(int worker, long firstSend, long interval, long measureStart, long end, long[] warmupService) {
+        int next = worker % bodies.size();
+        long intended = firstSend;
+        long expectedInterval = 0; // microseconds, closed-loop mode only
+        boolean measuring = false;
+        while (true) {
+            if (interval > 0) {
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+            } else {
+                intended = System.nanoTime();
+            }
+            if (intended >= end) return;
+            if (!measuring && intended >= measureStart) {
+                measuring = true;
+                if (interval == 0) {
+                    synchronized (warmupService) {
+                        expectedInterval = warmupService[1] == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(warmupService[0] / warmupService[1]);
+                    }
+                }
+            }
+
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofSeconds(10))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(bodies.get(next), StandardCharsets.UTF_8))
+                    .build();
+            next += concurrency;
+            if (next >= bodies.size()) next = worker % bodies.size();
+            long sent = System.nanoTime();
+            int outcome;
+            try {
+                int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                outcome = status < 400 ? OK : status < 500 ? CLIENT_ERROR : SERVER_ERROR;
+            } catch (IOException e) {
+                outcome = IO_ERROR;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long done = System.nanoTime();
+
+            if (!measuring) {
+                synchronized (warmupService) {
+                    warmupService[0] += done - sent;
+                    warmupService[1]++;
+                }
+            } else {
+                outcomes.incrementAndGet(outcome);
+                long service = TimeUnit.NANOSECONDS.toMicros(done - sent);
+                uncorrected.recordValue(service);
+                if (interval > 0) {
+                    corrected.recordValue(TimeUnit.NANOSECONDS.toMicros(done - intended));
+                } else {
+                    // back-fills the requests a stalled closed loop failed to send
+                    corrected.recordValueWithExpectedInterval(service, expectedInterval);
+                }
+            }
+            intended += interval;
+        }
+    }
+
+    public record Report(Histogram corrected, Histogram uncorrected, long ok, long clientErrors, long serverErrors,
+                         long ioErrors, long elapsedNanos, double targetRate, int concurrency) {
+        public long completed() { return ok + clientErrors + serverErrors + ioErrors; }
+        public double throughput() { return completed() / Math.max(elapsedNanos / 1e9, 1e-9); }
+
+        public void print(PrintStream out) {
+            out.printf(Locale.ROOT, "concurrency=%d target=%s achieved=%.1f req/s over %.1f s%n", concurrency,
+                    targetRate > 0 ? String.format(Locale.ROOT, "%.1f req/s", targetRate) : "unthrottled",
+                    throughput(), elapsedNanos / 1e9);
+            out.printf(Locale.ROOT, "responses: ok=%d 4xx=%d 5xx=%d io-errors=%d%n", ok, clientErrors, serverErrors, ioErrors);
+            out.printf(Locale.ROOT, "%-12s %10s %10s %10s %10s %10s %10s%n", "latency(ms)", "p50", "p90", "p99", "p99.9", "p99.99", "max");
+            row(out, "corrected", corrected);
+            row(out, "uncorrected", uncorrected);
+        }
+
+        private static void row(PrintStream out, String name, Histogram h) {
+            out.printf(Locale.ROOT, "%-12s %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f%n", name,
+                    h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                    h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0,
+                    h.getValueAtPercentile(99.99) / 1000.0, h.getMaxValue() / 1000.0);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + a);
+            int eq = a.indexOf('=');
+            opts.put(eq < 0 ? a.substring(2) : a.substring(2, eq), eq < 0 ? "true" : a.substring(eq + 1));
+        }
+        int concurrency = Integer.parseInt(opts.getOrDefault("concurrency", "16"));
+        double rate = Double.parseDouble(opts.getOrDefault("rate", "500"));
+        Duration duration = Duration.ofSeconds(Long.parseLong(opts.getOrDefault("duration", "30")));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(opts.getOrDefault("warmup", "5")));
+        int states = Integer.parseInt(opts.getOrDefault("states", "10000"));
+        long seed = Long.parseLong(opts.getOrDefault("seed", "42"));
+
+        List<String> bodies = new RequestGenerator(seed, opts.get("scoring-mode")).generate(states);
+        ConfigurableApplicationContext context = null;
+        URI uri;
+        if (Boolean.parseBoolean(opts.getOrDefault("in-process", "false"))) {
+            // random port; command-line arguments take precedence over application.yml
+            context = new SpringApplication(KlaversJassenTrainerApplication.class).run("--server.port=0");
+            uri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/v1/best-card");
+        } else {
+            uri = URI.create(opts.getOrDefault("url", "http://localhost:8080/v1/best-card"));
+        }
+        try {
+            log.info("Load test against {}: {} states, concurrency={}, rate={}, warmup={} s, duration={} s",
+                    uri, bodies.size(), concurrency, rate, warmup.toSeconds(), duration.toSeconds());
+            Report report = new LoadGenerator(uri, bodies, concurrency, rate).run(warmup, duration);
+            report.print(System.out);
+            String hgrm = opts.get("hgrm");
+            if (hgrm != null) {
+                try (PrintStream out = new PrintStream(Files.newOutputStream(Path.of(hgrm)), true, StandardCharsets.UTF_8)) {
+                    report.corrected().outputPercentileDistribution(out, 1000.0); // microseconds -> ms
+                }
+                log.info("Wrote corrected latency distribution to {}", hgrm);
+            }
+        } finally {
+            if (context != null) context.close();
+        }
+    }
+}
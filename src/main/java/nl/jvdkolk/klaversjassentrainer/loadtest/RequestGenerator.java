@@ -0,0 +1,96 @@
+package nl.jvdkolk.klaversjassentrainer.loadtest;
+
+import nl.jvdkolk.klaversjassentrainer.game.DealSimulator;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Generates valid {@code /v1/best-card} request bodies: a random deal is played forward with random legal moves
+ * (legality of {@link PlayState}, identical to the service) to a random point, and the position of the player to
+ * move is serialized with its table and trick history. The same seed yields the same bodies.
+ */
+public final class RequestGenerator {
+    private final SplittableRandom rnd;
+    private final String scoringMode;
+    private final int[] deck = DealSimulator.newDeck();
+    private final PlayState state = new PlayState();
+    private final StringBuilder json = new StringBuilder(1024);
+    private long sequence;
+
+    /** @param scoringMode scoring mode to put in every body, or null to leave it out */
+    public RequestGenerator(long seed, String scoringMode) {
+        this.rnd = new SplittableRandom(seed);
+        this.scoringMode = scoringMode;
+    }
+
+    public List<String> generate(int count) {
+        List<String> bodies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) bodies.add(next());
+        return bodies;
+    }
+
+    public String next() {
+        DealSimulator.deal(rnd, deck, state, rnd.nextInt(4), rnd.nextInt(4));
+        int plays = rnd.nextInt(32); // 0..31 cards already played, so there is always a card left to choose
+        json.setLength(0);
+        json.append("{\"history\":[");
+        int[] trick = new int[4];
+        boolean firstTrick = true;
+        for (int p = 0; p < plays; p++) {
+            int leader = state.leader();
+            int size = state.trickSize();
+            int before = state.points(0) + state.points(1);
+            int card = randomCard(state.legalMoves());
+            trick[size] = card;
+            int winner = state.play(card);
+            if (winner >= 0) {
+                if (!firstTrick) json.append(',');
+                firstTrick = false;
+                json.append("{\"leader\":").append(leader).append(",\"plays\":");
+                appendPlays(trick, 4, leader);
+                json.append(",\"winner\":").append(winner)
+                        .append(",\"points\":").append(state.points(0) + state.points(1) - before).append('}');
+            }
+        }
+        int seat = state.toMove();
+        int[] table = new int[4];
+        for (int i = 0; i < state.trickSize(); i++) table[i] = state.trickCard(i);
+        json.append("],\"table\":");
+        appendPlays(table, state.trickSize(), state.leader());
+        json.append(",\"hand\":[");
+        List<String> hand = toCards(state.hand(seat));
+        for (int i = 0; i < hand.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append('"').append(hand.get(i)).append('"');
+        }
+        json.append("],\"trump\":\"").append(SUITS[state.trump()]).append('"')
+                .append(",\"playerPosition\":").append(seat)
+                .append(",\"leaderPosition\":").append(state.leader())
+                .append(",\"partnerPosition\":").append((seat + 2) & 3);
+        if (scoringMode != null) json.append(",\"scoringMode\":\"").append(scoringMode).append('"');
+        json.append(",\"requestId\":\"load-").append(sequence++).append("\"}");
+        return json.toString();
+    }
+
+    private void appendPlays(int[] cards, int n, int leader) {
+        json.append('[');
+        for (int i = 0; i < n; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"player\":").append((leader + i) & 3)
+                    .append(",\"card\":\"").append(ALL_CARDS.get(cards[i])).append("\"}");
+        }
+        json.append(']');
+    }
+
+    private int randomCard(int legal) {
+        int k = rnd.nextInt(Integer.bitCount(legal));
+        for (int m = legal; ; m &= m - 1) {
+            if (k-- == 0) return Integer.numberOfTrailingZeros(m);
+        }
+    }
+}
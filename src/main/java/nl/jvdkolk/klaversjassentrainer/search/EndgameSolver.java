@@ -0,0 +1,141 @@
+package nl.jvdkolk.klaversjassentrainer.search;
+
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.train.CardUtil;
+
+/**
+ * Exact double-dummy search for the end of a deal: all four hands are known and both teams play optimally.
+ * Alpha-beta over {@link PlayState} copies (one per ply, so nothing is allocated during search), with results
+ * shared through a {@link TranspositionTable} and, at trick boundaries, looked up in an optional
+ * {@link EndgameTablebase}. Values are points including the last-trick bonus. One instance per thread; the
+ * table and tablebase may be shared.
+ */
+public final class EndgameSolver {
+    private static final int MAX_PLIES = 33;
+
+    private final TranspositionTable tt;
+    private final EndgameTablebase tablebase;
+    private final PlayState[] stack = new PlayState[MAX_PLIES];
+    private final int[] hands = new int[4];
+    private long nodes;
+    private long tablebaseHits;
+
+    /** @param tablebase precomputed trick-boundary values, or null to search everything */
+    public EndgameSolver(TranspositionTable tt, EndgameTablebase tablebase) {
+        this.tt = tt;
+        this.tablebase = tablebase;
+        for (int i = 0; i < MAX_PLIES; i++) stack[i] = new PlayState();
+    }
+
+    /** Points team 0 collects from this position to the end of the deal. */
+    public int solve(PlayState state) {
+        stack[0].copyFrom(state);
+        return search(0, -1, 256);
+    }
+
+    /**
+     * Points the team of the player to move collects from this position to the end of the deal when it plays
+     * {@code card} and both teams play optimally afterwards.
+     */
+    public int valueOf(PlayState state, int card) {
+        int team = state.toMove() & 1;
+        int total = remainingPoints(state);
+        PlayState s = stack[0];
+        s.copyFrom(state);
+        int before = s.points(0);
+        s.play(card);
+        int team0 = s.points(0) - before + search(0, -1, 256);
+        return team == 0 ? team0 : total - team0;
+    }
+
+    /** Legal card with the highest {@link #valueOf}; ties go to the lowest card index. */
+    public int bestMove(PlayState state) {
+        int best = -1;
+        int bestValue = -1;
+        for (int m = state.legalMoves(); m != 0; m &= m - 1) {
+            int card = Integer.numberOfTrailingZeros(m);
+            int v = valueOf(state, card);
+            if (v > bestValue) {
+                bestValue = v;
+                best = card;
+            }
+        }
+        return best;
+    }
+
+    public long nodes() { return nodes; }
+    public long tablebaseHits() { return tablebaseHits; }
+
+    /** Points still to be awarded: cards in hands and on the table plus the last-trick bonus. */
+    public static int remainingPoints(PlayState s) {
+        if (s.isFinished()) return 0;
+        int total = 10;
+        int trump = s.trump();
+        for (int seat = 0; seat < 4; seat++) {
+            for (int m = s.hand(seat); m != 0; m &= m - 1) total += CardUtil.points(Integer.numberOfTrailingZeros(m), trump);
+        }
+        for (int i = 0; i < s.trickSize(); i++) total += CardUtil.points(s.trickCard(i), trump);
+        return total;
+    }
+
+    // team 0 maximizes, team 1 minimizes the points team 0 collects from stack[ply] onwards
+    private int search(int ply, int alpha, int beta) {
+        PlayState s = stack[ply];
+        if (s.isFinished()) return 0;
+        nodes++;
+        if (tablebase != null && s.trickSize() == 0) {
+            int v = tablebase.lookup(s);
+            if (v >= 0) {
+                tablebaseHits++;
+                return v;
+            }
+        }
+
+        for (int seat = 0; seat < 4; seat++) hands[seat] = s.hand(seat);
+        long key = Zobrist.key(hands, s.trick(), s.trickSize(), s.toMove(), s.trump());
+        long data = tt.probe(key);
+        int ttMove = TranspositionTable.NO_MOVE;
+        if (data != 0L) {
+            int score = TranspositionTable.score(data);
+            int bound = TranspositionTable.bound(data);
+            if (bound == TranspositionTable.EXACT
+                    || (bound == TranspositionTable.LOWER && score >= beta)
+                    || (bound == TranspositionTable.UPPER && score <= alpha)) {
+                return score;
+            }
+            ttMove = TranspositionTable.bestMove(data);
+        }
+
+        boolean maximizing = (s.toMove() & 1) == 0;
+        int legal = s.legalMoves();
+        int best = maximizing ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        int bestMove = TranspositionTable.NO_MOVE;
+        int a = alpha;
+        int b = beta;
+        // previous best move first, then the rest in card order
+        int first = ttMove != TranspositionTable.NO_MOVE && (legal >>> ttMove & 1) != 0 ? ttMove : -1;
+        int rest = first >= 0 ? legal & ~(1 << first) : legal;
+        for (int card = first >= 0 ? first : Integer.numberOfTrailingZeros(rest); card < 32; ) {
+            PlayState child = stack[ply + 1];
+            child.copyFrom(s);
+            int before = child.points(0);
+            child.play(card);
+            int gained = child.points(0) - before;
+            int v = gained + search(ply + 1, a - gained, b - gained);
+            if (maximizing ? v > best : v < best) {
+                best = v;
+                bestMove = card;
+            }
+            if (maximizing) a = Math.max(a, v); else b = Math.min(b, v);
+            if (a >= b) break;
+            if (card == first) first = -1; else rest &= rest - 1;
+            card = rest == 0 ? 32 : Integer.numberOfTrailingZeros(rest);
+        }
+
+        int bound = best <= alpha ? TranspositionTable.UPPER
+                : best >= beta ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+        tt.store(key, best, bound, Integer.bitCount(hands[0] | hands[1] | hands[2] | hands[3]), bestMove);
+        return best;
+    }
+}
@@ -0,0 +1,278 @@
+package nl.jvdkolk.klaversjassentrainer.search;
+
+import nl.jvdkolk.klaversjassentrainer.game.DealSimulator;
+import nl.jvdkolk.klaversjassentrainer.game.HeuristicPolicy;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.Policy;
+import nl.jvdkolk.klaversjassentrainer.train.CardUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+
+/**
+ * Memory-mapped table of exact double-dummy values of end positions at trick boundaries (two or three tricks
+ * left), consulted by {@link EndgameSolver} before it searches.
+ * <p>
+ * Positions are canonicalized before lookup: seats are rotated so the leader is seat 0, the trump suit becomes
+ * suit 0 and the other suits take whichever order gives the smallest key (the rules are symmetric in them). A key
+ * is the canonical remaining-card mask in the high 32 bits and two bits of seat per remaining card, in card
+ * order, in the low bits. Each entry stores the points the leading team collects until the end of the deal and
+ * the canonical best lead.
+ * <p>
+ * The full position space (billions of deals with two tricks left) does not fit a file, so the table is built
+ * from the positions that simulated deals actually reach; everything else is searched. File layout: magic
+ * {@code KJEB}, version, max cards per hand, count, sorted keys (long), values (short: points | best card << 8),
+ * all little-endian.
+ */
+public final class EndgameTablebase implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(EndgameTablebase.class);
+    private static final int MAGIC = 0x4B4A4542; // "KJEB"
+    private static final int VERSION = 1;
+    private static final int HEADER = 24;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final int[][] SUIT_ORDERS = {{1, 2, 3}, {1, 3, 2}, {2, 1, 3}, {2, 3, 1}, {3, 1, 2}, {3, 2, 1}};
+    // per trump suit, every suit permutation that maps trump to 0, two bits of canonical suit per suit
+    private static final int[][] SUIT_MAPS = new int[4][SUIT_ORDERS.length];
+
+    static {
+        for (int trump = 0; trump < 4; trump++) {
+            for (int i = 0; i < SUIT_ORDERS.length; i++) {
+                int map = 0;
+                for (int suit = 0, j = 0; suit < 4; suit++) {
+                    if (suit != trump) map |= SUIT_ORDERS[i][j++] << (2 * suit);
+                }
+                SUIT_MAPS[trump][i] = map;
+            }
+        }
+    }
+
+    private final Arena arena;
+    private final MemorySegment data;
+    private final int maxCards;
+    private final long count;
+
+    private EndgameTablebase(Arena arena, MemorySegment data) throws IOException {
+        this.arena = arena;
+        this.data = data;
+        if (data.byteSize() < HEADER || data.get(INT, 0) != MAGIC) {
+            throw new IOException("Not an endgame tablebase");
+        }
+        int version = data.get(INT, 4);
+        if (version != VERSION) throw new IOException("Unsupported endgame tablebase version " + version);
+        this.maxCards = data.get(INT, 8);
+        this.count = data.get(LONG, 16);
+        if (data.byteSize() != HEADER + count * 10) throw new IOException("Truncated endgame tablebase");
+    }
+
+    public static EndgameTablebase open(Path file) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new EndgameTablebase(arena, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size(), arena));
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /** Largest number of cards per hand covered by the table. */
+    public int maxCards() { return maxCards; }
+    public long size() { return count; }
+    public long sizeInBytes() { return data.byteSize(); }
+
+    /**
+     * Points team 0 collects from this trick boundary to the end of the deal, or -1 when the position is not in
+     * the table.
+     */
+    public int lookup(PlayState s) {
+        int cards = Integer.bitCount(s.hand(s.leader()));
+        if (s.trickSize() != 0 || cards < 2 || cards > maxCards) return -1;
+        long index = find(canonicalKey(s));
+        if (index < 0) return -1;
+        int leaderTeam = data.get(SHORT, HEADER + count * 8 + index * 2) & 0xFF;
+        return (s.leader() & 1) == 0 ? leaderTeam : EndgameSolver.remainingPoints(s) - leaderTeam;
+    }
+
+    private long find(long key) {
+        long lo = 0;
+        long hi = count - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long k = data.get(LONG, HEADER + mid * 8);
+            if (k < key) lo = mid + 1;
+            else if (k > key) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /** Canonical key of a trick-boundary position (see class comment). */
+    public static long canonicalKey(PlayState s) {
+        long best = Long.MAX_VALUE;
+        for (int suitMap : SUIT_MAPS[s.trump()]) best = Math.min(best, key(s, suitMap));
+        return best;
+    }
+
+    private static long key(PlayState s, int suitMap) {
+        int remaining = 0;
+        long seatOf = 0L; // 2 bits per canonical card index
+        for (int seat = 0; seat < 4; seat++) {
+            int rel = (seat - s.leader()) & 3;
+            for (int m = s.hand(seat); m != 0; m &= m - 1) {
+                int card = Integer.numberOfTrailingZeros(m);
+                int c = ((suitMap >>> (2 * CardUtil.suitOf(card)) & 3) << 3) | CardUtil.rankOf(card);
+                remaining |= 1 << c;
+                seatOf |= (long) rel << (2 * c);
+            }
+        }
+        long assignment = 0L;
+        int shift = 0;
+        for (int m = remaining; m != 0; m &= m - 1, shift += 2) {
+            assignment |= ((seatOf >>> (2 * Integer.numberOfTrailingZeros(m))) & 3L) << shift;
+        }
+        return ((remaining & 0xFFFFFFFFL) << 32) | assignment;
+    }
+
+    /** Resets {@code s} to the canonical position of {@code key}: trump suit 0, seat 0 to lead. */
+    static void decode(long key, PlayState s) {
+        s.reset(0, 0);
+        int remaining = (int) (key >>> 32);
+        int[] hands = new int[4];
+        int shift = 0;
+        for (int m = remaining; m != 0; m &= m - 1, shift += 2) {
+            hands[(int) (key >>> shift) & 3] |= m & -m;
+        }
+        for (int seat = 0; seat < 4; seat++) s.setHand(seat, hands[seat]);
+        s.setTricksPlayed(8 - Integer.bitCount(hands[0]));
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    /**
+     * Plays {@code deals} simulated deals (heuristic and random play mixed), collects the distinct canonical
+     * positions with 2..{@code maxCards} cards per hand, solves them in parallel and writes the table.
+     */
+    public static void build(Path file, long deals, int maxCards, int threads, long seed) throws Exception {
+        if (maxCards < 2 || maxCards > 4) throw new IllegalArgumentException("maxCards must be 2..4: " + maxCards);
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try (TranspositionTable tt = new TranspositionTable(256)) {
+            SplittableRandom root = new SplittableRandom(seed);
+            List<Future<long[]>> parts = new ArrayList<>();
+            for (int w = 0; w < threads; w++) {
+                long share = deals / threads + (w < deals % threads ? 1 : 0);
+                SplittableRandom rnd = root.split();
+                parts.add(pool.submit(() -> collect(share, maxCards, rnd)));
+            }
+            long[] keys = new long[0];
+            for (Future<long[]> f : parts) {
+                long[] part = f.get();
+                int n = keys.length;
+                keys = Arrays.copyOf(keys, n + part.length);
+                System.arraycopy(part, 0, keys, n, part.length);
+            }
+            Arrays.parallelSort(keys);
+            int distinct = 0;
+            for (int i = 0; i < keys.length; i++) if (i == 0 || keys[i] != keys[i - 1]) keys[distinct++] = keys[i];
+            long[] sorted = Arrays.copyOf(keys, distinct);
+            log.info("Collected {} distinct end positions from {} deals", distinct, deals);
+
+            short[] values = new short[distinct];
+            List<Future<?>> solved = new ArrayList<>();
+            for (int w = 0; w < threads; w++) {
+                int worker = w;
+                solved.add(pool.submit(() -> {
+                    EndgameSolver solver = new EndgameSolver(tt, null);
+                    PlayState s = new PlayState();
+                    for (int i = worker; i < sorted.length; i += threads) {
+                        decode(sorted[i], s);
+                        int best = solver.bestMove(s);
+                        values[i] = (short) (solver.valueOf(s, best) | best << 8);
+                    }
+                }));
+            }
+            for (Future<?> f : solved) f.get();
+
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+                out.writeInt(Integer.reverseBytes(MAGIC));
+                out.writeInt(Integer.reverseBytes(VERSION));
+                out.writeInt(Integer.reverseBytes(maxCards));
+                out.writeInt(0);
+                out.writeLong(Long.reverseBytes(distinct));
+                for (long k : sorted) out.writeLong(Long.reverseBytes(k));
+                for (short v : values) out.writeShort(Short.reverseBytes(v));
+            }
+            log.info("Wrote {} positions ({} KB) to {} in {} s (tt hit rate {})", distinct,
+                    Files.size(file) >> 10, file, (System.nanoTime() - start) / 1_000_000_000L,
+                    String.format(Locale.ROOT, "%.2f", tt.stats().hitRate()));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static long[] collect(long deals, int maxCards, SplittableRandom rnd) {
+        Policy heuristic = new HeuristicPolicy();
+        int[] deck = DealSimulator.newDeck();
+        PlayState s = new PlayState();
+        long[] keys = new long[1024];
+        int n = 0;
+        for (long d = 0; d < deals; d++) {
+            DealSimulator.deal(rnd, deck, s, rnd.nextInt(4), rnd.nextInt(4));
+            boolean random = (d & 1) == 1;
+            while (!s.isFinished()) {
+                int left = 8 - s.tricksPlayed();
+                if (s.trickSize() == 0 && left >= 2 && left <= maxCards) {
+                    if (n == keys.length) keys = Arrays.copyOf(keys, n * 2);
+                    keys[n++] = canonicalKey(s);
+                }
+                int legal = s.legalMoves();
+                int card;
+                if (random) {
+                    int k = rnd.nextInt(Integer.bitCount(legal));
+                    int m = legal;
+                    while (k-- > 0) m &= m - 1;
+                    card = Integer.numberOfTrailingZeros(m);
+                } else {
+                    card = heuristic.choose(s, legal);
+                }
+                s.play(card);
+            }
+        }
+        return Arrays.copyOf(keys, n);
+    }
+
+    /** Offline generator: {@code EndgameTablebase <out-file> [deals] [maxCards] [threads]}. */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: EndgameTablebase <out-file> [deals] [maxCards] [threads]");
+            System.exit(2);
+        }
+        long deals = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000L;
+        int maxCards = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        build(Path.of(args[0]), deals, maxCards, threads, 42L);
+    }
+}
@@ -0,0 +1,513 @@
+package nl.jvdkolk.klaversjassentrainer.search;
+
+import nl.jvdkolk.klaversjassentrainer.game.DealSimulator;
+import nl.jvdkolk.klaversjassentrainer.game.HeuristicPolicy;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.Policy;
+import nl.jvdkolk.klaversjassentrainer.train.PolicyNetwork;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.SUIT_MASK;
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.encodeInto;
+
+/**
+ * Memory-mapped book of opening leads: the best {@value #LEADS} cards to lead to the first trick, best first, for a
+ * canonical (hand, trump, seat relative to the bidder) state.
+ * <p>
+ * Hands are canonicalized like {@link EndgameTablebase} positions: trump becomes suit 0 and the other suits take
+ * the order that gives the smallest mask. A book built by a scorer that ignores the bidder (the model) has one
+ * section; otherwise there is a section per seat relative to the bidder (0 = bidder, 1 = left of the bidder,
+ * 2 = partner, 3 = right). Within a section the sorted hand masks are split into blocks of {@value #BLOCK}; the
+ * block index (first mask, data offset) is binary searched and the block decoded linearly. Each entry is a varint
+ * of the gap to the previous mask shifted left by 9, or-ed with the positions of the leads among the hand's cards in
+ * three bits each, best in the lowest bits; a position equal to the one before it ends the ranking. A complete book
+ * takes under three bytes per entry. Version 1 books hold the best lead only, in three bits, and are still read.
+ * <p>
+ * File layout, little-endian: magic {@code KJLB}, version, sections, block size; per section count, block count,
+ * index offset, data offset (int, int, long, long); block index entries (int mask, int offset); data bytes.
+ */
+public final class LeadBook implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(LeadBook.class);
+    private static final int MAGIC = 0x4B4A4C42; // "KJLB"
+    private static final int VERSION = 2;
+    private static final int HEADER = 16;
+    private static final int SECTION = 24;
+    static final int BLOCK = 128;
+    /** Leads ranked per entry. */
+    public static final int LEADS = 3;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final int[][] SUIT_ORDERS = {{1, 2, 3}, {1, 3, 2}, {2, 1, 3}, {2, 3, 1}, {3, 1, 2}, {3, 2, 1}};
+    private static final int BIDDER_NEEDS = 82; // more than half of the 162 card points, otherwise "nat"
+
+    /** Ranks the leads for a canonical hand: trump is suit 0 and the player to lead sits on seat 0. */
+    public interface Scorer {
+        /** Writes the best (at most {@code leads.length}) cards to lead into {@code leads}, best first; returns the count. */
+        int rank(int hand, int seatFromBidder, int[] leads);
+
+        /** False when {@link #lead} ignores {@code seatFromBidder}; the book then has a single section. */
+        boolean seatAware();
+    }
+
+    private final Arena arena;
+    private final MemorySegment data;
+    private final int sections;
+    private final int slotBits; // 3 bits per ranked lead
+    private final int[] counts;
+    private final int[] blocks;
+    private final long[] indexOffsets;
+    private final long[] dataOffsets;
+
+    private LeadBook(Arena arena, MemorySegment data) throws IOException {
+        this.arena = arena;
+        this.data = data;
+        if (data.byteSize() < HEADER || data.get(INT, 0) != MAGIC) throw new IOException("Not a lead book");
+        int version = data.get(INT, 4);
+        if (version != 1 && version != VERSION) throw new IOException("Unsupported lead book version " + version);
+        this.slotBits = version == 1 ? 3 : 3 * LEADS;
+        this.sections = data.get(INT, 8);
+        if ((sections != 1 && sections != 4) || data.get(INT, 12) != BLOCK) throw new IOException("Corrupt lead book header");
+        this.counts = new int[sections];
+        this.blocks = new int[sections];
+        this.indexOffsets = new long[sections];
+        this.dataOffsets = new long[sections];
+        for (int s = 0; s < sections; s++) {
+            long at = HEADER + (long) s * SECTION;
+            counts[s] = data.get(INT, at);
+            blocks[s] = data.get(INT, at + 4);
+            indexOffsets[s] = data.get(LONG, at + 8);
+            dataOffsets[s] = data.get(LONG, at + 16);
+            if (indexOffsets[s] + blocks[s] * 8L > data.byteSize() || dataOffsets[s] > data.byteSize()) {
+                throw new IOException("Truncated lead book");
+            }
+        }
+    }
+
+    public static LeadBook open(Path file) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new LeadBook(arena, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size(), arena));
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /** Whether the lead depends on the seat relative to the bidder, so lookups need to know the bidder. */
+    public boolean seatAware() { return sections == 4; }
+    public long size() { long n = 0; for (int c : counts) n += c; return n; }
+    public long sizeInBytes() { return data.byteSize(); }
+
+    /**
+     * The card to lead from an eight-card {@code hand} (mask) with {@code trump}, or -1 when the state is not in the
+     * book. {@code seatFromBidder} is ignored by a book without seat sections.
+     */
+    public int lookup(int hand, int trump, int seatFromBidder) {
+        int[] leads = new int[1];
+        return lookup(hand, trump, seatFromBidder, leads) == 0 ? -1 : leads[0];
+    }
+
+    /**
+     * As {@link #lookup(int, int, int)}, writing the book's ranked leads (at most {@code leads.length}) into
+     * {@code leads}, best first; returns the count, 0 when the state is not in the book.
+     */
+    public int lookup(int hand, int trump, int seatFromBidder, int[] leads) {
+        if (Integer.bitCount(hand) != 8) return 0;
+        int section = sections == 1 ? 0 : seatFromBidder & 3;
+        int[] suitMap = new int[4];
+        int order = canonicalOrder(hand, trump, suitMap);
+        fillSuitMap(trump, SUIT_ORDERS[order], suitMap);
+        int key = remap(hand, suitMap);
+
+        int slots = find(section, key);
+        if (slots < 0) return 0;
+        int[] realSuit = new int[4];
+        for (int suit = 0; suit < 4; suit++) realSuit[suitMap[suit]] = suit;
+        int n = 0;
+        for (int i = 0, prev = -1; i < slotBits / 3 && n < leads.length; i++) {
+            int slot = slots >>> (3 * i) & 7;
+            if (slot == prev) break;
+            prev = slot;
+            int m = key;
+            while (slot-- > 0) m &= m - 1;
+            int canonical = Integer.numberOfTrailingZeros(m);
+            leads[n++] = realSuit[canonical >>> 3] << 3 | canonical & 7;
+        }
+        return n;
+    }
+
+    // ranked lead slots of key in section, or -1
+    private int find(int section, int key) {
+        long index = indexOffsets[section];
+        int lo = 0;
+        int hi = blocks[section] - 1;
+        int block = -1;
+        while (lo <= hi) { // last block whose first key <= key
+            int mid = (lo + hi) >>> 1;
+            if (Integer.compareUnsigned(data.get(INT, index + mid * 8L), key) <= 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block < 0) return -1;
+        long k = Integer.toUnsignedLong(data.get(INT, index + block * 8L));
+        long at = dataOffsets[section] + Integer.toUnsignedLong(data.get(INT, index + block * 8L + 4));
+        int entries = Math.min(BLOCK, counts[section] - block * BLOCK);
+        long target = Integer.toUnsignedLong(key);
+        for (int i = 0; i < entries; i++) {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(ValueLayout.JAVA_BYTE, at++);
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            k += v >>> slotBits;
+            if (k == target) return (int) (v & ((1 << slotBits) - 1));
+            if (k > target) return -1;
+        }
+        return -1;
+    }
+
+    /** Canonical mask of {@code hand} under {@code trump} (see class comment). */
+    public static int canonicalHand(int hand, int trump) {
+        int[] suitMap = new int[4];
+        fillSuitMap(trump, SUIT_ORDERS[canonicalOrder(hand, trump, suitMap)], suitMap);
+        return remap(hand, suitMap);
+    }
+
+    private static int canonicalOrder(int hand, int trump, int[] suitMap) {
+        int best = 0;
+        long bestKey = Long.MAX_VALUE;
+        for (int o = 0; o < SUIT_ORDERS.length; o++) {
+            fillSuitMap(trump, SUIT_ORDERS[o], suitMap);
+            long key = Integer.toUnsignedLong(remap(hand, suitMap));
+            if (key < bestKey) {
+                bestKey = key;
+                best = o;
+            }
+        }
+        return best;
+    }
+
+    private static void fillSuitMap(int trump, int[] order, int[] suitMap) {
+        suitMap[trump] = 0;
+        for (int suit = 0, j = 0; suit < 4; suit++) if (suit != trump) suitMap[suit] = order[j++];
+    }
+
+    private static int remap(int hand, int[] suitMap) {
+        int out = 0;
+        for (int suit = 0; suit < 4; suit++) out |= ((hand >>> (suit << 3)) & SUIT_MASK) << (suitMap[suit] << 3);
+        return out;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    /**
+     * Ranks leads by the model's probabilities summed over the 24 real hands a canonical hand stands for (every trump
+     * suit and order of the other suits), mapped back to canonical cards: the network sees real suits, and a book
+     * entry answers all of them. The network does not see the bidder, so the book has one section.
+     */
+    public static Supplier<Scorer> modelScorer(PolicyNetwork nn) {
+        return () -> {
+            double[] x = new double[nn.getInputSize()];
+            double[] p = new double[nn.getOutputSize()];
+            double[] scratch = new double[nn.scratchSize()];
+            double[] sums = new double[32];
+            int[] trick = new int[4];
+            int[] suitMap = new int[4];
+            return new Scorer() {
+                @Override
+                public int rank(int hand, int seatFromBidder, int[] leads) {
+                    Arrays.fill(sums, 0.0);
+                    for (int trump = 0; trump < 4; trump++) {
+                        for (int[] order : SUIT_ORDERS) {
+                            fillSuitMap(trump, order, suitMap); // real suit -> canonical suit
+                            int real = 0;
+                            for (int suit = 0; suit < 4; suit++) {
+                                real |= ((hand >>> (suitMap[suit] << 3)) & SUIT_MASK) << (suit << 3);
+                            }
+                            encodeInto(x, real, trick, 0, trump);
+                            nn.logits(x, real, p, scratch);
+                            PolicyNetwork.softmax(p, real);
+                            for (int m = real; m != 0; m &= m - 1) {
+                                int card = Integer.numberOfTrailingZeros(m);
+                                sums[suitMap[card >>> 3] << 3 | card & 7] += p[card];
+                            }
+                        }
+                    }
+                    return PolicyNetwork.topK(sums, hand, leads);
+                }
+
+                @Override
+                public boolean seatAware() { return false; }
+            };
+        };
+    }
+
+    /**
+     * Ranks leads by their average score over {@code samples} random deals of the other 24 cards, each lead
+     * played out with {@link HeuristicPolicy} on the same deals. The score is the leading team's points after the
+     * contract is settled: a bidding team with fewer than {@value #BIDDER_NEEDS} points goes "nat" and the
+     * defenders take all 162, which is what makes the lead depend on the seat relative to the bidder. Roem and the
+     * pit bonus are not modelled.
+     */
+    public static Supplier<Scorer> rolloutScorer(int samples, long seed) {
+        SplittableRandom root = new SplittableRandom(seed);
+        return () -> {
+            SplittableRandom rnd;
+            synchronized (root) {
+                rnd = root.split();
+            }
+            Policy policy = new HeuristicPolicy();
+            PlayState dealt = new PlayState();
+            PlayState work = new PlayState();
+            int[] rest = new int[24];
+            double[] sums = new double[32];
+            return new Scorer() {
+                @Override
+                public int rank(int hand, int seatFromBidder, int[] leads) {
+                    int bidderTeam = seatFromBidder & 1; // the leader sits on seat 0
+                    int others = ~hand;
+                    for (int i = 0; others != 0; others &= others - 1) rest[i++] = Integer.numberOfTrailingZeros(others);
+                    Arrays.fill(sums, 0.0);
+                    for (int n = 0; n < samples; n++) {
+                        for (int i = 23; i > 0; i--) {
+                            int j = rnd.nextInt(i + 1);
+                            int t = rest[i]; rest[i] = rest[j]; rest[j] = t;
+                        }
+                        dealt.reset(0, 0);
+                        dealt.setHand(0, hand);
+                        for (int seat = 1; seat < 4; seat++) {
+                            int h = 0;
+                            for (int k = (seat - 1) * 8; k < seat * 8; k++) h |= 1 << rest[k];
+                            dealt.setHand(seat, h);
+                        }
+                        for (int m = hand; m != 0; m &= m - 1) {
+                            int card = Integer.numberOfTrailingZeros(m);
+                            work.copyFrom(dealt);
+                            work.play(card);
+                            while (!work.isFinished()) work.play(policy.choose(work, work.legalMoves()));
+                            int bidders = work.points(bidderTeam);
+                            int team0 = bidders < BIDDER_NEEDS
+                                    ? (bidderTeam == 0 ? 0 : 162)
+                                    : work.points(0);
+                            sums[card] += team0;
+                        }
+                    }
+                    return PolicyNetwork.topK(sums, hand, leads);
+                }
+
+                @Override
+                public boolean seatAware() { return true; }
+            };
+        };
+    }
+
+    /**
+     * Scores canonical hands on {@code threads} threads (at least one) and writes the book. With {@code hands <= 0}
+     * every canonical hand is included (about 1.82 million); otherwise the distinct canonical hands of {@code hands}
+     * random deals.
+     */
+    public static void build(Path file, Supplier<Scorer> scorers, long hands, int threads, long seed) throws Exception {
+        long start = System.nanoTime();
+        long[] keys = hands <= 0 ? allCanonicalHands() : sampledHands(hands, seed);
+        int n = keys.length;
+        boolean seatAware = scorers.get().seatAware();
+        int sections = seatAware ? 4 : 1;
+        int workers = Math.max(1, threads);
+        log.info("Scoring {} canonical hands x {} section(s) on {} threads", n, sections, workers);
+
+        short[][] slots = new short[sections][n];
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> parts = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                int worker = w;
+                parts.add(pool.submit(() -> {
+                    Scorer scorer = scorers.get();
+                    int[] leads = new int[LEADS];
+                    for (int i = worker; i < n; i += workers) {
+                        int hand = (int) keys[i];
+                        for (int s = 0; s < sections; s++) {
+                            int count = scorer.rank(hand, s, leads);
+                            int packed = 0;
+                            for (int r = 0, slot = 0; r < LEADS; r++) {
+                                // repeating the previous slot marks the end of a shorter ranking
+                                if (r < count) slot = Integer.bitCount(hand & ((1 << leads[r]) - 1));
+                                packed |= slot << (3 * r);
+                            }
+                            slots[s][i] = (short) packed;
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : parts) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // encode every section, then lay out header, block indexes and data
+        byte[][] encoded = new byte[sections][];
+        int[][] index = new int[sections][];
+        int blockCount = (n + BLOCK - 1) / BLOCK;
+        for (int s = 0; s < sections; s++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(n * 4);
+            index[s] = new int[blockCount * 2];
+            long prev = 0;
+            for (int i = 0; i < n; i++) {
+                if (i % BLOCK == 0) {
+                    index[s][i / BLOCK * 2] = (int) keys[i];
+                    index[s][i / BLOCK * 2 + 1] = out.size();
+                    prev = keys[i];
+                }
+                long v = (keys[i] - prev) << (3 * LEADS) | slots[s][i];
+                prev = keys[i];
+                while ((v & ~0x7FL) != 0) {
+                    out.write((int) (v & 0x7F) | 0x80);
+                    v >>>= 7;
+                }
+                out.write((int) v);
+            }
+            encoded[s] = out.toByteArray();
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(Integer.reverseBytes(MAGIC));
+            out.writeInt(Integer.reverseBytes(VERSION));
+            out.writeInt(Integer.reverseBytes(sections));
+            out.writeInt(Integer.reverseBytes(BLOCK));
+            long offset = HEADER + (long) sections * SECTION;
+            for (int s = 0; s < sections; s++) {
+                out.writeInt(Integer.reverseBytes(n));
+                out.writeInt(Integer.reverseBytes(blockCount));
+                out.writeLong(Long.reverseBytes(offset));
+                out.writeLong(Long.reverseBytes(offset + blockCount * 8L));
+                offset += blockCount * 8L + encoded[s].length;
+            }
+            for (int s = 0; s < sections; s++) {
+                for (int v : index[s]) out.writeInt(Integer.reverseBytes(v));
+                out.write(encoded[s]);
+            }
+        }
+        log.info("Wrote {} leads x {} section(s) ({} KB, {} bytes per entry) to {} in {} s", n, sections,
+                Files.size(file) >> 10, String.format(Locale.ROOT, "%.2f", Files.size(file) / (double) Math.max(1L, (long) n * sections)),
+                file, (System.nanoTime() - start) / 1_000_000_000L);
+    }
+
+    private static long[] allCanonicalHands() {
+        long[] keys = new long[1 << 21];
+        int n = 0;
+        int[] suitMap = new int[4];
+        // Gosper's hack over all 8-card masks, in increasing unsigned order
+        for (long m = 0xFFL; m < 1L << 32; ) {
+            int hand = (int) m;
+            fillSuitMap(0, SUIT_ORDERS[canonicalOrder(hand, 0, suitMap)], suitMap);
+            if (remap(hand, suitMap) == hand) {
+                if (n == keys.length) keys = Arrays.copyOf(keys, n * 2);
+                keys[n++] = m;
+            }
+            long c = m & -m;
+            long r = m + c;
+            m = (((r ^ m) >>> 2) / c) | r;
+        }
+        return Arrays.copyOf(keys, n);
+    }
+
+    private static long[] sampledHands(long hands, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        int[] deck = DealSimulator.newDeck();
+        PlayState s = new PlayState();
+        long[] keys = new long[(int) Math.min(hands, Integer.MAX_VALUE - 8)];
+        for (int i = 0; i < keys.length; i++) {
+            DealSimulator.deal(rnd, deck, s, rnd.nextInt(4), 0);
+            keys[i] = Integer.toUnsignedLong(canonicalHand(s.hand(0), s.trump()));
+        }
+        Arrays.sort(keys);
+        int distinct = 0;
+        for (int i = 0; i < keys.length; i++) if (i == 0 || keys[i] != keys[i - 1]) keys[distinct++] = keys[i];
+        return Arrays.copyOf(keys, distinct);
+    }
+
+    /**
+     * Coverage and lookup latency of the book over {@code probes} random opening states (random hand, trump and
+     * seat relative to the bidder).
+     */
+    public Report measure(int probes, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        int[] deck = DealSimulator.newDeck();
+        PlayState s = new PlayState();
+        Histogram latency = new Histogram(3);
+        long hits = 0;
+        for (int i = 0; i < probes; i++) {
+            DealSimulator.deal(rnd, deck, s, rnd.nextInt(4), 0);
+            int seat = rnd.nextInt(4);
+            long t = System.nanoTime();
+            int card = lookup(s.hand(0), s.trump(), seat);
+            latency.recordValue(System.nanoTime() - t);
+            if (card >= 0) hits++;
+        }
+        return new Report(size(), sizeInBytes(), probes == 0 ? 0.0 : hits / (double) probes, latency);
+    }
+
+    /**
+     * @param coverage fraction of random opening states found in the book
+     * @param latency  lookup latency in nanoseconds
+     */
+    public record Report(long entries, long bytes, double coverage, Histogram latency) {}
+
+    /**
+     * Offline generator: {@code LeadBook <out-file> <model.txt|rollout> [hands] [threads] [samples]}; hands 0 (the
+     * default) covers every canonical hand.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LeadBook <out-file> <model.txt|rollout> [hands] [threads] [samples]");
+            System.exit(2);
+        }
+        long hands = args.length > 2 ? Long.parseLong(args[2]) : 0L;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int samples = args.length > 4 ? Integer.parseInt(args[4]) : 32;
+        Supplier<Scorer> scorers = "rollout".equalsIgnoreCase(args[1])
+                ? rolloutScorer(samples, 42L)
+                : modelScorer(PolicyNetwork.load(Path.of(args[1])));
+        Path file = Path.of(args[0]);
+        build(file, scorers, hands, threads, 42L);
+        try (LeadBook book = open(file)) {
+            book.measure(20_000, 7L); // warm-up
+            Report r = book.measure(200_000, 7L);
+            log.info("Lead book {}: {} entries, {} KB, coverage {} of random opening states, lookup p50={} ns p99={} ns max={} ns",
+                    file, r.entries(), r.bytes() >> 10, String.format(Locale.ROOT, "%.2f%%", r.coverage() * 100),
+                    r.latency().getValueAtPercentile(50), r.latency().getValueAtPercentile(99), r.latency().getMaxValue());
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package nl.jvdkolk.klaversjassentrainer.search;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Host-wide cache of model decisions in a memory-mapped file, shared by every JVM on the host that maps it.
+ * <p>
+ * The file is an open-addressing hash table of 32-byte slots: a state word, the second key word and two data words.
+ * A state is keyed by its canonical masks, which is exactly what the network sees: hand and legal cards (key word),
+ * the four ordered trick slots, trump and a tag of the model that produced the answer (state word). Tagging every
+ * entry rather than the file lets instances serving different model versions share one file during a rollout;
+ * stale entries are simply never matched again and get overwritten.
+ * <p>
+ * Nothing locks on the hot path. A writer claims a slot with a CAS of its state word to {@code BUSY}, writes the
+ * slot and publishes it by storing the state word with release semantics. A reader reads the state word, the slot,
+ * then both key words again and discards the slot if either changed (a seqlock without a sequence: for a given key
+ * the data is always the same model output). Lookups probe at most {@value #PROBES} consecutive slots and stop at an
+ * empty one, as slots are never emptied again; a writer that finds the probe window full overwrites one slot of it.
+ * A writer that dies between claim and publish leaves one dead slot behind.
+ * <p>
+ * Data words: the number of cards (bits 0-1), up to three card indices by descending score (5 bits each from bit 2)
+ * and the third score as a float (bits 32-63); the first and second score as floats. File layout: magic
+ * {@code KJDC}, version, slot count (long), padding to {@value #HEADER} bytes, then the slots in native byte order.
+ */
+public final class SharedDecisionCache implements AutoCloseable {
+    public static final int TOP_K = 3;
+    private static final int MAGIC = 0x4B4A4443; // "KJDC"
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int SLOT = 32;
+    private static final int PROBES = 8;
+    private static final long USED = 1L << 62;
+    private static final long BUSY = 1L << 63;
+    private static final long TAG_MASK = (1L << 36) - 1;
+    private static final VarHandle LONG = ValueLayout.JAVA_LONG.varHandle();
+
+    private final Arena arena;
+    private final MemorySegment table;
+    private final long slotMask;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder overwrites = new LongAdder();
+    private final LongAdder races = new LongAdder();
+
+    private SharedDecisionCache(Arena arena, MemorySegment table, long slots) {
+        this.arena = arena;
+        this.table = table;
+        this.slotMask = slots - 1;
+    }
+
+    /**
+     * Maps {@code file}, creating it with the largest power-of-two number of slots that fits in {@code megabytes}.
+     * An existing valid file is used at its own size, so the first instance on the host decides.
+     */
+    public static SharedDecisionCache open(Path file, int megabytes) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Arena arena = Arena.ofShared();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long slots;
+            // only creation is locked (across processes); mapped users never see the lock
+            try (FileLock lock = ch.lock()) {
+                slots = validSlots(ch);
+                if (slots == 0) {
+                    slots = Long.highestOneBit(Math.max(PROBES * SLOT, ((long) megabytes << 20) - HEADER) / SLOT);
+                    ch.truncate(0);
+                    ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                    header.putInt(MAGIC).putInt(VERSION).putLong(slots).position(HEADER).flip();
+                    while (header.hasRemaining()) ch.write(header, header.position());
+                    ch.write(ByteBuffer.allocate(1), HEADER + slots * SLOT - 1); // sparse, zero-filled
+                }
+            }
+            MemorySegment mapped = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + slots * SLOT, arena);
+            return new SharedDecisionCache(arena, mapped, slots);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    // slot count of a complete cache file, or 0 when the file is new or not a cache of this version
+    private static long validSlots(FileChannel ch) throws IOException {
+        if (ch.size() < HEADER) return 0;
+        ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && ch.read(header, header.position()) > 0) { }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) return 0;
+        long slots = header.getLong();
+        if (slots <= 0 || Long.bitCount(slots) != 1 || ch.size() != HEADER + slots * SLOT) return 0;
+        return slots;
+    }
+
+    /** Key word: hand and legal cards. */
+    public static long key(int hand, int legal) {
+        return (hand & 0xFFFFFFFFL) | (long) legal << 32;
+    }
+
+    /**
+     * State word: the trick as four 6-bit slots (0 empty, else card index + 1, in play order), trump and the model
+     * tag (36 bits are kept).
+     */
+    public static long state(int trickSlots, int trump, long modelTag) {
+        return USED | (modelTag & TAG_MASK) << 26 | (long) (trump & 3) << 24 | (trickSlots & 0xFFFFFF);
+    }
+
+    /**
+     * Looks up a decision. On a hit fills {@code cards} and {@code scores} (at least {@link #TOP_K} long) best first
+     * and returns how many there are; returns 0 on a miss.
+     */
+    public int lookup(long key, long state, int[] cards, float[] scores) {
+        lookups.increment();
+        long h = hash(key, state);
+        for (int i = 0; i < PROBES; i++) {
+            long off = offset(h + i);
+            long s = (long) LONG.getAcquire(table, off);
+            if (s == 0L) break;
+            if (s != state) continue;
+            long k = (long) LONG.getAcquire(table, off + 8);
+            long d0 = (long) LONG.getAcquire(table, off + 16);
+            long d1 = (long) LONG.getAcquire(table, off + 24);
+            if (k != key || (long) LONG.getAcquire(table, off) != state || (long) LONG.getAcquire(table, off + 8) != key) {
+                continue;
+            }
+            hits.increment();
+            if (i > 0) collisions.increment();
+            int n = (int) (d0 & 3);
+            for (int c = 0; c < n; c++) cards[c] = (int) (d0 >>> (2 + 5 * c)) & 31;
+            scores[0] = Float.intBitsToFloat((int) d1);
+            scores[1] = Float.intBitsToFloat((int) (d1 >>> 32));
+            scores[2] = Float.intBitsToFloat((int) (d0 >>> 32));
+            return n;
+        }
+        if ((long) LONG.getAcquire(table, offset(h)) != 0L) collisions.increment();
+        return 0;
+    }
+
+    /**
+     * Stores the best {@code n} (at most {@link #TOP_K}) {@code cards}, best first, with their {@code scores} (indexed
+     * by card); best effort under contention.
+     */
+    public void store(long key, long state, int n, int[] cards, double[] scores) {
+        n = Math.min(n, TOP_K);
+        long d0 = n;
+        for (int c = 0; c < n; c++) d0 |= (long) (cards[c] & 31) << (2 + 5 * c);
+        d0 |= (n > 2 ? Float.floatToRawIntBits((float) scores[cards[2]]) & 0xFFFFFFFFL : 0L) << 32;
+        long d1 = (n > 0 ? Float.floatToRawIntBits((float) scores[cards[0]]) & 0xFFFFFFFFL : 0L)
+                | (n > 1 ? Float.floatToRawIntBits((float) scores[cards[1]]) & 0xFFFFFFFFL : 0L) << 32;
+        long h = hash(key, state);
+        for (int i = 0; i < PROBES; i++) {
+            long off = offset(h + i);
+            long s = (long) LONG.getAcquire(table, off);
+            if (s == 0L) {
+                if (LONG.compareAndSet(table, off, 0L, BUSY)) {
+                    publish(off, key, state, d0, d1);
+                    return;
+                }
+                s = (long) LONG.getAcquire(table, off);
+            }
+            if (s == state && (long) LONG.getAcquire(table, off + 8) == key) return; // stored by another instance
+        }
+        // probe window full: overwrite one slot of it, picked by the hash
+        long off = offset(h + (h >>> 61));
+        long s = (long) LONG.getAcquire(table, off);
+        if ((s & BUSY) == 0 && LONG.compareAndSet(table, off, s, BUSY)) {
+            overwrites.increment();
+            publish(off, key, state, d0, d1);
+        } else {
+            races.increment();
+        }
+    }
+
+    private void publish(long off, long key, long state, long d0, long d1) {
+        LONG.setRelease(table, off + 8, key);
+        LONG.setRelease(table, off + 16, d0);
+        LONG.setRelease(table, off + 24, d1);
+        LONG.setRelease(table, off, state);
+        stores.increment();
+    }
+
+    private long offset(long slot) {
+        return HEADER + (slot & slotMask) * SLOT;
+    }
+
+    private static long hash(long key, long state) {
+        long h = key * 0x9E3779B97F4A7C15L ^ state * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public long capacity() { return slotMask + 1; }
+    public long sizeInBytes() { return table.byteSize(); }
+
+    /** Share of occupied slots, estimated from up to {@code sample} slots spread over the table. */
+    public double occupancy(int sample) {
+        long n = Math.min(capacity(), Math.max(1, sample));
+        long stride = capacity() / n;
+        long used = 0;
+        for (long i = 0; i < n; i++) {
+            if ((long) LONG.getAcquire(table, offset(i * stride)) != 0L) used++;
+        }
+        return used * 1.0 / n;
+    }
+
+    public Stats stats() {
+        return new Stats(lookups.sum(), hits.sum(), collisions.sum(), stores.sum(), overwrites.sum(), races.sum());
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    /**
+     * Counters of this process since it mapped the file; a collision is a lookup whose home slot held another state,
+     * a race a store that lost its slot to a concurrent writer.
+     */
+    public record Stats(long lookups, long hits, long collisions, long stores, long overwrites, long races) {
+        public double hitRate() { return lookups == 0 ? 0.0 : hits * 1.0 / lookups; }
+    }
+}
@@ -0,0 +1,143 @@
+package nl.jvdkolk.klaversjassentrainer.search;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size, off-heap transposition table shared by parallel search threads.
+ * <p>
+ * The table is a power-of-two array of 32-byte buckets in a {@link MemorySegment}; each bucket holds a
+ * depth-preferred entry and an always-replace entry of two longs: {@code key ^ data} and {@code data}.
+ * Writers never lock: a torn entry (two threads racing on the same slot) fails the xor check on read
+ * and is treated as a miss, which is the classic lockless hashing scheme.
+ * <p>
+ * Data word layout: score (bits 0-15, signed), bound (16-17), best move (18-23, {@link #NO_MOVE} if none),
+ * depth (24-31), generation (32-39).
+ */
+public final class TranspositionTable implements AutoCloseable {
+    public static final int EXACT = 1;
+    public static final int LOWER = 2;
+    public static final int UPPER = 3;
+    public static final int NO_MOVE = 63;
+
+    private static final int ENTRY_BYTES = 16;
+    private static final int BUCKET_BYTES = 2 * ENTRY_BYTES;
+    private static final VarHandle LONG = ValueLayout.JAVA_LONG.varHandle();
+
+    private final Arena arena;
+    private final MemorySegment table;
+    private final long bucketMask;
+    private volatile int generation;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder overwrites = new LongAdder();
+
+    /** Allocates the largest power-of-two number of buckets that fits in {@code megabytes}. */
+    public TranspositionTable(int megabytes) {
+        long bytes = Math.max(BUCKET_BYTES, (long) megabytes << 20);
+        long buckets = Long.highestOneBit(bytes / BUCKET_BYTES);
+        this.arena = Arena.ofShared();
+        this.table = arena.allocate(buckets * BUCKET_BYTES, 64);
+        this.bucketMask = buckets - 1;
+    }
+
+    /**
+     * Looks up {@code key}. Returns the packed data word, or 0 on a miss; decode with
+     * {@link #score}, {@link #bound}, {@link #bestMove} and {@link #depth}.
+     */
+    public long probe(long key) {
+        probes.increment();
+        long base = (key & bucketMask) * BUCKET_BYTES;
+        boolean occupied = false;
+        for (long off = base; off < base + BUCKET_BYTES; off += ENTRY_BYTES) {
+            long data = (long) LONG.getAcquire(table, off + 8);
+            if (data == 0L) continue;
+            long check = (long) LONG.getAcquire(table, off);
+            if ((check ^ data) == key) {
+                hits.increment();
+                return data;
+            }
+            occupied = true;
+        }
+        if (occupied) collisions.increment();
+        return 0L;
+    }
+
+    public void store(long key, int score, int bound, int depth, int bestMove) {
+        stores.increment();
+        long data = pack(score, bound, depth, bestMove, generation);
+        long base = (key & bucketMask) * BUCKET_BYTES;
+        long preferred = base;
+        long always = base + ENTRY_BYTES;
+
+        long target;
+        long old0 = (long) LONG.getAcquire(table, preferred + 8);
+        long old1 = (long) LONG.getAcquire(table, always + 8);
+        if (old0 == 0L || matches(preferred, old0, key)) {
+            target = preferred;
+        } else if (old1 != 0L && matches(always, old1, key)) {
+            target = always;
+        } else if (generation(old0) != (generation & 0xFF) || depth >= depth(old0)) {
+            // stale or shallower entry in the depth-preferred slot
+            target = preferred;
+            overwrites.increment();
+        } else {
+            target = always;
+            if (old1 != 0L) overwrites.increment();
+        }
+        LONG.setRelease(table, target + 8, data);
+        LONG.setRelease(table, target, key ^ data);
+    }
+
+    private boolean matches(long off, long data, long key) {
+        return (((long) LONG.getAcquire(table, off)) ^ data) == key;
+    }
+
+    /** Starts a new search generation so entries from earlier searches become preferred victims. */
+    public void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+
+    public void clear() {
+        table.fill((byte) 0);
+        generation = 0;
+    }
+
+    public long capacity() { return (bucketMask + 1) * 2; }
+    public long sizeInBytes() { return table.byteSize(); }
+
+    public Stats stats() {
+        return new Stats(probes.sum(), hits.sum(), collisions.sum(), stores.sum(), overwrites.sum());
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    static long pack(int score, int bound, int depth, int bestMove, int generation) {
+        return (score & 0xFFFFL)
+                | ((long) (bound & 0x3) << 16)
+                | ((long) (bestMove & 0x3F) << 18)
+                | ((long) (depth & 0xFF) << 24)
+                | ((long) (generation & 0xFF) << 32);
+    }
+
+    public static int score(long data) { return (short) data; }
+    public static int bound(long data) { return (int) (data >>> 16) & 0x3; }
+    public static int bestMove(long data) { return (int) (data >>> 18) & 0x3F; }
+    public static int depth(long data) { return (int) (data >>> 24) & 0xFF; }
+    private static int generation(long data) { return (int) (data >>> 32) & 0xFF; }
+
+    /** Counters since construction; a collision is a probe that found its bucket filled by other positions. */
+    public record Stats(long probes, long hits, long collisions, long stores, long overwrites) {
+        public double hitRate() { return probes == 0 ? 0.0 : hits * 1.0 / probes; }
+        public double collisionRate() { return probes == 0 ? 0.0 : collisions * 1.0 / probes; }
+    }
+}
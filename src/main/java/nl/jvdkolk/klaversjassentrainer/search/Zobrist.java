@@ -0,0 +1,56 @@
+package nl.jvdkolk.klaversjassentrainer.search;
+
+import java.util.SplittableRandom;
+
+/**
+ * Zobrist keys for trick-play positions: who holds which of the 32 cards, which cards lie on the table
+ * (per play slot, since order decides the winner), the player to move and the trump suit.
+ * Keys are xor-combined, so search code can update them incrementally when a card moves from hand to table.
+ */
+public final class Zobrist {
+    private static final long[] HAND = new long[4 * 32];
+    private static final long[] TABLE = new long[4 * 32];
+    private static final long[] TO_MOVE = new long[4];
+    private static final long[] TRUMP = new long[4];
+
+    static {
+        // fixed seed: keys must be identical across runs and processes for persisted tables
+        SplittableRandom rnd = new SplittableRandom(0x6B6C61766572L);
+        for (int i = 0; i < HAND.length; i++) HAND[i] = rnd.nextLong();
+        for (int i = 0; i < TABLE.length; i++) TABLE[i] = rnd.nextLong();
+        for (int i = 0; i < 4; i++) TO_MOVE[i] = rnd.nextLong();
+        for (int i = 0; i < 4; i++) TRUMP[i] = rnd.nextLong();
+    }
+
+    private Zobrist() {}
+
+    public static long hand(int seat, int card) { return HAND[(seat << 5) | card]; }
+    public static long table(int slot, int card) { return TABLE[(slot << 5) | card]; }
+    public static long toMove(int seat) { return TO_MOVE[seat]; }
+    public static long trump(int suit) { return TRUMP[suit]; }
+
+    /** Xor of the hand keys for every card in {@code mask}. */
+    public static long handMask(int seat, int mask) {
+        long k = 0L;
+        for (int m = mask; m != 0; m &= m - 1) {
+            k ^= HAND[(seat << 5) | Integer.numberOfTrailingZeros(m)];
+        }
+        return k;
+    }
+
+    /**
+     * Full key of a position.
+     *
+     * @param hands     card mask per seat (length 4)
+     * @param trick     cards on the table in play order
+     * @param trickSize number of valid entries in {@code trick}
+     * @param toMove    seat of the player to move
+     * @param trump     trump suit index
+     */
+    public static long key(int[] hands, int[] trick, int trickSize, int toMove, int trump) {
+        long k = TO_MOVE[toMove] ^ TRUMP[trump];
+        for (int seat = 0; seat < 4; seat++) k ^= handMask(seat, hands[seat]);
+        for (int i = 0; i < trickSize; i++) k ^= TABLE[(i << 5) | trick[i]];
+        return k;
+    }
+}
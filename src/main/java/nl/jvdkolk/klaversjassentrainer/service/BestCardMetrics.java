@@ -0,0 +1,182 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer instrumentation of /v1/best-card (FR-8): a percentile-histogram timer per pipeline stage and for the
+ * whole request, counters for fallback scoring and rejected requests, and a gauge for the loaded model.
+ * Per decision tier a counter of the requests it answered and, for the tiers that skip the network, an estimate of
+ * the time saved against the running mean of model-scored decisions. The startup timeline, in seconds since JVM
+ * start: readiness after the warm-up, the first answered request, and steady state, i.e. the first window of
+ * {@code klaverjas.startup.steadyStateWindow} requests whose p95 is within {@code steadyStateTolerance} of the
+ * previous window's. Exposed through the actuator Prometheus endpoint.
+ */
+@Component
+public class BestCardMetrics {
+    private static final Logger log = LoggerFactory.getLogger(BestCardMetrics.class);
+    // p95 target for local inference (NFR performance)
+    private static final Duration SLO = Duration.ofMillis(150);
+
+    private final MeterRegistry registry;
+    private final Map<StageTimings.Stage, Timer> stages = new EnumMap<>(StageTimings.Stage.class);
+    private final Map<Integer, Timer> requests = new ConcurrentHashMap<>();
+    private final Map<Integer, Counter> rejected = new ConcurrentHashMap<>();
+    private final Counter fallback;
+    private final Map<StageTimings.Tier, Counter> tiers = new EnumMap<>(StageTimings.Tier.class);
+    private final Map<StageTimings.Tier, Counter> saved = new EnumMap<>(StageTimings.Tier.class);
+    // exponentially weighted mean of the decision time when the model answers; racy updates only blur the estimate
+    private volatile double modelNanos;
+
+    // startup timeline in seconds since JVM start, NaN until reached
+    private volatile double readySeconds = Double.NaN;
+    private volatile double firstRequestSeconds = Double.NaN;
+    private volatile double steadySeconds = Double.NaN;
+    private volatile double steadyP95Seconds = Double.NaN;
+    private volatile boolean steady;
+    private final long[] window; // guarded by this until steady
+    private final double tolerance;
+    private int windowFill;
+    private long previousP95;
+
+    public BestCardMetrics(MeterRegistry registry, InferenceService inference, TrainerProperties props) {
+        this.registry = registry;
+        this.window = new long[Math.max(20, props.getStartup().getSteadyStateWindow())];
+        this.tolerance = props.getStartup().getSteadyStateTolerance();
+        for (StageTimings.Stage stage : StageTimings.Stage.values()) {
+            stages.put(stage, Timer.builder("bestcard.stage")
+                    .description("Time spent per best-card pipeline stage")
+                    .tag("stage", stage.tag())
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        for (StageTimings.Tier tier : StageTimings.Tier.values()) {
+            tiers.put(tier, Counter.builder("bestcard.tier")
+                    .description("Requests answered per decision tier")
+                    .tag("tier", tier.tag())
+                    .register(registry));
+            if (tier.skipsNetwork()) {
+                saved.put(tier, Counter.builder("bestcard.tier.saved")
+                        .description("Estimated decision time saved by answering without the network")
+                        .tag("tier", tier.tag())
+                        .baseUnit("seconds")
+                        .register(registry));
+            }
+        }
+        this.fallback = Counter.builder("bestcard.fallback")
+                .description("Requests answered by the fallback heuristic instead of a model")
+                .register(registry);
+        // registered once the (background) model load has finished, so the name tag is the served model's
+        inference.modelLoaded().whenComplete((nn, failure) ->
+                Gauge.builder("bestcard.model.loaded", inference, i -> i.getNetwork() == null ? 0.0 : 1.0)
+                        .description("1 when a local model is loaded, tagged with its name and version")
+                        .tag("name", inference.getModelName())
+                        .tag("version", inference.getModelVersion())
+                        .register(registry));
+        startupGauge("ready", m -> m.readySeconds);
+        startupGauge("first-request", m -> m.firstRequestSeconds);
+        startupGauge("steady-state", m -> m.steadySeconds);
+        Gauge.builder("bestcard.startup.steady.p95", this, m -> m.steadyP95Seconds)
+                .description("p95 of /v1/best-card latency in the window where it became steady")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    private void startupGauge(String phase, ToDoubleFunction<BestCardMetrics> seconds) {
+        Gauge.builder("bestcard.startup", this, seconds)
+                .description("Seconds from JVM start to readiness, the first request and steady-state latency")
+                .tag("phase", phase)
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    private static double uptimeSeconds() {
+        return ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0;
+    }
+
+    /** Marks the service ready to take traffic (after the warm-up). */
+    public void ready() {
+        readySeconds = uptimeSeconds();
+        log.info("Ready {} s after JVM start", readySeconds);
+    }
+
+    /** Records every stage that took time in this request; serialization is recorded separately by the filter. */
+    public void record(StageTimings timings) {
+        for (StageTimings.Stage stage : StageTimings.Stage.values()) {
+            long nanos = timings.get(stage);
+            if (nanos > 0) stages.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+        }
+        StageTimings.Tier tier = timings.tier();
+        if (tier == null) return;
+        tiers.get(tier).increment();
+        long decision = timings.decisionNanos();
+        if (tier == StageTimings.Tier.MODEL) {
+            double mean = modelNanos;
+            modelNanos = mean == 0.0 ? decision : mean + 0.01 * (decision - mean);
+        } else if (tier.skipsNetwork() && modelNanos > decision) {
+            saved.get(tier).increment((modelNanos - decision) / 1e9);
+        }
+    }
+
+    public void recordSerialization(long nanos) {
+        stages.get(StageTimings.Stage.SERIALIZATION).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRequest(int status, long nanos) {
+        requests.computeIfAbsent(status, s -> Timer.builder("bestcard.request")
+                .description("End-to-end /v1/best-card latency including serialization")
+                .tag("status", Integer.toString(s))
+                .publishPercentileHistogram()
+                .serviceLevelObjectives(SLO)
+                .register(registry)).record(nanos, TimeUnit.NANOSECONDS);
+        if (!steady) trackStartup(nanos);
+    }
+
+    private synchronized void trackStartup(long nanos) {
+        if (steady) return;
+        if (Double.isNaN(firstRequestSeconds)) {
+            firstRequestSeconds = uptimeSeconds();
+            log.info("First best-card request answered {} s after JVM start", firstRequestSeconds);
+        }
+        window[windowFill++] = nanos;
+        if (windowFill < window.length) return;
+        windowFill = 0;
+        Arrays.sort(window);
+        long p95 = window[(int) Math.ceil(0.95 * window.length) - 1];
+        if (previousP95 > 0 && Math.abs(p95 - previousP95) <= tolerance * previousP95) {
+            steadyP95Seconds = p95 / 1e9;
+            steadySeconds = uptimeSeconds();
+            steady = true;
+            log.info("Latency steady {} s after JVM start: p95 {} ms over the last {} requests (previous window {} ms)",
+                    steadySeconds, p95 / 1_000_000.0, window.length, previousP95 / 1_000_000.0);
+        }
+        previousP95 = p95;
+    }
+
+    public void fallbackUsed() {
+        fallback.increment();
+    }
+
+    /** Counts a 400 or 422 outcome. */
+    public void rejected(int status) {
+        rejected.computeIfAbsent(status, s -> Counter.builder("bestcard.rejected")
+                .description("Requests rejected as invalid (400) or without legal move (422)")
+                .tag("status", Integer.toString(s))
+                .register(registry)).increment();
+    }
+}
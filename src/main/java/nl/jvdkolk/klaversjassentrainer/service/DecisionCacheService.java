@@ -0,0 +1,89 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.search.SharedDecisionCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The host-wide {@link SharedDecisionCache} of model decisions, consulted by {@link InferenceService} before it
+ * encodes a state. Every instance on the host configured with the same {@code klaverjas.decisionCache.file} shares
+ * the entries (put it on a tmpfs such as {@code /dev/shm} to keep it off the disk). Lookups, hits, collisions,
+ * stores, overwrites and lost races of this instance are exposed as counters, the hit rate, mapped size and
+ * estimated occupancy of the shared table as gauges.
+ */
+@Service
+public class DecisionCacheService {
+    private static final Logger log = LoggerFactory.getLogger(DecisionCacheService.class);
+
+    private final SharedDecisionCache cache; // null => disabled
+
+    public DecisionCacheService(TrainerProperties props, MeterRegistry registry) {
+        TrainerProperties.DecisionCache config = props.getDecisionCache();
+        this.cache = config.isEnabled() ? open(config) : null;
+        if (cache == null) return;
+        counter(registry, "bestcard.cache.lookups", "Decision cache lookups", s -> s.stats().lookups());
+        counter(registry, "bestcard.cache.hits", "Decision cache hits", s -> s.stats().hits());
+        counter(registry, "bestcard.cache.collisions", "Decision cache lookups whose home slot held another state",
+                s -> s.stats().collisions());
+        counter(registry, "bestcard.cache.stores", "Decisions stored in the cache", s -> s.stats().stores());
+        counter(registry, "bestcard.cache.overwrites", "Cache stores that evicted another state", s -> s.stats().overwrites());
+        counter(registry, "bestcard.cache.races", "Cache stores lost to a concurrent writer", s -> s.stats().races());
+        Gauge.builder("bestcard.cache.hit.rate", cache, s -> s.stats().hitRate())
+                .description("Decision cache hit rate of this instance")
+                .register(registry);
+        Gauge.builder("bestcard.cache.size", cache, SharedDecisionCache::sizeInBytes)
+                .description("Mapped size of the shared decision cache")
+                .baseUnit("bytes")
+                .register(registry);
+        int sample = config.getOccupancySample();
+        Gauge.builder("bestcard.cache.occupancy", cache, s -> s.occupancy(sample))
+                .description("Estimated share of occupied slots in the shared decision cache")
+                .register(registry);
+    }
+
+    private static SharedDecisionCache open(TrainerProperties.DecisionCache config) {
+        try {
+            SharedDecisionCache c = SharedDecisionCache.open(Path.of(config.getFile()), config.getMegabytes());
+            log.info("Mapped shared decision cache {}: {} slots, {} KB", config.getFile(), c.capacity(), c.sizeInBytes() >> 10);
+            return c;
+        } catch (Exception e) {
+            log.warn("Failed to map decision cache '{}', deciding without it: {}", config.getFile(), e.getMessage());
+            return null;
+        }
+    }
+
+    private void counter(MeterRegistry registry, String name, String description,
+                         ToDoubleFunction<SharedDecisionCache> f) {
+        FunctionCounter.builder(name, cache, f).description(description).register(registry);
+    }
+
+    public boolean isEnabled() { return cache != null; }
+
+    /** See {@link SharedDecisionCache#lookup}; 0 when disabled. */
+    public int lookup(long key, long state, int[] cards, float[] scores) {
+        return cache == null ? 0 : cache.lookup(key, state, cards, scores);
+    }
+
+    /** See {@link SharedDecisionCache#store}. */
+    public void store(long key, long state, int n, int[] cards, double[] scores) {
+        if (cache != null) cache.store(key, state, n, cards, scores);
+    }
+
+    public SharedDecisionCache.Stats stats() {
+        return cache == null ? null : cache.stats();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (cache != null) cache.close();
+    }
+}
@@ -0,0 +1,192 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardResponse;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.game.Determinizer;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.search.EndgameSolver;
+import nl.jvdkolk.klaversjassentrainer.search.EndgameTablebase;
+import nl.jvdkolk.klaversjassentrainer.search.TranspositionTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.cardIndex;
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.isSuit;
+
+/**
+ * Exact play for the last tricks of a deal. Once the hand is down to {@code klaverjas.endgame.maxTricks} cards,
+ * the unseen cards can be dealt over the other seats in only a few ways (consistent with hand sizes and voids from
+ * the history); every legal card is scored by its double-dummy value averaged over all those deals. Above
+ * {@code maxDistributions} deals a random sample of that size is used instead.
+ * <p>
+ * The search runs on the request thread, so it stops taking new deals once {@code budgetMillis} have passed (or the
+ * request's own deadline, if earlier) or the solver has visited {@code maxNodes} nodes; the scores are then the
+ * average over the deals solved so far, and without any the request falls through to the next tier.
+ */
+@Service
+public class EndgameService {
+    private static final Logger log = LoggerFactory.getLogger(EndgameService.class);
+
+    private final TrainerProperties.Endgame config;
+    private final TranspositionTable tt;
+    private final EndgameTablebase tablebase; // null => search only
+    private final Counter solved;
+    private final Counter tablebaseHits;
+    private final Counter truncated;
+    private final DistributionSummary distributions;
+
+    public EndgameService(TrainerProperties props, MeterRegistry registry) {
+        this.config = props.getEndgame();
+        this.tt = new TranspositionTable(config.getTtMegabytes());
+        this.tablebase = openTablebase(config.getTablebaseFile());
+        this.solved = Counter.builder("bestcard.endgame.solved")
+                .description("Requests answered by exact endgame search")
+                .register(registry);
+        this.tablebaseHits = Counter.builder("bestcard.endgame.tablebase.hits")
+                .description("Trick-boundary positions answered from the endgame tablebase")
+                .register(registry);
+        this.truncated = Counter.builder("bestcard.endgame.truncated")
+                .description("Endgame searches stopped early by the time or node budget")
+                .register(registry);
+        this.distributions = DistributionSummary.builder("bestcard.endgame.distributions")
+                .description("Card distributions searched per request")
+                .register(registry);
+    }
+
+    private static EndgameTablebase openTablebase(String file) {
+        if (file == null || file.isBlank() || !Files.exists(Path.of(file))) {
+            log.info("No endgame tablebase at '{}', endgames are searched", file);
+            return null;
+        }
+        try {
+            EndgameTablebase tb = EndgameTablebase.open(Path.of(file));
+            log.info("Mapped endgame tablebase {}: {} positions, {} KB", file, tb.size(), tb.sizeInBytes() >> 10);
+            return tb;
+        } catch (Exception e) {
+            log.warn("Failed to open endgame tablebase '{}': {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /** Whether the request is late enough in the deal to be solved exactly. */
+    public boolean inRange(BestCardRequest req) {
+        return config.isEnabled() && req.getHand() != null && req.getHand().size() <= config.getMaxTricks()
+                && isSuit(req.getTrump());
+    }
+
+    /**
+     * Scores every legal card by the points the player's team collects until the end of the deal. Returns null
+     * when the request is out of range or its history is inconsistent.
+     */
+    public InferenceService.Result pickBest(BestCardRequest req,
+                                            List<BestCardRequest.Play> table,
+                                            List<String> legal,
+                                            int topK) {
+        return pickBest(req, table, legal, topK, 0L);
+    }
+
+    /**
+     * As {@link #pickBest(BestCardRequest, List, List, int)} within the request's {@code deadlineNanos}
+     * ({@link System#nanoTime()}, 0 for none) as well as the configured budgets; null when not a single deal could be
+     * solved in time.
+     */
+    public InferenceService.Result pickBest(BestCardRequest req,
+                                            List<BestCardRequest.Play> table,
+                                            List<String> legal,
+                                            int topK,
+                                            long deadlineNanos) {
+        if (!inRange(req)) return null;
+        long start = System.nanoTime();
+        long budgetEnd = start + TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.getBudgetMillis()));
+        long stopAt = deadlineNanos != 0L && deadlineNanos - budgetEnd < 0 ? deadlineNanos : budgetEnd;
+        Situation sit = Situation.of(req, table);
+        if (sit == null || !sit.determinizer().feasible()) return null;
+        // entries hold exact values of complete positions and stay valid; a new generation only makes those of
+        // earlier requests the first to be replaced
+        tt.newSearch();
+
+        int[] candidates = new int[legal.size()];
+        for (int i = 0; i < candidates.length; i++) candidates[i] = cardIndex(legal.get(i));
+        double[] sums = new double[candidates.length];
+        long[] solvedDeals = new long[1];
+        boolean[] stopped = new boolean[1];
+        EndgameSolver solver = new EndgameSolver(tt, tablebase);
+        PlayState position = new PlayState();
+        Determinizer determinizer = sit.determinizer().copy();
+        long maxNodes = config.getMaxNodes();
+        // a deal is solved for every candidate or not at all, so the averages stay comparable
+        Determinizer.DealVisitor score = hands -> {
+            if (stopped[0] || System.nanoTime() - stopAt >= 0 || (maxNodes > 0 && solver.nodes() >= maxNodes)) {
+                stopped[0] = true;
+                return;
+            }
+            position.copyFrom(sit.base());
+            for (int s = 0; s < 4; s++) if (s != sit.seat()) position.setHand(s, hands[s]);
+            for (int i = 0; i < candidates.length; i++) sums[i] += solver.valueOf(position, candidates[i]);
+            solvedDeals[0]++;
+        };
+
+        int[] hands = new int[4];
+        long deals = determinizer.enumerate(hands, config.getMaxDistributions(), null);
+        boolean exhaustive = deals > 0;
+        if (exhaustive) {
+            determinizer.enumerate(hands, deals, score);
+        } else {
+            SplittableRandom rnd = new SplittableRandom();
+            deals = Math.max(1, config.getMaxDistributions());
+            for (long d = 0; d < deals && !stopped[0]; d++) {
+                determinizer.deal(rnd, hands);
+                score.visit(hands);
+            }
+        }
+        tablebaseHits.increment(solver.tablebaseHits());
+        if (stopped[0]) {
+            truncated.increment();
+            log.debug("Request {}: endgame stopped after {} of {} distributions, {} nodes in {} us", req.getRequestId(),
+                    solvedDeals[0], deals, solver.nodes(), (System.nanoTime() - start) / 1_000);
+            if (solvedDeals[0] == 0) return null;
+            exhaustive = false;
+            deals = solvedDeals[0];
+        }
+        solved.increment();
+        distributions.record(deals);
+
+        List<BestCardResponse.Candidate> cands = new ArrayList<>(candidates.length);
+        for (int i = 0; i < candidates.length; i++) {
+            cands.add(new BestCardResponse.Candidate(legal.get(i), sums[i] / deals, "endgame"));
+        }
+        cands.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        String best = cands.get(0).getCard();
+        if (cands.size() > topK) {
+            cands = new ArrayList<>(cands.subList(0, topK));
+        }
+
+        Map<String, String> modelMeta = new LinkedHashMap<>();
+        modelMeta.put("name", "endgame");
+        modelMeta.put("version", "0.1.0");
+        modelMeta.put("distributions", Long.toString(deals));
+        modelMeta.put("exhaustive", Boolean.toString(exhaustive));
+        modelMeta.put("ts", Instant.now().toString());
+        log.debug("Request {}: endgame over {} distributions ({}), {} nodes, {} tablebase hits", req.getRequestId(),
+                deals, exhaustive ? "all" : "sampled", solver.nodes(), solver.tablebaseHits());
+        return new InferenceService.Result(best, cands, modelMeta);
+    }
+
+    @PreDestroy
+    public void close() {
+        tt.close();
+        if (tablebase != null) tablebase.close();
+    }
+}
@@ -0,0 +1,312 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import jakarta.annotation.PreDestroy;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.api.DecisionAnalysis;
+import nl.jvdkolk.klaversjassentrainer.api.GameLog;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.stereotype.Service;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Bulk post-game analysis: replays recorded deals and asks the decision pipeline for every play, so each decision
+ * can be compared with what was actually played.
+ * <p>
+ * Input and output are NDJSON. Every input line is a {@link GameLog}; its decisions are reconstructed on a
+ * {@link PlayState}, checked for legality, and evaluated in parallel on a dedicated pool through the same legality
+ * and inference tiers as {@code /v1/best-card} (simple scoring, no Monte Carlo). One {@link DecisionAnalysis} line is
+ * written per decision, in input order, as soon as it and everything before it is done; a game that cannot be read
+ * or replayed yields an error line instead of its remaining decisions.
+ * <p>
+ * Memory stays bounded whatever the upload size: lines are read one at a time up to {@code maxLineBytes}, and at most
+ * {@code maxInFlight} decisions are queued or running per request. When that window is full the service stops
+ * reading until the oldest decision has been written, so a slow reader or a fast writer is pushed back through the
+ * connection.
+ */
+@Service
+public class GameAnalysisService {
+    private static final Logger log = LoggerFactory.getLogger(GameAnalysisService.class);
+    private static final JsonMapper JSON = new JsonMapper();
+    private static final int EOF = -1;
+    private static final int LINE = 0;
+    private static final int TOO_LONG = 1;
+
+    private final LegalityService legality;
+    private final InferenceService inference;
+    private final TrainerProperties.Analysis config;
+    private final long budgetNanos;
+    private final ExecutorService pool;
+
+    /** Totals of one analysis request. */
+    public record Summary(int games, int decisions, int matches, int errors) {}
+
+    public GameAnalysisService(LegalityService legality, InferenceService inference, TrainerProperties props) {
+        this.legality = legality;
+        this.inference = inference;
+        this.config = props.getAnalysis();
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(props.getModel().getRequestBudgetMs());
+        this.pool = Executors.newFixedThreadPool(Math.max(1, config.getParallelism()), r -> {
+            Thread t = new Thread(r);
+            t.setName("analysis-" + t.getId());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Reads game logs from {@code in} until it ends and streams the decisions to {@code out}. */
+    public Summary analyze(InputStream in, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        InputStream input = new BufferedInputStream(in);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(1024);
+        Window window = new Window(out, Math.max(1, config.getMaxInFlight()));
+        int lineNo = 0;
+        int games = 0;
+        try {
+            int status;
+            while ((status = readLine(input, line, config.getMaxLineBytes())) != EOF) {
+                lineNo++;
+                if (status == TOO_LONG) {
+                    window.add(DecisionAnalysis.error(lineNo, null, "line longer than " + config.getMaxLineBytes() + " bytes"));
+                } else if (!line.toString().isBlank()) {
+                    games++;
+                    GameLog game = null;
+                    String error;
+                    try {
+                        game = JSON.readValue(line.toByteArray(), GameLog.class);
+                        error = replay(game, lineNo, window);
+                    } catch (JacksonException e) {
+                        error = "unreadable game log: " + e.getOriginalMessage();
+                    }
+                    if (error != null) window.add(DecisionAnalysis.error(lineNo, game == null ? null : game.getGameId(), error));
+                }
+                window.writeDone();
+            }
+            window.writeAll();
+        } finally {
+            window.cancel();
+        }
+        Summary s = new Summary(games, window.decisions, window.matches, window.errors);
+        log.info("Analyzed {} games: {} decisions, {} matching the recommendation, {} errors in {} ms", s.games(),
+                s.decisions(), s.matches(), s.errors(), (System.nanoTime() - start) / 1_000_000);
+        return s;
+    }
+
+    /** Queues the decisions of {@code game} in play order; returns why the game could not be replayed, or null. */
+    private String replay(GameLog game, int line, Window window) throws IOException {
+        if (game.getTrump() == null || !isSuit(game.getTrump())) return "missing or unknown trump";
+        if (game.getLeader() == null || game.getLeader() < 0 || game.getLeader() > 3) return "leader must be a seat 0-3";
+        if (game.getBidder() != null && (game.getBidder() < 0 || game.getBidder() > 3)) return "bidder must be a seat 0-3";
+        if (game.getHands() == null || game.getHands().size() != 4) return "hands must list four seats";
+        if (game.getTopK() != null && game.getTopK() < 1) return "topK must be at least 1";
+        int trump = suitIndex(game.getTrump());
+        PlayState state = new PlayState();
+        state.reset(trump, game.getLeader());
+        int dealt = 0;
+        for (int seat = 0; seat < 4; seat++) {
+            List<String> hand = game.getHands().get(seat);
+            if (hand == null || hand.isEmpty() || hand.size() > 8) return "hand of seat " + seat + " must hold 1-8 cards";
+            int mask;
+            try {
+                mask = toMask(hand);
+            } catch (IllegalArgumentException e) {
+                return e.getMessage() + " in hand of seat " + seat;
+            }
+            if (Integer.bitCount(mask) != hand.size() || (mask & dealt) != 0) return "card dealt twice";
+            if (seat > 0 && hand.size() != game.getHands().getFirst().size()) return "hands differ in size";
+            state.setHand(seat, mask);
+            dealt |= mask;
+        }
+        state.setTricksPlayed(8 - game.getHands().getFirst().size());
+        int seats = 0xF;
+        if (game.getSeats() != null && !game.getSeats().isEmpty()) {
+            seats = 0;
+            for (Integer s : game.getSeats()) if (s != null && s >= 0 && s <= 3) seats |= 1 << s;
+        }
+        int topK = Optional.ofNullable(game.getTopK()).orElse(config.getTopK());
+
+        List<String> plays = Optional.ofNullable(game.getPlays()).orElse(List.of());
+        List<BestCardRequest.Trick> history = new ArrayList<>();
+        List<BestCardRequest.Play> table = new ArrayList<>(4);
+        for (int i = 0; i < plays.size(); i++) {
+            if (state.isFinished()) return "more plays than cards dealt";
+            int seat = state.toMove();
+            String played = plays.get(i);
+            int card;
+            try {
+                card = cardIndex(played);
+            } catch (IllegalArgumentException e) {
+                return e.getMessage() + " at play " + i;
+            }
+            if ((state.hand(seat) >>> card & 1) == 0) return "play " + i + ": seat " + seat + " does not hold " + played;
+            if ((state.legalMoves() >>> card & 1) == 0) return "play " + i + ": " + played + " is not legal for seat " + seat;
+
+            if ((seats >>> seat & 1) != 0) {
+                BestCardRequest req = new BestCardRequest();
+                req.setHand(toCards(state.hand(seat)));
+                req.setTable(List.copyOf(table));
+                req.setHistory(List.copyOf(history));
+                req.setTrump(game.getTrump());
+                req.setPlayerPosition(seat);
+                req.setLeaderPosition(state.leader());
+                req.setPartnerPosition((seat + 2) & 3);
+                req.setBidderPosition(game.getBidder());
+                req.setScoringMode("simple");
+                req.setTopK(topK);
+                req.setRequestId(game.getGameId() + "/" + i);
+                int decision = i;
+                int trick = state.tricksPlayed();
+                window.add(() -> decide(req, line, game.getGameId(), decision, trick, played));
+            }
+
+            BestCardRequest.Play play = new BestCardRequest.Play();
+            play.setPlayer(seat);
+            play.setCard(played);
+            table.add(play);
+            int leader = state.leader();
+            int winner = state.play(card);
+            if (winner >= 0) {
+                BestCardRequest.Trick done = new BestCardRequest.Trick();
+                done.setLeader(leader);
+                done.setPlays(table);
+                done.setWinner(winner);
+                int points = 0;
+                for (BestCardRequest.Play p : table) points += points(cardIndex(p.getCard()), trump);
+                done.setPoints(points);
+                history.add(done);
+                table = new ArrayList<>(4);
+            }
+        }
+        return null;
+    }
+
+    private DecisionAnalysis decide(BestCardRequest req, int line, String gameId, int decision, int trick, String played) {
+        MDC.put("requestId", req.getRequestId());
+        try {
+            StageTimings timings = new StageTimings(req.getRequestId());
+            timings.deadline(System.nanoTime() + budgetNanos);
+            List<String> legal = legality.computeLegalCards(req.getHand(), req.getTable(), req.getTrump(),
+                    req.getPartnerPosition(), req.getLeaderPosition());
+            InferenceService.Result result = inference.pickBest(req, req.getTable(), legal, req.getTopK(), timings);
+            DecisionAnalysis a = new DecisionAnalysis();
+            a.setLine(line);
+            a.setGameId(gameId);
+            a.setDecision(decision);
+            a.setTrick(trick);
+            a.setPlayer(req.getPlayerPosition());
+            a.setPlayed(played);
+            a.setRecommended(result.getBestCard());
+            a.setMatch(played.equals(result.getBestCard()));
+            a.setLegalCards(legal);
+            a.setCandidates(result.getCandidates());
+            a.setTier(timings.tier() == null ? null : timings.tier().tag());
+            return a;
+        } catch (RuntimeException e) {
+            log.warn("Analysis of {} failed: {}", req.getRequestId(), e.toString());
+            return DecisionAnalysis.error(line, gameId, "play " + decision + ": analysis failed");
+        } finally {
+            MDC.remove("requestId");
+        }
+    }
+
+    // next line into buf without its newline: LINE, TOO_LONG (the rest of the line is skipped) or EOF
+    private static int readLine(InputStream in, ByteArrayOutputStream buf, int max) throws IOException {
+        buf.reset();
+        boolean tooLong = false;
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (buf.size() < max) {
+                buf.write(b);
+            } else {
+                tooLong = true;
+            }
+        }
+        if (b == -1 && buf.size() == 0 && !tooLong) return EOF;
+        return tooLong ? TOO_LONG : LINE;
+    }
+
+    /** Decisions of one request in input order; adding to a full window first writes out the oldest. */
+    private final class Window {
+        private final OutputStream out;
+        private final int capacity;
+        private final ArrayDeque<Future<DecisionAnalysis>> pending = new ArrayDeque<>();
+        private boolean dirty;
+        int decisions;
+        int matches;
+        int errors;
+
+        Window(OutputStream out, int capacity) {
+            this.out = out;
+            this.capacity = capacity;
+        }
+
+        void add(Callable<DecisionAnalysis> task) throws IOException {
+            makeRoom();
+            pending.add(pool.submit(task));
+        }
+
+        void add(DecisionAnalysis done) throws IOException {
+            makeRoom();
+            pending.add(CompletableFuture.completedFuture(done));
+        }
+
+        private void makeRoom() throws IOException {
+            while (pending.size() >= capacity) write(pending.poll());
+        }
+
+        /** Writes the finished head of the queue, and flushes before the caller may block on reading. */
+        void writeDone() throws IOException {
+            while (!pending.isEmpty() && pending.peek().isDone()) write(pending.poll());
+            if (dirty) {
+                out.flush();
+                dirty = false;
+            }
+        }
+
+        void writeAll() throws IOException {
+            while (!pending.isEmpty()) write(pending.poll());
+            out.flush();
+        }
+
+        void cancel() {
+            for (Future<DecisionAnalysis> f : pending) f.cancel(true);
+            pending.clear();
+        }
+
+        private void write(Future<DecisionAnalysis> f) throws IOException {
+            DecisionAnalysis a;
+            try {
+                a = f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("analysis interrupted");
+            } catch (ExecutionException e) {
+                throw new IOException("Decision analysis failed", e.getCause());
+            }
+            if (a.getError() != null) {
+                errors++;
+            } else {
+                decisions++;
+                if (Boolean.TRUE.equals(a.getMatch())) matches++;
+            }
+            out.write(JSON.writeValueAsBytes(a));
+            out.write('\n');
+            dirty = true;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
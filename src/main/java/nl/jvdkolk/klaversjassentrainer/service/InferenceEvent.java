@@ -0,0 +1,47 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/** JFR event around {@link InferenceService#pickBest}, with the stage breakdown of the request so far. */
+@Name("nl.jvdkolk.klaversjassen.Inference")
+@Label("Best Card Inference")
+@Category({"Klaverjassen", "Best Card"})
+@Description("Candidate scoring for one best-card request")
+class InferenceEvent extends Event {
+    @Label("Request Id")
+    String requestId;
+
+    @Label("Model")
+    String model;
+
+    @Label("Legal Cards")
+    int legalCards;
+
+    @Label("Best Card")
+    String bestCard;
+
+    @Label("Validation")
+    @Timespan(Timespan.NANOSECONDS)
+    long validation;
+
+    @Label("Legality")
+    @Timespan(Timespan.NANOSECONDS)
+    long legality;
+
+    @Label("Encoding")
+    @Timespan(Timespan.NANOSECONDS)
+    long encoding;
+
+    @Label("Forward")
+    @Timespan(Timespan.NANOSECONDS)
+    long forward;
+
+    @Label("Sort")
+    @Timespan(Timespan.NANOSECONDS)
+    long sort;
+}
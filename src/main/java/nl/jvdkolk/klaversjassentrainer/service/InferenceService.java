@@ -3,42 +3,76 @@ package nl.jvdkolk.klaversjassentrainer.service;
 import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
 import nl.jvdkolk.klaversjassentrainer.api.BestCardResponse;
 import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
-import nl.jvdkolk.klaversjassentrainer.train.NeuralNetwork;
+import nl.jvdkolk.klaversjassentrainer.search.SharedDecisionCache;
+import nl.jvdkolk.klaversjassentrainer.train.CompiledNetwork;
+import nl.jvdkolk.klaversjassentrainer.train.PolicyNetwork;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.core.io.ClassPathResource;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
 
 import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
 
 @Service
 public class InferenceService {
     private static final Logger log = LoggerFactory.getLogger(InferenceService.class);
+    private static final String MODEL_NAME = "kj-rotterdam-small";
+    private static final String MODEL_VERSION = "0.1.0";
 
     private final TrainerProperties props;
-    private NeuralNetwork nn; // may be null => fallback
+    private final EndgameService endgame;
+    private final LeadBookService leadBook;
+    private final ModelClient remote;
+    private final DecisionCacheService cache;
+    private volatile PolicyNetwork nn; // may be null => fallback
+    private volatile long modelTag; // identifies the model's entries in the shared decision cache
+    private final CompletableFuture<PolicyNetwork> loaded;
 
-    public InferenceService(TrainerProperties props) {
+    public InferenceService(TrainerProperties props, EndgameService endgame, LeadBookService leadBook,
+                            ModelClient remote, DecisionCacheService cache) {
         this.props = props;
-        loadModelIfPresent();
+        this.endgame = endgame;
+        this.leadBook = leadBook;
+        this.remote = remote;
+        this.cache = cache;
+        if (props.getStartup().isBackgroundModelLoad()) {
+            // overlaps parsing with the rest of the context startup; the warm-up waits for it before readiness
+            this.loaded = CompletableFuture.supplyAsync(this::loadModelIfPresent,
+                    task -> Thread.ofPlatform().name("model-load").daemon().start(task));
+        } else {
+            this.loaded = CompletableFuture.completedFuture(loadModelIfPresent());
+        }
     }
 
-    private void loadModelIfPresent() {
+    private PolicyNetwork loadModelIfPresent() {
+        long start = System.nanoTime();
+        PolicyNetwork model = readModel();
+        this.nn = model;
+        log.info("Model loading finished in {} ms", (System.nanoTime() - start) / 1_000_000);
+        return model;
+    }
+
+    private PolicyNetwork readModel() {
         String location = props.getTraining().getModelFile();
+        byte[] text = null;
+        String source = null;
         // First try classpath (resources)
         try {
             ClassPathResource cpr = new ClassPathResource(location);
             if (cpr.exists()) {
                 try (InputStream in = cpr.getInputStream()) {
-                    this.nn = NeuralNetwork.load(in);
-                    log.info("Loaded model from classpath: {}", location);
-                    return;
+                    text = in.readAllBytes();
+                    source = "classpath";
                 }
             }
         } catch (Exception e) {
@@ -46,19 +80,206 @@ public class InferenceService {
         }
 
         // Fallback to filesystem path for backward compatibility
-        try {
-            Path path = Path.of(location);
-            if (Files.exists(path)) {
-                this.nn = NeuralNetwork.load(path);
-                log.info("Loaded model from filesystem: {}", path);
-                return;
+        if (text == null) {
+            try {
+                Path path = Path.of(location);
+                if (Files.exists(path)) {
+                    text = Files.readAllBytes(path);
+                    source = "filesystem";
+                }
+            } catch (Exception e) {
+                log.warn("Failed loading model from filesystem '{}': {}", location, e.getMessage());
+            }
+        }
+
+        if (text == null) {
+            log.warn("Model file '{}' not found on classpath or filesystem. Inference will use fallback.", location);
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(text);
+        crc.update(MODEL_VERSION.getBytes(StandardCharsets.UTF_8));
+        modelTag = crc.getValue() ^ (long) text.length << 32;
+        // Prefer the network compiled into the build from this very model file: no parsing, specialized loops
+        if (props.getTraining().isCompiledModel()) {
+            PolicyNetwork compiled = CompiledNetwork.loadFor(text);
+            if (compiled != null) {
+                log.info("Loaded compiled model for {}: {}", source, location);
+                return compiled;
             }
+        }
+        try {
+            PolicyNetwork parsed = PolicyNetwork.load(new ByteArrayInputStream(text));
+            log.info("Loaded model from {}: {}", source, location);
+            return parsed;
         } catch (Exception e) {
-            log.warn("Failed loading model from filesystem '{}': {}", location, e.getMessage());
+            log.warn("Failed parsing model '{}': {}. Inference will use fallback.", location, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The loaded local model (compiled or interpreted), or null when serving with the fallback heuristic or while
+     * the model is still loading.
+     */
+    public PolicyNetwork getNetwork() {
+        return nn;
+    }
+
+    /** Completes with the local model, or null when there is none, once loading has finished. */
+    public CompletableFuture<PolicyNetwork> modelLoaded() {
+        return loaded;
+    }
+
+    public String getModelName() {
+        return nn == null ? "fallback" : MODEL_NAME;
+    }
+
+    public String getModelVersion() {
+        return MODEL_VERSION;
+    }
+
+    /** Whether {@link #pickBest(BestCardRequest, List, List, int, StageTimings)} will answer by exact search. */
+    public boolean solvesExactly(BestCardRequest req) {
+        return endgame.inRange(req);
+    }
+
+    /**
+     * Scores a full request through the decision tiers, cheapest first: a forced move or a choice between equivalent
+     * cards is answered by rule, opening leads come from the {@link LeadBookService} book, positions in the last
+     * tricks are solved exactly by {@link EndgameService}, everything else goes to the external scoring API when
+     * configured ({@link ModelClient}), and whatever is still unanswered to the local model. The tier that answered
+     * is left in {@code timings}.
+     */
+    public Result pickBest(BestCardRequest req,
+                           List<BestCardRequest.Play> table,
+                           List<String> legal,
+                           int topK,
+                           StageTimings timings) {
+        Result result = pickTrivial(req, table, legal, topK, timings);
+        return result != null ? result : pickScored(req, table, legal, topK, timings);
+    }
+
+    /** The tiers of {@link #pickBest(BestCardRequest, List, List, int, StageTimings)} after the rule-based ones. */
+    public Result pickScored(BestCardRequest req,
+                             List<BestCardRequest.Play> table,
+                             List<String> legal,
+                             int topK,
+                             StageTimings timings) {
+        Result result;
+        if (leadBook.applies(req, table)) {
+            long t = System.nanoTime();
+            result = leadBook.pickBest(req, table, legal, topK);
+            timings.since(StageTimings.Stage.LEAD_BOOK, t);
+            if (result != null) {
+                timings.tier(StageTimings.Tier.LEAD_BOOK);
+                return result;
+            }
+        }
+        if (endgame.inRange(req)) {
+            long t = System.nanoTime();
+            result = endgame.pickBest(req, table, legal, topK, timings.deadline());
+            timings.since(StageTimings.Stage.ENDGAME, t);
+            if (result != null) {
+                timings.tier(StageTimings.Tier.ENDGAME);
+                return result;
+            }
+        }
+        if (remote.isEnabled()) {
+            long t = System.nanoTime();
+            double[] scores = remote.scoreCandidates(req, legal, timings.deadline());
+            timings.since(StageTimings.Stage.REMOTE, t);
+            if (scores != null) {
+                timings.tier(StageTimings.Tier.REMOTE);
+                return remoteResult(legal, scores, topK);
+            }
+        }
+        return pickBest(req.getHand(), table, req.getTrump(), legal, topK, timings);
+    }
+
+    /**
+     * Answers by rule when there is no real choice: a single legal card, or legal cards that are all equivalent.
+     * Returns null otherwise.
+     */
+    public Result pickTrivial(BestCardRequest req,
+                              List<BestCardRequest.Play> table,
+                              List<String> legal,
+                              int topK,
+                              StageTimings timings) {
+        long t = System.nanoTime();
+        StageTimings.Tier tier = null;
+        int legalMask = toMask(legal);
+        int trump = -1;
+        if (legal.size() == 1) {
+            tier = StageTimings.Tier.FORCED;
+        } else if (isSuit(req.getTrump())) {
+            trump = suitIndex(req.getTrump());
+            try {
+                if (allEquivalent(legalMask, goneCards(req), trump)) tier = StageTimings.Tier.EQUIVALENT;
+            } catch (IllegalArgumentException e) {
+                // unknown card in the history: leave it to the model, which does not read the history
+            }
         }
+        if (tier == null) {
+            timings.since(StageTimings.Stage.FAST_PATH, t);
+            return null;
+        }
+        // of equivalent cards play the lowest, as players conventionally do
+        int best = Integer.numberOfTrailingZeros(legalMask);
+        for (int m = legalMask & (legalMask - 1); m != 0; m &= m - 1) {
+            int c = Integer.numberOfTrailingZeros(m);
+            if (strength(c, trump) < strength(best, trump)) best = c;
+        }
+        String reason = tier.tag();
+        List<BestCardResponse.Candidate> cands = new ArrayList<>(legal.size());
+        cands.add(new BestCardResponse.Candidate(ALL_CARDS.get(best), 1.0, reason));
+        for (String card : legal) {
+            if (cands.size() < topK && cardIndex(card) != best) cands.add(new BestCardResponse.Candidate(card, 1.0, reason));
+        }
+        Map<String, String> modelMeta = new LinkedHashMap<>();
+        modelMeta.put("name", reason);
+        modelMeta.put("version", MODEL_VERSION);
+        modelMeta.put("ts", Instant.now().toString());
+        timings.since(StageTimings.Stage.FAST_PATH, t);
+        timings.tier(tier);
+        return new Result(ALL_CARDS.get(best), cands, modelMeta);
+    }
 
-        log.warn("Model file '{}' not found on classpath or filesystem. Inference will use fallback.", location);
-        this.nn = null;
+    /**
+     * Whether all {@code legal} cards are interchangeable now and for the rest of the deal: one suit, the same
+     * points, and no card that ranks between two of them other than those in {@code gone} (own hand and earlier
+     * tricks). Cards on the table are not gone: one ranking between two candidates decides the trick.
+     */
+    static boolean allEquivalent(int legal, int gone, int trump) {
+        if (Integer.bitCount(legal) < 2) return false;
+        int first = Integer.numberOfTrailingZeros(legal);
+        int suit = suitOf(first);
+        if ((legal & ~suitMask(suit)) != 0) return false;
+        int lowest = Integer.MAX_VALUE;
+        int highest = Integer.MIN_VALUE;
+        for (int m = legal; m != 0; m &= m - 1) {
+            int c = Integer.numberOfTrailingZeros(m);
+            if (points(c, trump) != points(first, trump)) return false;
+            lowest = Math.min(lowest, strength(c, trump));
+            highest = Math.max(highest, strength(c, trump));
+        }
+        for (int m = suitMask(suit) & ~gone & ~legal; m != 0; m &= m - 1) {
+            int s = strength(Integer.numberOfTrailingZeros(m), trump);
+            if (s > lowest && s < highest) return false;
+        }
+        return true;
+    }
+
+    // own hand and every card of earlier tricks; the table is left out on purpose, see allEquivalent
+    static int goneCards(BestCardRequest req) {
+        int gone = toMask(req.getHand());
+        if (req.getHistory() != null) {
+            for (BestCardRequest.Trick trick : req.getHistory()) {
+                if (trick == null || trick.getPlays() == null) continue;
+                for (BestCardRequest.Play p : trick.getPlays()) if (p != null) gone |= toMask(Collections.singletonList(p.getCard()));
+            }
+        }
+        return gone;
     }
 
     public Result pickBest(List<String> hand,
@@ -66,10 +287,73 @@ public class InferenceService {
                            String trump,
                            List<String> legal,
                            int topK) {
+        return pickBest(hand, table, trump, legal, topK, new StageTimings());
+    }
+
+    /** As {@link #pickBest(List, List, String, List, int)}, adding encoding, forward and sort time to {@code timings}. */
+    public Result pickBest(List<String> hand,
+                           List<BestCardRequest.Play> table,
+                           String trump,
+                           List<String> legal,
+                           int topK,
+                           StageTimings timings) {
+        return pickBest(hand, table, trump, legal, topK, timings, true);
+    }
+
+    /**
+     * As {@link #pickBest(List, List, String, List, int, StageTimings)} without reading or writing the shared decision
+     * cache, so the model always runs: for the warm-up, whose fixed positions would otherwise all be cache hits after
+     * the first start.
+     */
+    public Result pickWithModel(List<String> hand,
+                                List<BestCardRequest.Play> table,
+                                String trump,
+                                List<String> legal,
+                                int topK,
+                                StageTimings timings) {
+        return pickBest(hand, table, trump, legal, topK, timings, false);
+    }
+
+    private Result pickBest(List<String> hand,
+                            List<BestCardRequest.Play> table,
+                            String trump,
+                            List<String> legal,
+                            int topK,
+                            StageTimings timings,
+                            boolean useCache) {
+        InferenceEvent event = new InferenceEvent();
+        event.begin();
+        Result result = score(hand, table, trump, legal, topK, timings, useCache);
+        event.end();
+        if (event.shouldCommit()) {
+            event.requestId = timings.requestId();
+            event.model = getModelName();
+            event.legalCards = legal.size();
+            event.bestCard = result.getBestCard();
+            event.validation = timings.get(StageTimings.Stage.VALIDATION);
+            event.legality = timings.get(StageTimings.Stage.LEGALITY);
+            event.encoding = timings.get(StageTimings.Stage.ENCODING);
+            event.forward = timings.get(StageTimings.Stage.FORWARD);
+            event.sort = timings.get(StageTimings.Stage.SORT);
+            event.commit();
+        }
+        return result;
+    }
+
+    private Result score(List<String> hand,
+                         List<BestCardRequest.Play> table,
+                         String trump,
+                         List<String> legal,
+                         int topK,
+                         StageTimings timings,
+                         boolean useCache) {
+        // a request that arrives while the model is loading (readiness not yet reported) waits for it
+        PolicyNetwork nn = loaded.isDone() ? this.nn : loaded.join();
         Map<String, String> modelMeta = new LinkedHashMap<>();
-        modelMeta.put("name", nn == null ? "fallback" : "kj-rotterdam-small");
-        modelMeta.put("version", "0.1.0");
+        modelMeta.put("name", getModelName());
+        modelMeta.put("version", MODEL_VERSION);
         modelMeta.put("ts", Instant.now().toString());
+        timings.tier(nn == null ? StageTimings.Tier.FALLBACK : StageTimings.Tier.MODEL);
 
         if (nn == null) {
             // simple deterministic fallback: choose the first legal card in alphabetical order
@@ -85,6 +369,7 @@ public class InferenceService {
         }
 
         // Build input vector. Prefer ordered trick encoding if model trained that way.
+        long t = System.nanoTime();
         List<String> trickOrder = new ArrayList<>();
         if (table != null) {
             for (BestCardRequest.Play p : table) {
@@ -93,6 +378,37 @@ public class InferenceService {
                 trickOrder.add(c);
             }
         }
+        // The shared decision cache answers states any instance on the host has scored with this model before
+        long cacheKey = 0L;
+        long cacheState = 0L;
+        boolean cacheable = useCache && cache.isEnabled() && topK <= SharedDecisionCache.TOP_K;
+        if (cacheable) {
+            try {
+                int slots = 0;
+                for (int i = 0; i < Math.min(4, trickOrder.size()); i++) {
+                    String c = trickOrder.get(i);
+                    if (c != null && !c.isBlank() && !"-".equals(c)) slots |= (cardIndex(c) + 1) << (6 * i);
+                }
+                cacheKey = SharedDecisionCache.key(toMask(hand), toMask(legal));
+                cacheState = SharedDecisionCache.state(slots, suitIndex(trump), modelTag);
+            } catch (IllegalArgumentException e) {
+                cacheable = false; // unknown card or trump: scored as before, not cached
+            }
+        }
+        if (cacheable) {
+            int[] cards = new int[SharedDecisionCache.TOP_K];
+            float[] scores = new float[SharedDecisionCache.TOP_K];
+            int n = cache.lookup(cacheKey, cacheState, cards, scores);
+            t = timings.since(StageTimings.Stage.CACHE, t);
+            if (n > 0) {
+                timings.tier(StageTimings.Tier.CACHE);
+                List<BestCardResponse.Candidate> candidates = new ArrayList<>(Math.min(n, topK));
+                for (int i = 0; i < Math.min(n, topK); i++) {
+                    candidates.add(new BestCardResponse.Candidate(ALL_CARDS.get(cards[i]), scores[i], null));
+                }
+                return new Result(ALL_CARDS.get(cards[0]), candidates, modelMeta);
+            }
+        }
         // Compute expected input sizes for both encodings
         int unorderedInput = ALL_CARDS.size() + ALL_CARDS.size() + SUITS.length;
         int orderedInput = ALL_CARDS.size() + (4 * ALL_CARDS.size()) + SUITS.length;
@@ -108,25 +424,46 @@ public class InferenceService {
             }
             x = concat(encodeHand(hand), encodeTrick(trickCards), encodeTrump(trump));
         }
-        double[] probs = nn.forward(x);
-
-        // Collect candidates
-        List<BestCardResponse.Candidate> candidates = new ArrayList<>();
+        t = timings.since(StageTimings.Stage.ENCODING, t);
+        // Only the legal outputs are evaluated, as raw logits
+        int legalMask = 0;
         for (String card : legal) {
             int idx = cardIndex(card);
-            double score = (idx >= 0 && idx < probs.length) ? probs[idx] : 0.0;
-            candidates.add(new BestCardResponse.Candidate(card, score, null));
+            if (idx >= 0 && idx < nn.getOutputSize()) legalMask |= 1 << idx;
         }
-        candidates.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
-        String best = candidates.get(0).getCard();
+        double[] logits = new double[nn.getOutputSize()];
+        nn.logits(x, legalMask, logits);
+        t = timings.since(StageTimings.Stage.FORWARD, t);
 
-        // Trim topK
-        if (candidates.size() > topK) {
-            candidates = new ArrayList<>(candidates.subList(0, topK));
+        // Partial top-K on the logits; scores are probabilities over the legal cards
+        int[] top = new int[Math.max(1, Math.min(cacheable ? SharedDecisionCache.TOP_K : topK, legal.size()))];
+        int ranked = PolicyNetwork.topK(logits, legalMask, top);
+        PolicyNetwork.softmax(logits, legalMask);
+        List<BestCardResponse.Candidate> candidates = new ArrayList<>(top.length);
+        for (int i = 0; i < Math.min(ranked, topK); i++) {
+            candidates.add(new BestCardResponse.Candidate(ALL_CARDS.get(top[i]), logits[top[i]], null));
         }
+        String best = ranked > 0 ? ALL_CARDS.get(top[0]) : legal.get(0);
+        if (cacheable && ranked > 0) cache.store(cacheKey, cacheState, ranked, top, logits);
+        timings.since(StageTimings.Stage.SORT, t);
         return new Result(best, candidates, modelMeta);
     }
 
+    private static Result remoteResult(List<String> legal, double[] scores, int topK) {
+        List<BestCardResponse.Candidate> cands = new ArrayList<>(legal.size());
+        for (int i = 0; i < scores.length; i++) cands.add(new BestCardResponse.Candidate(legal.get(i), scores[i], "remote"));
+        cands.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        String best = cands.get(0).getCard();
+        if (cands.size() > topK) {
+            cands = new ArrayList<>(cands.subList(0, topK));
+        }
+        Map<String, String> modelMeta = new LinkedHashMap<>();
+        modelMeta.put("name", "remote");
+        modelMeta.put("version", MODEL_VERSION);
+        modelMeta.put("ts", Instant.now().toString());
+        return new Result(best, cands, modelMeta);
+    }
+
     private static double[] concat(double[]... xs) {
         int n = 0; for (double[] a : xs) n += a.length;
         double[] out = new double[n];
@@ -0,0 +1,120 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardResponse;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.search.LeadBook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Answers the opening lead (empty table, no history, eight cards) from the precomputed {@link LeadBook} at
+ * {@code klaverjas.leadBook.file}, so the most common empty-table decision needs no model evaluation. Books built
+ * per seat relative to the bidder are only used when the request carries {@code bidderPosition}.
+ */
+@Service
+public class LeadBookService {
+    private static final Logger log = LoggerFactory.getLogger(LeadBookService.class);
+
+    private final TrainerProperties.LeadBook config;
+    private final LeadBook book; // null => disabled
+    private final Counter hits;
+    private final Counter misses;
+
+    public LeadBookService(TrainerProperties props, MeterRegistry registry) {
+        this.config = props.getLeadBook();
+        this.book = config.isEnabled() ? openBook(config.getFile()) : null;
+        this.hits = Counter.builder("bestcard.leadbook.lookups")
+                .tag("result", "hit")
+                .description("Opening leads looked up in the lead book")
+                .register(registry);
+        this.misses = Counter.builder("bestcard.leadbook.lookups")
+                .tag("result", "miss")
+                .description("Opening leads looked up in the lead book")
+                .register(registry);
+    }
+
+    private static LeadBook openBook(String file) {
+        if (file == null || file.isBlank() || !Files.exists(Path.of(file))) {
+            log.info("No lead book at '{}', opening leads are scored by the model", file);
+            return null;
+        }
+        try {
+            LeadBook b = LeadBook.open(Path.of(file));
+            log.info("Mapped lead book {}: {} entries, {} KB, {}", file, b.size(), b.sizeInBytes() >> 10,
+                    b.seatAware() ? "per seat relative to the bidder" : "any seat");
+            return b;
+        } catch (Exception e) {
+            log.warn("Failed to open lead book '{}': {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /** Whether the request is an opening lead the book can answer. */
+    public boolean applies(BestCardRequest req, List<BestCardRequest.Play> table) {
+        return book != null
+                && countCards(table) == 0
+                && (req.getHistory() == null || req.getHistory().isEmpty())
+                && req.getHand() != null && req.getHand().size() == 8
+                && isSuit(req.getTrump())
+                && (!book.seatAware() || req.getBidderPosition() != null);
+    }
+
+    /**
+     * The book's leads as up to {@code topK} candidates (at most {@value LeadBook#LEADS}), best first, or null when
+     * the state is not in the book. The book ranks leads without scoring them, so a candidate's score only reflects
+     * its rank: 1 for the best lead, down by {@code 1 / LEADS} per place.
+     */
+    public InferenceService.Result pickBest(BestCardRequest req, List<BestCardRequest.Play> table, List<String> legal,
+                                            int topK) {
+        if (!applies(req, table)) return null;
+        int seatFromBidder = req.getBidderPosition() == null ? 0 : (req.getPlayerPosition() - req.getBidderPosition()) & 3;
+        int[] leads = new int[Math.clamp(topK, 1, LeadBook.LEADS)];
+        int n = book.lookup(toMask(req.getHand()), suitIndex(req.getTrump()), seatFromBidder, leads);
+        if (n == 0 || !legal.contains(ALL_CARDS.get(leads[0]))) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        List<BestCardResponse.Candidate> cands = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String card = ALL_CARDS.get(leads[i]);
+            if (legal.contains(card)) {
+                cands.add(new BestCardResponse.Candidate(card, 1.0 - i / (double) LeadBook.LEADS, "lead-book"));
+            }
+        }
+
+        Map<String, String> modelMeta = new LinkedHashMap<>();
+        modelMeta.put("name", "lead-book");
+        modelMeta.put("version", "0.1.0");
+        modelMeta.put("seatAware", Boolean.toString(book.seatAware()));
+        modelMeta.put("ts", Instant.now().toString());
+        return new InferenceService.Result(cands.getFirst().getCard(), cands, modelMeta);
+    }
+
+    private static int countCards(List<BestCardRequest.Play> table) {
+        int n = 0;
+        if (table != null) {
+            for (BestCardRequest.Play p : table) {
+                if (p != null && p.getCard() != null && !p.getCard().isBlank() && !"-".equals(p.getCard())) n++;
+            }
+        }
+        return n;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (book != null) book.close();
+    }
+}
@@ -0,0 +1,26 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** JFR event around {@link LegalityService#computeLegalCards}; its duration is the legality stage. */
+@Name("nl.jvdkolk.klaversjassen.Legality")
+@Label("Legal Cards")
+@Category({"Klaverjassen", "Best Card"})
+@Description("Legal card derivation for one best-card request")
+class LegalityEvent extends Event {
+    @Label("Request Id")
+    String requestId;
+
+    @Label("Hand Size")
+    int handSize;
+
+    @Label("Table Size")
+    int tableSize;
+
+    @Label("Legal Cards")
+    int legalCards;
+}
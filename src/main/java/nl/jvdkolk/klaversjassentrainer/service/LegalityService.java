@@ -1,10 +1,13 @@
 package nl.jvdkolk.klaversjassentrainer.service;
 
 import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import org.slf4j.MDC;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
 
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
 @Service
 public class LegalityService {
     private static final List<String> TRUMP_ORDER = List.of("J","9","A","10","K","Q","8","7");
@@ -15,6 +18,24 @@ public class LegalityService {
                                           String trump,
                                           int partnerPosition,
                                           int leaderPosition) {
+        LegalityEvent event = new LegalityEvent();
+        event.begin();
+        List<String> legal = legalCards(hand, table, trump, partnerPosition);
+        event.end();
+        if (event.shouldCommit()) {
+            event.requestId = MDC.get("requestId");
+            event.handSize = hand.size();
+            event.tableSize = table == null ? 0 : table.size();
+            event.legalCards = legal.size();
+            event.commit();
+        }
+        return legal;
+    }
+
+    private List<String> legalCards(List<String> hand,
+                                    List<BestCardRequest.Play> table,
+                                    String trump,
+                                    int partnerPosition) {
         List<String> legal = new ArrayList<>();
         List<BestCardRequest.Play> actualTable = new ArrayList<>();
         if (table != null) {
@@ -65,6 +86,54 @@ public class LegalityService {
         }
     }
 
+    /**
+     * Mask-based variant of {@link #computeLegalCards} for search and simulation code.
+     * Cards are indices into {@code CardUtil.ALL_CARDS}; {@code trick} holds {@code trickSize} cards in play order,
+     * so the partner of the player to move is the one who played slot {@code trickSize - 2}.
+     */
+    public static int legalMask(int hand, int[] trick, int trickSize, int trump) {
+        if (trickSize == 0) return hand;
+        int followSuit = hand & suitMask(suitOf(trick[0]));
+        if (followSuit != 0) return followSuit;
+
+        int winnerSlot = trickWinner(trick, trickSize, trump);
+        if (trickSize >= 2 && winnerSlot == trickSize - 2) {
+            int nonTrump = hand & ~suitMask(trump);
+            return nonTrump != 0 ? nonTrump : hand;
+        }
+        int trumpsInHand = hand & suitMask(trump);
+        if (trumpsInHand == 0) return hand;
+        int winningCard = trick[winnerSlot];
+        if (suitOf(winningCard) != trump) return trumpsInHand;
+        int winStrength = strength(winningCard, trump);
+        int over = 0;
+        for (int m = trumpsInHand; m != 0; m &= m - 1) {
+            int c = Integer.numberOfTrailingZeros(m);
+            if (strength(c, trump) > winStrength) over |= 1 << c;
+        }
+        return over != 0 ? over : trumpsInHand;
+    }
+
+    /** Slot (0-based play order) of the card currently winning the trick. */
+    public static int trickWinner(int[] trick, int trickSize, int trump) {
+        int ledSuit = suitOf(trick[0]);
+        int best = 0;
+        int bestValue = trickValue(trick[0], ledSuit, trump);
+        for (int i = 1; i < trickSize; i++) {
+            int v = trickValue(trick[i], ledSuit, trump);
+            if (v > bestValue) { best = i; bestValue = v; }
+        }
+        return best;
+    }
+
+    // trump beats led suit beats off-suit; within a suit the rank order decides
+    private static int trickValue(int card, int ledSuit, int trump) {
+        int suit = suitOf(card);
+        if (suit == trump) return 16 + strength(card, trump);
+        if (suit == ledSuit) return 8 + strength(card, trump);
+        return 0;
+    }
+
     private static List<String> filterBySuit(List<String> cards, String suit) {
         List<String> out = new ArrayList<>();
         for (String c : cards) if (suit(c).equals(suit)) out.add(c);
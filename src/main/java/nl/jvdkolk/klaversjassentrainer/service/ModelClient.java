@@ -0,0 +1,360 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client for the external scoring API (FR-6): posts the request with its legal cards and expects
+ * {@code {"scores": {"AH": 0.7, ...}}} back. Built so that a slow or failing remote never costs more than the
+ * request's own deadline:
+ * <ul>
+ *   <li>the caller's remaining time is the HTTP timeout and is passed on in {@value #TIMEOUT_HEADER};</li>
+ *   <li>once the first attempt is slower than the configured percentile of recent latencies a second, hedged
+ *   attempt is sent and the first good answer wins;</li>
+ *   <li>a bulkhead caps the attempts in flight; calls beyond it are refused, not queued;</li>
+ *   <li>a count-based circuit breaker stops calling the remote while too many recent calls failed, then lets a
+ *   single probe through after {@code openMs}.</li>
+ * </ul>
+ * Every refusal or failure returns null, and {@link InferenceService} scores with the local network instead.
+ */
+@Service
+public class ModelClient {
+    private static final Logger log = LoggerFactory.getLogger(ModelClient.class);
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+    private static final JsonMapper JSON = new JsonMapper();
+    // hedge delay: percentile over at least MIN_SAMPLES recent latencies, refreshed at most every second
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MIN_SAMPLES = 20;
+    private static final int MAX_SAMPLES = 2000;
+
+    public enum CircuitState { CLOSED, HALF_OPEN, OPEN }
+
+    private final TrainerProperties.Model config;
+    private final URI uri;
+    private final HttpClient http;
+    private final Semaphore bulkhead;
+    private final Breaker breaker;
+    private final ScheduledExecutorService hedgeTimer;
+    private final Recorder latency = new Recorder(3);
+    private final Histogram recent = new Histogram(3); // guarded by itself
+    private long nextRefresh;                            // guarded by recent
+    private volatile long hedgeDelayNanos;               // 0 until enough samples
+    private final Timer success;
+    private final Timer timeout;
+    private final Timer error;
+    private final Counter hedged;
+    private final Map<String, Counter> skipped = new LinkedHashMap<>();
+
+    public ModelClient(TrainerProperties props, MeterRegistry registry) {
+        this.config = props.getModel();
+        this.uri = URI.create(config.getUrl());
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(config.getConnectTimeoutMs()))
+                .build();
+        this.bulkhead = new Semaphore(Math.max(1, config.getMaxConcurrent()));
+        this.breaker = new Breaker(config.getCircuitBreaker());
+        this.hedgeTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "model-hedge");
+            t.setDaemon(true);
+            return t;
+        });
+        this.success = timer(registry, "success");
+        this.timeout = timer(registry, "timeout");
+        this.error = timer(registry, "error");
+        this.hedged = Counter.builder("bestcard.model.remote.hedged")
+                .description("Second attempts sent because the first exceeded the hedge percentile")
+                .register(registry);
+        for (String reason : List.of("deadline", "circuit-open", "bulkhead")) {
+            skipped.put(reason, Counter.builder("bestcard.model.remote.skipped")
+                    .description("Remote scoring calls not made; the local network scored instead")
+                    .tag("reason", reason)
+                    .register(registry));
+        }
+        Gauge.builder("bestcard.model.remote.circuit", breaker, b -> b.state().ordinal())
+                .description("Circuit breaker state: 0 closed, 1 half-open, 2 open")
+                .register(registry);
+    }
+
+    private static Timer timer(MeterRegistry registry, String outcome) {
+        return Timer.builder("bestcard.model.remote")
+                .description("Remote scoring calls including hedged attempts")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public boolean isEnabled() { return config.isEnabled(); }
+    public CircuitState circuitState() { return breaker.state(); }
+
+    /**
+     * Scores {@code legal} (same order) through the remote API, or returns null when the call was not made or did not
+     * succeed before {@code deadlineNanos} ({@link System#nanoTime()} based; 0 means the configured request budget).
+     */
+    public double[] scoreCandidates(BestCardRequest req, List<String> legal, long deadlineNanos) {
+        long start = System.nanoTime();
+        long deadline = deadlineNanos != 0 ? deadlineNanos : start + TimeUnit.MILLISECONDS.toNanos(config.getRequestBudgetMs());
+        long remaining = deadline - start;
+        if (remaining < TimeUnit.MILLISECONDS.toNanos(config.getMinRemainingMs())) {
+            skipped.get("deadline").increment();
+            return null;
+        }
+        // serialized before taking a breaker permit and a bulkhead slot, so a failure here cannot leak either
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("request", req);
+        body.put("candidates", legal);
+        byte[] json = JSON.writeValueAsBytes(body);
+        if (!breaker.tryAcquire(start)) {
+            skipped.get("circuit-open").increment();
+            return null;
+        }
+        if (!bulkhead.tryAcquire()) {
+            breaker.release();
+            skipped.get("bulkhead").increment();
+            return null;
+        }
+
+        Call call = new Call(json, legal, deadline);
+        call.send();
+        long hedgeAfter = hedgeDelay(start);
+        ScheduledFuture<?> hedge = null;
+        if (config.getHedge().isEnabled() && hedgeAfter > 0 && hedgeAfter < remaining) {
+            hedge = hedgeTimer.schedule(() -> {
+                if (!call.result.isDone() && bulkhead.tryAcquire()) {
+                    hedged.increment();
+                    call.send();
+                }
+            }, hedgeAfter, TimeUnit.NANOSECONDS);
+        }
+        try {
+            double[] scores = call.result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            breaker.onSuccess();
+            success.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return scores;
+        } catch (TimeoutException e) {
+            breaker.onFailure(System.nanoTime());
+            timeout.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.debug("Remote scoring for request {} exceeded its {} ms deadline", req.getRequestId(), remaining / 1_000_000);
+        } catch (ExecutionException e) {
+            breaker.onFailure(System.nanoTime());
+            error.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.debug("Remote scoring for request {} failed: {}", req.getRequestId(), e.getCause().toString());
+        } catch (InterruptedException e) {
+            breaker.release();
+            Thread.currentThread().interrupt();
+        } finally {
+            if (hedge != null) hedge.cancel(false);
+            call.cancel();
+        }
+        return null;
+    }
+
+    // the configured percentile of recent successful latencies, at least minDelayMs; 0 while there are too few
+    private long hedgeDelay(long now) {
+        synchronized (recent) {
+            if (now - nextRefresh >= 0) {
+                recent.add(latency.getIntervalHistogram());
+                if (recent.getTotalCount() >= MIN_SAMPLES) {
+                    hedgeDelayNanos = Math.max(recent.getValueAtPercentile(config.getHedge().getPercentile()),
+                            TimeUnit.MILLISECONDS.toNanos(config.getHedge().getMinDelayMs()));
+                    if (recent.getTotalCount() >= MAX_SAMPLES) recent.reset();
+                }
+                nextRefresh = now + REFRESH_NANOS;
+            }
+        }
+        return hedgeDelayNanos;
+    }
+
+    /** One scoring call: the first attempt and possibly a hedged second one, racing for {@link #result}. */
+    private final class Call {
+        final byte[] body;
+        final List<String> legal;
+        final long deadline;
+        final CompletableFuture<double[]> result = new CompletableFuture<>();
+        final AtomicInteger pending = new AtomicInteger();
+        final Queue<CompletableFuture<?>> attempts = new ConcurrentLinkedQueue<>();
+
+        Call(byte[] body, List<String> legal, long deadline) {
+            this.body = body;
+            this.legal = legal;
+            this.deadline = deadline;
+        }
+
+        // the caller holds a bulkhead permit, which is returned when this attempt completes
+        void send() {
+            long sent = System.nanoTime();
+            long remainingMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - sent));
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofMillis(remainingMs))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "application/json")
+                    .header(TIMEOUT_HEADER, Long.toString(remainingMs))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+            if (config.getApiKey() != null && !config.getApiKey().isBlank()) {
+                request.header("Authorization", "Bearer " + config.getApiKey());
+            }
+            pending.incrementAndGet();
+            CompletableFuture<HttpResponse<byte[]>> attempt;
+            try {
+                attempt = http.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            } catch (RuntimeException e) {
+                bulkhead.release();
+                if (pending.decrementAndGet() == 0) result.completeExceptionally(e);
+                return;
+            }
+            attempts.add(attempt);
+            attempt.whenComplete((response, failure) -> {
+                bulkhead.release();
+                try {
+                    if (failure != null) throw failure;
+                    double[] scores = parse(response);
+                    latency.recordValue(System.nanoTime() - sent);
+                    result.complete(scores);
+                } catch (Throwable t) {
+                    if (pending.decrementAndGet() == 0) result.completeExceptionally(t);
+                }
+            });
+        }
+
+        double[] parse(HttpResponse<byte[]> response) throws IOException {
+            if (response.statusCode() / 100 != 2) throw new IOException("HTTP " + response.statusCode());
+            JsonNode scores = JSON.readTree(response.body()).get("scores");
+            if (scores == null || !scores.isObject()) throw new IOException("Response has no scores object");
+            double[] out = new double[legal.size()];
+            int found = 0;
+            for (int i = 0; i < out.length; i++) {
+                JsonNode v = scores.get(legal.get(i));
+                if (v != null && v.isNumber()) {
+                    out[i] = v.doubleValue();
+                    found++;
+                }
+            }
+            if (found == 0) throw new IOException("Response scores none of the legal cards");
+            return out;
+        }
+
+        void cancel() {
+            for (CompletableFuture<?> a : attempts) a.cancel(true);
+        }
+    }
+
+    /**
+     * Count-based circuit breaker over the last {@code window} calls: opens when at least {@code minimumCalls} were
+     * made and the failure share reaches {@code failureRate}; after {@code openMs} one probe is let through, whose
+     * outcome closes or reopens it.
+     */
+    private static final class Breaker {
+        private final boolean[] failed;
+        private final int minimumCalls;
+        private final double failureRate;
+        private final long openNanos;
+        private int next;
+        private int calls;
+        private int failures;
+        private CircuitState state = CircuitState.CLOSED;
+        private long openUntil;
+        private boolean probing;
+
+        Breaker(TrainerProperties.Model.CircuitBreaker config) {
+            this.failed = new boolean[Math.max(1, config.getWindow())];
+            this.minimumCalls = Math.max(1, config.getMinimumCalls());
+            this.failureRate = config.getFailureRate();
+            this.openNanos = TimeUnit.MILLISECONDS.toNanos(config.getOpenMs());
+        }
+
+        synchronized CircuitState state() { return state; }
+
+        synchronized boolean tryAcquire(long now) {
+            if (state == CircuitState.CLOSED) return true;
+            if (state == CircuitState.OPEN) {
+                if (now - openUntil < 0) return false;
+                state = CircuitState.HALF_OPEN;
+                probing = false;
+            }
+            if (probing) return false;
+            probing = true;
+            return true;
+        }
+
+        /** Gives back a permit that was not used for a call. */
+        synchronized void release() {
+            if (state == CircuitState.HALF_OPEN) probing = false;
+        }
+
+        synchronized void onSuccess() {
+            if (state == CircuitState.HALF_OPEN) {
+                log.info("Remote scoring recovered, circuit closed");
+                reset(CircuitState.CLOSED);
+            } else if (state == CircuitState.CLOSED) {
+                record(false);
+            }
+        }
+
+        synchronized void onFailure(long now) {
+            if (state == CircuitState.HALF_OPEN) {
+                trip(now);
+            } else if (state == CircuitState.CLOSED) {
+                record(true);
+                if (calls >= minimumCalls && failures >= failureRate * calls) {
+                    log.warn("Remote scoring failed {} of the last {} calls, circuit open for {} ms", failures, calls,
+                            openNanos / 1_000_000);
+                    trip(now);
+                }
+            }
+        }
+
+        private void record(boolean failure) {
+            if (calls == failed.length) {
+                if (failed[next]) failures--;
+            } else {
+                calls++;
+            }
+            failed[next] = failure;
+            if (failure) failures++;
+            next = (next + 1) % failed.length;
+        }
+
+        private void trip(long now) {
+            reset(CircuitState.OPEN);
+            openUntil = now + openNanos;
+        }
+
+        private void reset(CircuitState to) {
+            state = to;
+            probing = false;
+            calls = 0;
+            failures = 0;
+            next = 0;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        hedgeTimer.shutdownNow();
+        http.shutdownNow();
+    }
+}
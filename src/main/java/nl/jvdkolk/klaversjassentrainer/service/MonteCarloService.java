@@ -0,0 +1,178 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardResponse;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.game.Determinizer;
+import nl.jvdkolk.klaversjassentrainer.game.HeuristicPolicy;
+import nl.jvdkolk.klaversjassentrainer.game.NeuralPolicy;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.Policy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Monte Carlo determinization for the {@code points} and {@code winTrick} scoring modes (FR-2).
+ * Each sample deals the unseen cards consistently with hand sizes and inferred voids, then plays every legal
+ * candidate out with a fast rollout policy. Samples are split over a fork-join pool and stop at the time budget.
+ */
+@Service
+public class MonteCarloService {
+    private static final Logger log = LoggerFactory.getLogger(MonteCarloService.class);
+
+    public static final String POINTS = "points";
+    public static final String WIN_TRICK = "winTrick";
+
+    private final TrainerProperties.MonteCarlo config;
+    private final InferenceService inference;
+    private final ForkJoinPool pool;
+    private final Counter rollouts;
+    private final DistributionSummary rolloutRate;
+
+    public MonteCarloService(TrainerProperties props, InferenceService inference, MeterRegistry registry) {
+        this.config = props.getMonteCarlo();
+        this.inference = inference;
+        this.pool = new ForkJoinPool(Math.max(1, config.getParallelism()));
+        this.rollouts = Counter.builder("bestcard.mc.rollouts")
+                .description("Monte Carlo rollouts played")
+                .register(registry);
+        this.rolloutRate = DistributionSummary.builder("bestcard.mc.rollout.rate")
+                .description("Rollouts per second achieved per request")
+                .baseUnit("rollouts/s")
+                .register(registry);
+    }
+
+    public boolean supports(String scoringMode) {
+        return config.isEnabled() && (POINTS.equals(scoringMode) || WIN_TRICK.equals(scoringMode));
+    }
+
+    /**
+     * Scores every legal card by its average rollout outcome: expected points for the player's team over the rest
+     * of the deal ({@code points}) or the probability that the team takes the current trick ({@code winTrick}).
+     * Returns null when the state cannot be simulated (e.g. table order inconsistent with the player to move).
+     */
+    public InferenceService.Result pickBest(BestCardRequest req,
+                                            List<BestCardRequest.Play> table,
+                                            List<String> legal,
+                                            int topK) {
+        long start = System.nanoTime();
+        Situation sit = Situation.of(req, table);
+        if (sit == null || !sit.determinizer().feasible()) {
+            log.debug("Request {} not simulatable, using model scoring", req.getRequestId());
+            return null;
+        }
+        boolean pointsMode = POINTS.equals(req.getScoringMode());
+        int[] candidates = new int[legal.size()];
+        for (int i = 0; i < candidates.length; i++) candidates[i] = cardIndex(legal.get(i));
+
+        int tasks = pool.getParallelism();
+        int quota = Math.max(1, (config.getMaxSamples() + tasks - 1) / tasks);
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.getTimeBudgetMs());
+        SplittableRandom root = new SplittableRandom();
+        List<Future<Tally>> futures = new ArrayList<>(tasks);
+        for (int t = 0; t < tasks; t++) {
+            SplittableRandom rnd = root.split();
+            futures.add(pool.submit(() -> simulate(sit, candidates, pointsMode, quota, deadline, rnd)));
+        }
+
+        double[] sums = new double[candidates.length];
+        int samples = 0;
+        for (Future<Tally> f : futures) {
+            try {
+                Tally tally = f.get(Math.max(1, deadline - System.nanoTime()) + TimeUnit.MILLISECONDS.toNanos(20), TimeUnit.NANOSECONDS);
+                for (int i = 0; i < sums.length; i++) sums[i] += tally.sums[i];
+                samples += tally.samples;
+            } catch (TimeoutException e) {
+                f.cancel(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.warn("Monte Carlo task failed: {}", e.getCause().toString());
+            }
+        }
+        if (samples == 0) return null;
+
+        long played = (long) samples * candidates.length;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        rollouts.increment(played);
+        rolloutRate.record(played / Math.max(seconds, 1e-9));
+
+        List<BestCardResponse.Candidate> cands = new ArrayList<>(candidates.length);
+        for (int i = 0; i < candidates.length; i++) {
+            cands.add(new BestCardResponse.Candidate(legal.get(i), sums[i] / samples, "monte-carlo"));
+        }
+        cands.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        String best = cands.get(0).getCard();
+        if (cands.size() > topK) {
+            cands = new ArrayList<>(cands.subList(0, topK));
+        }
+
+        Map<String, String> modelMeta = new LinkedHashMap<>();
+        modelMeta.put("name", "monte-carlo-" + req.getScoringMode());
+        modelMeta.put("version", "0.1.0");
+        modelMeta.put("policy", usesModel() ? "model" : "heuristic");
+        modelMeta.put("samples", Integer.toString(samples));
+        modelMeta.put("ts", Instant.now().toString());
+        log.debug("Request {}: {} samples, {} rollouts in {} ms", req.getRequestId(), samples, played, (long) (seconds * 1000));
+        return new InferenceService.Result(best, cands, modelMeta);
+    }
+
+    private Tally simulate(Situation sit, int[] candidates, boolean pointsMode, int quota, long deadline, SplittableRandom rnd) {
+        Policy policy = usesModel() ? new NeuralPolicy(inference.getNetwork()) : new HeuristicPolicy();
+        Determinizer determinizer = sit.determinizer().copy();
+        PlayState dealt = new PlayState();
+        PlayState work = new PlayState();
+        int[] hands = new int[4];
+        int team = sit.seat() & 1;
+        Tally tally = new Tally(candidates.length);
+
+        while (tally.samples < quota && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            dealt.copyFrom(sit.base());
+            determinizer.deal(rnd, hands);
+            for (int s = 0; s < 4; s++) if (s != sit.seat()) dealt.setHand(s, hands[s]);
+            for (int i = 0; i < candidates.length; i++) {
+                work.copyFrom(dealt);
+                int winner = work.play(candidates[i]);
+                if (pointsMode) {
+                    while (!work.isFinished()) work.play(policy.choose(work, work.legalMoves()));
+                    tally.sums[i] += work.points(team);
+                } else {
+                    while (winner < 0) winner = work.play(policy.choose(work, work.legalMoves()));
+                    if ((winner & 1) == team) tally.sums[i] += 1.0;
+                }
+            }
+            tally.samples++;
+        }
+        return tally;
+    }
+
+    private boolean usesModel() {
+        return "model".equalsIgnoreCase(config.getRolloutPolicy()) && inference.getNetwork() != null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static final class Tally {
+        final double[] sums;
+        int samples;
+
+        Tally(int candidates) {
+            this.sums = new double[candidates];
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.game.Determinizer;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+
+import java.util.List;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * What the player to move knows: own hand, table, cards seen in earlier tricks and voids implied by
+ * failures to follow suit (and to trump when the partner was not winning).
+ */
+record Situation(int seat, PlayState base, Determinizer determinizer) {
+    static Situation of(BestCardRequest req, List<BestCardRequest.Play> table) {
+        int seat = req.getPlayerPosition();
+        int leader = req.getLeaderPosition();
+        int trump = suitIndex(req.getTrump());
+        int hand = toMask(req.getHand());
+        int[] voids = new int[4];
+        int seen = hand;
+
+        if (req.getHistory() != null) {
+            for (BestCardRequest.Trick t : req.getHistory()) {
+                if (t == null || t.getPlays() == null) continue;
+                seen |= inferVoids(t.getPlays(), trump, voids);
+            }
+        }
+        int tableMask = inferVoids(table, trump, voids);
+        seen |= tableMask;
+
+        int[] trick = cardsInOrder(table);
+        if (((leader + trick.length) & 3) != seat) return null;
+        if ((tableMask & hand) != 0) return null;
+
+        PlayState base = new PlayState();
+        base.reset(trump, leader);
+        base.setHand(seat, hand);
+        for (int c : trick) base.addToTrick(c);
+        base.markPlayed(seen & ~hand);
+        int handSize = Integer.bitCount(hand);
+        base.setTricksPlayed(8 - handSize);
+
+        int[] sizes = new int[4];
+        for (int s = 0; s < 4; s++) sizes[s] = handSize;
+        for (int i = 0; i < trick.length; i++) sizes[(leader + i) & 3] = handSize - 1;
+        sizes[seat] = 0;
+        return new Situation(seat, base, new Determinizer(FULL_DECK & ~seen, sizes, voids));
+    }
+
+    // returns the mask of cards in the trick
+    private static int inferVoids(List<BestCardRequest.Play> plays, int trump, int[] voids) {
+        int[] trick = new int[4];
+        int n = 0;
+        int mask = 0;
+        for (BestCardRequest.Play p : plays) {
+            if (!isCard(p) || n == 4) continue;
+            int card = cardIndex(p.getCard());
+            mask |= 1 << card;
+            if (n > 0 && p.getPlayer() != null && p.getPlayer() >= 0 && p.getPlayer() <= 3) {
+                int led = suitOf(trick[0]);
+                if (suitOf(card) != led) {
+                    voids[p.getPlayer()] |= 1 << led;
+                    boolean partnerWinning = n >= 2 && LegalityService.trickWinner(trick, n, trump) == n - 2;
+                    if (!partnerWinning && suitOf(card) != trump) voids[p.getPlayer()] |= 1 << trump;
+                }
+            }
+            trick[n++] = card;
+        }
+        return mask;
+    }
+
+    private static int[] cardsInOrder(List<BestCardRequest.Play> table) {
+        return table.stream().filter(Situation::isCard).mapToInt(p -> cardIndex(p.getCard())).toArray();
+    }
+
+    private static boolean isCard(BestCardRequest.Play p) {
+        return p != null && p.getCard() != null && !p.getCard().isBlank() && !"-".equals(p.getCard());
+    }
+}
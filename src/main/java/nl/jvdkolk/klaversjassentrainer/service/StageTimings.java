@@ -0,0 +1,84 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * Per-request stage durations of the best-card pipeline, filled in by the controller and {@link InferenceService}
+ * and recorded by {@link BestCardMetrics}. Not thread-safe; one instance per request.
+ */
+public final class StageTimings {
+    /** Request attribute under which the controller leaves the timings for the response filter. */
+    public static final String ATTRIBUTE = StageTimings.class.getName();
+
+    public enum Stage {
+        VALIDATION, LEGALITY, FAST_PATH, LEAD_BOOK, ENDGAME, REMOTE, CACHE, ENCODING, FORWARD, SORT, MONTE_CARLO, SERIALIZATION;
+
+        public String tag() { return name().toLowerCase(Locale.ROOT).replace('_', '-'); }
+    }
+
+    /** Which tier of the decision pipeline produced the answer, cheapest first. */
+    public enum Tier {
+        FORCED, EQUIVALENT, LEAD_BOOK, ENDGAME, MONTE_CARLO, REMOTE, CACHE, MODEL, FALLBACK;
+
+        public String tag() { return name().toLowerCase(Locale.ROOT).replace('_', '-'); }
+
+        /** Whether the tier answers without evaluating the network. */
+        public boolean skipsNetwork() { return this == FORCED || this == EQUIVALENT || this == LEAD_BOOK || this == ENDGAME || this == CACHE; }
+    }
+
+    private final long[] nanos = new long[Stage.values().length];
+    private final String requestId;
+    private long handlerEnd;
+    private Tier tier;
+    private long deadline;
+
+    public StageTimings() {
+        this(null);
+    }
+
+    public StageTimings(String requestId) {
+        this.requestId = requestId;
+    }
+
+    public String requestId() { return requestId; }
+
+    /** Adds the time since {@code startNanos} to {@code stage} and returns the current time for the next stage. */
+    public long since(Stage stage, long startNanos) {
+        long now = System.nanoTime();
+        nanos[stage.ordinal()] += now - startNanos;
+        return now;
+    }
+
+    public void add(Stage stage, long durationNanos) { nanos[stage.ordinal()] += durationNanos; }
+    public long get(Stage stage) { return nanos[stage.ordinal()]; }
+
+    /** Time spent choosing the card: every stage after legality up to serialization. */
+    public long decisionNanos() {
+        long n = 0;
+        for (Stage stage : Stage.values()) {
+            if (stage.compareTo(Stage.LEGALITY) > 0 && stage != Stage.SERIALIZATION) n += nanos[stage.ordinal()];
+        }
+        return n;
+    }
+
+    public Tier tier() { return tier; }
+    public void tier(Tier tier) { this.tier = tier; }
+
+    /** {@link System#nanoTime()} by which the answer is due, or 0 when the caller set none. */
+    public long deadline() { return deadline; }
+    public void deadline(long deadlineNanos) { this.deadline = deadlineNanos; }
+
+    /** Stages that took time, in {@code Server-Timing} syntax ({@code legality;dur=0.021, ...}, milliseconds). */
+    public String serverTiming() {
+        StringJoiner out = new StringJoiner(", ");
+        for (Stage stage : Stage.values()) {
+            long n = nanos[stage.ordinal()];
+            if (n > 0) out.add(stage.tag() + ";dur=" + String.format(Locale.ROOT, "%.3f", n / 1e6));
+        }
+        return out.toString();
+    }
+
+    public void markHandlerEnd() { handlerEnd = System.nanoTime(); }
+    public long handlerEnd() { return handlerEnd; }
+}
@@ -0,0 +1,120 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.game.DealSimulator;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.train.PolicyNetwork;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Startup gate: waits for the background model load, then drives {@link LegalityService} and the model scoring path
+ * (encoding, forward pass, ranking) with synthetic positions until the JIT has compiled them. Application runners
+ * finish before Spring Boot reports readiness ({@code /actuator/health/readiness} turns UP), so no real request pays
+ * for interpretation or compilation.
+ * <p>
+ * With {@code klaverjas.startup.exitAfterWarmUp} the application exits after the warm-up: the training run that
+ * records the JDK AOT cache (see the {@code aot-cache} profile in the pom).
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class WarmUp implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(WarmUp.class);
+
+    private final TrainerProperties.Startup config;
+    private final LegalityService legality;
+    private final InferenceService inference;
+    private final BestCardMetrics metrics;
+    private final ConfigurableApplicationContext context;
+
+    public WarmUp(TrainerProperties props, LegalityService legality, InferenceService inference,
+                  BestCardMetrics metrics, ConfigurableApplicationContext context) {
+        this.config = props.getStartup();
+        this.legality = legality;
+        this.inference = inference;
+        this.metrics = metrics;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        PolicyNetwork nn = inference.modelLoaded().join();
+        long loaded = System.nanoTime();
+        if (config.isWarmUp()) {
+            int decisions = warmUp(loaded + config.getWarmUpMaxMs() * 1_000_000L);
+            log.info("Warm-up: {} decisions through legality and {} in {} ms (waited {} ms for the model)", decisions,
+                    nn == null ? "the fallback" : "the model", (System.nanoTime() - loaded) / 1_000_000,
+                    (loaded - start) / 1_000_000);
+        }
+        metrics.ready();
+        if (config.isExitAfterWarmUp()) {
+            log.info("Exiting after warm-up (AOT cache training run)");
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    // random positions from random legal play, scored by the model like a request; results are discarded
+    int warmUp(long deadline) {
+        Positions positions = new Positions(legality);
+        StageTimings timings = new StageTimings();
+        int n = 0;
+        for (; n < config.getWarmUpIterations() && System.nanoTime() < deadline; n++) {
+            Position p = positions.next();
+            // past the cache: after the first start it holds all of these fixed positions
+            if (!p.legal().isEmpty()) inference.pickWithModel(p.hand(), p.table(), p.trump(), p.legal(), 3, timings);
+        }
+        return n;
+    }
+
+    /** A warm-up decision: the hand, table, trump and legal cards of the player to move. */
+    record Position(List<String> hand, List<BestCardRequest.Play> table, String trump, List<String> legal) {}
+
+    /** The fixed sequence of warm-up positions (the same on every start). */
+    static final class Positions {
+        private final LegalityService legality;
+        private final SplittableRandom rnd = new SplittableRandom(42L);
+        private final int[] deck = DealSimulator.newDeck();
+        private final PlayState state = new PlayState();
+
+        Positions(LegalityService legality) {
+            this.legality = legality;
+        }
+
+        Position next() {
+            DealSimulator.deal(rnd, deck, state, rnd.nextInt(4), rnd.nextInt(4));
+            for (int plays = rnd.nextInt(32); plays > 0; plays--) {
+                int legal = state.legalMoves();
+                int k = rnd.nextInt(Integer.bitCount(legal));
+                while (k-- > 0) legal &= legal - 1;
+                state.play(Integer.numberOfTrailingZeros(legal));
+            }
+            int seat = state.toMove();
+            List<BestCardRequest.Play> table = new ArrayList<>(state.trickSize());
+            for (int slot = 0; slot < state.trickSize(); slot++) {
+                BestCardRequest.Play p = new BestCardRequest.Play();
+                p.setPlayer((state.leader() + slot) & 3);
+                p.setCard(ALL_CARDS.get(state.trickCard(slot)));
+                table.add(p);
+            }
+            List<String> hand = toCards(state.hand(seat));
+            String trump = SUITS[state.trump()];
+            List<String> legal = legality.computeLegalCards(hand, table, trump, (seat + 2) & 3, state.leader());
+            return new Position(hand, table, trump, legal);
+        }
+    }
+}
@@ -29,6 +29,17 @@ public final class CardUtil {
         CARD_TO_INDEX = Collections.unmodifiableMap(map);
     }
 
+    // Bit-mask view of the same ordering: card index i <-> bit (1 << i), suit s occupies bits [8s, 8s+8)
+    public static final int FULL_DECK = 0xFFFFFFFF;
+    public static final int SUIT_MASK = 0xFF;
+
+    // Points per rank index (RANKS order) for non-trump and trump suits (Rotterdam scoring, 152 + 10 last trick)
+    private static final int[] NON_TRUMP_POINTS = {11, 4, 3, 2, 10, 0, 0, 0};
+    private static final int[] TRUMP_POINTS = {11, 4, 3, 20, 10, 14, 0, 0};
+    // Strength per rank index, higher wins: trump order J,9,A,10,K,Q,8,7 and non-trump order A,K,Q,J,10,9,8,7
+    private static final int[] TRUMP_STRENGTH = {5, 3, 2, 7, 4, 6, 1, 0};
+    private static final int[] NON_TRUMP_STRENGTH = {7, 6, 5, 4, 3, 2, 1, 0};
+
     public static int cardIndex(String card) {
         Integer idx = CARD_TO_INDEX.get(card);
         if (idx == null) throw new IllegalArgumentException("Unknown card: " + card);
@@ -77,6 +88,24 @@ public final class CardUtil {
         return v;
     }
 
+    /**
+     * Mask-based encoding into a caller-owned buffer: hand one-hot, then the trick (4 ordered slots, or one
+     * aggregate block when {@code x} has the legacy unordered size), then trump. Does not allocate.
+     */
+    public static void encodeInto(double[] x, int hand, int[] trick, int trickSize, int trump) {
+        encodeInto(x, hand, trick, 0, trickSize, trump);
+    }
+
+    /** As {@link #encodeInto(double[], int, int[], int, int)} with the trick read from {@code trick[trickOffset..]}. */
+    public static void encodeInto(double[] x, int hand, int[] trick, int trickOffset, int trickSize, int trump) {
+        Arrays.fill(x, 0.0);
+        int n = ALL_CARDS.size();
+        boolean ordered = x.length == n + 4 * n + SUITS.length;
+        for (int m = hand; m != 0; m &= m - 1) x[Integer.numberOfTrailingZeros(m)] = 1.0;
+        for (int i = 0; i < trickSize; i++) x[n + (ordered ? i * n : 0) + trick[trickOffset + i]] = 1.0;
+        x[x.length - SUITS.length + trump] = 1.0;
+    }
+
     public static double[] encodeTrump(String trumpSuit) {
         double[] v = new double[SUITS.length];
         for (int i = 0; i < SUITS.length; i++) {
@@ -85,13 +114,50 @@ public final class CardUtil {
         return v;
     }
 
-    public static String randomSuit(Random rnd) {
-        return SUITS[rnd.nextInt(SUITS.length)];
+    public static boolean isCard(String card) {
+        return card != null && CARD_TO_INDEX.containsKey(card);
+    }
+
+    public static boolean isSuit(String suit) {
+        for (String s : SUITS) if (s.equalsIgnoreCase(suit)) return true;
+        return false;
     }
 
-    public static List<String> randomHand(Random rnd, int n) {
-        List<String> deck = new ArrayList<>(ALL_CARDS);
-        Collections.shuffle(deck, rnd);
-        return new ArrayList<>(deck.subList(0, n));
+    public static int suitIndex(String suit) {
+        for (int i = 0; i < SUITS.length; i++) {
+            if (SUITS[i].equalsIgnoreCase(suit)) return i;
+        }
+        throw new IllegalArgumentException("Unknown suit: " + suit);
+    }
+
+    public static int suitOf(int card) { return card >>> 3; }
+    public static int rankOf(int card) { return card & 7; }
+    public static int suitMask(int suit) { return SUIT_MASK << (suit << 3); }
+
+    public static int points(int card, int trump) {
+        return suitOf(card) == trump ? TRUMP_POINTS[rankOf(card)] : NON_TRUMP_POINTS[rankOf(card)];
+    }
+
+    /** Strength within the card's own suit, 0..7 (higher wins), using trump order for the trump suit. */
+    public static int strength(int card, int trump) {
+        return suitOf(card) == trump ? TRUMP_STRENGTH[rankOf(card)] : NON_TRUMP_STRENGTH[rankOf(card)];
+    }
+
+    public static int toMask(Collection<String> cards) {
+        int mask = 0;
+        if (cards == null) return mask;
+        for (String c : cards) {
+            if (c == null || c.isBlank() || "-".equals(c)) continue;
+            mask |= 1 << cardIndex(c);
+        }
+        return mask;
+    }
+
+    public static List<String> toCards(int mask) {
+        List<String> out = new ArrayList<>(Integer.bitCount(mask));
+        for (int m = mask; m != 0; m &= m - 1) {
+            out.add(ALL_CARDS.get(Integer.numberOfTrailingZeros(m)));
+        }
+        return out;
     }
 }
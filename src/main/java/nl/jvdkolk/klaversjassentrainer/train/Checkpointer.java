@@ -0,0 +1,209 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import nl.jvdkolk.klaversjassentrainer.eval.Evaluator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe checkpoints of a supervised training run, so a run can be resumed where it stopped.
+ * <p>
+ * A checkpoint holds everything the runner needs to continue: the weights, the generation counter, the current
+ * learning rate (the schedule is a per-generation decay, so this is its whole state), the run seed the sampling RNG
+ * of every generation is derived from, the sample counters and the best held-out evaluation so far (so a resumed
+ * run does not export a worse model over the best one). Plain SGD keeps no optimizer state beyond that.
+ * <p>
+ * Writing happens on a background thread from a snapshot taken on the training thread: binary, into a temporary
+ * file that is forced to disk and then atomically renamed to {@code checkpoint-<generation>.kjcp}. A crash leaves
+ * either the previous checkpoints or a stray temporary file, never a half-written checkpoint. Only the newest
+ * {@code keepLast} checkpoints are kept.
+ * <p>
+ * File layout (little-endian): magic {@code KJCP}, version, generation, input, hidden and output size (int),
+ * learning rate (double), seed, total and used samples (long), best generation (-1 for none) and its held-out
+ * state count (int), top-1, legal accuracy, ECE and log-loss (double), the parameters in the flat layout of
+ * {@link NeuralNetwork#getParameters(double[])}, and the CRC-32 of all preceding bytes (int). Version 1 files,
+ * without the best evaluation, are still read.
+ */
+public final class Checkpointer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(Checkpointer.class);
+    private static final int MAGIC = 0x4B4A4350; // "KJCP"
+    private static final int VERSION = 2;
+    private static final int HEADER_V1 = 6 * Integer.BYTES + Double.BYTES + 3 * Long.BYTES;
+    private static final int HEADER = HEADER_V1 + 2 * Integer.BYTES + 4 * Double.BYTES;
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".kjcp";
+
+    /**
+     * Snapshot of a run at the end of {@code generation}; {@code best} is the best held-out evaluation so far, from
+     * {@code bestGeneration}, or null (and -1) when none was made.
+     */
+    public record State(int generation, double learningRate, long seed, long totalSamples, long usedSamples,
+                        int inputSize, int hiddenSize, int outputSize, double[] parameters,
+                        int bestGeneration, Evaluator.Evaluation best) {
+        public static State of(int generation, double learningRate, long seed, long totalSamples, long usedSamples,
+                               NeuralNetwork nn) {
+            double[] p = new double[nn.parameterCount()];
+            nn.getParameters(p);
+            return new State(generation, learningRate, seed, totalSamples, usedSamples, nn.getInputSize(),
+                    nn.getHiddenSize(), nn.getOutputSize(), p, -1, null);
+        }
+
+        public State withBest(int bestGeneration, Evaluator.Evaluation best) {
+            return new State(generation, learningRate, seed, totalSamples, usedSamples, inputSize, hiddenSize,
+                    outputSize, parameters, best == null ? -1 : bestGeneration, best);
+        }
+
+        public NeuralNetwork network() {
+            NeuralNetwork nn = new NeuralNetwork(inputSize, hiddenSize, outputSize, 42L);
+            nn.setParameters(parameters);
+            return nn;
+        }
+    }
+
+    private final Path dir;
+    private final int keepLast;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "checkpoint-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public Checkpointer(Path dir, int keepLast) {
+        this.dir = dir;
+        this.keepLast = Math.max(1, keepLast);
+    }
+
+    /** Queues {@code state} for writing; the training thread continues immediately. */
+    public void submit(State state) {
+        writer.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                Path file = write(dir, state);
+                prune();
+                log.debug("Checkpoint gen {} written to {} in {} ms", state.generation(), file,
+                        (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException e) {
+                log.warn("Failed to write checkpoint of gen {}: {}", state.generation(), e.getMessage());
+            }
+        });
+    }
+
+    /** Runs {@code task} on the writer thread after the checkpoints queued before it, e.g. exporting the model file. */
+    public void execute(Runnable task) {
+        writer.execute(task);
+    }
+
+    /** The newest checkpoint in {@code dir} that reads back intact, or null when there is none. */
+    public static State latest(Path dir) throws IOException {
+        List<Path> files = list(dir);
+        for (int i = files.size() - 1; i >= 0; i--) {
+            try {
+                return read(files.get(i));
+            } catch (IOException e) {
+                log.warn("Skipping unreadable checkpoint {}: {}", files.get(i), e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    static Path write(Path dir, State s) throws IOException {
+        Files.createDirectories(dir);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + s.parameters().length * Double.BYTES + Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(s.generation())
+                .putInt(s.inputSize()).putInt(s.hiddenSize()).putInt(s.outputSize())
+                .putDouble(s.learningRate()).putLong(s.seed()).putLong(s.totalSamples()).putLong(s.usedSamples());
+        Evaluator.Evaluation best = s.best();
+        buf.putInt(best == null ? -1 : s.bestGeneration()).putInt(best == null ? 0 : best.samples())
+                .putDouble(best == null ? 0 : best.top1()).putDouble(best == null ? 0 : best.legalAccuracy())
+                .putDouble(best == null ? 0 : best.ece()).putDouble(best == null ? 0 : best.logLoss());
+        buf.asDoubleBuffer().put(s.parameters());
+        buf.position(buf.position() + s.parameters().length * Double.BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+
+        Path file = dir.resolve(String.format(Locale.ROOT, "%s%08d%s", PREFIX, s.generation(), SUFFIX));
+        Path tmp = dir.resolve(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    static State read(Path file) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.remaining() < HEADER_V1 + Integer.BYTES || buf.getInt() != MAGIC) throw new IOException("Not a checkpoint");
+        int version = buf.getInt();
+        if (version != 1 && version != VERSION) throw new IOException("Unsupported checkpoint version " + version);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.limit() - Integer.BYTES);
+        if ((int) crc.getValue() != buf.getInt(buf.limit() - Integer.BYTES)) throw new IOException("Checksum mismatch");
+        int generation = buf.getInt();
+        int input = buf.getInt();
+        int hidden = buf.getInt();
+        int output = buf.getInt();
+        double lr = buf.getDouble();
+        long seed = buf.getLong();
+        long total = buf.getLong();
+        long used = buf.getLong();
+        int bestGeneration = -1;
+        Evaluator.Evaluation best = null;
+        if (version >= 2) {
+            if (buf.remaining() < HEADER - HEADER_V1) throw new IOException("Truncated checkpoint");
+            bestGeneration = buf.getInt();
+            int samples = buf.getInt();
+            double top1 = buf.getDouble();
+            double legal = buf.getDouble();
+            double ece = buf.getDouble();
+            double logLoss = buf.getDouble();
+            if (bestGeneration >= 0) best = new Evaluator.Evaluation(samples, top1, legal, ece, logLoss, 0L);
+        }
+        double[] p = new double[hidden * input + hidden + output * hidden + output];
+        if (buf.remaining() != p.length * Double.BYTES + Integer.BYTES) throw new IOException("Truncated checkpoint");
+        buf.asDoubleBuffer().get(p);
+        return new State(generation, lr, seed, total, used, input, hidden, output, p, bestGeneration, best);
+    }
+
+    private void prune() throws IOException {
+        List<Path> files = list(dir);
+        for (int i = 0; i < files.size() - keepLast; i++) Files.deleteIfExists(files.get(i));
+    }
+
+    // checkpoint files, oldest first (zero-padded generations sort by name)
+    private static List<Path> list(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().toList();
+        }
+    }
+
+    /** Waits for queued checkpoints to be written. */
+    @Override
+    public void close() throws InterruptedException {
+        writer.shutdown();
+        if (!writer.awaitTermination(5, TimeUnit.MINUTES)) {
+            log.warn("Checkpoint writer did not finish in time");
+            writer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * Access to the network compiled into the build by {@code src/codegen/java/.../ModelCodeGenerator.java}
+ * (generate-sources phase, see the {@code compile-model} execution in the pom).
+ * <p>
+ * The generator turns {@code model.txt} into the class {@value #CLASS_NAME}: a forward pass specialized for the exact
+ * dimensions, with weights in static final flat arrays read from a binary resource next to the class. That resource
+ * has the layout magic {@code KJCM}, version, input, hidden and output size (int), then W1 (row-major), b1, W2
+ * (row-major) and b2 as doubles, all little-endian. The class also records the CRC-32 of the model file it was
+ * generated from, so it is only used for exactly that model.
+ */
+public final class CompiledNetwork {
+    private static final Logger log = LoggerFactory.getLogger(CompiledNetwork.class);
+    public static final String CLASS_NAME = "nl.jvdkolk.klaversjassentrainer.train.generated.CompiledPolicyNetwork";
+    private static final int MAGIC = 0x4B4A434D; // "KJCM"
+    private static final int VERSION = 1;
+    private static final int HEADER = 20;
+
+    private CompiledNetwork() {}
+
+    /**
+     * The compiled network when the build has one generated from exactly {@code modelText} (the bytes of
+     * {@code model.txt}), otherwise null.
+     */
+    public static PolicyNetwork loadFor(byte[] modelText) {
+        Class<?> type;
+        try {
+            type = Class.forName(CLASS_NAME);
+        } catch (ClassNotFoundException e) {
+            return null; // built without a model to compile
+        }
+        try {
+            long source = type.getField("SOURCE_CRC32").getLong(null);
+            if (source != checksum(modelText)) {
+                log.info("Compiled model was generated from a different model file, interpreting it instead");
+                return null;
+            }
+            return (PolicyNetwork) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            log.warn("Failed to load compiled model {}: {}", CLASS_NAME, e.toString());
+            return null;
+        }
+    }
+
+    /** CRC-32 of a model file, as recorded by the generator. */
+    public static long checksum(byte[] modelText) {
+        CRC32 crc = new CRC32();
+        crc.update(modelText);
+        return crc.getValue();
+    }
+
+    /**
+     * Reads the weights resource (see class comment) of a network with the given dimensions, as
+     * {@code {W1, b1, W2, b2}}.
+     */
+    public static double[][] readWeights(InputStream in, int input, int hidden, int output) throws IOException {
+        if (in == null) throw new IOException("Compiled model weights not found");
+        ByteBuffer buf;
+        try (in) {
+            buf = ByteBuffer.wrap(in.readAllBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (buf.remaining() < HEADER || buf.getInt() != MAGIC) throw new IOException("Not a compiled model weights file");
+        int version = buf.getInt();
+        if (version != VERSION) throw new IOException("Unsupported compiled model weights version " + version);
+        if (buf.getInt() != input || buf.getInt() != hidden || buf.getInt() != output) {
+            throw new IOException("Compiled model weights do not match the generated dimensions");
+        }
+        double[][] weights = {
+                new double[hidden * input], new double[hidden], new double[output * hidden], new double[output]};
+        long expected = 0;
+        for (double[] w : weights) expected += w.length;
+        if (buf.remaining() != expected * Double.BYTES) throw new IOException("Truncated compiled model weights");
+        for (double[] w : weights) {
+            buf.asDoubleBuffer().get(w);
+            buf.position(buf.position() + w.length * Double.BYTES);
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,342 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.eval.Evaluator;
+import nl.jvdkolk.klaversjassentrainer.eval.HeldOutSet;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Knowledge distillation (klaverjas.training.mode=distill): trains smaller students on the soft outputs of the
+ * current model and reports the accuracy-vs-latency frontier, so a model can be picked for a p95 latency budget.
+ * <p>
+ * Training states are generated locally (random hand, zero to three cards on the table, random trump, the same
+ * distribution as the supervised runner) and labelled with the teacher's probabilities over the hand, optionally
+ * flattened by a temperature; no teacher API calls are made. For every hidden size a dense student is trained first,
+ * then copies of it are pruned to each sparsity by gradual magnitude pruning: per layer the smallest weights are
+ * zeroed in {@code pruneSteps} steps with fine-tuning in between. Pruned students are stored and served as
+ * {@link SparseNetwork}.
+ * <p>
+ * Every student is scored on agreement with the teacher's top card on separate validation states, on the held-out
+ * set when one exists (top-1 against the external API's labels), and on single-state forward latency (p50/p95)
+ * measured here one model at a time. Results go to {@code frontier.csv} in the output directory; with
+ * {@code latencyBudgetMicros} set, the most accurate student within that p95 is copied to {@code selected.txt}.
+ */
+@Component
+public class Distiller {
+    private static final Logger log = LoggerFactory.getLogger(Distiller.class);
+    private static final int LATENCY_INPUTS = 2048;
+
+    private final TrainerProperties props;
+
+    public Distiller(TrainerProperties props) {
+        this.props = props;
+    }
+
+    /** One student on the frontier; {@code heldOutTop1} is NaN without a held-out set. */
+    public record Student(int hidden, double sparsity, int weights, PolicyNetwork model, double agreement,
+                          double heldOutTop1, double p50Micros, double p95Micros, boolean pareto, Path file) {
+        double accuracy() { return Double.isNaN(heldOutTop1) ? agreement : heldOutTop1; }
+    }
+
+    private record Trained(int hidden, double sparsity, PolicyNetwork model) {}
+
+    public void run(Path teacherPath) throws Exception {
+        TrainerProperties.Training tp = props.getTraining();
+        TrainerProperties.Training.Distill dp = tp.getDistill();
+        if (!Files.exists(teacherPath)) throw new IOException("No teacher model at " + teacherPath);
+        NeuralNetwork teacher = NeuralNetwork.load(teacherPath);
+        Path outputDir = Path.of(dp.getOutputDir());
+        log.info("Starting distillation from {} ({} hidden): students {} x sparsity {}, {} states, {} epochs, T={}",
+                teacherPath, teacher.getHiddenSize(), dp.getHiddenSizes(), dp.getSparsities(), dp.getSamples(),
+                dp.getEpochs(), dp.getTemperature());
+
+        PositionGenerator.Stages stages = PositionGenerator.Stages.of(tp.getPositions().getHandSizeWeights(),
+                tp.getPositions().getTrickSizeWeights());
+        States train = States.random(dp.getSamples(), dp.getSeed(), stages, teacher, dp.getTemperature());
+        States validation = States.random(dp.getValidationSamples(), dp.getSeed() + 1, stages, teacher, 1.0);
+        HeldOutSet heldOut = null;
+        Path heldOutFile = Path.of(tp.getEvaluation().getHeldOutFile());
+        if (Files.exists(heldOutFile)) heldOut = HeldOutSet.load(heldOutFile);
+
+        // training in parallel, one hidden size per task; latency is measured afterwards on a quiet machine
+        long start = System.nanoTime();
+        List<Future<List<Trained>>> tasks = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(tp.getThreads(), dp.getHiddenSizes().size())));
+        try {
+            for (int hidden : dp.getHiddenSizes()) {
+                tasks.add(pool.submit(() -> train(teacher, train, hidden, dp)));
+            }
+            List<Trained> trained = new ArrayList<>();
+            trained.add(new Trained(teacher.getHiddenSize(), 0.0, teacher)); // the teacher as reference point
+            for (Future<List<Trained>> f : tasks) trained.addAll(f.get());
+            log.info("Trained {} students in {} s", trained.size() - 1, (System.nanoTime() - start) / 1_000_000_000L);
+
+            List<Student> students = new ArrayList<>();
+            double[][] inputs = validation.inputs(Math.min(LATENCY_INPUTS, validation.size()), teacher.getInputSize());
+            try (Evaluator evaluator = new Evaluator(tp.getEvaluation().getThreads())) {
+                for (Trained t : trained) {
+                    int hidden = t.hidden();
+                    double sparsity = t.sparsity();
+                    PolicyNetwork model = t.model();
+                    boolean isTeacher = model == teacher;
+                    Path file = isTeacher ? teacherPath : outputDir.resolve(String.format(Locale.ROOT,
+                            "student-h%d-s%02d.txt", hidden, Math.round(sparsity * 100)));
+                    if (model instanceof SparseNetwork sparse) {
+                        sparse.save(file);
+                    } else if (!isTeacher) {
+                        ((NeuralNetwork) model).save(file);
+                    }
+                    double[] latency = latency(model, inputs, dp.getLatencySamples());
+                    double top1 = heldOut == null || heldOut.size() == 0 ? Double.NaN : evaluator.evaluate(model, heldOut).top1();
+                    int weights = model instanceof SparseNetwork sparse ? sparse.nonZeroWeights()
+                            : hidden * teacher.getInputSize() + teacher.getOutputSize() * hidden;
+                    students.add(new Student(hidden, sparsity, weights, model, validation.agreement(model), top1,
+                            latency[0], latency[1], false, file));
+                }
+            }
+            students = pareto(students);
+            writeFrontier(outputDir.resolve("frontier.csv"), students);
+            for (Student s : students) {
+                log.info("{}h={} sparsity={}%: {} weights, agreement={}%, held-out top1={}, p50={} us, p95={} us -> {}",
+                        s.pareto() ? "* " : "  ", s.hidden(), Math.round(s.sparsity() * 100), s.weights(),
+                        String.format(Locale.ROOT, "%.2f", s.agreement() * 100),
+                        Double.isNaN(s.heldOutTop1()) ? "n/a" : String.format(Locale.ROOT, "%.2f%%", s.heldOutTop1() * 100),
+                        String.format(Locale.ROOT, "%.1f", s.p50Micros()), String.format(Locale.ROOT, "%.1f", s.p95Micros()),
+                        s.file());
+            }
+            if (dp.getLatencyBudgetMicros() > 0) select(students, dp.getLatencyBudgetMicros(), outputDir.resolve("selected.txt"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // the dense student and each pruned copy
+    private static List<Trained> train(NeuralNetwork teacher, States train, int hidden,
+                                        TrainerProperties.Training.Distill dp) {
+        NeuralNetwork dense = new NeuralNetwork(teacher.getInputSize(), hidden, teacher.getOutputSize(), dp.getSeed() + hidden);
+        SplittableRandom rnd = new SplittableRandom(dp.getSeed() * 31 + hidden);
+        double lr = dp.getLearningRate();
+        for (int epoch = 0; epoch < dp.getEpochs(); epoch++, lr *= 0.7) {
+            epoch(dense, train, rnd, train.size(), lr, null);
+        }
+        List<Trained> out = new ArrayList<>();
+        for (double sparsity : dp.getSparsities()) {
+            if (sparsity <= 0.0) {
+                out.add(new Trained(hidden, 0.0, dense));
+                continue;
+            }
+            NeuralNetwork pruned = dense.copy();
+            int steps = Math.max(1, dp.getPruneSteps());
+            for (int step = 1; step <= steps; step++) {
+                boolean[] keep = magnitudeMask(pruned, sparsity * step / steps);
+                pruned.applyMask(keep);
+                epoch(pruned, train, rnd, train.size() / steps, lr, keep);
+            }
+            out.add(new Trained(hidden, sparsity, SparseNetwork.of(pruned)));
+        }
+        log.info("Distilled hidden={} ({} sparsities)", hidden, out.size());
+        return out;
+    }
+
+    private static void epoch(NeuralNetwork student, States train, SplittableRandom rnd, int steps, double lr,
+                              boolean[] keep) {
+        double[] x = new double[student.getInputSize()];
+        double[] target = new double[student.getOutputSize()];
+        boolean[] allowed = new boolean[student.getOutputSize()];
+        for (int n = 0; n < steps; n++) {
+            int i = rnd.nextInt(train.size());
+            train.encode(i, x);
+            train.target(i, target, allowed);
+            student.trainStepSoft(x, target, allowed, lr);
+            if (keep != null) student.applyMask(keep);
+        }
+    }
+
+    /** Per weight matrix, keeps all but the {@code sparsity} share of weights with the smallest magnitude. */
+    static boolean[] magnitudeMask(NeuralNetwork nn, double sparsity) {
+        double[] p = new double[nn.parameterCount()];
+        nn.getParameters(p);
+        boolean[] keep = new boolean[p.length];
+        Arrays.fill(keep, true);
+        int in = nn.getInputSize();
+        int hidden = nn.getHiddenSize();
+        int w2At = hidden * in + hidden;
+        prune(p, keep, 0, hidden * in, sparsity);
+        prune(p, keep, w2At, w2At + nn.getOutputSize() * hidden, sparsity);
+        return keep;
+    }
+
+    private static void prune(double[] p, boolean[] keep, int from, int to, double sparsity) {
+        int drop = (int) Math.round((to - from) * sparsity);
+        if (drop <= 0) return;
+        Integer[] order = new Integer[to - from];
+        for (int i = 0; i < order.length; i++) order[i] = from + i;
+        Arrays.sort(order, Comparator.comparingDouble(i -> Math.abs(p[i])));
+        for (int k = 0; k < drop; k++) keep[order[k]] = false;
+    }
+
+    /** {p50, p95} in microseconds of single forward passes, after as many untimed passes for the JIT. */
+    static double[] latency(PolicyNetwork model, double[][] inputs, int samples) {
+        double sink = 0.0;
+        for (int n = 0; n < samples; n++) sink += model.forward(inputs[n % inputs.length])[0];
+        long[] nanos = new long[samples];
+        for (int n = 0; n < samples; n++) {
+            long t = System.nanoTime();
+            sink += model.forward(inputs[n % inputs.length])[0];
+            nanos[n] = System.nanoTime() - t;
+        }
+        Arrays.sort(nanos);
+        if (sink == 42.0) log.trace("sink"); // keeps the forward passes alive
+        return new double[]{nanos[samples / 2] / 1000.0, nanos[Math.min(samples - 1, (int) (samples * 0.95))] / 1000.0};
+    }
+
+    // sorted by p95; on the frontier when more accurate than every faster student
+    private static List<Student> pareto(List<Student> students) {
+        List<Student> sorted = new ArrayList<>(students);
+        sorted.sort(Comparator.comparingDouble(Student::p95Micros));
+        List<Student> out = new ArrayList<>(sorted.size());
+        double best = Double.NEGATIVE_INFINITY;
+        for (Student s : sorted) {
+            boolean pareto = s.accuracy() > best;
+            if (pareto) best = s.accuracy();
+            out.add(new Student(s.hidden(), s.sparsity(), s.weights(), s.model(), s.agreement(), s.heldOutTop1(),
+                    s.p50Micros(), s.p95Micros(), pareto, s.file()));
+        }
+        return out;
+    }
+
+    private static void writeFrontier(Path file, List<Student> students) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("hidden,sparsity,weights,agreement,heldOutTop1,p50Micros,p95Micros,pareto,file\n");
+            for (Student s : students) {
+                w.write(String.format(Locale.ROOT, "%d,%.2f,%d,%.4f,%s,%.2f,%.2f,%b,%s\n", s.hidden(), s.sparsity(),
+                        s.weights(), s.agreement(), Double.isNaN(s.heldOutTop1()) ? "" : String.format(Locale.ROOT, "%.4f", s.heldOutTop1()),
+                        s.p50Micros(), s.p95Micros(), s.pareto(), s.file()));
+            }
+        }
+        log.info("Wrote accuracy/latency frontier to {}", file);
+    }
+
+    private static void select(List<Student> students, double budgetMicros, Path selected) throws IOException {
+        Student pick = null;
+        for (Student s : students) {
+            if (s.p95Micros() <= budgetMicros && (pick == null || s.accuracy() > pick.accuracy())) pick = s;
+        }
+        if (pick == null) {
+            log.warn("No student meets the p95 budget of {} us", budgetMicros);
+            return;
+        }
+        Files.copy(pick.file(), selected, StandardCopyOption.REPLACE_EXISTING);
+        log.info("Selected h={} sparsity={}% (p95 {} us <= {} us) into {}; serve it with klaverjas.training.modelFile={}",
+                pick.hidden(), Math.round(pick.sparsity() * 100), String.format(Locale.ROOT, "%.1f", pick.p95Micros()),
+                budgetMicros, selected, selected);
+    }
+
+    /**
+     * States reached by legal play ({@link PositionGenerator}, the stages the teacher was trained on) with the
+     * teacher's distribution over the hand; cards as indices, one state per slot.
+     */
+    static final class States {
+        private final int[] hands;
+        private final int[] tricks; // 3 per state
+        private final byte[] trickSizes;
+        private final byte[] trumps;
+        private final float[] targets; // output-size values per state, zero outside the hand
+
+        private States(int size, int outputs) {
+            hands = new int[size];
+            tricks = new int[size * 3];
+            trickSizes = new byte[size];
+            trumps = new byte[size];
+            targets = new float[size * outputs];
+        }
+
+        int size() { return hands.length; }
+
+        static States random(int size, long seed, PositionGenerator.Stages stages, NeuralNetwork teacher,
+                             double temperature) {
+            int outputs = teacher.getOutputSize();
+            States s = new States(size, outputs);
+            PositionGenerator positions = new PositionGenerator(seed, stages);
+            double[] x = new double[teacher.getInputSize()];
+            for (int i = 0; i < size; i++) {
+                PlayState position = positions.next();
+                int hand = positions.hand();
+                s.hands[i] = hand;
+                s.trickSizes[i] = (byte) position.trickSize();
+                for (int k = 0; k < position.trickSize(); k++) s.tricks[i * 3 + k] = position.trickCard(k);
+                s.trumps[i] = (byte) position.trump();
+
+                s.encode(i, x);
+                double[] p = teacher.forward(x);
+                double sum = 0.0;
+                for (int m = hand; m != 0; m &= m - 1) {
+                    int c = Integer.numberOfTrailingZeros(m);
+                    p[c] = Math.pow(p[c], 1.0 / temperature);
+                    sum += p[c];
+                }
+                for (int m = hand; m != 0; m &= m - 1) {
+                    int c = Integer.numberOfTrailingZeros(m);
+                    s.targets[i * outputs + c] = (float) (sum > 0 ? p[c] / sum : 1.0 / Integer.bitCount(hand));
+                }
+            }
+            return s;
+        }
+
+        void encode(int i, double[] x) {
+            encodeInto(x, hands[i], tricks, i * 3, trickSizes[i], trumps[i]);
+        }
+
+        void target(int i, double[] target, boolean[] allowed) {
+            int outputs = target.length;
+            for (int c = 0; c < outputs; c++) {
+                target[c] = targets[i * outputs + c];
+                allowed[c] = (hands[i] >>> c & 1) != 0;
+            }
+        }
+
+        double[][] inputs(int count, int inputSize) {
+            double[][] out = new double[count][inputSize];
+            for (int i = 0; i < count; i++) encode(i, out[i]);
+            return out;
+        }
+
+        /** Share of states where {@code model}'s best card in hand is the teacher's. */
+        double agreement(PolicyNetwork model) {
+            int outputs = model.getOutputSize();
+            double[] x = new double[model.getInputSize()];
+            int agree = 0;
+            for (int i = 0; i < size(); i++) {
+                encode(i, x);
+                double[] p = model.forward(x);
+                int best = -1;
+                int teacherBest = -1;
+                for (int m = hands[i]; m != 0; m &= m - 1) {
+                    int c = Integer.numberOfTrailingZeros(m);
+                    if (best < 0 || p[c] > p[best]) best = c;
+                    if (teacherBest < 0 || targets[i * outputs + c] > targets[i * outputs + teacherBest]) teacherBest = c;
+                }
+                if (best == teacherBest) agree++;
+            }
+            return size() == 0 ? 0.0 : agree * 1.0 / size();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Distributed supervised training (klaverjas.training.mode=distributed): this process is the coordinator, and
+ * {@link TrainingWorker} processes on this host or others collect samples and train on their shard. After every
+ * round of {@code samplesPerRound} samples each worker sends its weight delta ({@link WeightSync}) and continues from
+ * the averaged weights:
+ * <ul>
+ * <li>{@code sync}: the coordinator waits for all workers, adds the mean of their deltas to the global weights and
+ * sends everyone the same result, i.e. synchronous model averaging;</li>
+ * <li>{@code async}: each delta is added, scaled by 1/workers, as soon as it arrives and the worker continues from the
+ * global weights of that moment, so no worker waits for a straggler.</li>
+ * </ul>
+ * {@code localWorkers} of the workers are started here as child processes; the others connect on their own
+ * ({@code TrainingWorker --coordinator=host:port}). {@link #main} measures scaling efficiency with local processes.
+ */
+@Component
+public class DistributedTrainer {
+    private static final Logger log = LoggerFactory.getLogger(DistributedTrainer.class);
+
+    private final TrainerProperties props;
+
+    public DistributedTrainer(TrainerProperties props) {
+        this.props = props;
+    }
+
+    /**
+     * Settings of one distributed run; {@code roundTimeoutMs} bounds both the wait for a worker's next message and the
+     * wait at the synchronous barrier.
+     */
+    public record Settings(int workers, int rounds, int samplesPerRound, double learningRate, boolean sync, long seed,
+                           int checkpointEvery, long roundTimeoutMs) {}
+
+    /** Outcome of a run; bytes count the weight deltas in both directions. */
+    public record Report(int workers, long samples, long correct, long wallNanos, long barrierWaitNanos,
+                         long deltaBytes, long deltas, long denseBytesPerDelta) {
+        public double samplesPerSecond() { return samples / Math.max(wallNanos / 1e9, 1e-9); }
+        public double accuracy() { return samples == 0 ? 0.0 : correct * 1.0 / samples; }
+        /** Share of the workers' time spent waiting at the synchronous barrier. */
+        public double barrierWait() { return barrierWaitNanos / Math.max(1.0, (double) wallNanos * workers); }
+        public double bytesPerDelta() { return deltas == 0 ? 0.0 : deltaBytes * 1.0 / deltas; }
+    }
+
+    public void run(Path modelPath) throws Exception {
+        TrainerProperties.Training tp = props.getTraining();
+        TrainerProperties.Training.Distributed dp = tp.getDistributed();
+        NeuralNetwork nn = Files.exists(modelPath)
+                ? NeuralNetwork.load(modelPath)
+                : new NeuralNetwork(ALL_CARDS.size() + 4 * ALL_CARDS.size() + SUITS.length, 128, ALL_CARDS.size(), 42L);
+        Settings settings = new Settings(dp.getWorkers(), dp.getRounds(), dp.getSamplesPerRound(),
+                tp.getLearningRate(), !"async".equalsIgnoreCase(dp.getAveraging()), 42L, dp.getCheckpointEvery(),
+                dp.getRoundTimeoutSeconds() * 1000L);
+        log.info("Starting distributed training: {} on port {} ({} local), teacher={}, start={}", settings,
+                dp.getPort(), dp.getLocalWorkers(), dp.getTeacher(), Files.exists(modelPath) ? modelPath : "random");
+        List<Process> local = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(dp.getPort())) {
+            for (int w = 0; w < Math.min(dp.getLocalWorkers(), dp.getWorkers()); w++) {
+                local.add(startLocalWorker(server.getLocalPort(), dp.getTeacher(), dp.getWorkerThreads(), props));
+            }
+            Report report = coordinate(nn, settings, server, (round, model) -> {
+                try {
+                    model.save(modelPath);
+                } catch (IOException e) {
+                    log.warn("Checkpoint at round {} failed: {}", round, e.getMessage());
+                }
+            });
+            nn.save(modelPath);
+            log.info("Distributed training completed: {} samples in {} s ({} samples/s), acc={}%, barrier wait={}%, "
+                            + "{} bytes per delta (dense doubles: {})", report.samples(), report.wallNanos() / 1_000_000_000L,
+                    String.format(Locale.ROOT, "%.0f", report.samplesPerSecond()),
+                    String.format(Locale.ROOT, "%.2f", report.accuracy() * 100.0),
+                    String.format(Locale.ROOT, "%.1f", report.barrierWait() * 100.0),
+                    String.format(Locale.ROOT, "%.0f", report.bytesPerDelta()), report.denseBytesPerDelta());
+        } finally {
+            for (Process p : local) {
+                if (!p.waitFor(10, TimeUnit.SECONDS)) p.destroy();
+            }
+        }
+    }
+
+    /**
+     * Runs the coordinator side on {@code server}: accepts {@code settings.workers()} workers, averages their updates
+     * for {@code settings.rounds()} rounds each and leaves the final weights in {@code nn}. {@code checkpoint} gets a
+     * copy of the global weights every {@code checkpointEvery} rounds. A worker that fails, disconnects or exceeds the
+     * round timeout breaks the barrier, so the run fails as a whole instead of leaving the others waiting.
+     */
+    public static Report coordinate(NeuralNetwork nn, Settings settings, ServerSocket server,
+                                    BiConsumer<Integer, NeuralNetwork> checkpoint) throws Exception {
+        int n = settings.workers();
+        double[] global = new double[nn.parameterCount()];
+        nn.getParameters(global);
+        Object lock = new Object();
+        double[][] pending = new double[n][global.length];
+        LongAdder samples = new LongAdder();
+        LongAdder correct = new LongAdder();
+        LongAdder waited = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        LongAdder deltas = new LongAdder();
+        AtomicInteger updates = new AtomicInteger();
+        int checkpointEvery = Math.max(1, settings.checkpointEvery());
+        // runs once per round when every worker has arrived: global += mean of the deltas
+        Runnable average = () -> {
+            for (double[] d : pending) for (int i = 0; i < global.length; i++) global[i] += d[i] / n;
+            int round = updates.addAndGet(n) / n;
+            if (round % checkpointEvery == 0) checkpoint.accept(round, snapshot(nn, global));
+            if (round % 10 == 0 || round == settings.rounds()) {
+                log.info("Round {}/{}: samples={}, acc={}%", round, settings.rounds(), samples.sum(),
+                        String.format(Locale.ROOT, "%.2f", samples.sum() == 0 ? 0.0 : correct.sum() * 100.0 / samples.sum()));
+            }
+        };
+        CyclicBarrier barrier = new CyclicBarrier(n, average);
+
+        server.setSoTimeout(120_000);
+        List<Socket> sockets = new ArrayList<>(n);
+        ExecutorService handlers = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "coordinator-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (int w = 0; w < n; w++) {
+                Socket s = server.accept();
+                s.setTcpNoDelay(true);
+                s.setSoTimeout((int) Math.min(Integer.MAX_VALUE, settings.roundTimeoutMs()));
+                sockets.add(s);
+            }
+            long start = System.nanoTime();
+            CompletionService<Object> running = new ExecutorCompletionService<>(handlers);
+            for (int w = 0; w < n; w++) {
+                int id = w;
+                Socket socket = sockets.get(w);
+                running.submit(() -> {
+                    try {
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                        if (in.readInt() != WeightSync.MAGIC) throw new IOException("Not a training worker");
+                        int version = in.readInt();
+                        if (version != WeightSync.VERSION) throw new IOException("Unsupported worker protocol " + version);
+                        String name = in.readUTF();
+                        double[] base = new double[global.length];
+                        synchronized (lock) {
+                            System.arraycopy(global, 0, base, 0, global.length);
+                        }
+                        out.writeInt(id);
+                        out.writeInt(nn.getInputSize());
+                        out.writeInt(nn.getHiddenSize());
+                        out.writeInt(nn.getOutputSize());
+                        out.writeInt(settings.rounds());
+                        out.writeInt(settings.samplesPerRound());
+                        out.writeDouble(settings.learningRate());
+                        out.writeLong(settings.seed() + 7919L * id);
+                        WeightSync.writeDense(out, base);
+                        out.flush();
+                        log.info("Worker {} connected: {} from {}", id, name, socket.getRemoteSocketAddress());
+
+                        double[] delta = pending[id];
+                        for (int round = 1; round <= settings.rounds(); round++) {
+                            int r = in.readInt();
+                            if (r != round) throw new IOException("Worker " + id + " sent round " + r + ", expected " + round);
+                            int trained = in.readInt();
+                            if (trained == 0) throw new IOException("Worker " + id + " trained on no samples in round " + round);
+                            samples.add(trained);
+                            correct.add(in.readInt());
+                            in.readLong(); // collect nanos
+                            in.readLong(); // train nanos
+                            bytes.add(WeightSync.readDelta(in, delta));
+                            deltas.increment();
+                            if (settings.sync()) {
+                                long t = System.nanoTime();
+                                barrier.await(settings.roundTimeoutMs(), TimeUnit.MILLISECONDS);
+                                waited.add(System.nanoTime() - t);
+                            }
+                            synchronized (lock) {
+                                if (!settings.sync()) {
+                                    for (int i = 0; i < global.length; i++) global[i] += delta[i] / n;
+                                    int total = updates.incrementAndGet();
+                                    if (total % (checkpointEvery * n) == 0) checkpoint.accept(total / n, snapshot(nn, global));
+                                }
+                                // move this worker's base to the global weights; delta is free again until the next round
+                                for (int i = 0; i < global.length; i++) delta[i] = global[i] - base[i];
+                            }
+                            out.writeBoolean(round < settings.rounds());
+                            bytes.add(WeightSync.writeDelta(out, delta));
+                            deltas.increment();
+                            out.flush();
+                            for (int i = 0; i < base.length; i++) base[i] += delta[i];
+                        }
+                        return null;
+                    } catch (Throwable e) {
+                        barrier.reset(); // releases the handlers waiting for this worker with BrokenBarrierException
+                        throw e;
+                    }
+                });
+            }
+            // in completion order, so the first failure ends the run whatever worker it came from
+            try {
+                for (int w = 0; w < n; w++) running.take().get();
+            } catch (ExecutionException e) {
+                barrier.reset();
+                throw e;
+            }
+            long wall = System.nanoTime() - start;
+            nn.setParameters(global);
+            return new Report(n, samples.sum(), correct.sum(), wall, waited.sum(), bytes.sum(), deltas.sum(),
+                    5L + global.length * (long) Double.BYTES);
+        } finally {
+            handlers.shutdownNow();
+            for (Socket s : sockets) s.close();
+        }
+    }
+
+    private static NeuralNetwork snapshot(NeuralNetwork nn, double[] global) {
+        NeuralNetwork copy = nn.copy();
+        copy.setParameters(global);
+        return copy;
+    }
+
+    /**
+     * Starts a {@link TrainingWorker} child process on this host with the current JVM and classpath (through the boot
+     * loader when running from the executable jar). The worker gets the external API settings and game variant of
+     * {@code props}, as it has no Spring context to read them from.
+     */
+    static Process startLocalWorker(int port, String teacher, int threads, TrainerProperties props) throws IOException {
+        String java = ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        List<String> cmd = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path")));
+        String location = String.valueOf(TrainingWorker.class.getProtectionDomain().getCodeSource().getLocation());
+        if (location.contains("BOOT-INF")) {
+            cmd.add("-Dloader.main=" + TrainingWorker.class.getName());
+            cmd.add("org.springframework.boot.loader.launch.PropertiesLauncher");
+        } else {
+            cmd.add(TrainingWorker.class.getName());
+        }
+        cmd.add("--coordinator=localhost:" + port);
+        cmd.add("--teacher=" + teacher);
+        cmd.add("--threads=" + threads);
+        TrainerProperties.ExternalApi api = props.getExternalApi();
+        cmd.add("--api=" + api.getBaseUrl());
+        cmd.add("--api-path=" + api.getCalcAiCardPath());
+        cmd.add("--api-timeout-ms=" + api.getTimeoutMs());
+        cmd.add("--game-variant=" + props.getTraining().getGameVariant());
+        return new ProcessBuilder(cmd).inheritIO().start();
+    }
+
+    /**
+     * Scaling run with local worker processes and the heuristic teacher: trains for a fixed number of rounds per
+     * worker at each worker count and reports throughput, speedup and efficiency against one worker.
+     * <p>
+     * Usage: {@code DistributedTrainer [rounds] [samplesPerRound] [workerCounts, e.g. 1,2,4] [sync|async]}
+     */
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int samplesPerRound = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int[] counts = Arrays.stream((args.length > 2 ? args[2] : "1,2,4").split(",")).mapToInt(Integer::parseInt).toArray();
+        boolean sync = args.length <= 3 || !"async".equalsIgnoreCase(args[3]);
+        List<Report> reports = new ArrayList<>();
+        for (int workers : counts) {
+            NeuralNetwork nn = new NeuralNetwork(ALL_CARDS.size() + 4 * ALL_CARDS.size() + SUITS.length, 128, ALL_CARDS.size(), 42L);
+            Settings settings = new Settings(workers, rounds, samplesPerRound, 0.05, sync, 42L, Integer.MAX_VALUE,
+                    600_000L);
+            List<Process> local = new ArrayList<>();
+            try (ServerSocket server = new ServerSocket(0)) {
+                for (int w = 0; w < workers; w++) local.add(startLocalWorker(server.getLocalPort(), "heuristic", 1, new TrainerProperties()));
+                reports.add(coordinate(nn, settings, server, (r, m) -> {}));
+            } finally {
+                for (Process p : local) if (!p.waitFor(10, TimeUnit.SECONDS)) p.destroy();
+            }
+        }
+        double base = reports.get(0).samplesPerSecond() / reports.get(0).workers();
+        System.out.printf(Locale.ROOT, "%s averaging, %d rounds x %d samples per worker, %d cores%n",
+                sync ? "sync" : "async", rounds, samplesPerRound, Runtime.getRuntime().availableProcessors());
+        System.out.println("workers  samples/s  speedup  efficiency  barrier-wait  bytes/delta  accuracy");
+        for (Report r : reports) {
+            double perWorker = r.samplesPerSecond() / r.workers();
+            System.out.printf(Locale.ROOT, "%7d  %9.0f  %7.2f  %9.0f%%  %11.1f%%  %11.0f  %7.2f%%%n", r.workers(),
+                    r.samplesPerSecond(), r.samplesPerSecond() / base / reports.get(0).workers(),
+                    perWorker / base * 100.0, r.barrierWait() * 100.0, r.bytesPerDelta(), r.accuracy() * 100.0);
+        }
+    }
+}
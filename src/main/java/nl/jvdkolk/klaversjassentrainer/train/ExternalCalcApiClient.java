@@ -28,6 +28,11 @@ public class ExternalCalcApiClient {
         this.gameVariant = props.getTraining().getGameVariant();
     }
 
+    /**
+     * The teacher's card for this position, or null when the API answered without one.
+     *
+     * @throws RestClientException when the call itself failed, so callers can tell failures from empty answers
+     */
     public String fetchBestCard(List<String> currentTrick, String trumpSuit, List<String> hand) {
         // Map internal representations to API schema
         List<String> apiTrick = currentTrick == null ? List.of() : currentTrick.stream()
@@ -70,7 +75,7 @@ public class ExternalCalcApiClient {
             }
         } catch (RestClientException ex) {
             log.warn("External calcAiCard call failed: {}", ex.getMessage());
-            return null;
+            throw ex;
         }
     }
 
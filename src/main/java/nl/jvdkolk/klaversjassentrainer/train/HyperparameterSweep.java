@@ -0,0 +1,232 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Hyper-parameter sweep (klaverjas.training.mode=sweep): trains many configurations of the supervised network at once
+ * and ranks them, so the run settings can be picked from evidence rather than guessed.
+ * <p>
+ * All trials read one {@link SampleSet}, labelled by the teacher API once and memory-mapped read-only; the last
+ * {@code validationFraction} of it is never trained on. Configurations are the full grid of {@code hiddenSizes} x
+ * {@code learningRates} x {@code decays}, or with {@code randomConfigs} set that many random draws (learning rate
+ * log-uniform and decay uniform between the listed extremes, hidden size from the list).
+ * <p>
+ * Successive halving cuts the losers early: every live trial trains up to the rung's sample budget, starting at
+ * {@code rungSamples} and growing by {@code eta} each rung, then only the best {@code 1/eta} by validation top-1 go
+ * on, until one is left or {@code maxSamples} is reached. Trials of a rung run concurrently, one per pool thread, so
+ * wall time follows cores times budget rather than the number of configurations. Learning rates decay per
+ * {@code gamesPerGeneration} samples as in the supervised runner. The leaderboard (accuracy and training throughput
+ * per trial) goes to {@code leaderboard.csv} and the winner's weights to {@code best.txt} in the output directory.
+ */
+@Component
+public class HyperparameterSweep {
+    private static final Logger log = LoggerFactory.getLogger(HyperparameterSweep.class);
+
+    private final TrainerProperties props;
+    private final ExternalCalcApiClient api;
+
+    public HyperparameterSweep(TrainerProperties props, ExternalCalcApiClient api) {
+        this.props = props;
+        this.api = api;
+    }
+
+    /** One configuration to try. */
+    public record Config(int id, int hidden, double learningRate, double decay) {}
+
+    /** Leaderboard row; {@code rung} is the last rung the trial trained in. */
+    public record Result(Config config, int rung, long samples, double accuracy, double samplesPerSecond,
+                         boolean winner) {}
+
+    public void run() throws Exception {
+        TrainerProperties.Training tp = props.getTraining();
+        TrainerProperties.Training.Sweep sp = tp.getSweep();
+        int threads = Math.max(1, tp.getThreads());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r);
+            t.setName("sweep-worker-" + t.getId());
+            t.setDaemon(true);
+            return t;
+        });
+        PositionGenerator.Stages stages = PositionGenerator.Stages.of(tp.getPositions().getHandSizeWeights(),
+                tp.getPositions().getTrickSizeWeights());
+        try (SampleSet data = SampleSet.openOrCollect(Path.of(sp.getDataFile()), sp.getSamples(), sp.getSeed(), stages,
+                api, pool)) {
+            List<Config> configs = configs(sp);
+            log.info("Starting sweep: {} configurations on {} threads, {} states ({}% validation), eta={}, rungs from {} to {} samples",
+                    configs.size(), threads, data.size(), Math.round(sp.getValidationFraction() * 100), sp.getEta(),
+                    sp.getRungSamples(), sp.getMaxSamples());
+            List<Result> board = sweep(data, configs, sp, tp.getGamesPerGeneration(), pool);
+            Path outputDir = Path.of(sp.getOutputDir());
+            writeLeaderboard(outputDir.resolve("leaderboard.csv"), board);
+            for (Result r : board.subList(0, Math.min(10, board.size()))) {
+                log.info("{}#{} hidden={} lr={} decay={}: top1={}% after {} samples (rung {}), {} samples/s",
+                        r.winner() ? "* " : "  ", r.config().id(), r.config().hidden(),
+                        String.format(Locale.ROOT, "%.4f", r.config().learningRate()),
+                        String.format(Locale.ROOT, "%.4f", r.config().decay()),
+                        String.format(Locale.ROOT, "%.2f", r.accuracy() * 100), r.samples(), r.rung(),
+                        Math.round(r.samplesPerSecond()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Runs successive halving over {@code configs}; the leaderboard, best first. */
+    static List<Result> sweep(SampleSet data, List<Config> configs, TrainerProperties.Training.Sweep sp,
+                              int samplesPerDecay, ExecutorService pool) throws Exception {
+        int validation = Math.max(1, (int) Math.round(data.size() * sp.getValidationFraction()));
+        int trainSize = data.size() - validation;
+        if (trainSize <= 0) throw new IllegalArgumentException("Sample set of " + data.size() + " states leaves nothing to train on");
+        int eta = Math.max(2, sp.getEta());
+        List<Trial> live = new ArrayList<>();
+        for (Config c : configs) live.add(new Trial(c, sp.getSeed()));
+        List<Result> finished = new ArrayList<>();
+        long start = System.nanoTime();
+        long budget = Math.max(1, sp.getRungSamples());
+        for (int rung = 0; ; rung++) {
+            long target = Math.min(budget, sp.getMaxSamples());
+            List<Future<?>> tasks = new ArrayList<>(live.size());
+            for (Trial t : live) {
+                tasks.add(pool.submit(() -> {
+                    t.train(data, trainSize, target, samplesPerDecay);
+                    t.accuracy = accuracy(t.nn, data, trainSize, data.size());
+                }));
+            }
+            for (Future<?> f : tasks) f.get();
+            live.sort(Comparator.comparingDouble((Trial t) -> -t.accuracy));
+            boolean last = live.size() == 1 || target >= sp.getMaxSamples();
+            int keep = last ? 1 : Math.max(1, live.size() / eta);
+            log.info("Rung {}: {} trials at {} samples, best top1={}%, keeping {} ({} s elapsed)", rung, live.size(), target,
+                    String.format(Locale.ROOT, "%.2f", live.getFirst().accuracy * 100), keep,
+                    (System.nanoTime() - start) / 1_000_000_000L);
+            for (int i = keep; i < live.size(); i++) finished.add(live.get(i).result(rung, false));
+            live = new ArrayList<>(live.subList(0, keep));
+            if (last) {
+                Trial best = live.getFirst();
+                finished.add(best.result(rung, true));
+                Path file = Path.of(sp.getOutputDir()).resolve("best.txt");
+                best.nn.save(file);
+                log.info("Sweep finished in {} s; winner #{} saved to {}", (System.nanoTime() - start) / 1_000_000_000L,
+                        best.config.id(), file);
+                break;
+            }
+            budget *= eta;
+        }
+        // later rungs first, then accuracy: a trial cut early never outranks one that survived it
+        finished.sort(Comparator.comparingInt(Result::rung).thenComparingDouble(Result::accuracy).reversed());
+        return finished;
+    }
+
+    static List<Config> configs(TrainerProperties.Training.Sweep sp) {
+        List<Config> out = new ArrayList<>();
+        if (sp.getRandomConfigs() > 0) {
+            SplittableRandom rnd = new SplittableRandom(sp.getSeed());
+            double lrMin = Collections.min(sp.getLearningRates());
+            double lrMax = Collections.max(sp.getLearningRates());
+            double decayMin = Collections.min(sp.getDecays());
+            double decayMax = Collections.max(sp.getDecays());
+            for (int i = 0; i < sp.getRandomConfigs(); i++) {
+                int hidden = sp.getHiddenSizes().get(rnd.nextInt(sp.getHiddenSizes().size()));
+                double lr = lrMin * Math.pow(lrMax / lrMin, rnd.nextDouble());
+                double decay = decayMin + (decayMax - decayMin) * rnd.nextDouble();
+                out.add(new Config(i, hidden, lr, decay));
+            }
+            return out;
+        }
+        for (int hidden : sp.getHiddenSizes()) {
+            for (double lr : sp.getLearningRates()) {
+                for (double decay : sp.getDecays()) out.add(new Config(out.size(), hidden, lr, decay));
+            }
+        }
+        return out;
+    }
+
+    /** Top-1 against the teacher's label over states {@code [from, to)}. */
+    static double accuracy(PolicyNetwork nn, SampleSet data, int from, int to) {
+        double[] x = new double[nn.getInputSize()];
+        double[] logits = new double[nn.getOutputSize()];
+        double[] scratch = new double[nn.scratchSize()];
+        int[] trick = new int[3];
+        int[] top = new int[1];
+        int hits = 0;
+        for (int i = from; i < to; i++) {
+            int hand = data.hand(i);
+            data.encode(i, x, trick);
+            nn.logits(x, hand, logits, scratch);
+            PolicyNetwork.topK(logits, hand, top);
+            if (top[0] == data.label(i)) hits++;
+        }
+        return to > from ? hits * 1.0 / (to - from) : 0.0;
+    }
+
+    private static void writeLeaderboard(Path file, List<Result> board) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("id,hidden,learningRate,decay,rung,samples,top1,samplesPerSecond,winner\n");
+            for (Result r : board) {
+                Config c = r.config();
+                w.write(String.format(Locale.ROOT, "%d,%d,%.6f,%.6f,%d,%d,%.4f,%.0f,%b\n", c.id(), c.hidden(),
+                        c.learningRate(), c.decay(), r.rung(), r.samples(), r.accuracy(), r.samplesPerSecond(), r.winner()));
+            }
+        }
+        log.info("Wrote sweep leaderboard to {}", file);
+    }
+
+    /** A configuration's network and progress; touched by one pool thread at a time. */
+    private static final class Trial {
+        final Config config;
+        final NeuralNetwork nn;
+        final SplittableRandom rnd;
+        final double[] x;
+        final boolean[] allowed;
+        final int[] trick = new int[3];
+        double lr;
+        long samples;
+        long trainNanos;
+        double accuracy;
+
+        Trial(Config config, long seed) {
+            this.config = config;
+            int inputSize = ALL_CARDS.size() + 4 * ALL_CARDS.size() + SUITS.length;
+            this.nn = new NeuralNetwork(inputSize, config.hidden(), ALL_CARDS.size(), seed + config.id());
+            this.rnd = new SplittableRandom(seed * 31 + config.id());
+            this.x = new double[inputSize];
+            this.allowed = new boolean[ALL_CARDS.size()];
+            this.lr = config.learningRate();
+        }
+
+        void train(SampleSet data, int trainSize, long target, int samplesPerDecay) {
+            long start = System.nanoTime();
+            for (; samples < target; samples++) {
+                int i = rnd.nextInt(trainSize);
+                int hand = data.hand(i);
+                data.encode(i, x, trick);
+                for (int c = 0; c < allowed.length; c++) allowed[c] = (hand >>> c & 1) != 0;
+                nn.trainStepMasked(x, data.label(i), allowed, lr);
+                if (samplesPerDecay > 0 && (samples + 1) % samplesPerDecay == 0) lr *= config.decay();
+            }
+            trainNanos += System.nanoTime() - start;
+        }
+
+        Result result(int rung, boolean winner) {
+            double perSecond = trainNanos > 0 ? samples * 1e9 / trainNanos : 0.0;
+            return new Result(config, rung, samples, accuracy, perSecond, winner);
+        }
+    }
+}
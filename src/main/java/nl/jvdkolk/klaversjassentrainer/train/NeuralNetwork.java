@@ -4,6 +4,7 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Locale;
 import java.util.Random;
 
@@ -11,7 +12,7 @@ import java.util.Random;
  * Minimal 2-layer feed-forward neural network with tanh hidden and softmax output.
  * No external dependencies. For training we use simple SGD with cross-entropy.
  */
-public class NeuralNetwork {
+public class NeuralNetwork implements PolicyNetwork {
     private final int inputSize;
     private final int hiddenSize;
     private final int outputSize;
@@ -54,6 +55,7 @@ public class NeuralNetwork {
         }
     }
 
+    @Override
     public double[] forward(double[] x) {
         double[] h = new double[hiddenSize];
         for (int i = 0; i < hiddenSize; i++) {
@@ -79,6 +81,30 @@ public class NeuralNetwork {
         return o;
     }
 
+    @Override
+    public void logits(double[] x, int mask, double[] logits) {
+        logits(x, mask, logits, new double[hiddenSize]);
+    }
+
+    @Override
+    public int scratchSize() { return hiddenSize; }
+
+    @Override
+    public void logits(double[] x, int mask, double[] logits, double[] scratch) {
+        double[] h = scratch;
+        for (int i = 0; i < hiddenSize; i++) {
+            double sum = b1[i];
+            for (int j = 0; j < inputSize; j++) sum += W1[i][j] * x[j];
+            h[i] = Math.tanh(sum);
+        }
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            double sum = b2[i];
+            for (int j = 0; j < hiddenSize; j++) sum += W2[i][j] * h[j];
+            logits[i] = sum;
+        }
+    }
+
     public void trainStep(double[] x, int targetIndex, double learningRate) {
         // forward
         double[] h = new double[hiddenSize];
@@ -197,20 +223,120 @@ public class NeuralNetwork {
         }
     }
 
+    /**
+     * Distillation step: cross-entropy against a soft target distribution (e.g. a teacher's probabilities) instead of
+     * one label, with the softmax restricted to the allowed outputs as in {@link #trainStepMasked}. {@code target}
+     * should sum to one over the allowed outputs.
+     */
+    public void trainStepSoft(double[] x, double[] target, boolean[] allowed, double learningRate) {
+        double[] h = new double[hiddenSize];
+        double[] preH = new double[hiddenSize];
+        for (int i = 0; i < hiddenSize; i++) {
+            double sum = b1[i];
+            for (int j = 0; j < inputSize; j++) sum += W1[i][j] * x[j];
+            preH[i] = sum;
+            h[i] = Math.tanh(sum);
+        }
+        double[] o = new double[outputSize];
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < outputSize; i++) {
+            if (!allowed[i]) continue;
+            double sum = b2[i];
+            for (int j = 0; j < hiddenSize; j++) sum += W2[i][j] * h[j];
+            o[i] = sum;
+            max = Math.max(max, sum);
+        }
+        double sumExp = 0.0;
+        for (int i = 0; i < outputSize; i++) {
+            if (!allowed[i]) continue;
+            o[i] = Math.exp(o[i] - max);
+            sumExp += o[i];
+        }
+        if (sumExp == 0.0) return;
+
+        // dL/do = yhat - target over the allowed outputs
+        double[] dH = new double[hiddenSize];
+        for (int i = 0; i < outputSize; i++) {
+            if (!allowed[i]) continue;
+            double dO = o[i] / sumExp - target[i];
+            for (int j = 0; j < hiddenSize; j++) {
+                W2[i][j] -= learningRate * dO * h[j];
+                dH[j] += dO * W2[i][j];
+            }
+            b2[i] -= learningRate * dO;
+        }
+        for (int j = 0; j < hiddenSize; j++) dH[j] *= (1 - h[j] * h[j]);
+        for (int i = 0; i < hiddenSize; i++) {
+            for (int j = 0; j < inputSize; j++) {
+                W1[i][j] -= learningRate * dH[i] * x[j];
+            }
+            b1[i] -= learningRate * dH[i];
+        }
+    }
+
+    /**
+     * Zeroes every weight whose entry in {@code keep} is false; {@code keep} follows the flat layout of
+     * {@link #getParameters(double[])}. Used to hold pruned weights at zero while fine-tuning.
+     */
+    public void applyMask(boolean[] keep) {
+        int p = 0;
+        for (double[] row : W1) for (int j = 0; j < inputSize; j++, p++) if (!keep[p]) row[j] = 0.0;
+        for (int i = 0; i < hiddenSize; i++, p++) if (!keep[p]) b1[i] = 0.0;
+        for (double[] row : W2) for (int j = 0; j < hiddenSize; j++, p++) if (!keep[p]) row[j] = 0.0;
+        for (int i = 0; i < outputSize; i++, p++) if (!keep[p]) b2[i] = 0.0;
+    }
+
+    /** Writes the text format to a temporary file first and renames it, so readers never see a partial model. */
     public void save(Path file) throws IOException {
-        Files.createDirectories(file.getParent());
-        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
             w.write(String.format(Locale.ROOT, "# model nn input=%d hidden=%d output=%d\n", inputSize, hiddenSize, outputSize));
             writeMatrix(w, "W1", W1);
             writeVector(w, "b1", b1);
             writeMatrix(w, "W2", W2);
             writeVector(w, "b2", b2);
         }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
     }
 
     public int getInputSize() { return inputSize; }
+    public int getHiddenSize() { return hiddenSize; }
     public int getOutputSize() { return outputSize; }
 
+    /** Deep copy of the weights, e.g. an immutable snapshot for concurrent readers while training continues. */
+    public NeuralNetwork copy() {
+        NeuralNetwork c = new NeuralNetwork(inputSize, hiddenSize, outputSize, 42L);
+        for (int i = 0; i < hiddenSize; i++) System.arraycopy(W1[i], 0, c.W1[i], 0, inputSize);
+        System.arraycopy(b1, 0, c.b1, 0, hiddenSize);
+        for (int i = 0; i < outputSize; i++) System.arraycopy(W2[i], 0, c.W2[i], 0, hiddenSize);
+        System.arraycopy(b2, 0, c.b2, 0, outputSize);
+        return c;
+    }
+
+    /** Number of trainable parameters: W1, b1, W2 and b2. */
+    public int parameterCount() {
+        return hiddenSize * inputSize + hiddenSize + outputSize * hiddenSize + outputSize;
+    }
+
+    /** Copies all parameters into {@code out} as one flat vector: W1 row-major, b1, W2 row-major, b2. */
+    public void getParameters(double[] out) {
+        int p = 0;
+        for (double[] row : W1) { System.arraycopy(row, 0, out, p, inputSize); p += inputSize; }
+        System.arraycopy(b1, 0, out, p, hiddenSize); p += hiddenSize;
+        for (double[] row : W2) { System.arraycopy(row, 0, out, p, hiddenSize); p += hiddenSize; }
+        System.arraycopy(b2, 0, out, p, outputSize);
+    }
+
+    /** Overwrites all parameters from a flat vector in the layout of {@link #getParameters(double[])}. */
+    public void setParameters(double[] in) {
+        int p = 0;
+        for (double[] row : W1) { System.arraycopy(in, p, row, 0, inputSize); p += inputSize; }
+        System.arraycopy(in, p, b1, 0, hiddenSize); p += hiddenSize;
+        for (double[] row : W2) { System.arraycopy(in, p, row, 0, hiddenSize); p += hiddenSize; }
+        System.arraycopy(in, p, b2, 0, outputSize);
+    }
+
     private static void writeMatrix(Writer w, String name, double[][] M) throws IOException {
         w.write(name + "\n");
         for (double[] row : M) {
@@ -0,0 +1,91 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Inference side of a policy network: one input vector in, a probability per card out. Implemented by the trainable
+ * {@link NeuralNetwork} and by the build-time compiled network (see {@link CompiledNetwork}).
+ */
+public interface PolicyNetwork {
+    int getInputSize();
+
+    int getOutputSize();
+
+    /** Output probabilities (softmax) for input {@code x}, in a new array of {@link #getOutputSize()} values. */
+    double[] forward(double[] x);
+
+    /**
+     * Ranking-only inference: writes the raw logit of every output in {@code mask} (bit {@code i} is output {@code i})
+     * to {@code logits[i]} and leaves the other entries alone. Only the output rows of masked outputs are evaluated
+     * and no softmax is taken; use {@link #softmax} when probabilities are needed. This default derives the values
+     * from {@link #forward}: log-probabilities, which differ from the logits by a constant and so rank the same.
+     */
+    default void logits(double[] x, int mask, double[] logits) {
+        double[] p = forward(x);
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            logits[i] = Math.log(p[i]);
+        }
+    }
+
+    /** Length of the {@code scratch} array {@link #logits(double[], int, double[], double[])} works in. */
+    default int scratchSize() { return 0; }
+
+    /**
+     * As {@link #logits(double[], int, double[])}, keeping the hidden activations in the caller's {@code scratch} (at
+     * least {@link #scratchSize()} values) instead of a new array, so per-thread callers in inner loops do not
+     * allocate. This default ignores {@code scratch}.
+     */
+    default void logits(double[] x, int mask, double[] logits, double[] scratch) {
+        logits(x, mask, logits);
+    }
+
+    /**
+     * Partial top-K selection without allocation: the (at most {@code out.length}) outputs in {@code mask} with the
+     * highest {@code scores}, best first, into {@code out}. Ties go to the lower output index. Returns the count.
+     */
+    static int topK(double[] scores, int mask, int[] out) {
+        int n = 0;
+        for (int m = mask; m != 0; m &= m - 1) {
+            int c = Integer.numberOfTrailingZeros(m);
+            int at = n;
+            while (at > 0 && scores[out[at - 1]] < scores[c]) at--;
+            if (at >= out.length) continue;
+            for (int k = Math.min(n, out.length - 1); k > at; k--) out[k] = out[k - 1];
+            out[at] = c;
+            if (n < out.length) n++;
+        }
+        return n;
+    }
+
+    /** Softmax restricted to the outputs in {@code mask}: turns their {@code logits} into probabilities in place. */
+    static void softmax(double[] logits, int mask) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int m = mask; m != 0; m &= m - 1) max = Math.max(max, logits[Integer.numberOfTrailingZeros(m)]);
+        double sum = 0.0;
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            logits[i] = Math.exp(logits[i] - max);
+            sum += logits[i];
+        }
+        for (int m = mask; m != 0; m &= m - 1) logits[Integer.numberOfTrailingZeros(m)] /= sum;
+    }
+
+    /** Reads a model file in either text format: dense ({@link NeuralNetwork}) or pruned ({@link SparseNetwork}). */
+    static PolicyNetwork load(InputStream in) throws IOException {
+        BufferedInputStream b = new BufferedInputStream(in);
+        b.mark(SparseNetwork.HEADER.length());
+        String head = new String(b.readNBytes(SparseNetwork.HEADER.length()), StandardCharsets.UTF_8);
+        b.reset();
+        return head.equals(SparseNetwork.HEADER) ? SparseNetwork.load(b) : NeuralNetwork.load(b);
+    }
+
+    static PolicyNetwork load(Path file) throws IOException {
+        return load(Files.newInputStream(file));
+    }
+}
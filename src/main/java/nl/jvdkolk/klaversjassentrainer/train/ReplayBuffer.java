@@ -0,0 +1,37 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Bounded replay buffer: a ring that overwrites the oldest item when full, so producers never block.
+ * Consumers draw uniform random samples of what is currently held.
+ */
+public final class ReplayBuffer<T> {
+    private final Object[] items;
+    private long written;
+
+    public ReplayBuffer(int capacity) {
+        this.items = new Object[Math.max(1, capacity)];
+    }
+
+    public synchronized void add(T item) {
+        items[(int) (written++ % items.length)] = item;
+    }
+
+    public synchronized int size() {
+        return (int) Math.min(written, items.length);
+    }
+
+    public synchronized long totalAdded() {
+        return written;
+    }
+
+    /** Appends {@code n} items drawn uniformly with replacement to {@code out}; nothing when the buffer is empty. */
+    @SuppressWarnings("unchecked")
+    public synchronized void sample(SplittableRandom rnd, int n, List<T> out) {
+        int size = (int) Math.min(written, items.length);
+        if (size == 0) return;
+        for (int i = 0; i < n; i++) out.add((T) items[rnd.nextInt(size)]);
+    }
+}
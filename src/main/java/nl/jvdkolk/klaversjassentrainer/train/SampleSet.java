@@ -0,0 +1,196 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Immutable set of teacher-labelled states, memory-mapped read-only so any number of training threads share one
+ * off-heap copy that is loaded (and labelled by the external API) only once.
+ * <p>
+ * States come from a {@link PositionGenerator}, as in the supervised runner; the file records the stage weights they
+ * were drawn with, and a set drawn with other weights is collected again. File layout, little-endian: magic
+ * {@code KJSS}, version, count (int), the 8 hand size and 4 trick size weights (double); then 8 bytes per state: the
+ * hand mask (int) and an int packing the three trick cards (5 bits each), the trick size (2 bits), the trump (2 bits)
+ * and the teacher's card (5 bits).
+ */
+public final class SampleSet implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SampleSet.class);
+    private static final int MAGIC = 0x4B4A5353; // "KJSS"
+    private static final int VERSION = 2;
+    private static final int HEADER = 12 + 12 * Double.BYTES;
+    private static final int RECORD = 8;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private final Arena arena;
+    private final MemorySegment data;
+    private final int size;
+    private final PositionGenerator.Stages stages;
+
+    private SampleSet(Arena arena, MemorySegment data) throws IOException {
+        this.arena = arena;
+        this.data = data;
+        if (data.byteSize() < HEADER || data.get(INT, 0) != MAGIC) throw new IOException("Not a sample set");
+        int version = data.get(INT, 4);
+        if (version != VERSION) throw new IOException("Unsupported sample set version " + version);
+        this.size = data.get(INT, 8);
+        if (data.byteSize() != HEADER + (long) size * RECORD) throw new IOException("Truncated sample set");
+        double[] hands = new double[8];
+        double[] tricks = new double[4];
+        for (int i = 0; i < 8; i++) hands[i] = data.get(DOUBLE, 12 + (long) i * Double.BYTES);
+        for (int i = 0; i < 4; i++) tricks[i] = data.get(DOUBLE, 12 + (long) (8 + i) * Double.BYTES);
+        try {
+            this.stages = new PositionGenerator.Stages(hands, tricks);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt sample set stage weights", e);
+        }
+    }
+
+    public static SampleSet open(Path file) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new SampleSet(arena, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size(), arena));
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the set at {@code file}, or first labels {@code size} fresh positions drawn with {@code stages} by the
+     * teacher (on {@code pool}) and writes them there. An existing set drawn with other stage weights, or of an
+     * older format, is replaced.
+     */
+    public static SampleSet openOrCollect(Path file, int size, long seed, PositionGenerator.Stages stages,
+                                          ExternalCalcApiClient api, ExecutorService pool) throws IOException, InterruptedException {
+        if (Files.exists(file)) {
+            try {
+                SampleSet set = open(file);
+                if (set.stages().equals(stages)) {
+                    log.info("Mapped sample set of {} states from {}", set.size(), file);
+                    return set;
+                }
+                log.info("Sample set {} was drawn with {}, now {} - collecting it again", file, set.stages(), stages);
+                set.close();
+            } catch (IOException e) {
+                log.info("Cannot use sample set {} ({}) - collecting it again", file, e.getMessage());
+            }
+        }
+        long start = System.nanoTime();
+        PositionGenerator positions = new PositionGenerator(seed, stages);
+        List<Callable<long[]>> tasks = new ArrayList<>(size);
+        int[] trick = new int[3];
+        for (int n = 0; n < size; n++) {
+            PlayState position = positions.next();
+            int trickSize = position.trickSize();
+            for (int k = 0; k < 3; k++) trick[k] = k < trickSize ? position.trickCard(k) : 0;
+            int packed = pack(trick, trickSize, position.trump(), 0);
+            int hand = positions.hand();
+            tasks.add(() -> label(api, hand, packed));
+        }
+        List<long[]> labelled = new ArrayList<>(size);
+        for (Future<long[]> f : pool.invokeAll(tasks)) {
+            try {
+                long[] s = f.get();
+                if (s != null) labelled.add(s);
+            } catch (ExecutionException e) {
+                log.debug("Sample labelling failed: {}", e.getMessage());
+            }
+        }
+        if (labelled.isEmpty()) throw new IOException("Teacher labelled no states for " + file);
+        int[] hands = new int[labelled.size()];
+        int[] packed = new int[labelled.size()];
+        for (int i = 0; i < hands.length; i++) {
+            hands[i] = (int) labelled.get(i)[0];
+            packed[i] = (int) labelled.get(i)[1];
+        }
+        write(file, stages, hands, packed);
+        log.info("Collected {} of {} states into {} in {} s", hands.length, size, file,
+                (System.nanoTime() - start) / 1_000_000_000L);
+        SampleSet set = open(file);
+        log.info("Mapped sample set of {} states from {}", set.size(), file);
+        return set;
+    }
+
+    // {hand, packed} of a state packed without label, now with the teacher's label; null when the teacher gave none
+    private static long[] label(ExternalCalcApiClient api, int hand, int packed) {
+        List<String> cards = toCards(hand);
+        int trickSize = packed >>> 15 & 3;
+        List<String> trick = new ArrayList<>(trickSize);
+        for (int k = 0; k < trickSize; k++) trick.add(ALL_CARDS.get(packed >>> (5 * k) & 31));
+        String label = api.fetchBestCard(trick, SUITS[packed >>> 17 & 3], cards);
+        if (label == null || !cards.contains(label)) return null;
+        return new long[]{hand, packed | cardIndex(label) << 19};
+    }
+
+    static int pack(int[] trick, int trickSize, int trump, int label) {
+        return trick[0] | trick[1] << 5 | trick[2] << 10 | trickSize << 15 | trump << 17 | label << 19;
+    }
+
+    /** Writes a set file atomically; {@code packed[i]} as built by {@link #pack}. */
+    static void write(Path file, PositionGenerator.Stages stages, int[] hands, int[] packed) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + hands.length * RECORD).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(hands.length);
+        for (double w : stages.handSizeWeights()) buf.putDouble(w);
+        for (double w : stages.trickSizeWeights()) buf.putDouble(w);
+        for (int i = 0; i < hands.length; i++) buf.putInt(hands[i]).putInt(packed[i]);
+        buf.flip();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public int size() { return size; }
+    /** Stage weights the states were drawn with. */
+    public PositionGenerator.Stages stages() { return stages; }
+
+    public int hand(int i) {
+        return data.get(INT, HEADER + (long) i * RECORD);
+    }
+
+    public int label(int i) {
+        return data.get(INT, HEADER + (long) i * RECORD + 4) >>> 19 & 31;
+    }
+
+    /** Encodes state {@code i} into {@code x} (the serving layout); {@code trick} is scratch of at least 3 ints. */
+    public void encode(int i, double[] x, int[] trick) {
+        int p = data.get(INT, HEADER + (long) i * RECORD + 4);
+        trick[0] = p & 31;
+        trick[1] = p >>> 5 & 31;
+        trick[2] = p >>> 10 & 31;
+        encodeInto(x, hand(i), trick, p >>> 15 & 3, p >>> 17 & 3);
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
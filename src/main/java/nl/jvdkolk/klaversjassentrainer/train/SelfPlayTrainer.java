@@ -0,0 +1,235 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.game.DealSimulator;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.Policy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * Self-play reinforcement learning (klaverjas.training.mode=selfplay), no teacher API involved.
+ * <p>
+ * Actor threads play full deals with all four seats sampling from the latest published network snapshot and push
+ * the trajectories, with the final team points, into a {@link ReplayBuffer}. The learner (the calling thread)
+ * samples minibatches and applies REINFORCE updates: each decision's log-probability, restricted to the legal
+ * cards, is pushed up or down by the advantage of the deciding team's points over the 81-point baseline.
+ * Every {@code publishEvery} updates the learner publishes a fresh snapshot to the actors. The run fails as soon
+ * as an actor dies, and when the replay buffer does not reach {@code minReplay} within {@code fillTimeoutSeconds}.
+ */
+@Component
+public class SelfPlayTrainer {
+    private static final Logger log = LoggerFactory.getLogger(SelfPlayTrainer.class);
+
+    private static final double BASELINE = 81.0; // half of the 162 points in a deal
+    private static final int FIELDS = 10; // hand, trick[4], trickSize, trump, seat, card, legal
+
+    private final TrainerProperties props;
+
+    public SelfPlayTrainer(TrainerProperties props) {
+        this.props = props;
+    }
+
+    public void run(Path modelPath) throws Exception {
+        TrainerProperties.Training tp = props.getTraining();
+        TrainerProperties.Training.SelfPlay sp = tp.getSelfPlay();
+        if (sp.getPublishEvery() <= 0) {
+            throw new IllegalArgumentException("klaverjas.training.selfPlay.publishEvery must be positive: "
+                    + sp.getPublishEvery());
+        }
+        NeuralNetwork nn = Files.exists(modelPath)
+                ? NeuralNetwork.load(modelPath)
+                : new NeuralNetwork(ALL_CARDS.size() + 4 * ALL_CARDS.size() + SUITS.length, 128, ALL_CARDS.size(), 42L);
+        log.info("Starting self-play: actors={}, updates={}, batch={}, replay={}, publishEvery={}, lr={}, start={}",
+                sp.getActors(), sp.getUpdates(), sp.getBatchSize(), sp.getReplayCapacity(), sp.getPublishEvery(),
+                tp.getLearningRate(), Files.exists(modelPath) ? modelPath : "random");
+
+        ReplayBuffer<Trajectory> replay = new ReplayBuffer<>(sp.getReplayCapacity());
+        LongAdder deals = new LongAdder();
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> actorFailure = new AtomicReference<>();
+        AtomicReference<NeuralNetwork> snapshot = new AtomicReference<>(nn.copy());
+        List<Thread> actors = new ArrayList<>();
+        SplittableRandom seeds = new SplittableRandom(42L);
+        for (int a = 0; a < Math.max(1, sp.getActors()); a++) {
+            Actor actor = new Actor(snapshot, seeds.split(), replay, deals, stop);
+            Thread t = new Thread(actor, "selfplay-actor-" + a);
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler((thread, e) -> {
+                log.error("Self-play actor {} died", thread.getName(), e);
+                actorFailure.compareAndSet(null, e);
+            });
+            t.start();
+            actors.add(t);
+        }
+
+        SplittableRandom rnd = seeds.split();
+        double lr = tp.getLearningRate();
+        double[] x = new double[nn.getInputSize()];
+        boolean[] allowed = new boolean[ALL_CARDS.size()];
+        List<Trajectory> batch = new ArrayList<>(sp.getBatchSize());
+        Instant start = Instant.now();
+        long reportNanos = Duration.ofSeconds(Math.max(1, sp.getReportEverySeconds())).toNanos();
+        long lastReport = System.nanoTime();
+        long lastDeals = 0;
+        int lastUpdates = 0;
+        double advantageSum = 0.0;
+        long decisions = 0;
+        try {
+            for (int update = 1; update <= sp.getUpdates(); update++) {
+                checkActors(actorFailure);
+                if (replay.size() < sp.getMinReplay()) awaitReplay(replay, sp, actorFailure);
+                batch.clear();
+                replay.sample(rnd, sp.getBatchSize(), batch);
+                for (Trajectory traj : batch) {
+                    for (int d = 0; d < traj.decisions; d++) {
+                        int o = d * FIELDS;
+                        int[] v = traj.data;
+                        double advantage = (traj.points[v[o + 7] & 1] - BASELINE) / BASELINE;
+                        encodeInto(x, v[o], v, o + 1, v[o + 5], v[o + 6]);
+                        Arrays.fill(allowed, false);
+                        for (int m = v[o + 9]; m != 0; m &= m - 1) allowed[Integer.numberOfTrailingZeros(m)] = true;
+                        // scaling the step by the advantage turns the masked cross-entropy step into a policy gradient
+                        nn.trainStepMasked(x, v[o + 8], allowed, lr * advantage);
+                        advantageSum += Math.abs(advantage);
+                        decisions++;
+                    }
+                }
+                if (update % sp.getPublishEvery() == 0) {
+                    snapshot.set(nn.copy());
+                }
+                long now = System.nanoTime();
+                if (now - lastReport >= reportNanos || update == sp.getUpdates()) {
+                    double secs = (now - lastReport) / 1e9;
+                    long totalDeals = deals.sum();
+                    log.info("Update {}/{}: deals/s={}, updates/s={}, replay={}, mean|adv|={}",
+                            update, sp.getUpdates(),
+                            String.format(Locale.ROOT, "%.0f", (totalDeals - lastDeals) / secs),
+                            String.format(Locale.ROOT, "%.1f", (update - lastUpdates) / secs),
+                            replay.size(),
+                            String.format(Locale.ROOT, "%.3f", decisions == 0 ? 0.0 : advantageSum / decisions));
+                    lastReport = now;
+                    lastDeals = totalDeals;
+                    lastUpdates = update;
+                    advantageSum = 0.0;
+                    decisions = 0;
+                }
+                if (update % (sp.getPublishEvery() * 20L) == 0) {
+                    nn.save(modelPath);
+                }
+            }
+        } finally {
+            stop.set(true);
+            for (Thread t : actors) t.join(1000);
+        }
+        nn.save(modelPath);
+        log.info("Self-play completed: deals={}, updates={}, duration={} s", deals.sum(), sp.getUpdates(),
+                Duration.between(start, Instant.now()).toSeconds());
+    }
+
+    private static void checkActors(AtomicReference<Throwable> actorFailure) {
+        Throwable failure = actorFailure.get();
+        if (failure != null) throw new IllegalStateException("A self-play actor died", failure);
+    }
+
+    private static void awaitReplay(ReplayBuffer<Trajectory> replay, TrainerProperties.Training.SelfPlay sp,
+                                    AtomicReference<Throwable> actorFailure) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(Math.max(1, sp.getFillTimeoutSeconds())).toNanos();
+        while (replay.size() < sp.getMinReplay()) {
+            checkActors(actorFailure);
+            if (System.nanoTime() - deadline >= 0) {
+                throw new IllegalStateException(String.format(Locale.ROOT,
+                        "Replay buffer holds %d of %d deals after %d s", replay.size(), sp.getMinReplay(),
+                        sp.getFillTimeoutSeconds()));
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /** One played deal: FIELDS ints per decision plus the final points per team. */
+    private record Trajectory(int[] data, int decisions, int[] points) {}
+
+    /** Plays deals with every seat sampling from the current snapshot and records the decisions. */
+    private static final class Actor implements Runnable, Policy, DealSimulator.Observer {
+        private final AtomicReference<NeuralNetwork> snapshot;
+        private final SplittableRandom rnd;
+        private final ReplayBuffer<Trajectory> replay;
+        private final LongAdder deals;
+        private final AtomicBoolean stop;
+        private final int[] deck = DealSimulator.newDeck();
+        private final int[] data = new int[32 * FIELDS];
+        private final Policy[] seats = {this, this, this, this};
+        private final PlayState state = new PlayState();
+        private NeuralNetwork nn;
+        private double[] x;
+        private int decisions;
+
+        Actor(AtomicReference<NeuralNetwork> snapshot, SplittableRandom rnd, ReplayBuffer<Trajectory> replay,
+              LongAdder deals, AtomicBoolean stop) {
+            this.snapshot = snapshot;
+            this.rnd = rnd;
+            this.replay = replay;
+            this.deals = deals;
+            this.stop = stop;
+        }
+
+        @Override
+        public void run() {
+            while (!stop.get()) {
+                nn = snapshot.get();
+                if (x == null || x.length != nn.getInputSize()) x = new double[nn.getInputSize()];
+                decisions = 0;
+                DealSimulator.deal(rnd, deck, state, rnd.nextInt(4), rnd.nextInt(4));
+                DealSimulator.playOut(state, seats, this);
+                deals.increment();
+            }
+        }
+
+        // sample proportionally to the network's probabilities over the legal cards
+        @Override
+        public int choose(PlayState s, int legal) {
+            if (Integer.bitCount(legal) == 1) return Integer.numberOfTrailingZeros(legal);
+            encodeInto(x, s.hand(s.toMove()), s.trick(), s.trickSize(), s.trump());
+            double[] probs = nn.forward(x);
+            double total = 0.0;
+            for (int m = legal; m != 0; m &= m - 1) total += probs[Integer.numberOfTrailingZeros(m)];
+            double r = rnd.nextDouble() * total;
+            int last = -1;
+            for (int m = legal; m != 0; m &= m - 1) {
+                last = Integer.numberOfTrailingZeros(m);
+                r -= probs[last];
+                if (r <= 0) return last;
+            }
+            return last;
+        }
+
+        @Override
+        public void onDecision(PlayState s, int legal, int card) {
+            int o = decisions++ * FIELDS;
+            data[o] = s.hand(s.toMove());
+            for (int i = 0; i < 4; i++) data[o + 1 + i] = s.trickCard(i);
+            data[o + 5] = s.trickSize();
+            data[o + 6] = s.trump();
+            data[o + 7] = s.toMove();
+            data[o + 8] = card;
+            data[o + 9] = legal;
+        }
+
+        @Override
+        public void onDealEnd(PlayState s) {
+            replay.add(new Trajectory(Arrays.copyOf(data, decisions * FIELDS), decisions, new int[]{s.points(0), s.points(1)}));
+        }
+    }
+}
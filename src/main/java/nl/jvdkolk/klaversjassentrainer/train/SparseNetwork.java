@@ -0,0 +1,286 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * Inference-only form of a pruned {@link NeuralNetwork}: both weight matrices in compressed sparse row (CSR) layout,
+ * so the forward pass only touches the weights that survived pruning. Same activations as the dense network
+ * (tanh hidden, softmax output).
+ * <p>
+ * Text format, next to the dense one of {@link NeuralNetwork#save}: header
+ * {@code # model sparse input=.. hidden=.. output=.. nnz1=.. nnz2=..}, then for W1 and W2 three lines (row offsets,
+ * column indices, values), and b1 and b2 as one line each.
+ */
+public final class SparseNetwork implements PolicyNetwork {
+    static final String HEADER = "# model sparse";
+
+    private final int inputSize;
+    private final int hiddenSize;
+    private final int outputSize;
+
+    // CSR: the non-zero weights of row i are values[rows[i] .. rows[i + 1]) in columns cols[..]
+    private final int[] rows1;
+    private final int[] cols1;
+    private final double[] values1;
+    private final double[] b1;
+    private final int[] rows2;
+    private final int[] cols2;
+    private final double[] values2;
+    private final double[] b2;
+
+    private SparseNetwork(int inputSize, int hiddenSize, int outputSize, int[] rows1, int[] cols1, double[] values1,
+                          double[] b1, int[] rows2, int[] cols2, double[] values2, double[] b2) {
+        this.inputSize = inputSize;
+        this.hiddenSize = hiddenSize;
+        this.outputSize = outputSize;
+        this.rows1 = rows1;
+        this.cols1 = cols1;
+        this.values1 = values1;
+        this.b1 = b1;
+        this.rows2 = rows2;
+        this.cols2 = cols2;
+        this.values2 = values2;
+        this.b2 = b2;
+    }
+
+    /** Compresses {@code nn}, dropping every weight that is exactly zero. Biases stay dense. */
+    public static SparseNetwork of(NeuralNetwork nn) {
+        int in = nn.getInputSize();
+        int hidden = nn.getHiddenSize();
+        int out = nn.getOutputSize();
+        double[] p = new double[nn.parameterCount()];
+        nn.getParameters(p);
+        int b1At = hidden * in;
+        int w2At = b1At + hidden;
+        int b2At = w2At + out * hidden;
+        int nnz1 = nonZero(p, 0, b1At);
+        int nnz2 = nonZero(p, w2At, b2At);
+        int[] rows1 = new int[hidden + 1];
+        int[] cols1 = new int[nnz1];
+        double[] values1 = new double[nnz1];
+        compress(p, 0, hidden, in, rows1, cols1, values1);
+        int[] rows2 = new int[out + 1];
+        int[] cols2 = new int[nnz2];
+        double[] values2 = new double[nnz2];
+        compress(p, w2At, out, hidden, rows2, cols2, values2);
+        double[] b1 = new double[hidden];
+        System.arraycopy(p, b1At, b1, 0, hidden);
+        double[] b2 = new double[out];
+        System.arraycopy(p, b2At, b2, 0, out);
+        return new SparseNetwork(in, hidden, out, rows1, cols1, values1, b1, rows2, cols2, values2, b2);
+    }
+
+    private static int nonZero(double[] p, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) if (p[i] != 0.0) n++;
+        return n;
+    }
+
+    private static void compress(double[] p, int at, int rowCount, int colCount, int[] rows, int[] cols, double[] values) {
+        int k = 0;
+        for (int i = 0; i < rowCount; i++) {
+            rows[i] = k;
+            for (int j = 0; j < colCount; j++) {
+                double v = p[at + i * colCount + j];
+                if (v != 0.0) {
+                    cols[k] = j;
+                    values[k++] = v;
+                }
+            }
+        }
+        rows[rowCount] = k;
+    }
+
+    @Override
+    public int getInputSize() { return inputSize; }
+    public int getHiddenSize() { return hiddenSize; }
+    @Override
+    public int getOutputSize() { return outputSize; }
+
+    /** Number of stored weights (both matrices, without biases). */
+    public int nonZeroWeights() { return values1.length + values2.length; }
+
+    /** Share of the weights that were pruned away. */
+    public double sparsity() {
+        return 1.0 - nonZeroWeights() / (double) (hiddenSize * inputSize + outputSize * hiddenSize);
+    }
+
+    @Override
+    public double[] forward(double[] x) {
+        double[] h = new double[hiddenSize];
+        for (int i = 0; i < hiddenSize; i++) {
+            double sum = b1[i];
+            for (int k = rows1[i], end = rows1[i + 1]; k < end; k++) sum += values1[k] * x[cols1[k]];
+            h[i] = Math.tanh(sum);
+        }
+        double[] o = new double[outputSize];
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < outputSize; i++) {
+            double sum = b2[i];
+            for (int k = rows2[i], end = rows2[i + 1]; k < end; k++) sum += values2[k] * h[cols2[k]];
+            o[i] = sum;
+            max = Math.max(max, sum);
+        }
+        double sumExp = 0.0;
+        for (int i = 0; i < outputSize; i++) {
+            o[i] = Math.exp(o[i] - max);
+            sumExp += o[i];
+        }
+        for (int i = 0; i < outputSize; i++) o[i] /= sumExp;
+        return o;
+    }
+
+    @Override
+    public void logits(double[] x, int mask, double[] logits) {
+        logits(x, mask, logits, new double[hiddenSize]);
+    }
+
+    @Override
+    public int scratchSize() { return hiddenSize; }
+
+    @Override
+    public void logits(double[] x, int mask, double[] logits, double[] scratch) {
+        double[] h = scratch;
+        for (int i = 0; i < hiddenSize; i++) {
+            double sum = b1[i];
+            for (int k = rows1[i], end = rows1[i + 1]; k < end; k++) sum += values1[k] * x[cols1[k]];
+            h[i] = Math.tanh(sum);
+        }
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            double sum = b2[i];
+            for (int k = rows2[i], end = rows2[i + 1]; k < end; k++) sum += values2[k] * h[cols2[k]];
+            logits[i] = sum;
+        }
+    }
+
+    public void save(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(String.format(Locale.ROOT, "%s input=%d hidden=%d output=%d nnz1=%d nnz2=%d\n", HEADER,
+                    inputSize, hiddenSize, outputSize, values1.length, values2.length));
+            writeCsr(w, "W1", rows1, cols1, values1);
+            writeValues(w, "b1", b1);
+            writeCsr(w, "W2", rows2, cols2, values2);
+            writeValues(w, "b2", b2);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeCsr(Writer w, String name, int[] rows, int[] cols, double[] values) throws IOException {
+        w.write(name + "\n");
+        writeInts(w, rows);
+        writeInts(w, cols);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) w.write(",");
+            w.write(String.format(Locale.ROOT, "%f", values[i]));
+        }
+        w.write("\n");
+    }
+
+    private static void writeInts(Writer w, int[] v) throws IOException {
+        for (int i = 0; i < v.length; i++) {
+            if (i > 0) w.write(",");
+            w.write(Integer.toString(v[i]));
+        }
+        w.write("\n");
+    }
+
+    private static void writeValues(Writer w, String name, double[] v) throws IOException {
+        w.write(name + "\n");
+        for (int i = 0; i < v.length; i++) {
+            if (i > 0) w.write(",");
+            w.write(String.format(Locale.ROOT, "%f", v[i]));
+        }
+        w.write("\n");
+    }
+
+    public static SparseNetwork load(InputStream in) throws IOException {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return parse(r);
+        }
+    }
+
+    private static SparseNetwork parse(BufferedReader r) throws IOException {
+        String header = r.readLine();
+        if (header == null || !header.startsWith(HEADER)) throw new IOException("Unrecognized sparse model header");
+        int input = dim(header, "input");
+        int hidden = dim(header, "hidden");
+        int output = dim(header, "output");
+        int nnz1 = dim(header, "nnz1");
+        int nnz2 = dim(header, "nnz2");
+        expectSection(r, "W1");
+        int[] rows1 = ints(r.readLine(), hidden + 1);
+        int[] cols1 = ints(r.readLine(), nnz1);
+        double[] values1 = doubles(r.readLine(), nnz1);
+        expectSection(r, "b1");
+        double[] b1 = doubles(r.readLine(), hidden);
+        expectSection(r, "W2");
+        int[] rows2 = ints(r.readLine(), output + 1);
+        int[] cols2 = ints(r.readLine(), nnz2);
+        double[] values2 = doubles(r.readLine(), nnz2);
+        expectSection(r, "b2");
+        double[] b2 = doubles(r.readLine(), output);
+        checkCsr(rows1, cols1, input, "W1");
+        checkCsr(rows2, cols2, hidden, "W2");
+        return new SparseNetwork(input, hidden, output, rows1, cols1, values1, b1, rows2, cols2, values2, b2);
+    }
+
+    // offsets must run from 0 to nnz without going back and columns must be in range, or forward() would misread
+    private static void checkCsr(int[] rows, int[] cols, int colCount, String name) throws IOException {
+        if (rows[0] != 0 || rows[rows.length - 1] != cols.length) throw new IOException("Bad row offsets in " + name);
+        for (int i = 1; i < rows.length; i++) {
+            if (rows[i] < rows[i - 1]) throw new IOException("Bad row offsets in " + name);
+        }
+        for (int c : cols) if (c < 0 || c >= colCount) throw new IOException("Column out of range in " + name);
+    }
+
+    private static void expectSection(BufferedReader r, String name) throws IOException {
+        String line = r.readLine();
+        if (line == null || !line.trim().equals(name)) {
+            throw new IOException("Expected section '" + name + "' but got: " + line);
+        }
+    }
+
+    private static int dim(String header, String key) throws IOException {
+        for (String token : header.split("\\s+")) {
+            if (token.startsWith(key + "=")) {
+                try {
+                    return Integer.parseInt(token.substring(key.length() + 1));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad dimension for " + key + ": " + token);
+                }
+            }
+        }
+        throw new IOException("Missing dimension: " + key);
+    }
+
+    private static String[] split(String line, int expected) throws IOException {
+        if (line == null) throw new IOException("Unexpected EOF while reading row");
+        if (expected == 0 && line.isBlank()) return new String[0];
+        String[] parts = line.split(",");
+        if (parts.length != expected) throw new IOException("Expected " + expected + " values, got " + parts.length);
+        return parts;
+    }
+
+    private static int[] ints(String line, int expected) throws IOException {
+        String[] parts = split(line, expected);
+        int[] v = new int[expected];
+        for (int i = 0; i < expected; i++) v[i] = Integer.parseInt(parts[i].trim());
+        return v;
+    }
+
+    private static double[] doubles(String line, int expected) throws IOException {
+        String[] parts = split(line, expected);
+        double[] v = new double[expected];
+        for (int i = 0; i < expected; i++) v[i] = Double.parseDouble(parts[i]);
+        return v;
+    }
+}
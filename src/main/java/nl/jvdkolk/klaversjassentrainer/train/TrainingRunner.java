@@ -1,14 +1,19 @@
 package nl.jvdkolk.klaversjassentrainer.train;
 
 import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.eval.CheckpointKeeper;
+import nl.jvdkolk.klaversjassentrainer.eval.Evaluator;
+import nl.jvdkolk.klaversjassentrainer.eval.HeldOutSet;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -20,10 +25,19 @@ public class TrainingRunner implements CommandLineRunner {
 
     private final TrainerProperties props;
     private final ExternalCalcApiClient api;
+    private final SelfPlayTrainer selfPlay;
+    private final DistributedTrainer distributed;
+    private final Distiller distiller;
+    private final HyperparameterSweep sweep;
 
-    public TrainingRunner(TrainerProperties props, ExternalCalcApiClient api) {
+    public TrainingRunner(TrainerProperties props, ExternalCalcApiClient api, SelfPlayTrainer selfPlay,
+                          DistributedTrainer distributed, Distiller distiller, HyperparameterSweep sweep) {
         this.props = props;
         this.api = api;
+        this.selfPlay = selfPlay;
+        this.distributed = distributed;
+        this.distiller = distiller;
+        this.sweep = sweep;
     }
 
     @Override
@@ -40,109 +54,216 @@ public class TrainingRunner implements CommandLineRunner {
         // Persist the trained model into src/main/resources so it can be picked up from the classpath at runtime
         Path resourcesModelPath = Path.of("src", "main", "resources").resolve(modelFile);
         int threads = Math.max(1, tp.getThreads());
+        if ("selfplay".equalsIgnoreCase(tp.getMode())) {
+            selfPlay.run(resourcesModelPath);
+            return;
+        }
+        if ("distributed".equalsIgnoreCase(tp.getMode())) {
+            distributed.run(resourcesModelPath);
+            return;
+        }
+        if ("distill".equalsIgnoreCase(tp.getMode())) {
+            distiller.run(resourcesModelPath);
+            return;
+        }
+        if ("sweep".equalsIgnoreCase(tp.getMode())) {
+            sweep.run();
+            return;
+        }
 
         int inputSize = ALL_CARDS.size() /*hand*/ + (4 * ALL_CARDS.size()) /*trick ordered*/ + SUITS.length /*trump*/;
         int hidden = 128;
         int output = ALL_CARDS.size();
         NeuralNetwork nn = new NeuralNetwork(inputSize, hidden, output, 42L);
+        // Resume from the newest intact checkpoint: weights, generation, learning rate and the sampling seed
+        TrainerProperties.Training.Checkpoint cp = tp.getCheckpoint();
+        Path checkpointDir = Path.of(cp.getDir());
+        int firstGeneration = 1;
+        long seed = tp.getSeed();
+        PositionGenerator.Stages stages = PositionGenerator.Stages.of(tp.getPositions().getHandSizeWeights(),
+                tp.getPositions().getTrickSizeWeights());
+        long totalSamples = 0;
+        long usedSamples = 0;
+        Checkpointer.State resumed = null;
+        if (cp.isResume()) {
+            resumed = Checkpointer.latest(checkpointDir);
+            if (resumed != null) {
+                nn = resumed.network();
+                hidden = resumed.hiddenSize();
+                firstGeneration = resumed.generation() + 1;
+                lr = resumed.learningRate();
+                seed = resumed.seed();
+                totalSamples = resumed.totalSamples();
+                usedSamples = resumed.usedSamples();
+                log.info("Resuming from checkpoint of gen {} in {} (lr={})", resumed.generation(), checkpointDir, lr);
+            } else {
+                log.info("No checkpoint in {} - starting a new run", checkpointDir);
+            }
+        }
 
         log.info("Starting training: generations={}, games/gen={}, lr={}, threads={}, modelFile={} (resources={})", generations, gamesPerGen, lr, threads, modelFile, resourcesModelPath);
-        Instant startAll = Instant.now();
-        int totalSamples = 0;
-        int usedSamples = 0;
+        Map<String, Object> runParams = new LinkedHashMap<>();
+        runParams.put("mode", "supervised");
+        runParams.put("generations", generations);
+        runParams.put("gamesPerGeneration", gamesPerGen);
+        runParams.put("learningRate", lr);
+        runParams.put("threads", threads);
+        runParams.put("hidden", hidden);
+        runParams.put("modelFile", modelFile);
+        runParams.put("seed", seed);
+        if (firstGeneration > 1) runParams.put("resumedAtGeneration", firstGeneration);
+        TrainingTelemetry telemetry = TrainingTelemetry.open(resourcesModelPath, runParams);
+        log.info("Writing run report to {}", telemetry.reportPath());
+        long startAll = System.nanoTime();
+        long samplesBefore = totalSamples;
+        long usedBefore = usedSamples;
         ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
             Thread t = new Thread(r);
             t.setName("trainer-worker-" + t.getId());
             t.setDaemon(true);
             return t;
         });
-        for (int g = 1; g <= generations; g++) {
-            int successes = 0;
-            int skipped = 0;
-            int correct = 0; // count how often current model predicts the API label
-            Instant genStart = Instant.now();
-            // Prepare parallel tasks to collect supervised samples
-            List<Callable<Sample>> tasks = new ArrayList<>(gamesPerGen);
-            for (int n = 0; n < gamesPerGen; n++) {
-                tasks.add(() -> {
-                    Random rnd = ThreadLocalRandom.current();
-                    List<String> hand = randomHand(rnd, 8);
-                    String trump = randomSuit(rnd);
-                    List<String> trick = randomTrickGivenNotIn(rnd, hand);
-                    String label = api.fetchBestCard(trick, trump, hand);
-                    if (label == null) return null;
-                    if (!hand.contains(label)) return null;
-                    double[] x = concatVectors(encodeHand(hand), encodeTrickOrdered(trick), encodeTrump(trump));
-                    int yIdx = cardIndex(label);
-                    boolean[] allowed = new boolean[ALL_CARDS.size()];
-                    for (String c : hand) allowed[cardIndex(c)] = true;
-                    return new Sample(x, yIdx, allowed);
-                });
+        // Checkpoints are scored on a fixed held-out set in the background; only the best one is kept
+        TrainerProperties.Training.Evaluation ev = tp.getEvaluation();
+        Evaluator evaluator = null;
+        CheckpointKeeper keeper = null;
+        if (ev.isEnabled()) {
+            HeldOutSet heldOut = HeldOutSet.loadOrCollect(Path.of(ev.getHeldOutFile()), ev.getHeldOutSize(), ev.getSeed(), stages, api, pool);
+            if (heldOut.size() > 0) {
+                evaluator = new Evaluator(ev.getThreads());
+                keeper = new CheckpointKeeper(evaluator, heldOut, resourcesModelPath);
+                if (resumed != null && resumed.best() != null) {
+                    keeper.restore(resumed.bestGeneration(), resumed.best());
+                    log.info("Best checkpoint so far: gen {} ({})", resumed.bestGeneration(), resumed.best());
+                }
+            } else {
+                log.warn("No held-out states available - saving every checkpoint without evaluation");
             }
-            List<Future<Sample>> futures = pool.invokeAll(tasks);
-            List<Sample> batch = new ArrayList<>(gamesPerGen);
-            for (Future<Sample> f : futures) {
-                try {
-                    Sample s = f.get();
-                    totalSamples++;
-                    if (s != null) {
-                        batch.add(s);
+        }
+        Checkpointer checkpointer = new Checkpointer(checkpointDir, cp.getKeepLast());
+        try {
+            for (int g = firstGeneration; g <= generations; g++) {
+                int correct = 0; // count how often current model predicts the API label
+                long collectStart = System.nanoTime();
+                // Prepare parallel tasks to collect supervised samples
+                // positions follow from (seed, generation) alone, so a resumed run draws what the interrupted one would have
+                List<Callable<Sample>> tasks = new ArrayList<>(gamesPerGen);
+                PositionGenerator positions = new PositionGenerator(seed + g * 0x9E3779B97F4A7C15L, stages);
+                for (int n = 0; n < gamesPerGen; n++) {
+                    PlayState position = positions.next();
+                    int handMask = positions.hand();
+                    int trump = position.trump();
+                    int trickSize = position.trickSize();
+                    int[] trickCards = Arrays.copyOf(position.trick(), trickSize);
+                    tasks.add(() -> {
+                        List<String> hand = toCards(handMask);
+                        List<String> trick = new ArrayList<>(trickSize);
+                        for (int card : trickCards) trick.add(ALL_CARDS.get(card));
+                        long t0 = System.nanoTime();
+                        boolean failed = true;
+                        String label;
+                        try {
+                            label = api.fetchBestCard(trick, SUITS[trump], hand);
+                            failed = false;
+                        } finally {
+                            telemetry.recordTeacherCall(System.nanoTime() - t0, failed);
+                        }
+                        if (label == null) {
+                            telemetry.skip(TrainingTelemetry.SkipReason.NULL_LABEL);
+                            return null;
+                        }
+                        if (!hand.contains(label)) {
+                            telemetry.skip(TrainingTelemetry.SkipReason.LABEL_NOT_IN_HAND);
+                            return null;
+                        }
+                        double[] x = new double[ALL_CARDS.size() + 4 * ALL_CARDS.size() + SUITS.length];
+                        encodeInto(x, handMask, trickCards, trickSize, trump);
+                        int yIdx = cardIndex(label);
+                        boolean[] allowed = new boolean[ALL_CARDS.size()];
+                        for (int m = handMask; m != 0; m &= m - 1) allowed[Integer.numberOfTrailingZeros(m)] = true;
+                        return new Sample(x, yIdx, allowed);
+                    });
+                }
+                List<Future<Sample>> futures = pool.invokeAll(tasks);
+                List<Sample> batch = new ArrayList<>(gamesPerGen);
+                for (Future<Sample> f : futures) {
+                    try {
+                        Sample s = f.get();
+                        totalSamples++;
+                        if (s != null) {
+                            batch.add(s);
+                        }
+                    } catch (ExecutionException e) {
+                        totalSamples++;
+                        telemetry.skip(TrainingTelemetry.SkipReason.EXCEPTION);
+                        // log at debug to avoid noise
+                        log.debug("Sample task failed: {}", e.getMessage());
+                    }
+                }
+                long collectNanos = System.nanoTime() - collectStart;
+
+                // Evaluate current accuracy (sequential read-only forward) and train sequentially
+                long trainStart = System.nanoTime();
+                for (Sample s : batch) {
+                    double[] probs = nn.forward(s.x);
+                    int predIdx = argMaxAllowed(probs, s.allowed);
+                    if (predIdx == s.yIdx) correct++;
+                    nn.trainStepMasked(s.x, s.yIdx, s.allowed, lr);
+                    usedSamples++;
+                }
+                long trainNanos = System.nanoTime() - trainStart;
+
+                TrainingTelemetry.GenerationStats stats = telemetry.endGeneration(g, batch.size(), correct, lr, collectNanos, trainNanos);
+                if (g % 10 == 0 || g == generations) {
+                    log.info("Gen {}/{}: used={}, skipped={} (null={}, notInHand={}, error={}), acc={}%, collect={} ms, train={} ms, teacher p50={} us p99={} us failed={}, heap={} MB, gc={} ms",
+                            g, generations, stats.used(), stats.totalSkipped(),
+                            stats.skipped(TrainingTelemetry.SkipReason.NULL_LABEL),
+                            stats.skipped(TrainingTelemetry.SkipReason.LABEL_NOT_IN_HAND),
+                            stats.skipped(TrainingTelemetry.SkipReason.EXCEPTION),
+                            String.format(Locale.ROOT, "%.2f", stats.accuracy() * 100.0),
+                            collectNanos / 1_000_000, trainNanos / 1_000_000,
+                            stats.teacherP50Us(), stats.teacherP99Us(), stats.teacherFailures(), stats.heapUsed() >> 20, stats.gcTimeMs());
+                }
+                // mild learning rate decay
+                lr *= 0.999;
+                // Checkpoint occasionally; snapshots are taken here and written on background threads
+                if (g % Math.max(1, cp.getEvery()) == 0 || g == generations) {
+                    Checkpointer.State state = Checkpointer.State.of(g, lr, seed, totalSamples, usedSamples, nn);
+                    NeuralNetwork snapshot = nn.copy();
+                    if (keeper != null) {
+                        // written once this generation is evaluated, so the checkpoint carries the current best
+                        CheckpointKeeper k = keeper;
+                        k.submit(g, snapshot);
+                        k.execute(() -> checkpointer.submit(state.withBest(k.bestGeneration(), k.best())));
                     } else {
-                        skipped++;
+                        checkpointer.submit(state);
+                        int gen = g;
+                        checkpointer.execute(() -> {
+                            try {
+                                snapshot.save(resourcesModelPath);
+                            } catch (IOException e) {
+                                log.warn("Failed to save model of gen {}: {}", gen, e.getMessage());
+                            }
+                        });
                     }
-                } catch (ExecutionException e) {
-                    skipped++;
-                    // log at debug to avoid noise
-                    log.debug("Sample task failed: {}", e.getMessage());
                 }
             }
-            // Evaluate current accuracy (sequential read-only forward) and train sequentially
-            for (Sample s : batch) {
-                double[] probs = nn.forward(s.x);
-                int predIdx = argMaxAllowed(probs, s.allowed);
-                if (predIdx == s.yIdx) correct++;
-                nn.trainStepMasked(s.x, s.yIdx, s.allowed, lr);
-                usedSamples++;
-                successes++;
-            }
-            Duration genDur = Duration.between(genStart, Instant.now());
-            if (g % 10 == 0 || g == generations) {
-                double acc = successes == 0 ? 0.0 : (correct * 1.0 / successes);
-                log.info("Gen {}/{}: used={}, skipped={}, acc={}% , duration={} ms", g, generations, successes, skipped, String.format(Locale.ROOT, "%.2f", acc * 100.0), genDur.toMillis());
+            if (keeper != null) {
+                // the last generation is always a checkpoint, so the model file now holds the best of the run
+                keeper.close();
+                log.info("Best checkpoint: gen {} ({}) in {}", keeper.bestGeneration(), keeper.best(), resourcesModelPath);
             }
-            // Save checkpoint occasionally
-            if (g % 50 == 0 || g == generations) {
-                nn.save(resourcesModelPath);
-            }
-            // mild learning rate decay
-            lr *= 0.999;
-        }
-        pool.shutdown();
-        Duration totalDur = Duration.between(startAll, Instant.now());
-        log.info("Training completed. TotalSamples={}, UsedSamples={}, duration={} s", totalSamples, usedSamples, totalDur.toSeconds());
-        // final save to resources, so InferenceService can load from classpath
-        nn.save(resourcesModelPath);
-    }
-
-    private static double[] concatVectors(double[]... arrs) {
-        int len = 0;
-        for (double[] a : arrs) len += a.length;
-        double[] out = new double[len];
-        int p = 0;
-        for (double[] a : arrs) {
-            System.arraycopy(a, 0, out, p, a.length);
-            p += a.length;
+            checkpointer.close();
+            long totalNanos = System.nanoTime() - startAll;
+            telemetry.finish(totalSamples - samplesBefore, usedSamples - usedBefore, totalNanos);
+            log.info("Training completed. TotalSamples={}, UsedSamples={}, duration={} s", totalSamples, usedSamples, Duration.ofNanos(totalNanos).toSeconds());
+        } finally {
+            pool.shutdown();
+            telemetry.close();
+            if (keeper != null) keeper.close();
+            checkpointer.close();
+            if (evaluator != null) evaluator.close();
         }
-        return out;
-    }
-
-    private static List<String> randomTrickGivenNotIn(Random rnd, Collection<String> exclude) {
-        // pick 0-3 cards from the deck not in exclude
-        int size = rnd.nextInt(4); // 0..3
-        List<String> deck = new ArrayList<>(ALL_CARDS);
-        deck.removeAll(exclude);
-        Collections.shuffle(deck, rnd);
-        return new ArrayList<>(deck.subList(0, size));
     }
 
     private static int argMax(double[] arr) {
@@ -157,7 +278,7 @@ public class TrainingRunner implements CommandLineRunner {
         return idx;
     }
 
-    private static int argMaxAllowed(double[] arr, boolean[] allowed) {
+    static int argMaxAllowed(double[] arr, boolean[] allowed) {
         int idx = -1;
         double best = Double.NEGATIVE_INFINITY;
         for (int i = 0; i < arr.length; i++) {
@@ -169,7 +290,7 @@ public class TrainingRunner implements CommandLineRunner {
         return argMax(arr);
     }
 
-    private static final class Sample {
+    static final class Sample {
         final double[] x;
         final int yIdx;
         final boolean[] allowed;
@@ -0,0 +1,205 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Structured instrumentation of a supervised training run: teacher-call latency histograms, skipped samples by
+ * reason, collection and training throughput, heap and GC activity. Every generation is appended as one JSON line
+ * to a run report next to the model file ({@code <model>-run-<timestamp>.jsonl}), so runs can be compared.
+ * Recording methods are thread-safe; {@link #endGeneration} is called from the training thread.
+ */
+public final class TrainingTelemetry implements AutoCloseable {
+    public enum SkipReason {
+        NULL_LABEL, LABEL_NOT_IN_HAND, EXCEPTION;
+
+        String key() {
+            return switch (this) {
+                case NULL_LABEL -> "nullLabel";
+                case LABEL_NOT_IN_HAND -> "labelNotInHand";
+                case EXCEPTION -> "exception";
+            };
+        }
+    }
+
+    private static final DateTimeFormatter FILE_TS = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    private final Recorder teacherLatency = new Recorder(3); // microseconds
+    private final Histogram runTeacherLatency = new Histogram(3);
+    private final LongAdder teacherFailures = new LongAdder();
+    private long runTeacherFailures;
+    private final LongAdder[] skips = new LongAdder[SkipReason.values().length];
+    private final long[] runSkips = new long[SkipReason.values().length];
+    private final BufferedWriter report;
+    private final Path reportPath;
+    private Histogram interval;
+    private long gcCount;
+    private long gcTimeMs;
+
+    private TrainingTelemetry(Path reportPath, BufferedWriter report) {
+        this.reportPath = reportPath;
+        this.report = report;
+        for (int i = 0; i < skips.length; i++) skips[i] = new LongAdder();
+        long[] gc = gcTotals();
+        this.gcCount = gc[0];
+        this.gcTimeMs = gc[1];
+    }
+
+    /** Opens a new run report next to {@code modelPath} and writes a header line with the run parameters. */
+    public static TrainingTelemetry open(Path modelPath, Map<String, Object> params) throws IOException {
+        Path dir = modelPath.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        String base = modelPath.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+        Path path = dir.resolve(base + "-run-" + FILE_TS.format(Instant.now()) + ".jsonl");
+        TrainingTelemetry t = new TrainingTelemetry(path, Files.newBufferedWriter(path, StandardCharsets.UTF_8));
+        StringBuilder line = new StringBuilder("{\"type\":\"run\",\"ts\":\"").append(Instant.now()).append('"');
+        for (Map.Entry<String, Object> e : params.entrySet()) {
+            line.append(",\"").append(e.getKey()).append("\":");
+            Object v = e.getValue();
+            if (v instanceof Number || v instanceof Boolean) line.append(v);
+            else line.append('"').append(String.valueOf(v).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        t.writeLine(line.append('}').toString());
+        return t;
+    }
+
+    public Path reportPath() { return reportPath; }
+
+    /** Records a teacher call's latency, whether it returned or threw ({@code failed}, also counted on its own). */
+    public void recordTeacherCall(long nanos, boolean failed) {
+        teacherLatency.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        if (failed) teacherFailures.increment();
+    }
+
+    public void skip(SkipReason reason) {
+        skips[reason.ordinal()].increment();
+    }
+
+    /**
+     * Closes the current generation: resets the interval counters, appends a JSON line and returns the numbers
+     * for logging.
+     */
+    public GenerationStats endGeneration(int generation, int used, int correct, double learningRate,
+                                         long collectNanos, long trainNanos) throws IOException {
+        interval = teacherLatency.getIntervalHistogram(interval);
+        runTeacherLatency.add(interval);
+        long failures = teacherFailures.sumThenReset();
+        runTeacherFailures += failures;
+        long[] skipped = new long[skips.length];
+        for (int i = 0; i < skips.length; i++) {
+            skipped[i] = skips[i].sumThenReset();
+            runSkips[i] += skipped[i];
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long[] gc = gcTotals();
+        GenerationStats stats = new GenerationStats(generation, used, skipped,
+                used == 0 ? 0.0 : correct * 1.0 / used, learningRate,
+                collectNanos, trainNanos,
+                interval.getTotalCount(), interval.getValueAtPercentile(50), interval.getValueAtPercentile(99),
+                interval.getMaxValue(), failures,
+                heap.getUsed(), heap.getCommitted(), gc[0] - gcCount, gc[1] - gcTimeMs);
+        gcCount = gc[0];
+        gcTimeMs = gc[1];
+
+        long attempts = used + skipped[0] + skipped[1] + skipped[2];
+        StringBuilder line = new StringBuilder(512);
+        line.append("{\"type\":\"generation\",\"gen\":").append(generation)
+                .append(",\"used\":").append(used);
+        for (SkipReason r : SkipReason.values()) {
+            line.append(",\"skip_").append(r.key()).append("\":").append(skipped[r.ordinal()]);
+        }
+        line.append(",\"accuracy\":").append(fmt(stats.accuracy()))
+                .append(",\"lr\":").append(learningRate)
+                .append(",\"collectMs\":").append(collectNanos / 1_000_000)
+                .append(",\"trainMs\":").append(trainNanos / 1_000_000)
+                .append(",\"collectPerSec\":").append(fmt(perSecond(attempts, collectNanos)))
+                .append(",\"trainPerSec\":").append(fmt(perSecond(used, trainNanos)));
+        appendLatency(line, interval, failures);
+        line.append(",\"heapUsedMb\":").append(heap.getUsed() >> 20)
+                .append(",\"heapCommittedMb\":").append(heap.getCommitted() >> 20)
+                .append(",\"gcCount\":").append(stats.gcCount())
+                .append(",\"gcMs\":").append(stats.gcTimeMs())
+                .append('}');
+        writeLine(line.toString());
+        return stats;
+    }
+
+    /** Appends the run summary with whole-run teacher latency and skip totals. */
+    public void finish(long totalSamples, long usedSamples, long elapsedNanos) throws IOException {
+        StringBuilder line = new StringBuilder(256);
+        line.append("{\"type\":\"summary\",\"ts\":\"").append(Instant.now()).append('"')
+                .append(",\"totalSamples\":").append(totalSamples)
+                .append(",\"usedSamples\":").append(usedSamples)
+                .append(",\"durationMs\":").append(elapsedNanos / 1_000_000)
+                .append(",\"samplesPerSec\":").append(fmt(perSecond(totalSamples, elapsedNanos)));
+        for (SkipReason r : SkipReason.values()) {
+            line.append(",\"skip_").append(r.key()).append("\":").append(runSkips[r.ordinal()]);
+        }
+        appendLatency(line, runTeacherLatency, runTeacherFailures);
+        writeLine(line.append('}').toString());
+    }
+
+    @Override
+    public void close() throws IOException {
+        report.close();
+    }
+
+    private static void appendLatency(StringBuilder line, Histogram h, long failures) {
+        line.append(",\"teacherCalls\":").append(h.getTotalCount())
+                .append(",\"teacherFailures\":").append(failures)
+                .append(",\"teacherMeanUs\":").append(fmt(h.getTotalCount() == 0 ? 0.0 : h.getMean()))
+                .append(",\"teacherP50Us\":").append(h.getValueAtPercentile(50))
+                .append(",\"teacherP90Us\":").append(h.getValueAtPercentile(90))
+                .append(",\"teacherP99Us\":").append(h.getValueAtPercentile(99))
+                .append(",\"teacherMaxUs\":").append(h.getMaxValue());
+    }
+
+    private void writeLine(String line) throws IOException {
+        report.write(line);
+        report.newLine();
+        report.flush();
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos <= 0 ? 0.0 : count / (nanos / 1e9);
+    }
+
+    private static String fmt(double v) {
+        return String.format(Locale.ROOT, "%.4f", v);
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, time};
+    }
+
+    public record GenerationStats(int generation, int used, long[] skipped, double accuracy, double learningRate,
+                                  long collectNanos, long trainNanos,
+                                  long teacherCalls, long teacherP50Us, long teacherP99Us, long teacherMaxUs,
+                                  long teacherFailures,
+                                  long heapUsed, long heapCommitted, long gcCount, long gcTimeMs) {
+        public long skipped(SkipReason reason) { return skipped[reason.ordinal()]; }
+        public long totalSkipped() { return skipped[0] + skipped[1] + skipped[2]; }
+    }
+}
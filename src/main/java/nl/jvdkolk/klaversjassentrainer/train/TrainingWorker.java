@@ -0,0 +1,198 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import nl.jvdkolk.klaversjassentrainer.config.RestClientConfig;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.game.HeuristicPolicy;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+
+/**
+ * One process of distributed supervised training (see {@link DistributedTrainer}): each round it collects
+ * labelled samples from its own teacher, trains its copy of the network on them, sends the change of its weights to
+ * the coordinator and continues from the averaged weights it gets back.
+ * <p>
+ * Teachers: {@code api}, the external calc API as in the single-process runner (each worker has its own connection
+ * pool), or {@code heuristic}, {@link HeuristicPolicy} on positions from random legal play, which needs no network
+ * and so suits local scaling runs.
+ * <p>
+ * Usage: {@code TrainingWorker --coordinator=host:port [--teacher=heuristic|api] [--threads=8] [--api=base-url]
+ * [--api-path=/calcAiCard] [--api-timeout-ms=5000] [--game-variant=rotterdams]}; the API settings default to those of
+ * {@link TrainerProperties}. A round in which the teacher labels nothing ends the worker with an error.
+ */
+public final class TrainingWorker {
+    private static final Logger log = LoggerFactory.getLogger(TrainingWorker.class);
+
+    private final String host;
+    private final int port;
+    private final String teacher;
+    private final int threads;
+    private final ExternalCalcApiClient api; // null for the heuristic teacher
+
+    public TrainingWorker(String host, int port, String teacher, int threads, ExternalCalcApiClient api) {
+        this.host = host;
+        this.port = port;
+        this.teacher = teacher;
+        this.threads = Math.max(1, threads);
+        this.api = api;
+        if ("api".equals(teacher) && api == null) throw new IllegalArgumentException("The api teacher needs a client");
+    }
+
+    public void run() throws Exception {
+        ExecutorService pool = api == null ? null : Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "worker-teacher");
+            t.setDaemon(true);
+            return t;
+        });
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), 10_000);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            out.writeInt(WeightSync.MAGIC);
+            out.writeInt(WeightSync.VERSION);
+            out.writeUTF(teacher + "@" + ProcessHandle.current().pid());
+            out.flush();
+
+            int id = in.readInt();
+            NeuralNetwork nn = new NeuralNetwork(in.readInt(), in.readInt(), in.readInt(), 42L);
+            int rounds = in.readInt();
+            int samplesPerRound = in.readInt();
+            double lr = in.readDouble();
+            long seed = in.readLong();
+            double[] base = new double[nn.parameterCount()];
+            double[] params = new double[base.length];
+            double[] delta = new double[base.length];
+            WeightSync.readDense(in, base);
+            nn.setParameters(base);
+            log.info("Worker {} joined {}:{}: {} rounds of {} samples, teacher {}", id, host, port, rounds,
+                    samplesPerRound, teacher);
+
+            PositionGenerator positions = new PositionGenerator(seed, PositionGenerator.Stages.UNIFORM);
+            boolean more = true;
+            for (int round = 1; more; round++) {
+                long t0 = System.nanoTime();
+                List<TrainingRunner.Sample> batch = pool == null
+                        ? heuristicSamples(positions, samplesPerRound)
+                        : teacherSamples(pool, positions, samplesPerRound);
+                long t1 = System.nanoTime();
+                if (batch.isEmpty()) {
+                    throw new IllegalStateException("Round " + round + ": the " + teacher + " teacher labelled none of "
+                            + samplesPerRound + " positions");
+                }
+                int correct = 0;
+                for (TrainingRunner.Sample s : batch) {
+                    if (TrainingRunner.argMaxAllowed(nn.forward(s.x), s.allowed) == s.yIdx) correct++;
+                    nn.trainStepMasked(s.x, s.yIdx, s.allowed, lr);
+                }
+                long t2 = System.nanoTime();
+
+                nn.getParameters(params);
+                for (int i = 0; i < delta.length; i++) delta[i] = params[i] - base[i];
+                out.writeInt(round);
+                out.writeInt(batch.size());
+                out.writeInt(correct);
+                out.writeLong(t1 - t0);
+                out.writeLong(t2 - t1);
+                WeightSync.writeDelta(out, delta);
+                out.flush();
+
+                more = in.readBoolean();
+                WeightSync.readDelta(in, delta);
+                for (int i = 0; i < base.length; i++) base[i] += delta[i];
+                nn.setParameters(base);
+                lr *= 0.999; // same decay per round as per generation in the single-process runner
+            }
+            log.info("Worker {} done", id);
+        } finally {
+            if (pool != null) pool.shutdownNow();
+        }
+    }
+
+    // positions from random legal play, labelled by the heuristic; the mask is the legal cards
+    private static List<TrainingRunner.Sample> heuristicSamples(PositionGenerator positions, int count) {
+        HeuristicPolicy heuristic = new HeuristicPolicy();
+        List<TrainingRunner.Sample> batch = new ArrayList<>(count);
+        while (batch.size() < count) {
+            PlayState state = positions.next();
+            int legal = positions.legal();
+            double[] x = new double[ALL_CARDS.size() + 4 * ALL_CARDS.size() + SUITS.length];
+            encodeInto(x, positions.hand(), state.trick(), state.trickSize(), state.trump());
+            boolean[] allowed = new boolean[ALL_CARDS.size()];
+            for (int m = legal; m != 0; m &= m - 1) allowed[Integer.numberOfTrailingZeros(m)] = true;
+            batch.add(new TrainingRunner.Sample(x, heuristic.choose(state, legal), allowed));
+        }
+        return batch;
+    }
+
+    // the single-process runner's sampling: the same positions, labelled by the external API
+    private List<TrainingRunner.Sample> teacherSamples(ExecutorService pool, PositionGenerator positions, int count)
+            throws InterruptedException {
+        List<Callable<TrainingRunner.Sample>> tasks = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            PlayState position = positions.next();
+            int handMask = positions.hand();
+            int trump = position.trump();
+            int trickSize = position.trickSize();
+            int[] trickCards = Arrays.copyOf(position.trick(), trickSize);
+            tasks.add(() -> {
+                List<String> hand = toCards(handMask);
+                List<String> trick = new ArrayList<>(trickSize);
+                for (int card : trickCards) trick.add(ALL_CARDS.get(card));
+                String label = api.fetchBestCard(trick, SUITS[trump], hand);
+                if (label == null || !hand.contains(label)) return null;
+                double[] x = new double[ALL_CARDS.size() + 4 * ALL_CARDS.size() + SUITS.length];
+                encodeInto(x, handMask, trickCards, trickSize, trump);
+                boolean[] allowed = new boolean[ALL_CARDS.size()];
+                for (int m = handMask; m != 0; m &= m - 1) allowed[Integer.numberOfTrailingZeros(m)] = true;
+                return new TrainingRunner.Sample(x, cardIndex(label), allowed);
+            });
+        }
+        List<TrainingRunner.Sample> batch = new ArrayList<>(count);
+        for (Future<TrainingRunner.Sample> f : pool.invokeAll(tasks)) {
+            try {
+                TrainingRunner.Sample s = f.get();
+                if (s != null) batch.add(s);
+            } catch (ExecutionException e) {
+                log.debug("Sample task failed: {}", e.getMessage());
+            }
+        }
+        return batch;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (a.startsWith("--") && eq > 2) opts.put(a.substring(2, eq), a.substring(eq + 1));
+        }
+        String coordinator = opts.get("coordinator");
+        if (coordinator == null || coordinator.lastIndexOf(':') < 0) {
+            System.err.println("Usage: TrainingWorker --coordinator=host:port [--teacher=heuristic|api] [--threads=8] [--api=base-url]"
+                    + " [--api-path=path] [--api-timeout-ms=ms] [--game-variant=variant]");
+            System.exit(2);
+        }
+        String teacher = opts.getOrDefault("teacher", "heuristic");
+        ExternalCalcApiClient api = null;
+        if ("api".equals(teacher)) {
+            TrainerProperties props = new TrainerProperties();
+            if (opts.containsKey("api")) props.getExternalApi().setBaseUrl(opts.get("api"));
+            if (opts.containsKey("api-path")) props.getExternalApi().setCalcAiCardPath(opts.get("api-path"));
+            if (opts.containsKey("api-timeout-ms")) props.getExternalApi().setTimeoutMs(Integer.parseInt(opts.get("api-timeout-ms")));
+            if (opts.containsKey("game-variant")) props.getTraining().setGameVariant(opts.get("game-variant"));
+            api = new ExternalCalcApiClient(new RestClientConfig().restTemplate(props), props);
+        }
+        int colon = coordinator.lastIndexOf(':');
+        new TrainingWorker(coordinator.substring(0, colon), Integer.parseInt(coordinator.substring(colon + 1)), teacher,
+                Integer.parseInt(opts.getOrDefault("threads", "8")), api).run();
+    }
+}
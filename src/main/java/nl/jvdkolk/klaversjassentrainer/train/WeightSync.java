@@ -0,0 +1,99 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Socket protocol between the {@link DistributedTrainer} coordinator and {@link TrainingWorker} processes, over
+ * {@link DataOutputStream} framing (big-endian).
+ * <pre>
+ * worker -> coordinator  HELLO   magic, version, worker name (UTF)
+ * coordinator -> worker  WELCOME worker id, input, hidden and output size, rounds, samples per round, learning rate,
+ *                                seed, parameters (dense)
+ * worker -> coordinator  ROUND   round, samples, correct, collect nanos, train nanos, delta
+ * coordinator -> worker  UPDATE  more rounds (boolean), delta
+ * </pre>
+ * A worker's ROUND delta is its parameters minus the base it started the round from. The UPDATE delta moves that
+ * base to the coordinator's current averaged parameters. Deltas travel as float32, either dense or, when most entries
+ * are zero (one-hot inputs leave most first-layer weights untouched in a round), as a presence bitmap plus the
+ * non-zero values. Both sides apply exactly the rounded values, so the worker's base and the coordinator's copy of it
+ * stay bit-identical.
+ */
+final class WeightSync {
+    static final int MAGIC = 0x4B4A5753; // "KJWS"
+    static final int VERSION = 1;
+
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+
+    private WeightSync() {}
+
+    /**
+     * Writes {@code delta} rounded to float32 and replaces every entry of {@code delta} by the rounded value that was
+     * sent, so the caller can apply exactly what the receiver will. Returns the number of bytes written.
+     */
+    static int writeDelta(DataOutputStream out, double[] delta) throws IOException {
+        int n = delta.length;
+        int nonZero = 0;
+        for (int i = 0; i < n; i++) {
+            delta[i] = (float) delta[i];
+            if (delta[i] != 0.0) nonZero++;
+        }
+        int sparseBytes = (n + 7) / 8 + nonZero * Float.BYTES;
+        out.writeInt(n);
+        if (sparseBytes < n * Float.BYTES) {
+            out.writeByte(SPARSE);
+            out.writeInt(nonZero);
+            byte[] bitmap = new byte[(n + 7) / 8];
+            for (int i = 0; i < n; i++) if (delta[i] != 0.0) bitmap[i >>> 3] |= (byte) (1 << (i & 7));
+            out.write(bitmap);
+            for (int i = 0; i < n; i++) if (delta[i] != 0.0) out.writeFloat((float) delta[i]);
+            return 9 + sparseBytes;
+        }
+        out.writeByte(DENSE);
+        for (int i = 0; i < n; i++) out.writeFloat((float) delta[i]);
+        return 5 + n * Float.BYTES;
+    }
+
+    /**
+     * Reads a delta written by {@link #writeDelta} into {@code into}, which must have the sender's length. Returns the
+     * number of bytes read.
+     */
+    static int readDelta(DataInputStream in, double[] into) throws IOException {
+        int n = in.readInt();
+        if (n != into.length) throw new IOException("Delta has " + n + " parameters, expected " + into.length);
+        byte kind = in.readByte();
+        if (kind == DENSE) {
+            for (int i = 0; i < n; i++) into[i] = in.readFloat();
+            return 5 + n * Float.BYTES;
+        } else if (kind == SPARSE) {
+            int nonZero = in.readInt();
+            byte[] bitmap = new byte[(n + 7) / 8];
+            in.readFully(bitmap);
+            int read = 0;
+            for (int i = 0; i < n; i++) {
+                if ((bitmap[i >>> 3] & (1 << (i & 7))) != 0) {
+                    into[i] = in.readFloat();
+                    read++;
+                } else {
+                    into[i] = 0.0;
+                }
+            }
+            if (read != nonZero) throw new IOException("Delta bitmap has " + read + " entries, header says " + nonZero);
+            return 9 + bitmap.length + nonZero * Float.BYTES;
+        }
+        throw new IOException("Unknown delta encoding " + kind);
+    }
+
+    static void writeDense(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double v : values) out.writeDouble(v);
+    }
+
+    static void readDense(DataInputStream in, double[] into) throws IOException {
+        int n = in.readInt();
+        if (n != into.length) throw new IOException("Got " + n + " parameters, expected " + into.length);
+        for (int i = 0; i < n; i++) into[i] = in.readDouble();
+    }
+}
@@ -0,0 +1,135 @@
+package nl.jvdkolk.klaversjassentrainer.api;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.service.BestCardMetrics;
+import nl.jvdkolk.klaversjassentrainer.service.DecisionCacheService;
+import nl.jvdkolk.klaversjassentrainer.service.EndgameService;
+import nl.jvdkolk.klaversjassentrainer.service.InferenceService;
+import nl.jvdkolk.klaversjassentrainer.service.LeadBookService;
+import nl.jvdkolk.klaversjassentrainer.service.LegalityService;
+import nl.jvdkolk.klaversjassentrainer.service.ModelClient;
+import nl.jvdkolk.klaversjassentrainer.service.MonteCarloService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Request validation of {@link BestCardController}: bad input is a 400 whichever tier would have answered. */
+class BestCardControllerTest {
+
+    @TempDir
+    Path dir;
+
+    private DecisionCacheService cache;
+    private MonteCarloService monteCarlo;
+    private BestCardController controller;
+
+    @BeforeEach
+    void start() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TrainerProperties props = new TrainerProperties();
+        props.getTraining().setModelFile(dir.resolve("missing.txt").toString());
+        props.getStartup().setBackgroundModelLoad(false);
+        props.getLeadBook().setEnabled(false);
+        props.getEndgame().setTablebaseFile("");
+        props.getDecisionCache().setEnabled(false);
+        props.getMonteCarlo().setParallelism(2);
+        props.getMonteCarlo().setMaxSamples(100);
+        cache = new DecisionCacheService(props, registry);
+        InferenceService inference = new InferenceService(props, new EndgameService(props, registry),
+                new LeadBookService(props, registry), new ModelClient(props, registry), cache);
+        monteCarlo = new MonteCarloService(props, inference, registry);
+        controller = new BestCardController(new LegalityService(), inference, monteCarlo,
+                new BestCardMetrics(registry, inference, props), props);
+    }
+
+    @AfterEach
+    void close() {
+        monteCarlo.shutdown();
+        cache.close();
+    }
+
+    @Test
+    void pointsRequestIsAnsweredByMonteCarlo() {
+        ResponseEntity<BestCardResponse> response = controller.bestCard(request("points"));
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("monte-carlo-points", response.getBody().getModel().get("name"));
+        assertEquals(List.of("KH", "10H", "8H"), response.getBody().getLegalCards());
+    }
+
+    @Test
+    void unknownTrumpIsRejected() {
+        BestCardRequest req = request("points");
+        req.setTrump("X");
+        assertEquals(400, controller.bestCard(req).getStatusCode().value());
+    }
+
+    @Test
+    void unknownCardsAreRejectedBeforeMonteCarlo() {
+        BestCardRequest hand = request("points");
+        hand.setHand(List.of("KH", "10H", "8H", "JD", "AC", "QS", "9S", "1C"));
+        assertEquals(400, controller.bestCard(hand).getStatusCode().value());
+
+        BestCardRequest table = request("winTrick");
+        table.setTable(List.of(play(1, "AH"), play(2, "H7")));
+        assertEquals(400, controller.bestCard(table).getStatusCode().value());
+
+        BestCardRequest history = request("points");
+        BestCardRequest.Trick earlier = new BestCardRequest.Trick();
+        earlier.setPlays(List.of(play(0, "AC"), play(1, "ZZ"), play(2, "-"), play(3, null)));
+        history.setHistory(List.of(earlier));
+        assertEquals(400, controller.bestCard(history).getStatusCode().value());
+    }
+
+    @Test
+    void unknownCardsAreRejectedBeforeEndgameSearch() {
+        BestCardRequest req = new BestCardRequest();
+        req.setHand(List.of("AH", "7S"));
+        req.setTrump("D");
+        req.setPlayerPosition(0);
+        req.setLeaderPosition(0);
+        req.setPartnerPosition(2);
+        req.setRequestId("test");
+        assertEquals("endgame", controller.bestCard(req).getBody().getModel().get("name"));
+
+        BestCardRequest.Trick earlier = new BestCardRequest.Trick();
+        earlier.setPlays(List.of(play(0, "AC"), play(1, "KC"), play(2, "QC"), play(3, "11C")));
+        req.setHistory(List.of(earlier));
+        assertEquals(400, controller.bestCard(req).getStatusCode().value());
+    }
+
+    @Test
+    void emptyTableSlotsAreAccepted() {
+        BestCardRequest req = request("points");
+        req.setTable(List.of(play(1, "AH"), play(2, "7H"), play(0, "-")));
+        assertEquals(200, controller.bestCard(req).getStatusCode().value());
+    }
+
+    // hearts led by the partner on the first trick: KH, 10H and 8H are legal
+    static BestCardRequest request(String scoringMode) {
+        BestCardRequest req = new BestCardRequest();
+        req.setHand(List.of("KH", "10H", "8H", "JD", "AC", "QS", "9S", "7C"));
+        req.setTable(List.of(play(1, "AH"), play(2, "7H")));
+        req.setTrump("D");
+        req.setPlayerPosition(3);
+        req.setLeaderPosition(1);
+        req.setPartnerPosition(1);
+        req.setScoringMode(scoringMode);
+        req.setRequestId("test");
+        return req;
+    }
+
+    static BestCardRequest.Play play(int player, String card) {
+        BestCardRequest.Play p = new BestCardRequest.Play();
+        p.setPlayer(player);
+        p.setCard(card);
+        return p;
+    }
+}
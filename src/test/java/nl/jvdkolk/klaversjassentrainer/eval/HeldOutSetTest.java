@@ -0,0 +1,45 @@
+package nl.jvdkolk.klaversjassentrainer.eval;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeldOutSetTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void saveReplacesTheSetWithoutLeavingATempFile() throws Exception {
+        Path file = dir.resolve("heldout.bin");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x4B4A484F);
+            out.writeInt(2);
+            out.writeInt(1);
+            for (int i = 0; i < 8; i++) out.writeDouble(i == 7 ? 1.0 : 0.0);
+            for (int i = 0; i < 4; i++) out.writeDouble(i == 0 ? 1.0 : 0.0);
+            out.writeInt(0xFF);
+            out.writeByte(0);
+            for (int k = 0; k < 3; k++) out.writeByte(-1);
+            out.writeByte(2);
+            out.writeByte(3);
+        }
+        HeldOutSet set = HeldOutSet.load(file);
+        set.save(file);
+
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count(), "only the set is left");
+        }
+        HeldOutSet loaded = HeldOutSet.load(file);
+        assertEquals(1, loaded.size());
+        assertEquals(0xFF, loaded.hands[0]);
+        assertEquals(2, loaded.trumps[0]);
+        assertEquals(3, loaded.labels[0]);
+        assertEquals(set.stages(), loaded.stages());
+    }
+}
@@ -0,0 +1,75 @@
+package nl.jvdkolk.klaversjassentrainer.game;
+
+import nl.jvdkolk.klaversjassentrainer.train.CardUtil;
+import nl.jvdkolk.klaversjassentrainer.train.NeuralNetwork;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.ALL_CARDS;
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.SUITS;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PolicyTest {
+    private static final int INPUTS = ALL_CARDS.size() + 4 * ALL_CARDS.size() + SUITS.length;
+
+    private final NeuralNetwork nn = new NeuralNetwork(INPUTS, 16, ALL_CARDS.size(), 7L);
+
+    @Test
+    void policiesChooseLegalCards() {
+        Policy[] policies = {new HeuristicPolicy(), new NeuralPolicy(nn)};
+        PositionGenerator positions = new PositionGenerator(3L, PositionGenerator.Stages.UNIFORM);
+        for (int i = 0; i < 2000; i++) {
+            PlayState s = positions.next();
+            for (Policy p : policies) {
+                int card = p.choose(s, positions.legal());
+                assertTrue((positions.legal() >>> card & 1) != 0, p.getClass().getSimpleName() + ", position " + i);
+            }
+        }
+    }
+
+    @Test
+    void neuralPolicyPlaysTheNetworksBestLegalCard() {
+        NeuralPolicy policy = new NeuralPolicy(nn);
+        PositionGenerator positions = new PositionGenerator(4L, PositionGenerator.Stages.UNIFORM);
+        double[] x = new double[INPUTS];
+        for (int i = 0; i < 500; i++) {
+            PlayState s = positions.next();
+            int legal = positions.legal();
+            CardUtil.encodeInto(x, positions.hand(), s.trick(), s.trickSize(), s.trump());
+            double[] p = nn.forward(x);
+            int best = -1;
+            for (int m = legal; m != 0; m &= m - 1) {
+                int c = Integer.numberOfTrailingZeros(m);
+                if (best < 0 || p[c] > p[best]) best = c;
+            }
+            assertEquals(best, policy.choose(s, legal), "position " + i);
+        }
+    }
+
+    @Test
+    void heuristicLeadsANonTrumpAce() {
+        PlayState s = new PlayState();
+        s.reset(CardUtil.suitIndex("H"), 0);
+        int hand = CardUtil.toMask(List.of("AH", "AS", "7C", "8D"));
+        s.setHand(0, hand);
+        assertEquals(CardUtil.cardIndex("AS"), new HeuristicPolicy().choose(s, hand));
+    }
+
+    @Test
+    void neuralPolicyDoesNotAllocatePerCall() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        NeuralPolicy policy = new NeuralPolicy(nn);
+        PlayState s = new PositionGenerator(5L, PositionGenerator.Stages.UNIFORM).next();
+        int legal = s.hand(s.toMove()); // more than one card, so the network is evaluated
+        assertTrue(Integer.bitCount(legal) > 1);
+        int sink = 0;
+        for (int i = 0; i < 20_000; i++) sink += policy.choose(s, legal);
+        long thread = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10_000; i++) sink += policy.choose(s, legal);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue(allocated < 10_000, allocated + " bytes over 10000 calls (" + sink + ")");
+    }
+}
@@ -0,0 +1,76 @@
+package nl.jvdkolk.klaversjassentrainer.search;
+
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EndgameSolverTest {
+
+    // the last three tricks of a deal, from any number of cards on the table
+    private static final PositionGenerator.Stages LAST_TRICKS = new PositionGenerator.Stages(
+            new double[]{1, 1, 1, 0, 0, 0, 0, 0}, new double[]{1, 1, 1, 1});
+
+    private final TranspositionTable tt = new TranspositionTable(1);
+
+    @AfterEach
+    void close() {
+        tt.close();
+    }
+
+    @Test
+    void solveMatchesPlainMinimax() {
+        // one table for all positions, so stale entries from earlier positions would show up as mismatches
+        EndgameSolver solver = new EndgameSolver(tt, null);
+        PositionGenerator positions = new PositionGenerator(37L, LAST_TRICKS);
+        for (int i = 0; i < 300; i++) {
+            PlayState state = positions.next();
+            assertEquals(minimax(state), solver.solve(state), "position " + i);
+        }
+    }
+
+    @Test
+    void valueOfMatchesPlainMinimaxForEveryLegalCard() {
+        EndgameSolver solver = new EndgameSolver(tt, null);
+        PositionGenerator positions = new PositionGenerator(38L, LAST_TRICKS);
+        for (int i = 0; i < 200; i++) {
+            PlayState state = positions.next();
+            int team = state.toMove() & 1;
+            int best = -1;
+            for (int m = state.legalMoves(); m != 0; m &= m - 1) {
+                int card = Integer.numberOfTrailingZeros(m);
+                PlayState child = new PlayState();
+                child.copyFrom(state);
+                int before = child.points(team);
+                child.play(card);
+                int expected = child.points(team) - before + teamPoints(child, team);
+                assertEquals(expected, solver.valueOf(state, card), "position " + i + ", card " + card);
+                best = Math.max(best, expected);
+            }
+            assertEquals(best, solver.valueOf(state, solver.bestMove(state)), "position " + i);
+        }
+    }
+
+    // points team 0 collects from here on, by full minimax without pruning or tables
+    private static int minimax(PlayState s) {
+        if (s.isFinished()) return 0;
+        boolean maximizing = (s.toMove() & 1) == 0;
+        int best = maximizing ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        for (int m = s.legalMoves(); m != 0; m &= m - 1) {
+            PlayState child = new PlayState();
+            child.copyFrom(s);
+            int before = child.points(0);
+            child.play(Integer.numberOfTrailingZeros(m));
+            int v = child.points(0) - before + minimax(child);
+            best = maximizing ? Math.max(best, v) : Math.min(best, v);
+        }
+        return best;
+    }
+
+    private static int teamPoints(PlayState s, int team) {
+        int team0 = minimax(s);
+        return team == 0 ? team0 : EndgameSolver.remainingPoints(s) - team0;
+    }
+}
@@ -0,0 +1,49 @@
+package nl.jvdkolk.klaversjassentrainer.search;
+
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EndgameTablebaseTest {
+
+    // trick boundaries with two or three tricks left
+    private static final PositionGenerator.Stages BOUNDARIES = new PositionGenerator.Stages(
+            new double[]{0, 1, 1, 0, 0, 0, 0, 0}, new double[]{1, 0, 0, 0});
+
+    @Test
+    void canonicalKeyIgnoresSeatsAndSuitNames() {
+        PositionGenerator positions = new PositionGenerator(41L, BOUNDARIES);
+        for (int i = 0; i < 500; i++) {
+            PlayState s = positions.next();
+            long key = EndgameTablebase.canonicalKey(s);
+            int[][] perms = {{0, 1, 2, 3}, {2, 0, 3, 1}, {3, 2, 1, 0}, {1, 3, 0, 2}};
+            for (int rotation = 0; rotation < 4; rotation++) {
+                for (int[] perm : perms) {
+                    assertEquals(key, EndgameTablebase.canonicalKey(relabel(s, rotation, perm)),
+                            "position " + i + ", rotation " + rotation);
+                }
+            }
+            PlayState decoded = new PlayState();
+            EndgameTablebase.decode(key, decoded);
+            assertEquals(key, EndgameTablebase.canonicalKey(decoded), "position " + i);
+        }
+    }
+
+    // seats moved on by rotation, suit s renamed perm[s]
+    private static PlayState relabel(PlayState s, int rotation, int[] perm) {
+        PlayState out = new PlayState();
+        out.reset(perm[s.trump()], (s.leader() + rotation) & 3);
+        for (int seat = 0; seat < 4; seat++) {
+            int hand = 0;
+            for (int m = s.hand(seat); m != 0; m &= m - 1) {
+                int card = Integer.numberOfTrailingZeros(m);
+                hand |= 1 << (perm[card >>> 3] << 3 | card & 7);
+            }
+            out.setHand((seat + rotation) & 3, hand);
+        }
+        out.setTricksPlayed(s.tricksPlayed());
+        return out;
+    }
+}
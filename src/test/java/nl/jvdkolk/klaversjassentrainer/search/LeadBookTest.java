@@ -0,0 +1,186 @@
+package nl.jvdkolk.klaversjassentrainer.search;
+
+import nl.jvdkolk.klaversjassentrainer.game.DealSimulator;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.train.CardUtil;
+import nl.jvdkolk.klaversjassentrainer.train.NeuralNetwork;
+import nl.jvdkolk.klaversjassentrainer.train.PolicyNetwork;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.ALL_CARDS;
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.SUITS;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeadBookTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void everyBookedHandDecodesToTheScorersLead() throws Exception {
+        Path file = dir.resolve("leads.kjlb");
+        LeadBook.build(file, slotScorer(true, LeadBook.LEADS), 3000, 3, 11L);
+        int[] leads = new int[LeadBook.LEADS];
+
+        try (LeadBook book = LeadBook.open(file)) {
+            assertTrue(book.seatAware());
+            SplittableRandom rnd = new SplittableRandom(11L);
+            int[] deck = DealSimulator.newDeck();
+            PlayState s = new PlayState();
+            // the same deals the book was built from
+            for (int i = 0; i < 3000; i++) {
+                DealSimulator.deal(rnd, deck, s, rnd.nextInt(4), 0);
+                int hand = s.hand(0);
+                int key = LeadBook.canonicalHand(hand, s.trump());
+                for (int seat = 0; seat < 4; seat++) {
+                    // a canonical hand with trump 0 is its own key, so the lead comes back unmapped
+                    assertEquals(slot(key, seat, 0), book.lookup(key, 0, seat), "hand " + i + ", seat " + seat);
+                    assertEquals(LeadBook.LEADS, book.lookup(key, 0, seat, leads));
+                    for (int r = 0; r < LeadBook.LEADS; r++) {
+                        assertEquals(slot(key, seat, r), leads[r], "hand " + i + ", seat " + seat + ", lead " + r);
+                    }
+                    assertEquals(LeadBook.LEADS, book.lookup(hand, s.trump(), seat, leads));
+                    for (int r = 0; r < LeadBook.LEADS; r++) {
+                        int lead = leads[r];
+                        assertTrue((hand >>> lead & 1) != 0, "lead not in hand " + i);
+                        assertEquals(slot(key, seat, r) & 7, lead & 7, "rank of the lead, hand " + i);
+                        assertEquals(slot(key, seat, r) >>> 3 == 0, lead >>> 3 == s.trump(), "trump lead, hand " + i);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void handsOutsideTheBookAreMisses() throws Exception {
+        Path file = dir.resolve("leads.kjlb");
+        LeadBook.build(file, slotScorer(false, 1), 50, 2, 5L);
+
+        try (LeadBook book = LeadBook.open(file)) {
+            assertFalse(book.seatAware());
+            long misses = 0;
+            SplittableRandom rnd = new SplittableRandom(99L);
+            int[] deck = DealSimulator.newDeck();
+            PlayState s = new PlayState();
+            for (int i = 0; i < 1000; i++) {
+                DealSimulator.deal(rnd, deck, s, rnd.nextInt(4), 0);
+                if (book.lookup(s.hand(0), s.trump(), 0) < 0) misses++;
+            }
+            assertTrue(misses > 900, "misses " + misses);
+            assertEquals(-1, book.lookup(0x7F, 0, 0)); // seven cards
+        }
+    }
+
+    @Test
+    void buildWithoutThreadsStillScoresEveryHand() throws Exception {
+        Path single = dir.resolve("single.kjlb");
+        Path none = dir.resolve("none.kjlb");
+        LeadBook.build(single, slotScorer(true, LeadBook.LEADS), 500, 1, 3L);
+        LeadBook.build(none, slotScorer(true, LeadBook.LEADS), 500, 0, 3L);
+
+        assertArrayEquals(Files.readAllBytes(single), Files.readAllBytes(none));
+    }
+
+    @Test
+    void shorterRankingsKeepTheirLength() throws Exception {
+        Path file = dir.resolve("leads.kjlb");
+        LeadBook.build(file, slotScorer(false, 2), 200, 2, 13L);
+
+        try (LeadBook book = LeadBook.open(file)) {
+            SplittableRandom rnd = new SplittableRandom(13L);
+            int[] deck = DealSimulator.newDeck();
+            PlayState s = new PlayState();
+            int[] leads = new int[LeadBook.LEADS];
+            for (int i = 0; i < 200; i++) {
+                DealSimulator.deal(rnd, deck, s, rnd.nextInt(4), 0);
+                int key = LeadBook.canonicalHand(s.hand(0), s.trump());
+                assertEquals(2, book.lookup(key, 0, 0, leads), "hand " + i);
+                assertEquals(slot(key, 0, 1), leads[1]);
+                assertEquals(1, book.lookup(key, 0, 0, new int[1]));
+            }
+        }
+    }
+
+    @Test
+    void modelBookRanksByTheModelOverEveryRealHandOfTheEntry() throws Exception {
+        NeuralNetwork nn = new NeuralNetwork(ALL_CARDS.size() + 4 * ALL_CARDS.size() + SUITS.length, 16, ALL_CARDS.size(), 3L);
+        Path file = dir.resolve("model.kjlb");
+        LeadBook.build(file, LeadBook.modelScorer(nn), 100, 2, 17L);
+
+        try (LeadBook book = LeadBook.open(file)) {
+            SplittableRandom rnd = new SplittableRandom(17L);
+            int[] deck = DealSimulator.newDeck();
+            PlayState s = new PlayState();
+            int[] leads = new int[LeadBook.LEADS];
+            int[] expected = new int[LeadBook.LEADS];
+            for (int i = 0; i < 100; i++) {
+                DealSimulator.deal(rnd, deck, s, rnd.nextInt(4), 0);
+                int hand = s.hand(0);
+                PolicyNetwork.topK(relabelledProbabilities(nn, hand, s.trump()), hand, expected);
+                assertEquals(LeadBook.LEADS, book.lookup(hand, s.trump(), 0, leads));
+                assertArrayEquals(expected, leads, "hand " + i);
+            }
+        }
+    }
+
+    // the model's probability of each card of hand, summed over all 24 renamings of the suits and mapped back
+    private static double[] relabelledProbabilities(PolicyNetwork nn, int hand, int trump) {
+        double[] sums = new double[32];
+        for (int[] perm : permutations()) {
+            int renamed = 0;
+            for (int m = hand; m != 0; m &= m - 1) {
+                int card = Integer.numberOfTrailingZeros(m);
+                renamed |= 1 << (perm[card >>> 3] << 3 | card & 7);
+            }
+            double[] x = new double[nn.getInputSize()];
+            CardUtil.encodeInto(x, renamed, new int[4], 0, perm[trump]);
+            double[] p = nn.forward(x);
+            double total = 0;
+            for (int m = renamed; m != 0; m &= m - 1) total += p[Integer.numberOfTrailingZeros(m)];
+            for (int m = hand; m != 0; m &= m - 1) {
+                int card = Integer.numberOfTrailingZeros(m);
+                sums[card] += p[perm[card >>> 3] << 3 | card & 7] / total;
+            }
+        }
+        return sums;
+    }
+
+    private static List<int[]> permutations() {
+        List<int[]> out = new ArrayList<>();
+        for (int a = 0; a < 4; a++)
+            for (int b = 0; b < 4; b++)
+                for (int c = 0; c < 4; c++) {
+                    int d = 6 - a - b - c;
+                    if (a != b && a != c && b != c && d >= 0 && d < 4 && d != a && d != b && d != c) out.add(new int[]{a, b, c, d});
+                }
+        return out;
+    }
+
+    // ranks the cards from slot (seat + number of trumps) of the canonical hand on, in card order
+    private static Supplier<LeadBook.Scorer> slotScorer(boolean seatAware, int count) {
+        return () -> new LeadBook.Scorer() {
+            @Override
+            public int rank(int hand, int seatFromBidder, int[] leads) {
+                for (int r = 0; r < count; r++) leads[r] = slot(hand, seatAware ? seatFromBidder : 0, r);
+                return count;
+            }
+
+            @Override
+            public boolean seatAware() { return seatAware; }
+        };
+    }
+
+    private static int slot(int hand, int seat, int rank) {
+        int m = hand;
+        for (int k = (seat + Integer.bitCount(hand & 0xFF) + rank) % 8; k > 0; k--) m &= m - 1;
+        return Integer.numberOfTrailingZeros(m);
+    }
+}
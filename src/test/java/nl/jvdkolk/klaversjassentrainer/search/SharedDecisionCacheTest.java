@@ -0,0 +1,89 @@
+package nl.jvdkolk.klaversjassentrainer.search;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedDecisionCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void decisionStoredByOneInstanceIsFoundByAnother() throws IOException {
+        Path file = dir.resolve("decisions.kjdc");
+        try (SharedDecisionCache writer = SharedDecisionCache.open(file, 1);
+             SharedDecisionCache reader = SharedDecisionCache.open(file, 4)) {
+            assertEquals(writer.capacity(), reader.capacity());
+
+            long key = SharedDecisionCache.key(0x0101_0301, 0x0000_0301);
+            long state = SharedDecisionCache.state(12 | 3 << 6, 2, 77L);
+            double[] scores = new double[32];
+            scores[8] = 0.625;
+            scores[0] = 0.25;
+            scores[9] = 0.125;
+            writer.store(key, state, 3, new int[]{8, 0, 9}, scores);
+
+            int[] cards = new int[SharedDecisionCache.TOP_K];
+            float[] read = new float[SharedDecisionCache.TOP_K];
+            assertEquals(3, reader.lookup(key, state, cards, read));
+            assertArrayEquals(new int[]{8, 0, 9}, cards);
+            assertEquals(0.625f, read[0]);
+            assertEquals(0.25f, read[1]);
+            assertEquals(0.125f, read[2]);
+
+            // another model, trick or hand is another state
+            assertEquals(0, reader.lookup(key, SharedDecisionCache.state(12 | 3 << 6, 2, 78L), cards, read));
+            assertEquals(0, reader.lookup(key, SharedDecisionCache.state(12, 2, 77L), cards, read));
+            assertEquals(0, reader.lookup(SharedDecisionCache.key(0x0101_0302, 0x0000_0302), state, cards, read));
+            assertEquals(1, reader.stats().hits());
+            assertEquals(1, writer.stats().stores());
+        }
+    }
+
+    @Test
+    void decisionsSurviveReopeningAndForeignFilesAreReplaced() throws IOException {
+        Path file = dir.resolve("decisions.kjdc");
+        long key = SharedDecisionCache.key(0xFF, 0x0F);
+        long state = SharedDecisionCache.state(0, 1, 5L);
+        try (SharedDecisionCache cache = SharedDecisionCache.open(file, 1)) {
+            cache.store(key, state, 1, new int[]{3}, new double[32]);
+        }
+        int[] cards = new int[SharedDecisionCache.TOP_K];
+        float[] scores = new float[SharedDecisionCache.TOP_K];
+        try (SharedDecisionCache cache = SharedDecisionCache.open(file, 2)) {
+            assertEquals(16384, cache.capacity()); // the existing file's size, not the 2 MB asked for
+            assertEquals(1, cache.lookup(key, state, cards, scores));
+            assertEquals(3, cards[0]);
+        }
+
+        Files.write(file, new byte[100]);
+        try (SharedDecisionCache cache = SharedDecisionCache.open(file, 1)) {
+            assertEquals(16384, cache.capacity());
+            assertEquals(0, cache.lookup(key, state, cards, scores));
+        }
+    }
+
+    @Test
+    void fullTableOverwritesAndKeepsTheNewestDecision() throws IOException {
+        try (SharedDecisionCache cache = SharedDecisionCache.open(dir.resolve("tiny.kjdc"), 0)) {
+            assertEquals(8, cache.capacity());
+            int[] cards = new int[SharedDecisionCache.TOP_K];
+            float[] scores = new float[SharedDecisionCache.TOP_K];
+            for (int i = 0; i < 40; i++) {
+                long key = SharedDecisionCache.key(i, i);
+                long state = SharedDecisionCache.state(0, 0, 1L);
+                cache.store(key, state, 2, new int[]{i & 31, (i + 1) & 31}, new double[32]);
+                assertEquals(2, cache.lookup(key, state, cards, scores), "decision " + i);
+                assertEquals(i & 31, cards[0]);
+            }
+            assertEquals(1.0, cache.occupancy(8));
+            assertTrue(cache.stats().overwrites() >= 32);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package nl.jvdkolk.klaversjassentrainer.search;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TranspositionTableTest {
+
+    private final TranspositionTable tt = new TranspositionTable(1);
+    private final long buckets = tt.capacity() / 2;
+
+    @AfterEach
+    void close() {
+        tt.close();
+    }
+
+    @Test
+    void storedEntryProbesBackWithAllFields() {
+        long key = 0x1234_5678_9ABC_DEF0L;
+        tt.store(key, -57, TranspositionTable.LOWER, 12, 31);
+
+        long data = tt.probe(key);
+        assertEquals(-57, TranspositionTable.score(data));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(data));
+        assertEquals(12, TranspositionTable.depth(data));
+        assertEquals(31, TranspositionTable.bestMove(data));
+        assertEquals(0L, tt.probe(key + 1));
+    }
+
+    @Test
+    void bucketHoldsTwoPositionsAndKeepsTheDeeperOne() {
+        long deep = 5;
+        long shallow = deep + buckets;
+        long later = deep + 2 * buckets;
+        tt.store(deep, 40, TranspositionTable.EXACT, 20, TranspositionTable.NO_MOVE);
+        tt.store(shallow, 10, TranspositionTable.UPPER, 4, 3);
+        assertEquals(40, TranspositionTable.score(tt.probe(deep)));
+        assertEquals(10, TranspositionTable.score(tt.probe(shallow)));
+
+        // a shallower third position in the same search goes to the always-replace slot
+        tt.store(later, 7, TranspositionTable.EXACT, 2, 1);
+        assertEquals(40, TranspositionTable.score(tt.probe(deep)));
+        assertEquals(0L, tt.probe(shallow));
+        assertEquals(7, TranspositionTable.score(tt.probe(later)));
+
+        // after a new search the old deep entry is the preferred victim
+        tt.newSearch();
+        tt.store(shallow, 11, TranspositionTable.EXACT, 1, 2);
+        assertEquals(0L, tt.probe(deep));
+        assertEquals(11, TranspositionTable.score(tt.probe(shallow)));
+    }
+
+    @Test
+    void storeOverwritesTheSamePositionAndClearEmptiesTheTable() {
+        tt.store(99, 12, TranspositionTable.UPPER, 3, 4);
+        tt.store(99, 30, TranspositionTable.EXACT, 3, 5);
+        long data = tt.probe(99);
+        assertEquals(30, TranspositionTable.score(data));
+        assertEquals(5, TranspositionTable.bestMove(data));
+
+        tt.clear();
+        assertEquals(0L, tt.probe(99));
+        assertEquals(2, tt.stats().probes());
+        assertEquals(1, tt.stats().hits());
+    }
+
+    @Test
+    void concurrentWritersNeverYieldAnotherPositionsEntry() throws Exception {
+        // every thread hammers the same few buckets; a probe hit must carry the data stored for that very key
+        Thread[] threads = new Thread[4];
+        AtomicInteger mismatches = new AtomicInteger();
+        for (int t = 0; t < threads.length; t++) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 200_000; i++) {
+                    long key = 7 + ((i * 31L + seed) % 8) * buckets;
+                    int score = (int) (key % 1000);
+                    tt.store(key, score, TranspositionTable.EXACT, seed + 1, 0);
+                    long data = tt.probe(key);
+                    if (data != 0L && TranspositionTable.score(data) != score) mismatches.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        assertEquals(0, mismatches.get());
+    }
+}
@@ -0,0 +1,228 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.api.DecisionAnalysis;
+import nl.jvdkolk.klaversjassentrainer.api.GameLog;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/** NDJSON analysis: output order, error lines, topK and backpressure of {@link GameAnalysisService}. */
+class GameAnalysisServiceTest {
+    private static final JsonMapper JSON = new JsonMapper();
+
+    @TempDir
+    Path dir;
+
+    private TrainerProperties props;
+    private SimpleMeterRegistry registry;
+    private DecisionCacheService cache;
+    private GameAnalysisService analysis;
+
+    @BeforeEach
+    void start() {
+        props = new TrainerProperties();
+        props.getTraining().setModelFile(dir.resolve("missing.txt").toString());
+        props.getStartup().setBackgroundModelLoad(false);
+        props.getLeadBook().setEnabled(false);
+        props.getEndgame().setTablebaseFile("");
+        props.getDecisionCache().setEnabled(false);
+        props.getAnalysis().setParallelism(2);
+        registry = new SimpleMeterRegistry();
+        cache = new DecisionCacheService(props, registry);
+    }
+
+    @AfterEach
+    void close() {
+        if (analysis != null) analysis.shutdown();
+        cache.close();
+    }
+
+    private GameAnalysisService service() {
+        return service(new InferenceService(props, new EndgameService(props, registry),
+                new LeadBookService(props, registry), new ModelClient(props, registry), cache));
+    }
+
+    private GameAnalysisService service(InferenceService inference) {
+        analysis = new GameAnalysisService(new LegalityService(), inference, props);
+        return analysis;
+    }
+
+    // a full deal of the 32 cards in order, every seat playing its lowest legal card
+    private static GameLog game(String id) {
+        GameLog game = new GameLog();
+        game.setGameId(id);
+        game.setTrump("H");
+        game.setLeader(0);
+        PlayState state = new PlayState();
+        state.reset(suitIndex("H"), 0);
+        List<List<String>> hands = new ArrayList<>();
+        for (int seat = 0; seat < 4; seat++) {
+            int mask = 0;
+            for (int c = seat; c < 32; c += 4) mask |= 1 << c;
+            state.setHand(seat, mask);
+            hands.add(toCards(mask));
+        }
+        game.setHands(hands);
+        List<String> plays = new ArrayList<>();
+        while (!state.isFinished()) {
+            int card = Integer.numberOfTrailingZeros(state.legalMoves());
+            plays.add(toCards(1 << card).getFirst());
+            state.play(card);
+        }
+        game.setPlays(plays);
+        return game;
+    }
+
+    private static String ndjson(GameLog... games) {
+        StringBuilder sb = new StringBuilder();
+        for (GameLog g : games) sb.append(JSON.writeValueAsString(g)).append('\n');
+        return sb.toString();
+    }
+
+    private static List<DecisionAnalysis> lines(ByteArrayOutputStream out) {
+        List<DecisionAnalysis> lines = new ArrayList<>();
+        for (String l : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!l.isEmpty()) lines.add(JSON.readValue(l, DecisionAnalysis.class));
+        }
+        return lines;
+    }
+
+    @Test
+    void writesEveryDecisionInInputOrder() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GameAnalysisService.Summary s = service().analyze(
+                new ByteArrayInputStream(ndjson(game("a"), game("b")).getBytes(StandardCharsets.UTF_8)), out);
+
+        List<DecisionAnalysis> lines = lines(out);
+        assertEquals(2, s.games());
+        assertEquals(64, s.decisions());
+        assertEquals(0, s.errors());
+        assertEquals(64, lines.size());
+        for (int i = 0; i < 64; i++) {
+            DecisionAnalysis a = lines.get(i);
+            assertEquals(i < 32 ? "a" : "b", a.getGameId());
+            assertEquals(i % 32, (int) a.getDecision());
+            assertEquals(i / 32 + 1, a.getLine());
+            assertNull(a.getError());
+            assertTrue(a.getLegalCards().contains(a.getRecommended()), a.getRecommended() + " not in " + a.getLegalCards());
+        }
+    }
+
+    @Test
+    void reportsBrokenGamesAsErrorLinesAndCarriesOn() throws Exception {
+        GameLog illegal = game("illegal");
+        List<String> plays = new ArrayList<>(illegal.getPlays());
+        plays.set(1, plays.getFirst()); // the card seat 0 just led
+        illegal.setPlays(plays);
+        GameLog one = game("one");
+        one.setSeats(List.of(2));
+        String input = "{not json\n" + ndjson(illegal) + "\n" + ndjson(one);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GameAnalysisService.Summary s = service().analyze(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+
+        List<DecisionAnalysis> lines = lines(out);
+        assertEquals(11, lines.size());
+        assertEquals(1, lines.get(0).getLine());
+        assertTrue(lines.get(0).getError().startsWith("unreadable game log"), lines.get(0).getError());
+        // the decision before the bad play is still analyzed, then the error ends the game
+        assertEquals(0, (int) lines.get(1).getDecision());
+        assertEquals("illegal", lines.get(2).getGameId());
+        assertTrue(lines.get(2).getError().contains("does not hold"), lines.get(2).getError());
+        for (DecisionAnalysis a : lines.subList(3, 11)) {
+            assertEquals(4, a.getLine(), "blank lines still count");
+            assertEquals(2, (int) a.getPlayer());
+        }
+        assertEquals(3, s.games());
+        assertEquals(2, s.errors());
+        assertEquals(9, s.decisions());
+    }
+
+    @Test
+    void rejectsANonPositiveTopKPerGame() throws Exception {
+        GameLog negative = game("negative");
+        negative.setTopK(-1);
+        GameLog single = game("single");
+        single.setTopK(1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service().analyze(new ByteArrayInputStream(ndjson(negative, single).getBytes(StandardCharsets.UTF_8)), out);
+
+        List<DecisionAnalysis> lines = lines(out);
+        assertEquals(33, lines.size());
+        assertEquals("negative", lines.getFirst().getGameId());
+        assertEquals("topK must be at least 1", lines.getFirst().getError());
+        for (DecisionAnalysis a : lines.subList(1, 33)) {
+            assertNull(a.getError(), a.getError());
+            assertEquals(1, a.getCandidates().size());
+        }
+    }
+
+    @Test
+    void stopsReadingWhileTheWindowIsFull() throws Exception {
+        props.getAnalysis().setMaxInFlight(4);
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+        GameAnalysisService service = service(new InferenceService(props, new EndgameService(props, registry),
+                new LeadBookService(props, registry), new ModelClient(props, registry), cache) {
+            @Override
+            public Result pickBest(BestCardRequest req, List<BestCardRequest.Play> table, List<String> legal, int topK,
+                                   StageTimings timings) {
+                started.incrementAndGet();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.pickBest(req, table, legal, topK, timings);
+            }
+        });
+        GameLog[] games = new GameLog[200];
+        for (int i = 0; i < games.length; i++) games[i] = game("g" + i);
+        byte[] input = ndjson(games).getBytes(StandardCharsets.UTF_8);
+        AtomicLong read = new AtomicLong();
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(input)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) read.addAndGet(n);
+                return n;
+            }
+        };
+
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<GameAnalysisService.Summary> done = caller.submit(() -> service.analyze(in, new ByteArrayOutputStream()));
+            while (started.get() < 2) Thread.sleep(5);
+            Thread.sleep(200);
+            long stalled = read.get();
+            assertTrue(stalled < input.length / 2, "read " + stalled + " of " + input.length + " bytes");
+            assertEquals(2, started.get(), "only the pool's threads have started");
+            gate.countDown();
+            assertEquals(200 * 32, done.get(60, TimeUnit.SECONDS).decisions());
+            assertEquals(input.length, read.get());
+        } finally {
+            gate.countDown();
+            caller.shutdownNow();
+        }
+    }
+}
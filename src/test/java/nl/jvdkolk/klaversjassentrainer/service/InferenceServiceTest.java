@@ -0,0 +1,55 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The EQUIVALENT shortcut of {@link InferenceService}. */
+class InferenceServiceTest {
+
+    @Test
+    void tableCardBetweenCandidatesBlocksEquivalence() {
+        // 8H led, hearts not trump: 9H takes the trick and 7H does not, although all three are worth nothing
+        BestCardRequest req = request(List.of("9H", "7H", "AC", "KC", "QS", "JS", "10D", "9D"), "S", play(1, "8H"));
+        int legal = toMask(List.of("9H", "7H"));
+        assertFalse(InferenceService.allEquivalent(legal, InferenceService.goneCards(req), suitIndex("S")));
+    }
+
+    @Test
+    void adjacentWorthlessCardsAreEquivalent() {
+        BestCardRequest req = request(List.of("9S", "8S", "7S", "JH", "AC", "QC", "KH", "10D"), "D", play(1, "AS"));
+        int legal = toMask(List.of("9S", "8S", "7S"));
+        assertTrue(InferenceService.allEquivalent(legal, InferenceService.goneCards(req), suitIndex("D")));
+    }
+
+    @Test
+    void cardBetweenCandidatesFromEarlierTrickIsGone() {
+        BestCardRequest req = request(List.of("9H", "7H", "AC", "KC", "QS", "JS", "10D"), "S", play(1, "AH"));
+        int legal = toMask(List.of("9H", "7H"));
+        assertFalse(InferenceService.allEquivalent(legal, InferenceService.goneCards(req), suitIndex("S")),
+                "8H still outstanding");
+        BestCardRequest.Trick earlier = new BestCardRequest.Trick();
+        earlier.setPlays(List.of(play(0, "8H"), play(1, "KH"), play(2, "10H"), play(3, "QH")));
+        req.setHistory(List.of(earlier));
+        assertTrue(InferenceService.allEquivalent(legal, InferenceService.goneCards(req), suitIndex("S")));
+    }
+
+    private static BestCardRequest request(List<String> hand, String trump, BestCardRequest.Play... table) {
+        BestCardRequest req = new BestCardRequest();
+        req.setHand(hand);
+        req.setTrump(trump);
+        req.setTable(List.of(table));
+        return req;
+    }
+
+    private static BestCardRequest.Play play(int player, String card) {
+        BestCardRequest.Play p = new BestCardRequest.Play();
+        p.setPlayer(player);
+        p.setCard(card);
+        return p;
+    }
+}
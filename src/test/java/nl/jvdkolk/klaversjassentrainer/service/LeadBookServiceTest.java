@@ -0,0 +1,95 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardResponse;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.game.DealSimulator;
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.search.LeadBook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Candidates of {@link LeadBookService} from a book of ranked leads. */
+class LeadBookServiceTest {
+    @TempDir
+    Path dir;
+
+    private LeadBookService service;
+    private BestCardRequest booked;
+    private final int[] leads = new int[LeadBook.LEADS];
+
+    @BeforeEach
+    void start() throws Exception {
+        Path file = dir.resolve("leads.kjlb");
+        // ranks the hand's cards in card order; built from the hands of 200 deals
+        LeadBook.build(file, () -> new LeadBook.Scorer() {
+            @Override
+            public int rank(int hand, int seatFromBidder, int[] leads) {
+                int n = 0;
+                for (int m = hand; m != 0 && n < leads.length; m &= m - 1) leads[n++] = Integer.numberOfTrailingZeros(m);
+                return n;
+            }
+
+            @Override
+            public boolean seatAware() { return false; }
+        }, 200, 1, 1L);
+        // the first of those deals, as LeadBook.build samples them
+        PlayState s = new PlayState();
+        SplittableRandom rnd = new SplittableRandom(1L);
+        DealSimulator.deal(rnd, DealSimulator.newDeck(), s, rnd.nextInt(4), 0);
+        booked = request(toCards(s.hand(0)), SUITS[s.trump()]);
+        try (LeadBook book = LeadBook.open(file)) {
+            assertEquals(LeadBook.LEADS, book.lookup(s.hand(0), s.trump(), 0, leads));
+        }
+        TrainerProperties props = new TrainerProperties();
+        props.getLeadBook().setFile(file.toString());
+        service = new LeadBookService(props, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void close() {
+        service.close();
+    }
+
+    @Test
+    void returnsUpToTopKRankedLeads() {
+        assertTrue(service.applies(booked, List.of()));
+        for (int topK : new int[]{1, 2, 3, 8}) {
+            InferenceService.Result result = service.pickBest(booked, List.of(), booked.getHand(), topK);
+            assertNotNull(result, "hand is booked");
+            List<BestCardResponse.Candidate> cands = result.getCandidates();
+            assertEquals(Math.min(topK, LeadBook.LEADS), cands.size(), "topK " + topK);
+            assertEquals(ALL_CARDS.get(leads[0]), result.getBestCard());
+            for (int i = 0; i < cands.size(); i++) {
+                assertEquals(ALL_CARDS.get(leads[i]), cands.get(i).getCard());
+                if (i > 0) assertTrue(cands.get(i).getScore() < cands.get(i - 1).getScore());
+            }
+        }
+    }
+
+    @Test
+    void handOutsideTheBookFallsThrough() {
+        BestCardRequest req = request(List.of("AC", "KC", "QC", "JC", "10C", "9C", "8C", "7C"), "H");
+        assertNull(service.pickBest(req, List.of(), req.getHand(), 3));
+    }
+
+    private static BestCardRequest request(List<String> hand, String trump) {
+        BestCardRequest req = new BestCardRequest();
+        req.setHand(hand);
+        req.setTrump(trump);
+        req.setPlayerPosition(0);
+        req.setLeaderPosition(0);
+        req.setPartnerPosition(2);
+        return req;
+    }
+}
@@ -0,0 +1,237 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** {@link ModelClient} against a local stub scoring server with injected latency and failures. */
+class ModelClientTest {
+    private static final List<String> LEGAL = List.of("AH", "KH", "7C");
+
+    private HttpServer server;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicLong lastTimeoutHeader = new AtomicLong();
+    // per request number (from 0): latency in ms, negative for a 500
+    private volatile IntUnaryOperator behaviour = n -> 0;
+    private ModelClient client;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1/score", exchange -> {
+            int n = hits.getAndIncrement();
+            String timeout = exchange.getRequestHeaders().getFirst(ModelClient.TIMEOUT_HEADER);
+            if (timeout != null) lastTimeoutHeader.set(Long.parseLong(timeout));
+            exchange.getRequestBody().readAllBytes();
+            int delay = behaviour.applyAsInt(n);
+            try {
+                Thread.sleep(Math.abs(delay));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"scores\":{\"AH\":0.2,\"KH\":0.7,\"7C\":0.1}}".getBytes(StandardCharsets.UTF_8);
+            if (delay < 0) {
+                exchange.sendResponseHeaders(500, -1);
+            } else {
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        if (client != null) client.close();
+        server.stop(0);
+    }
+
+    private ModelClient client(TrainerProperties.Model config) {
+        TrainerProperties props = new TrainerProperties();
+        config.setEnabled(true);
+        config.setUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v1/score");
+        props.setModel(config);
+        client = new ModelClient(props, new SimpleMeterRegistry());
+        return client;
+    }
+
+    private static BestCardRequest request() {
+        BestCardRequest req = new BestCardRequest();
+        req.setHand(LEGAL);
+        req.setTrump("H");
+        req.setRequestId("test");
+        return req;
+    }
+
+    private static long deadlineIn(long ms) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    @Test
+    void returnsScoresInCandidateOrderAndPassesTheDeadlineOn() {
+        ModelClient c = client(new TrainerProperties.Model());
+        double[] scores = c.scoreCandidates(request(), LEGAL, deadlineIn(2000)); // generous: the first call is cold
+        assertNotNull(scores);
+        assertEquals(0.7, scores[1], 1e-9);
+        assertTrue(lastTimeoutHeader.get() > 0 && lastTimeoutHeader.get() <= 2000, "timeout header " + lastTimeoutHeader.get());
+    }
+
+    @Test
+    void givesUpAtTheDeadline() {
+        behaviour = n -> n == 0 ? 0 : 500;
+        ModelClient c = client(new TrainerProperties.Model());
+        assertNotNull(c.scoreCandidates(request(), LEGAL, deadlineIn(2000))); // warm up
+        long start = System.nanoTime();
+        assertNull(c.scoreCandidates(request(), LEGAL, deadlineIn(100)));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(250));
+        assertNull(c.scoreCandidates(request(), LEGAL, deadlineIn(2)), "no call with less than minRemainingMs left");
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    void hedgesAnAttemptSlowerThanThePercentile() throws Exception {
+        TrainerProperties.Model config = new TrainerProperties.Model();
+        config.getHedge().setPercentile(90.0);
+        ModelClient c = client(config);
+        for (int i = 0; i < 30; i++) assertNotNull(c.scoreCandidates(request(), LEGAL, deadlineIn(2000)));
+        Thread.sleep(1100); // let the latency percentile refresh
+        assertNotNull(c.scoreCandidates(request(), LEGAL, deadlineIn(500)));
+
+        int slow = hits.get();
+        behaviour = n -> n == slow ? 400 : 0;
+        long start = System.nanoTime();
+        assertNotNull(c.scoreCandidates(request(), LEGAL, deadlineIn(500)));
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(ms < 200, "hedged answer took " + ms + " ms");
+        assertEquals(slow + 2, hits.get());
+    }
+
+    @Test
+    void opensTheCircuitAfterFailuresAndProbesAfterOpenMs() throws Exception {
+        behaviour = n -> -1;
+        TrainerProperties.Model config = new TrainerProperties.Model();
+        config.getHedge().setEnabled(false);
+        config.getCircuitBreaker().setWindow(4);
+        config.getCircuitBreaker().setMinimumCalls(4);
+        config.getCircuitBreaker().setOpenMs(200);
+        ModelClient c = client(config);
+        for (int i = 0; i < 4; i++) assertNull(c.scoreCandidates(request(), LEGAL, deadlineIn(2000)));
+        assertEquals(ModelClient.CircuitState.OPEN, c.circuitState());
+        assertNull(c.scoreCandidates(request(), LEGAL, deadlineIn(300)));
+        assertEquals(4, hits.get(), "no calls while open");
+
+        Thread.sleep(250);
+        behaviour = n -> 0;
+        assertNotNull(c.scoreCandidates(request(), LEGAL, deadlineIn(300)));
+        assertEquals(ModelClient.CircuitState.CLOSED, c.circuitState());
+    }
+
+    @Test
+    void refusesCallsBeyondTheBulkhead() throws Exception {
+        behaviour = n -> 300;
+        TrainerProperties.Model config = new TrainerProperties.Model();
+        config.setMaxConcurrent(2);
+        config.getHedge().setEnabled(false);
+        ModelClient c = client(config);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<double[]>> inFlight = List.of(
+                    callers.submit(() -> c.scoreCandidates(request(), LEGAL, deadlineIn(3000))),
+                    callers.submit(() -> c.scoreCandidates(request(), LEGAL, deadlineIn(3000))));
+            while (hits.get() < 2) Thread.sleep(5);
+            long start = System.nanoTime();
+            assertNull(c.scoreCandidates(request(), LEGAL, deadlineIn(3000)));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50), "refused without waiting");
+            for (Future<double[]> f : inFlight) assertNotNull(f.get());
+            assertEquals(2, hits.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    // two failing calls open the circuit for 200 ms
+    private static TrainerProperties.Model tripsAfterTwoFailures() {
+        TrainerProperties.Model config = new TrainerProperties.Model();
+        config.getHedge().setEnabled(false);
+        config.getCircuitBreaker().setWindow(2);
+        config.getCircuitBreaker().setMinimumCalls(2);
+        config.getCircuitBreaker().setOpenMs(200);
+        return config;
+    }
+
+    @Test
+    void doesNotCountBulkheadRefusalsAsBreakerFailures() throws Exception {
+        behaviour = n -> n == 0 ? 300 : 0;
+        TrainerProperties.Model config = tripsAfterTwoFailures();
+        config.setMaxConcurrent(1);
+        ModelClient c = client(config);
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        try {
+            Future<double[]> inFlight = callers.submit(() -> c.scoreCandidates(request(), LEGAL, deadlineIn(3000)));
+            while (hits.get() < 1) Thread.sleep(5);
+            for (int i = 0; i < 3; i++) assertNull(c.scoreCandidates(request(), LEGAL, deadlineIn(3000)));
+            assertEquals(ModelClient.CircuitState.CLOSED, c.circuitState());
+            assertNotNull(inFlight.get());
+            assertNotNull(c.scoreCandidates(request(), LEGAL, deadlineIn(3000)), "the slot is free again");
+            assertEquals(2, hits.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void checksTheDeadlineBeforeTakingTheProbe() throws Exception {
+        behaviour = n -> n < 2 ? -1 : 0;
+        ModelClient c = client(tripsAfterTwoFailures());
+        for (int i = 0; i < 2; i++) assertNull(c.scoreCandidates(request(), LEGAL, deadlineIn(2000)));
+        assertEquals(ModelClient.CircuitState.OPEN, c.circuitState());
+
+        Thread.sleep(250);
+        assertNull(c.scoreCandidates(request(), LEGAL, deadlineIn(2)));
+        assertEquals(ModelClient.CircuitState.OPEN, c.circuitState(), "a call skipped for its deadline is no probe");
+        assertNotNull(c.scoreCandidates(request(), LEGAL, deadlineIn(2000)));
+        assertEquals(ModelClient.CircuitState.CLOSED, c.circuitState());
+        assertEquals(3, hits.get());
+    }
+
+    @Test
+    void anInterruptedProbeGivesItsPermitBack() throws Exception {
+        behaviour = n -> n < 2 ? -1 : n == 2 ? 2000 : 0;
+        ModelClient c = client(tripsAfterTwoFailures());
+        for (int i = 0; i < 2; i++) assertNull(c.scoreCandidates(request(), LEGAL, deadlineIn(2000)));
+        Thread.sleep(250);
+
+        AtomicReference<double[]> probed = new AtomicReference<>(new double[0]);
+        Thread probe = new Thread(() -> probed.set(c.scoreCandidates(request(), LEGAL, deadlineIn(3000))));
+        probe.start();
+        while (hits.get() < 3) Thread.sleep(5);
+        probe.interrupt();
+        probe.join(1000);
+        assertNull(probed.get());
+        assertEquals(ModelClient.CircuitState.HALF_OPEN, c.circuitState());
+
+        assertNotNull(c.scoreCandidates(request(), LEGAL, deadlineIn(2000)), "the next call probes");
+        assertEquals(ModelClient.CircuitState.CLOSED, c.circuitState());
+    }
+}
@@ -0,0 +1,100 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardRequest;
+import nl.jvdkolk.klaversjassentrainer.api.BestCardResponse;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Card selection of {@link MonteCarloService} with heuristic rollouts. */
+class MonteCarloServiceTest {
+    private final LegalityService legality = new LegalityService();
+    private MonteCarloService monteCarlo;
+
+    @BeforeEach
+    void start() {
+        TrainerProperties props = new TrainerProperties();
+        props.getMonteCarlo().setParallelism(2);
+        props.getMonteCarlo().setMaxSamples(200);
+        props.getMonteCarlo().setTimeBudgetMs(2000);
+        // heuristic rollouts never ask the inference service for its network
+        monteCarlo = new MonteCarloService(props, null, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void stop() {
+        monteCarlo.shutdown();
+    }
+
+    @Test
+    void lastToPlayTakesTheTrickWithCertainty() {
+        // KH led, QH and 7H follow: AH takes the trick in every sample and 8H in none
+        BestCardRequest req = request(MonteCarloService.WIN_TRICK,
+                List.of("AH", "8H", "AC", "KC", "QD", "JD", "9S", "7S"), play(0, "KH"), play(1, "7H"), play(2, "QH"));
+        InferenceService.Result result = pick(req, 3);
+        assertEquals("AH", result.getBestCard());
+        assertEquals(1.0, result.getCandidates().get(0).getScore());
+        assertEquals("8H", result.getCandidates().get(1).getCard());
+        assertEquals(0.0, result.getCandidates().get(1).getScore());
+        assertEquals("monte-carlo-winTrick", result.getModel().get("name"));
+    }
+
+    @Test
+    void pointsCandidatesAreSortedAndCutToTopK() {
+        BestCardRequest req = request(MonteCarloService.POINTS,
+                List.of("KH", "10H", "8H", "JD", "AC", "QS", "9S", "7C"), play(1, "AH"), play(2, "7H"));
+        InferenceService.Result result = pick(req, 2);
+        List<BestCardResponse.Candidate> cands = result.getCandidates();
+        assertEquals(2, cands.size());
+        assertEquals(result.getBestCard(), cands.get(0).getCard());
+        assertTrue(cands.get(0).getScore() >= cands.get(1).getScore());
+        for (BestCardResponse.Candidate c : cands) {
+            assertTrue(List.of("KH", "10H", "8H").contains(c.getCard()), c.getCard());
+            assertTrue(c.getScore() >= 0 && c.getScore() <= 162, c.getCard() + " " + c.getScore());
+        }
+        assertEquals("200", result.getModel().get("samples"));
+    }
+
+    @Test
+    void tableInconsistentWithThePlayerToMoveIsNotSimulated() {
+        // two cards on the table after leader 1 puts seat 3 to move, not seat 0
+        BestCardRequest req = request(MonteCarloService.POINTS,
+                List.of("KH", "10H", "8H", "JD", "AC", "QS", "9S", "7C"), play(1, "AH"), play(2, "7H"));
+        req.setPlayerPosition(0);
+        req.setPartnerPosition(2);
+        assertNull(pick(req, 3));
+    }
+
+    private InferenceService.Result pick(BestCardRequest req, int topK) {
+        List<String> legal = legality.computeLegalCards(req.getHand(), req.getTable(), req.getTrump(),
+                req.getPartnerPosition(), req.getLeaderPosition());
+        return monteCarlo.pickBest(req, req.getTable(), legal, topK);
+    }
+
+    // the player to move follows the plays on the table; the partner sits opposite
+    private static BestCardRequest request(String scoringMode, List<String> hand, BestCardRequest.Play... table) {
+        BestCardRequest req = new BestCardRequest();
+        req.setHand(hand);
+        req.setTable(List.of(table));
+        req.setTrump("D");
+        req.setLeaderPosition(table[0].getPlayer());
+        req.setPlayerPosition((table[0].getPlayer() + table.length) & 3);
+        req.setPartnerPosition((req.getPlayerPosition() + 2) & 3);
+        req.setScoringMode(scoringMode);
+        req.setRequestId("test");
+        return req;
+    }
+
+    private static BestCardRequest.Play play(int player, String card) {
+        BestCardRequest.Play p = new BestCardRequest.Play();
+        p.setPlayer(player);
+        p.setCard(card);
+        return p;
+    }
+}
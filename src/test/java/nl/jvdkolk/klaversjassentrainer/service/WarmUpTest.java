@@ -0,0 +1,92 @@
+package nl.jvdkolk.klaversjassentrainer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.search.SharedDecisionCache;
+import nl.jvdkolk.klaversjassentrainer.train.NeuralNetwork;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.ALL_CARDS;
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.SUITS;
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The warm-up must reach the model even when the shared decision cache already knows its positions. */
+class WarmUpTest {
+    private static final int POSITIONS = 50;
+
+    @TempDir
+    Path dir;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final LegalityService legality = new LegalityService();
+    private DecisionCacheService cache;
+    private InferenceService inference;
+    private WarmUp warmUp;
+
+    @BeforeEach
+    void start() throws Exception {
+        Path model = dir.resolve("model.txt");
+        new NeuralNetwork(ALL_CARDS.size() + 4 * ALL_CARDS.size() + SUITS.length, 16, ALL_CARDS.size(), 1L).save(model);
+        TrainerProperties props = new TrainerProperties();
+        props.getTraining().setModelFile(model.toString());
+        props.getTraining().setCompiledModel(false);
+        props.getStartup().setBackgroundModelLoad(false);
+        props.getStartup().setWarmUpIterations(POSITIONS);
+        props.getLeadBook().setEnabled(false);
+        props.getEndgame().setTablebaseFile("");
+        props.getDecisionCache().setFile(dir.resolve("decisions.kjdc").toString());
+        props.getDecisionCache().setMegabytes(1);
+        cache = new DecisionCacheService(props, registry);
+        inference = new InferenceService(props, new EndgameService(props, registry), new LeadBookService(props, registry),
+                new ModelClient(props, registry), cache);
+        assertNotNull(inference.getNetwork());
+        warmUp = new WarmUp(props, legality, inference, new BestCardMetrics(registry, inference, props), null);
+    }
+
+    @AfterEach
+    void close() {
+        cache.close();
+    }
+
+    @Test
+    void warmUpScoresWithTheModelWhenItsPositionsAreCached() {
+        // a previous start (or another instance) left every warm-up position in the cache
+        WarmUp.Positions positions = new WarmUp.Positions(legality);
+        StageTimings timings = new StageTimings();
+        int scored = 0;
+        for (int i = 0; i < POSITIONS; i++) {
+            WarmUp.Position p = positions.next();
+            if (p.legal().isEmpty()) continue;
+            inference.pickBest(p.hand(), p.table(), p.trump(), p.legal(), SharedDecisionCache.TOP_K, timings);
+            inference.pickBest(p.hand(), p.table(), p.trump(), p.legal(), SharedDecisionCache.TOP_K, timings);
+            assertEquals(StageTimings.Tier.CACHE, timings.tier(), "position " + i + " is cached");
+            scored++;
+        }
+        SharedDecisionCache.Stats before = cache.stats();
+        assertEquals(scored, before.hits());
+
+        assertEquals(POSITIONS, warmUp.warmUp(Long.MAX_VALUE));
+
+        SharedDecisionCache.Stats after = cache.stats();
+        assertEquals(before.lookups(), after.lookups(), "warm-up read the cache");
+        assertEquals(before.stores(), after.stores(), "warm-up wrote the cache");
+    }
+
+    @Test
+    void pickWithModelBypassesACachedDecision() {
+        WarmUp.Position p = new WarmUp.Positions(legality).next();
+        StageTimings timings = new StageTimings();
+        InferenceService.Result cached = inference.pickBest(p.hand(), p.table(), p.trump(), p.legal(), 1, timings);
+        inference.pickBest(p.hand(), p.table(), p.trump(), p.legal(), 1, timings);
+        assertEquals(StageTimings.Tier.CACHE, timings.tier());
+
+        InferenceService.Result direct = inference.pickWithModel(p.hand(), p.table(), p.trump(), p.legal(), 1, timings);
+        assertEquals(StageTimings.Tier.MODEL, timings.tier());
+        assertEquals(cached.getBestCard(), direct.getBestCard());
+    }
+}
@@ -0,0 +1,71 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import nl.jvdkolk.klaversjassentrainer.eval.Evaluator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void checkpointReadsBackWhatWasWritten() throws IOException {
+        NeuralNetwork nn = new NeuralNetwork(6, 4, 3, 7L);
+        Evaluator.Evaluation best = new Evaluator.Evaluation(500, 0.61, 0.99, 0.03, 1.25, 0L);
+        Checkpointer.State written = Checkpointer.State.of(12, 0.0123, 99L, 3000L, 2900L, nn).withBest(10, best);
+        Checkpointer.write(dir, written);
+
+        Checkpointer.State read = Checkpointer.latest(dir);
+        assertNotNull(read);
+        assertEquals(12, read.generation());
+        assertEquals(0.0123, read.learningRate());
+        assertEquals(99L, read.seed());
+        assertEquals(3000L, read.totalSamples());
+        assertEquals(2900L, read.usedSamples());
+        assertArrayEquals(written.parameters(), read.parameters());
+        assertEquals(10, read.bestGeneration());
+        assertEquals(best, read.best());
+
+        double[] x = {1, 0, 0, 1, 0, 1};
+        assertArrayEquals(nn.forward(x), read.network().forward(x));
+    }
+
+    @Test
+    void checkpointWithoutEvaluationHasNoBest() throws IOException {
+        Checkpointer.write(dir, Checkpointer.State.of(1, 0.01, 1L, 10L, 9L, new NeuralNetwork(6, 4, 3, 7L)));
+
+        Checkpointer.State read = Checkpointer.latest(dir);
+        assertEquals(-1, read.bestGeneration());
+        assertNull(read.best());
+    }
+
+    @Test
+    void latestSkipsCorruptAndTruncatedCheckpoints() throws IOException {
+        NeuralNetwork nn = new NeuralNetwork(6, 4, 3, 7L);
+        Checkpointer.write(dir, Checkpointer.State.of(5, 0.01, 1L, 50L, 50L, nn));
+        Path flipped = Checkpointer.write(dir, Checkpointer.State.of(6, 0.01, 1L, 60L, 60L, nn));
+        Path truncated = Checkpointer.write(dir, Checkpointer.State.of(7, 0.01, 1L, 70L, 70L, nn));
+
+        byte[] bytes = Files.readAllBytes(flipped);
+        bytes[bytes.length / 2] ^= 0x10;
+        Files.write(flipped, bytes);
+        byte[] full = Files.readAllBytes(truncated);
+        Files.write(truncated, Arrays.copyOf(full, full.length - 9));
+
+        assertEquals(5, Checkpointer.latest(dir).generation());
+    }
+
+    @Test
+    void emptyOrMissingDirectoryHasNoCheckpoint() throws IOException {
+        assertNull(Checkpointer.latest(dir));
+        assertNull(Checkpointer.latest(dir.resolve("missing")));
+    }
+}
@@ -0,0 +1,41 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import nl.jvdkolk.klaversjassentrainer.game.PlayState;
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
+import org.junit.jupiter.api.Test;
+
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.ALL_CARDS;
+import static nl.jvdkolk.klaversjassentrainer.train.CardUtil.SUITS;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DistillerTest {
+
+    @Test
+    void statesAreThePositionsOfTheGenerator() {
+        NeuralNetwork teacher = new NeuralNetwork(ALL_CARDS.size() + 4 * ALL_CARDS.size() + SUITS.length, 8, ALL_CARDS.size(), 5L);
+        PositionGenerator.Stages stages = new PositionGenerator.Stages(
+                new double[]{0, 0, 1, 1, 0, 0, 0, 1}, new double[]{1, 0, 1, 1});
+        Distiller.States states = Distiller.States.random(300, 9L, stages, teacher, 2.0);
+
+        PositionGenerator positions = new PositionGenerator(9L, stages);
+        double[] x = new double[teacher.getInputSize()];
+        double[] expected = new double[teacher.getInputSize()];
+        double[] target = new double[teacher.getOutputSize()];
+        boolean[] allowed = new boolean[teacher.getOutputSize()];
+        for (int i = 0; i < states.size(); i++) {
+            PlayState position = positions.next();
+            CardUtil.encodeInto(expected, positions.hand(), position.trick(), position.trickSize(), position.trump());
+            states.encode(i, x);
+            assertArrayEquals(expected, x, "state " + i);
+
+            states.target(i, target, allowed);
+            double sum = 0;
+            for (int c = 0; c < target.length; c++) {
+                assertEquals((positions.hand() >>> c & 1) != 0, allowed[c]);
+                if (!allowed[c]) assertEquals(0.0, target[c]);
+                sum += target[c];
+            }
+            assertEquals(1.0, sum, 1e-5, "state " + i);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import nl.jvdkolk.klaversjassentrainer.game.PositionGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SampleSetTest {
+
+    private static final PositionGenerator.Stages LATE = new PositionGenerator.Stages(
+            new double[]{1, 1, 1, 0, 0, 0, 0, 0}, new double[]{1, 1, 1, 1});
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+    private final FirstCardTeacher teacher = new FirstCardTeacher();
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void setRecordsItsStagesAndIsReusedForTheSameStages() throws Exception {
+        Path file = dir.resolve("samples.kjss");
+        try (SampleSet set = SampleSet.openOrCollect(file, 40, 1L, LATE, teacher, pool)) {
+            assertEquals(40, set.size());
+            assertEquals(LATE, set.stages());
+            assertEquals(Integer.numberOfTrailingZeros(set.hand(0)), set.label(0));
+        }
+        try (SampleSet set = SampleSet.openOrCollect(file, 40, 1L,
+                new PositionGenerator.Stages(new double[]{1, 1, 1, 0, 0, 0, 0, 0}, new double[]{1, 1, 1, 1}), teacher, pool)) {
+            assertEquals(40, set.size());
+        }
+        assertEquals(40, teacher.calls.get());
+    }
+
+    @Test
+    void setDrawnWithOtherStagesIsCollectedAgain() throws Exception {
+        Path file = dir.resolve("samples.kjss");
+        SampleSet.openOrCollect(file, 30, 1L, LATE, teacher, pool).close();
+
+        try (SampleSet set = SampleSet.openOrCollect(file, 20, 1L, PositionGenerator.Stages.UNIFORM, teacher, pool)) {
+            assertEquals(20, set.size());
+            assertEquals(PositionGenerator.Stages.UNIFORM, set.stages());
+        }
+        assertEquals(50, teacher.calls.get());
+    }
+
+    /** Labels every position with the lowest card in hand, without calling out. */
+    private static final class FirstCardTeacher extends ExternalCalcApiClient {
+        final AtomicInteger calls = new AtomicInteger();
+
+        FirstCardTeacher() {
+            super(null, new TrainerProperties());
+        }
+
+        @Override
+        public String fetchBestCard(List<String> currentTrick, String trumpSuit, List<String> hand) {
+            calls.incrementAndGet();
+            return hand.getFirst();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import nl.jvdkolk.klaversjassentrainer.config.TrainerProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SelfPlayTrainerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rejectsANonPositivePublishIntervalBeforeStarting() {
+        TrainerProperties props = new TrainerProperties();
+        props.getTraining().getSelfPlay().setPublishEvery(0);
+        Path model = dir.resolve("model.txt");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new SelfPlayTrainer(props).run(model));
+        assertTrue(e.getMessage().contains("publishEvery"), e.getMessage());
+        assertFalse(Files.exists(model), "nothing is trained or saved");
+    }
+}
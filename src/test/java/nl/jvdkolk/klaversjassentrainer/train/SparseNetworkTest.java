@@ -0,0 +1,33 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SparseNetworkTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void saveReplacesTheModelWithoutLeavingATempFile() throws Exception {
+        Path file = dir.resolve("student.txt");
+        Files.writeString(file, "previous model");
+        SparseNetwork sparse = SparseNetwork.of(new NeuralNetwork(20, 6, 8, 3L));
+        sparse.save(file);
+
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count(), "only the model is left");
+        }
+        PolicyNetwork loaded = PolicyNetwork.load(file);
+        assertInstanceOf(SparseNetwork.class, loaded);
+        double[] x = new double[20];
+        x[2] = 1.0;
+        x[11] = 1.0;
+        assertArrayEquals(sparse.forward(x), loaded.forward(x), 1e-5);
+    }
+}
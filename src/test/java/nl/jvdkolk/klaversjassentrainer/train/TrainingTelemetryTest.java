@@ -0,0 +1,43 @@
+package nl.jvdkolk.klaversjassentrainer.train;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrainingTelemetryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void failedTeacherCallsAreTimedAndCountedApart() throws Exception {
+        Path report;
+        try (TrainingTelemetry telemetry = TrainingTelemetry.open(dir.resolve("model.txt"), Map.of("generations", 2))) {
+            report = telemetry.reportPath();
+            telemetry.recordTeacherCall(2_000_000L, false);
+            telemetry.recordTeacherCall(5_000_000_000L, true); // a timeout
+            telemetry.skip(TrainingTelemetry.SkipReason.EXCEPTION);
+            TrainingTelemetry.GenerationStats first = telemetry.endGeneration(1, 1, 1, 0.01, 1L, 1L);
+            assertEquals(2, first.teacherCalls());
+            assertEquals(1, first.teacherFailures());
+            assertTrue(first.teacherMaxUs() >= 4_990_000L, "slow failure is in the latency: " + first.teacherMaxUs());
+
+            telemetry.recordTeacherCall(1_000_000L, false);
+            TrainingTelemetry.GenerationStats second = telemetry.endGeneration(2, 1, 0, 0.01, 1L, 1L);
+            assertEquals(1, second.teacherCalls());
+            assertEquals(0, second.teacherFailures());
+            telemetry.finish(3, 2, 1L);
+        }
+        List<String> lines = Files.readAllLines(report);
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(1).contains("\"teacherCalls\":2,\"teacherFailures\":1"), lines.get(1));
+        assertTrue(lines.get(2).contains("\"teacherCalls\":1,\"teacherFailures\":0"), lines.get(2));
+        assertTrue(lines.get(3).contains("\"teacherCalls\":3,\"teacherFailures\":1"), lines.get(3));
+    }
+}